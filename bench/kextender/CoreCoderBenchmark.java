@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Microbenchmarks of core encoding, comparison and hashing and of PairMer
+ * construction, on a fixed sample of cores from the synthetic sequence. Scores
+ * are per core.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CoreCoderBenchmark {
+
+    static final int CORES = 1 << 16;
+
+    private String[] cores;
+    private long[][] encoded;
+    private String sequence;
+    private int k;
+
+    @Setup
+    public void sample(SyntheticSequence synthetic) {
+        if (synthetic.kmers < CORES + 1) {
+            throw new IllegalArgumentException("sequenceLength must give at least " + (CORES + 1) + " k-mers");
+        }
+        sequence = synthetic.sequence;
+        k = synthetic.k;
+        cores = new String[CORES + 1];
+        encoded = new long[CORES + 1][];
+        for (int i = 0; i < cores.length; i++) {
+            cores[i] = sequence.substring(i, i + k - 1);
+            encoded[i] = CoreCoder.encodeCoreLongArray(cores[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORES)
+    public void encode(Blackhole blackhole) {
+        for (int i = 0; i < CORES; i++) {
+            blackhole.consume(CoreCoder.encodeCoreLongArray(cores[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORES)
+    public void pairmer(Blackhole blackhole) throws NonACGTException {
+        for (int i = 0; i < CORES; i++) {
+            blackhole.consume(PairMerTypeSelector.generatePairMer(sequence, i, i + k - 1, true, 1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORES)
+    public void compare(Blackhole blackhole) {
+        for (int i = 0; i < CORES; i++) {
+            blackhole.consume(CoreCoder.compareCores(encoded[i], encoded[i + 1]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORES)
+    public void hash(Blackhole blackhole) {
+        for (int i = 0; i < CORES; i++) {
+            blackhole.consume(CoreCoder.computeHash(encoded[i]));
+        }
+    }
+}
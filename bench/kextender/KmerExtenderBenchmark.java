@@ -0,0 +1,349 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import argparser.ArgParser;
+import argparser.Opt;
+import argparser.OptSet;
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import shared.Reporter;
+import shared.StdRedirect;
+
+/**
+ * Runs the JMH benchmarks of kextend core data structures (CoreCoderBenchmark,
+ * PairMersMapBenchmark) on a synthetic, reproducible (seeded) sequence, with
+ * repeats inserted so that the de Bruijn graph branches.
+ *
+ * Map population is benchmarked at 1, 2, 4... up to the maximum number of
+ * threads. Throughput is reported per core for the microbenchmarks and per
+ * k-mer of the sequence for the map benchmarks, along with heap bytes per
+ * k-mer retained by a populated map. Results can be checked against an
+ * earlier output to fail on regressions. Any other JMH usage is available
+ * with java -cp yakat-bench.jar org.openjdk.jmh.Main
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class KmerExtenderBenchmark {
+
+    private static final String[] BENCHMARKS = {"encode", "pairmer", "compare", "hash", "populate", "populate-table", "get", "purge", "extend"};
+    private static final String[] METHODS = {"CoreCoderBenchmark.encode", "CoreCoderBenchmark.pairmer", "CoreCoderBenchmark.compare", "CoreCoderBenchmark.hash",
+        "PairMersMapBenchmark.populate", "PairMersMapBenchmark.populateTable", "PairMersMapBenchmark.get", "PairMersMapBenchmark.purge", "PairMersMapBenchmark.extend"};
+
+    private final String TOOL_NAME;
+    private final int HELP_WIDTH = 140;
+    private final ArrayList<Result> results = new ArrayList<>();
+
+    private static class Result {
+
+        private final String benchmark;
+        private final int k;
+        private final int threads;
+        private final double opsPerSecond;
+        private final double bytesPerKmer;
+
+        Result(String benchmark, int k, int threads, double opsPerSecond, double bytesPerKmer) {
+            this.benchmark = benchmark;
+            this.k = k;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerKmer = bytesPerKmer;
+        }
+
+        String getKey() {
+            return benchmark + "\t" + k + "\t" + threads;
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "\t" + String.format("%.1f", opsPerSecond) + "\t" + (Double.isNaN(bytesPerKmer) ? "NA" : String.format("%.1f", bytesPerKmer));
+        }
+    }
+
+    /**
+     * Not part of yakat.jar, built separately into yakat-bench.jar with 'ant
+     * bench', run as java -jar yakat-bench.jar [kbench] [options]
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0 || !args[0].matches("(k)?bench(mark)?")) { //MODULE NAME EXPECTED FIRST, AS WHEN DISPATCHED BY yakat
+            String[] moduleArgs = new String[args.length + 1];
+            moduleArgs[0] = "kbench";
+            System.arraycopy(args, 0, moduleArgs, 1, args.length);
+            args = moduleArgs;
+        }
+        new KmerExtenderBenchmark(args, "yakat-bench", "kbench");
+    }
+
+    public KmerExtenderBenchmark(String[] args, String callerName, String toolName) {
+        TOOL_NAME = callerName + " " + toolName;
+        OptSet optSet = populateOptSet();
+        ArgParser argParser = new ArgParser();
+        argParser.processArgs(args, optSet, true, callerName, HELP_WIDTH);
+        new StdRedirect(optSet, TOOL_NAME, StdRedirect.RedirectType.REDIRECT_ERR);
+        if (optSet.getOpt("P").isUsed()) {
+            optSet.printUserSettings(TOOL_NAME);
+        }
+        SyntheticSequence synthetic = new SyntheticSequence();
+        synthetic.k = (int) optSet.getOpt("k").getValueOrDefault();
+        synthetic.sequenceLength = (int) optSet.getOpt("sequence-length").getValueOrDefault();
+        synthetic.repeats = (int) optSet.getOpt("repeats").getValueOrDefault();
+        synthetic.seed = (int) optSet.getOpt("seed").getValueOrDefault();
+        int maxThreads = (int) optSet.getOpt("t").getValueOrDefault();
+        List<String> selected = Arrays.asList(BENCHMARKS);
+        if (optSet.getOpt("b").isUsed()) {
+            selected = new ArrayList<>();
+            for (Object benchmark : optSet.getOpt("b").getValues()) {
+                if (!Arrays.asList(BENCHMARKS).contains(benchmark.toString())) {
+                    Reporter.report("[ERROR]", "Unknown benchmark: " + benchmark + ", available: " + String.join(",", BENCHMARKS), TOOL_NAME);
+                    System.exit(1);
+                }
+                selected.add(benchmark.toString());
+            }
+        }
+        if (synthetic.sequenceLength < 2 * synthetic.k) {
+            Reporter.report("[ERROR]", "sequence-length must be at least 2k", TOOL_NAME);
+            System.exit(1);
+        }
+        if (selected.contains("populate-table") && synthetic.k - 1 > 64) {
+            Reporter.report("[WARNING]", "PairMers table only available for k <= 65, skipping populate-table", TOOL_NAME);
+            selected = new ArrayList<>(selected);
+            selected.remove("populate-table");
+        }
+        synthetic.generate();
+        Reporter.report("[INFO]", "Benchmarking on " + NumberFormat.getIntegerInstance().format(synthetic.sequenceLength) + " bp sequence, k=" + synthetic.k, TOOL_NAME);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .param("k", String.valueOf(synthetic.k))
+                .param("sequenceLength", String.valueOf(synthetic.sequenceLength))
+                .param("repeats", String.valueOf(synthetic.repeats))
+                .param("seed", String.valueOf(synthetic.seed))
+                .warmupIterations((int) optSet.getOpt("warmup").getValueOrDefault())
+                .measurementIterations((int) optSet.getOpt("iterations").getValueOrDefault())
+                .warmupTime(TimeValue.seconds((int) optSet.getOpt("iteration-time").getValueOrDefault()))
+                .measurementTime(TimeValue.seconds((int) optSet.getOpt("iteration-time").getValueOrDefault()))
+                .forks((int) optSet.getOpt("forks").getValueOrDefault())
+                .shouldFailOnError(true);
+        //POPULATION SCALING AT 1, 2, 4... THREADS, EVERYTHING ELSE ONCE, MAPS POPULATED ON ALL THREADS
+        ArrayList<String> threadCounts = new ArrayList<>();
+        for (int t = 1; t < maxThreads; t *= 2) {
+            threadCounts.add(String.valueOf(t));
+        }
+        threadCounts.add(String.valueOf(maxThreads));
+        ArrayList<String> scaling = new ArrayList<>();
+        ArrayList<String> single = new ArrayList<>();
+        for (String benchmark : selected) {
+            (benchmark.startsWith("populate") ? scaling : single).add(benchmark);
+        }
+        try {
+            if (!scaling.isEmpty()) {
+                run(options.build(), scaling, threadCounts.toArray(new String[threadCounts.size()]), synthetic);
+            }
+            if (!single.isEmpty()) {
+                run(options.build(), single, new String[]{String.valueOf(maxThreads)}, synthetic);
+            }
+        } catch (RunnerException e) {
+            Reporter.report("[ERROR]", "Benchmark failed: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        for (String benchmark : scaling) {
+            double bytesPerKmer = measureBytesPerKmer(synthetic, benchmark.equals("populate-table"), maxThreads);
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                if (result.benchmark.equals(benchmark) && result.threads == maxThreads) {
+                    results.set(i, new Result(benchmark, result.k, result.threads, result.opsPerSecond, bytesPerKmer));
+                }
+            }
+        }
+        writeResults((String) optSet.getOpt("o").getValueOrDefault());
+        if (optSet.getOpt("baseline").isUsed()) {
+            if (!checkAgainstBaseline((String) optSet.getOpt("baseline").getValueOrDefault(), (double) optSet.getOpt("max-regression").getValueOrDefault())) {
+                System.exit(1);
+            }
+        }
+        Reporter.report("[INFO]", "Done!", TOOL_NAME);
+    }
+
+    private OptSet populateOptSet() {
+        OptSet optSet = new OptSet("Benchmark kextend core data structures on a synthetic sequence using JMH. Reports throughput (operations per second) "
+                + "and, for map population, heap bytes per k-mer");
+        optSet.setListingGroupLabel("[Benchmark settings]");
+        optSet.addOpt(new Opt('k', "k-mer-length", "k-mer length", 31, 4, 2048));
+        optSet.addOpt(new Opt('b', "benchmarks", "Run only these benchmarks, any of: " + String.join(", ", BENCHMARKS)).setMinValueArgs(1).setMaxValueArgs(BENCHMARKS.length));
+        optSet.addOpt(new Opt(null, "sequence-length", "Length of the synthetic sequence k-mers are taken from", 1000000, 64, Integer.MAX_VALUE - 8));
+        optSet.addOpt(new Opt(null, "repeats", "Number of copies of a 2k bp repeat inserted into the sequence, each creating branching nodes", 100, 0, Integer.MAX_VALUE));
+        optSet.addOpt(new Opt(null, "seed", "Random seed for generating the sequence", 1, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        optSet.addOpt(new Opt(null, "warmup", "Number of JMH warm-up iterations per benchmark", 3, 0, 1000));
+        optSet.addOpt(new Opt(null, "iterations", "Number of JMH measured iterations per benchmark", 5, 1, 1000));
+        optSet.addOpt(new Opt(null, "iteration-time", "Minimum duration of each JMH iteration in seconds", 2, 1, 3600));
+        optSet.addOpt(new Opt(null, "forks", "Number of JMH forks per benchmark, 0 to run in this JVM", 1, 0, 100));
+        int procs = Runtime.getRuntime().availableProcessors();
+        optSet.addOpt(new Opt('t', "threads", "Maximum number of threads, map population is benchmarked at 1, 2, 4... up to <arg> threads, "
+                + "maps for other benchmarks are populated and purged on <arg> threads", procs, 1, procs));
+
+        optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Output settings]");
+        optSet.addOpt(new Opt('o', "out-file", "Print results to <arg> file", 1).setDefaultValue("/dev/stdout"));
+        optSet.addOpt(new Opt(null, "baseline", "Compare throughput with results in <arg> file (earlier output of this module) "
+                + "and exit with an error if any benchmark regressed", 1));
+        optSet.addOpt(new Opt(null, "max-regression", "Fraction of baseline throughput a benchmark may lose before it is considered a regression", 0.1, 0.0, 1.0));
+        optSet.addOpt(new Opt('e', "stderr-redirect", "Redirect stderr to this file", 1));
+        optSet.addOpt(new Opt('P', "print-user-settings", "Print the list of user-settings to stderr and continue executing"));
+        return optSet;
+    }
+
+    /**
+     * Run selected benchmarks with JMH and record their throughput, map
+     * benchmark scores (passes over the sequence per second) are converted to
+     * k-mers per second
+     *
+     * @param options
+     * @param benchmarks
+     * @param threadCounts values of PairMersMapBenchmark threads parameter
+     * @param synthetic
+     * @throws RunnerException
+     */
+    private void run(org.openjdk.jmh.runner.options.Options options, List<String> benchmarks, String[] threadCounts, SyntheticSequence synthetic) throws RunnerException {
+        StringBuilder include = new StringBuilder();
+        for (String benchmark : benchmarks) {
+            include.append(include.length() == 0 ? "" : "|").append(METHODS[Arrays.asList(BENCHMARKS).indexOf(benchmark)]);
+        }
+        Collection<RunResult> runResults = new Runner(new OptionsBuilder()
+                .parent(options)
+                .include("^kextender\\.(" + include.toString().replace(".", "\\.") + ")$")
+                .param("threads", threadCounts)
+                .build()).run();
+        for (RunResult runResult : runResults) {
+            String method = runResult.getParams().getBenchmark().replaceFirst("^kextender\\.", "");
+            String benchmark = BENCHMARKS[Arrays.asList(METHODS).indexOf(method)];
+            String threads = runResult.getParams().getParam("threads");
+            double score = runResult.getPrimaryResult().getScore();
+            if (method.startsWith("PairMersMapBenchmark")) {
+                score *= synthetic.kmers;
+            }
+            Result result = new Result(benchmark, synthetic.k, threads == null ? 1 : Integer.parseInt(threads), score, Double.NaN);
+            results.add(result);
+            Reporter.report("[INFO]", "Finished " + benchmark + " at " + result.threads + " thread(s): "
+                    + NumberFormat.getIntegerInstance().format(result.opsPerSecond) + " ops/s", TOOL_NAME);
+        }
+    }
+
+    /**
+     * Heap retained by a populated map, divided by the number of k-mers added
+     *
+     * @param synthetic
+     * @param table
+     * @param threads
+     * @return
+     */
+    private double measureBytesPerKmer(SyntheticSequence synthetic, boolean table, int threads) {
+        gc(3, 200);
+        Runtime runtime = Runtime.getRuntime();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        PairMersMap pairMersMap = synthetic.newPairMersMap(table);
+        try {
+            synthetic.populate(pairMersMap, threads);
+        } catch (InterruptedException | ExecutionException e) {
+            Reporter.report("[ERROR]", "Populating map failed: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        gc(3, 200);
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        if (pairMersMap.size() == 0) { //KEEPS THE MAP REACHABLE UNTIL MEASURED
+            return Double.NaN;
+        }
+        return (double) (after - before) / synthetic.kmers;
+    }
+
+    private void writeResults(String outFile) {
+        try (PrintWriter out = new PrintWriter(outFile)) {
+            out.println("#benchmark\tk\tthreads\tops_per_s\tbytes_per_k-mer");
+            for (Result result : results) {
+                out.println(result);
+            }
+        } catch (FileNotFoundException e) {
+            Reporter.report("[ERROR]", "Failed writing results: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+    }
+
+    /**
+     *
+     * @param fileName
+     * @param maxRegression
+     * @return false if any benchmark present in both regressed by more than
+     * maxRegression
+     */
+    private boolean checkAgainstBaseline(String fileName, double maxRegression) {
+        HashMap<String, Double> baseline = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                baseline.put(fields[0] + "\t" + fields[1] + "\t" + fields[2], Double.parseDouble(fields[3]));
+            }
+        } catch (IOException | RuntimeException e) {
+            Reporter.report("[ERROR]", "Failed reading baseline " + fileName + ": " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        boolean passed = true;
+        int compared = 0;
+        for (Result result : results) {
+            Double before = baseline.get(result.getKey());
+            if (before == null) {
+                continue;
+            }
+            compared++;
+            if (result.opsPerSecond < before * (1 - maxRegression)) {
+                passed = false;
+                Reporter.report("[ERROR]", "Regression in " + result.benchmark + " (k=" + result.k + ", threads=" + result.threads + "): "
+                        + NumberFormat.getIntegerInstance().format(result.opsPerSecond) + " ops/s, baseline "
+                        + NumberFormat.getIntegerInstance().format(before) + " ops/s", TOOL_NAME);
+            }
+        }
+        Reporter.report(passed ? "[INFO]" : "[ERROR]", compared + " benchmark(s) compared with baseline, " + (passed ? "no" : "some") + " regressions", TOOL_NAME);
+        return passed;
+    }
+
+    private void gc(int iterations, int sleep) {
+        for (int i = 0; i < iterations; i++) {
+            System.gc();
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException ex) {
+            }
+        }
+    }
+}
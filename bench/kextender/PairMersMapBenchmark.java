@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * PairMersMap population (skip-list and packed table backed), lookup, purging
+ * and ConnectedPairMers traversal. One operation is a pass over all k-mers of
+ * the synthetic sequence, the maps are rebuilt before each pass which modifies
+ * them.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PairMersMapBenchmark {
+
+    @Param({"1"})
+    public int threads;
+
+    private SyntheticSequence synthetic;
+    private ForkJoinPool purgePool;
+
+    @Setup(Level.Trial)
+    public void setUpTrial(SyntheticSequence synthetic) {
+        this.synthetic = synthetic;
+        purgePool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() {
+        purgePool.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class FreshMap {
+
+        PairMersMap pairMersMap;
+
+        @Setup(Level.Invocation)
+        public void setUp(SyntheticSequence synthetic) {
+            pairMersMap = synthetic.newPairMersMap(false);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FreshTable {
+
+        PairMersMap pairMersMap;
+
+        @Setup(Level.Invocation)
+        public void setUp(SyntheticSequence synthetic) {
+            if (synthetic.k - 1 > 64) {
+                throw new IllegalArgumentException("PairMers table only available for k <= 65");
+            }
+            pairMersMap = synthetic.newPairMersMap(true);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class LookupMap {
+
+        PairMersMap pairMersMap; //SHARED BY ALL get() PASSES
+
+        @Setup(Level.Trial)
+        public void setUp(SyntheticSequence synthetic, PairMersMapBenchmark benchmark) throws InterruptedException, ExecutionException {
+            pairMersMap = synthetic.newPairMersMap(false);
+            synthetic.populate(pairMersMap, benchmark.threads);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PopulatedMap {
+
+        PairMersMap pairMersMap;
+
+        @Setup(Level.Invocation)
+        public void setUp(SyntheticSequence synthetic, PairMersMapBenchmark benchmark) throws InterruptedException, ExecutionException {
+            pairMersMap = synthetic.newPairMersMap(false);
+            synthetic.populate(pairMersMap, benchmark.threads);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PurgedMap {
+
+        PairMersMap pairMersMap;
+
+        @Setup(Level.Invocation)
+        public void setUp(SyntheticSequence synthetic, PairMersMapBenchmark benchmark) throws InterruptedException, ExecutionException {
+            pairMersMap = synthetic.newPairMersMap(false);
+            synthetic.populate(pairMersMap, benchmark.threads);
+            pairMersMap.purge(1);
+        }
+    }
+
+    @Benchmark
+    public long populate(FreshMap fresh) throws InterruptedException, ExecutionException {
+        return synthetic.populate(fresh.pairMersMap, threads);
+    }
+
+    @Benchmark
+    public long populateTable(FreshTable fresh) throws InterruptedException, ExecutionException {
+        return synthetic.populate(fresh.pairMersMap, threads);
+    }
+
+    @Benchmark
+    public long get(LookupMap lookup) throws NonACGTException {
+        long found = 0;
+        String sequence = synthetic.sequence;
+        int k = synthetic.k;
+        for (int i = 0; i < synthetic.kmers; i++) {
+            if (lookup.pairMersMap.get(sequence.subSequence(i, i + k - 1), k) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long purge(PopulatedMap populated) {
+        return purgePool.invoke(new PairMersMapPurgeTask(populated.pairMersMap, 1));
+    }
+
+    @Benchmark
+    public long extend(PurgedMap purged) {
+        long traversed = 0;
+        Iterator<PairMer> it = purged.pairMersMap.iterator();
+        while (it.hasNext()) {
+            PairMer pairMer = it.next();
+            if (!pairMer.isVisited()) {
+                ConnectedPairMers connectedPairMers = new ConnectedPairMers();
+                connectedPairMers.connectPairMers(pairMer, synthetic.k, purged.pairMersMap, PairMer.NOT_VISITED + 1, null);
+                traversed += connectedPairMers.size();
+            }
+        }
+        return traversed;
+    }
+}
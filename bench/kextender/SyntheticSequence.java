@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reproducible (seeded) synthetic sequence shared by the kextend benchmarks: a
+ * random sequence with copies of a random 2k bp repeat inserted, so that the
+ * de Bruijn graph branches. Every k-mer of the sequence is added to the maps.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+@State(Scope.Benchmark)
+public class SyntheticSequence {
+
+    @Param({"31"})
+    public int k;
+
+    @Param({"1000000"})
+    public int sequenceLength;
+
+    @Param({"100"})
+    public int repeats;
+
+    @Param({"1"})
+    public long seed;
+
+    public String sequence;
+    public int kmers;
+
+    @Setup
+    public void generate() {
+        if (sequenceLength < 2 * k) {
+            throw new IllegalArgumentException("sequenceLength must be at least 2k");
+        }
+        sequence = generateSequence(seed, sequenceLength, repeats, 2 * k);
+        kmers = sequence.length() - k + 1;
+    }
+
+    /**
+     * Random sequence with copies of a random repeat placed at random
+     * positions, same output for the same arguments
+     *
+     * @param seed
+     * @param length
+     * @param repeats
+     * @param repeatLength
+     * @return
+     */
+    public static String generateSequence(long seed, int length, int repeats, int repeatLength) {
+        final char[] BASES = {'A', 'C', 'G', 'T'};
+        Random random = new Random(seed);
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = BASES[random.nextInt(4)];
+        }
+        char[] repeat = new char[Math.min(repeatLength, length)];
+        for (int i = 0; i < repeat.length; i++) {
+            repeat[i] = BASES[random.nextInt(4)];
+        }
+        for (int i = 0; i < repeats; i++) {
+            System.arraycopy(repeat, 0, bases, random.nextInt(length - repeat.length + 1), repeat.length);
+        }
+        return new String(bases);
+    }
+
+    public PairMersMap newPairMersMap(boolean table) {
+        if (table) {
+            return new PairMersMap(k, new PairMersTable(k - 1, 2L * kmers, "yakat-bench"));
+        }
+        return new PairMersMap(k);
+    }
+
+    /**
+     * Add all k-mers of the sequence, as kextend does for FASTA input
+     *
+     * @param pairMersMap
+     * @param threads
+     * @return number of k-mers added
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public long populate(final PairMersMap pairMersMap, int threads) throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<Object>> futures = new ArrayList<>(threads);
+        int chunk = (kmers + threads - 1) / threads;
+        for (int from = 0; from < kmers; from += chunk) {
+            final int rangeFrom = from;
+            final int rangeTo = Math.min(from + chunk, kmers);
+            futures.add(executor.submit((Callable<Object>) () -> {
+                for (int i = rangeFrom; i < rangeTo; i++) {
+                    pairMersMap.addToPairMersMap(sequence, i, i + k - 1, true, false, 1);
+                    pairMersMap.addToPairMersMap(sequence, i, i + k - 1, false, false, 1);
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (Future<Object> f : futures) {
+            f.get();
+        }
+        return kmers;
+    }
+}
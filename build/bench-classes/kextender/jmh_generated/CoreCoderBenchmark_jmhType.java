@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class CoreCoderBenchmark_jmhType extends CoreCoderBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class PairMersMapBenchmark_FreshMap_jmhType extends PairMersMapBenchmark_FreshMap_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class PairMersMapBenchmark_FreshTable_jmhType extends PairMersMapBenchmark_FreshTable_jmhType_B3 {
+}
+
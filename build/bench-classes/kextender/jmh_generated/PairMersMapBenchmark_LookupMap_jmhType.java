@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class PairMersMapBenchmark_LookupMap_jmhType extends PairMersMapBenchmark_LookupMap_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class PairMersMapBenchmark_PopulatedMap_jmhType extends PairMersMapBenchmark_PopulatedMap_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class PairMersMapBenchmark_PurgedMap_jmhType extends PairMersMapBenchmark_PurgedMap_jmhType_B3 {
+}
+
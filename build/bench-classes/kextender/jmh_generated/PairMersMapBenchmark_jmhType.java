@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class PairMersMapBenchmark_jmhType extends PairMersMapBenchmark_jmhType_B3 {
+}
+
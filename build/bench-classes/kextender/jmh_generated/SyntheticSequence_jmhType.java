@@ -0,0 +1,4 @@
+package kextender.jmh_generated;
+public class SyntheticSequence_jmhType extends SyntheticSequence_jmhType_B3 {
+}
+
@@ -526,7 +526,7 @@ public class Opt<T extends Comparable<T>> implements Comparable<Opt> {
         return getMinValueArgs().compareTo(getMaxValueArgs()) != 0;
     }
 
-    public Opt setDefaultValue(T defaultValue) {
+    public Opt<T> setDefaultValue(T defaultValue) {
         this.defaultValue = defaultValue;
         return this;
     }
@@ -536,7 +536,7 @@ public class Opt<T extends Comparable<T>> implements Comparable<Opt> {
      * @param defaultValueDescription
      * @return 
      */
-    public Opt setDefaultValueDescription(String defaultValueDescription) {
+    public Opt<T> setDefaultValueDescription(String defaultValueDescription) {
         this.defaultValueDescription = defaultValueDescription;
         return this;
     }
@@ -551,27 +551,27 @@ public class Opt<T extends Comparable<T>> implements Comparable<Opt> {
         return required;
     }
 
-    public Opt setRequired(boolean required) {
+    public Opt<T> setRequired(boolean required) {
         this.required = required;
         return this;
     }
 
-    public Opt setMinValue(T minValue) {
+    public Opt<T> setMinValue(T minValue) {
         this.minValue = minValue;
         return this;
     }
 
-    public Opt setMaxValue(T maxValue) {
+    public Opt<T> setMaxValue(T maxValue) {
         this.maxValue = maxValue;
         return this;
     }
 
-    public Opt setMinValueArgs(Integer minValueArgs) {
+    public Opt<T> setMinValueArgs(Integer minValueArgs) {
         this.minValueArgs = minValueArgs;
         return this;
     }
 
-    public Opt setMaxValueArgs(int maxValueArgs) {
+    public Opt<T> setMaxValueArgs(int maxValueArgs) {
         this.maxValueArgs = maxValueArgs;
         return this;
     }
@@ -582,13 +582,13 @@ public class Opt<T extends Comparable<T>> implements Comparable<Opt> {
      * @param numArgs
      * @return
      */
-    public Opt setNumArgs(int numArgs) {
+    public Opt<T> setNumArgs(int numArgs) {
         this.minValueArgs = numArgs;
         this.maxValueArgs = numArgs;
         return this;
     }
 
-    public Opt addFootnote(int id, String footnoteText) {
+    public Opt<T> addFootnote(int id, String footnoteText) {
         if (footnotesMap == null) {
             footnotesMap = new HashMap<>(2);
         }
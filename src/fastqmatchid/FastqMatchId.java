@@ -11,9 +11,9 @@ import argparser.OptSet;
 import argparser.PositionalOpt;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -23,6 +23,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import shared.InputReaderProducer;
 import shared.Message;
+import shared.ReorderWindow;
 import shared.Reporter;
 
 /**
@@ -92,6 +93,8 @@ public class FastqMatchId {
         optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Output settings]");
 
         optSet.addOpt(new Opt('o', "out-file", "Send output to <arg> file", 1).setDefaultValue("/dev/stdout"));
+        optSet.addOpt(new Opt<Boolean>('O', "ordered-output", "Output records in input order, otherwise, if more than one thread used, "
+                + "buffers of records are output in the order in which they are processed"));
 
         String footText2 = "Consider increasing to sacrifice memory for speed. Decrease if encountering 'out of memory' errors.";
         optSet.addOpt(new Opt('u', "out-buffer-size", "Number of FASTQ records (reads or pairs) "
@@ -118,7 +121,7 @@ public class FastqMatchId {
         
 
         //SPAWN MAP - POPULATOR THREADS
-        ConcurrentSkipListSet<Identifier> ids = new ConcurrentSkipListSet();
+        IdentifierSet ids = new IdentifierSet();
         final ExecutorService populatorExecutorService = new ThreadPoolExecutor(MATCHER_THREADS, MATCHER_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
         ArrayList<Future<?>> populatorFutures = new ArrayList<>(MATCHER_THREADS);
         ArrayList<Message> finalMessages = new ArrayList<>(MATCHER_THREADS * 5);
@@ -154,13 +157,16 @@ public class FastqMatchId {
         
         //NOW PROCESS INPUT READS
         String outFile = (String) optSet.getOpt("out-file").getValueOrDefault();
-        BlockingQueue outputQueue = new ArrayBlockingQueue(OUT_Q_CAPACITY);
+        BlockingQueue<List<String>> outputQueue = new ArrayBlockingQueue<>(OUT_Q_CAPACITY);
 
-        BlockingQueue inputQueue = new ArrayBlockingQueue(IN_Q_CAPACITY);
+        BlockingQueue<ArrayList<String>> inputQueue = new ArrayBlockingQueue<>(IN_Q_CAPACITY);
         ArrayList<Future<?>> ioFutures = new ArrayList<>(2);
         final ExecutorService ioExecutorService = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        //HOLDS BACK BUFFERS PROCESSED AHEAD OF TIME, AT MOST AS MANY AS CAN BE QUEUED OR IN MATCHERS' HANDS
+        ReorderWindow<List<String>> window = optSet.getOpt("O").isUsed() ? new ReorderWindow<>(OUT_Q_CAPACITY + MATCHER_THREADS) : null;
         //READER THREAD
         InputReaderProducer inputReaderProducer2 = new InputReaderProducer(inputQueue, inputFilenamesList, TOOL_NAME, "records", IN_BUFFER_SIZE);
+        inputReaderProducer2.setSequenceBuffers(window != null);
         ioFutures.add(ioExecutorService.submit(inputReaderProducer2));
 
         
@@ -180,14 +186,14 @@ public class FastqMatchId {
         
         
         //WRITER THREAD
-        ioFutures.add(ioExecutorService.submit(new WriterConsumer(outputQueue, outFile, MATCHER_THREADS, TOOL_NAME)));
+        ioFutures.add(ioExecutorService.submit(new WriterConsumer(outputQueue, outFile, MATCHER_THREADS, TOOL_NAME, window)));
 //        ioFutures.add(ioExecutorService.submit(new shared.WriterConsumer(outputQueue, "MATCHED_FASTQ", TOOL_NAME)));
 
         //SPAWN MATCHER-THREADS
         final ExecutorService matcherExecutorService = new ThreadPoolExecutor(MATCHER_THREADS, MATCHER_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
         ArrayList<Future<?>> matcherFutures = new ArrayList<>(MATCHER_THREADS);
         for (int i = 0; i < MATCHER_THREADS; i++) {
-            matcherFutures.add(matcherExecutorService.submit(new MatcherConsumerProducer(inputQueue, outputQueue, ids, IN_BUFFER_SIZE, TOOL_NAME, finalMessages, optSet.getOpt("v").isUsed())));
+            matcherFutures.add(matcherExecutorService.submit(new MatcherConsumerProducer(inputQueue, outputQueue, ids, IN_BUFFER_SIZE, TOOL_NAME, finalMessages, optSet.getOpt("v").isUsed(), window)));
         }
 
         matcherExecutorService.shutdown();
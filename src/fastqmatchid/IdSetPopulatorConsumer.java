@@ -18,7 +18,6 @@ package fastqmatchid;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  *
@@ -26,10 +25,10 @@ import java.util.concurrent.ConcurrentSkipListSet;
  */
 public class IdSetPopulatorConsumer implements Runnable {
 
-    private final ConcurrentSkipListSet<Identifier> ids;
+    private final IdentifierSet ids;
     private final BlockingQueue<ArrayList<String>> inputQueue;
 
-    public IdSetPopulatorConsumer(ConcurrentSkipListSet<Identifier> ids, BlockingQueue<ArrayList<String>> inputQueue) {
+    public IdSetPopulatorConsumer(IdentifierSet ids, BlockingQueue<ArrayList<String>> inputQueue) {
         this.ids = ids;
         this.inputQueue = inputQueue;
     }
@@ -46,7 +45,7 @@ public class IdSetPopulatorConsumer implements Runnable {
                     if(id.endsWith("/1") || id.endsWith("/2")) {
                         id = id.substring(0, id.length()-2);
                     }
-                    ids.add(new Identifier(id));
+                    ids.add(id);
                 }
             }            
             inputQueue.put(new ArrayList<>()); //inform other threads
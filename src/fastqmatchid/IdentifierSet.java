@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fastqmatchid;
+
+import java.util.ArrayList;
+
+/**
+ * Set of (ASCII) read identifiers stored back to back in large byte slabs,
+ * indexed by an open addressing table of 64-bit hashes and slab references.
+ * Costs about 20 bytes per identifier on top of the identifier itself, with
+ * no per-identifier objects, and lookups hash the characters of a line in
+ * place, without creating a substring.
+ *
+ * Adding is synchronized, contains() is not and must only be called once all
+ * adding threads are done (e.g. after their futures have been waited on).
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class IdentifierSet {
+
+    private static final int SLAB_BITS = 24;
+    private static final int SLAB_SIZE = 1 << SLAB_BITS; //16 MB
+    private static final int MAX_ID_LENGTH = 0xffff; //LENGTH STORED IN 2 BYTES
+    private static final double MAX_LOAD = 0.75;
+    private static final long EMPTY = 0L;
+
+    private final ArrayList<byte[]> slabs = new ArrayList<>();
+    private int slabPosition = SLAB_SIZE; //FIRST ADD STARTS A SLAB
+
+    private long[] hashes; //EMPTY IF SLOT FREE, NEVER EMPTY OTHERWISE
+    private long[] refs; //SLAB INDEX << SLAB_BITS | POSITION IN SLAB
+    private int mask;
+    private int size;
+
+    public IdentifierSet() {
+        this(1 << 16);
+    }
+
+    /**
+     *
+     * @param expectedSize
+     */
+    public IdentifierSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < 1 << 30 && capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        hashes = new long[capacity];
+        refs = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     *
+     * @param id
+     * @return true if not already in the set
+     */
+    public boolean add(String id) {
+        if (id.length() > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Identifier longer than " + MAX_ID_LENGTH + " characters: " + id.substring(0, 64) + "...");
+        }
+        return add(hash(id, 0, id.length()), id);
+    }
+
+    private synchronized boolean add(long hash, String id) {
+        int slot = find(hash, id, 0, id.length());
+        if (hashes[slot] != EMPTY) {
+            return false;
+        }
+        hashes[slot] = hash;
+        refs[slot] = store(id);
+        if (++size > MAX_LOAD * hashes.length) {
+            resize();
+        }
+        return true;
+    }
+
+    /**
+     * Test the identifier occupying [from,to) of the sequence, e.g. a part of
+     * an input line
+     *
+     * @param sequence
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean contains(CharSequence sequence, int from, int to) {
+        if (to - from > MAX_ID_LENGTH) {
+            return false;
+        }
+        return hashes[find(hash(sequence, from, to), sequence, from, to)] != EMPTY;
+    }
+
+    public boolean contains(CharSequence sequence) {
+        return contains(sequence, 0, sequence.length());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return slot holding the identifier or the empty slot where it would go
+     */
+    private int find(long hash, CharSequence sequence, int from, int to) {
+        int slot = (int) hash & mask;
+        while (hashes[slot] != EMPTY) {
+            if (hashes[slot] == hash && matches(refs[slot], sequence, from, to)) {
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(long ref, CharSequence sequence, int from, int to) {
+        byte[] slab = slabs.get((int) (ref >>> SLAB_BITS));
+        int position = (int) ref & (SLAB_SIZE - 1);
+        int length = (slab[position] & 0xff) << 8 | (slab[position + 1] & 0xff);
+        if (length != to - from) {
+            return false;
+        }
+        position += 2;
+        for (int i = from; i < to; i++) {
+            if (slab[position++] != (byte) sequence.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long store(String id) {
+        int length = id.length();
+        if (slabPosition + length + 2 > SLAB_SIZE) {
+            slabs.add(new byte[SLAB_SIZE]);
+            slabPosition = 0;
+        }
+        byte[] slab = slabs.get(slabs.size() - 1);
+        long ref = (long) (slabs.size() - 1) << SLAB_BITS | slabPosition;
+        slab[slabPosition++] = (byte) (length >>> 8);
+        slab[slabPosition++] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            slab[slabPosition++] = (byte) id.charAt(i);
+        }
+        return ref;
+    }
+
+    private void resize() {
+        if (hashes.length == 1 << 30) {
+            throw new IllegalStateException("Identifier set full, n=" + size);
+        }
+        long[] oldHashes = hashes;
+        long[] oldRefs = refs;
+        hashes = new long[oldHashes.length * 2];
+        refs = new long[oldRefs.length * 2];
+        mask = hashes.length - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != EMPTY) {
+                int slot = (int) oldHashes[i] & mask;
+                while (hashes[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                refs[slot] = oldRefs[i];
+            }
+        }
+    }
+
+    /**
+     * FNV-1a over the (ASCII) characters, followed by a 64-bit finalizer so
+     * that the low bits used for the slot are well mixed
+     */
+    private static long hash(CharSequence sequence, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            h ^= (byte) sequence.charAt(i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1L : h;
+    }
+
+}
@@ -32,11 +32,11 @@ package fastqmatchid;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 import shared.Message;
+import shared.ReorderWindow;
+import shared.SequencedList;
 
 /**
  *
@@ -45,15 +45,29 @@ import shared.Message;
 public class MatcherConsumerProducer implements Runnable {
 
     private final BlockingQueue<ArrayList<String>> inputQueue;
-    private final BlockingQueue<ArrayList<String>> outputQueue;
-    private final ConcurrentSkipListSet<Identifier> ids;
+    private final BlockingQueue<List<String>> outputQueue;
+    private final IdentifierSet ids;
     private final boolean invertMatch;
     private final String TOOL_NAME;
     private final ArrayList<Message> finalMessages;
     private final int BUFFER_SIZE;
+    private final ReorderWindow<?> window;
 
-    public MatcherConsumerProducer(BlockingQueue<ArrayList<String>> inputQueue, BlockingQueue<ArrayList<String>> outputQueue,
-            ConcurrentSkipListSet<Identifier> ids, int BUFFER_SIZE, String TOOL_NAME, ArrayList<Message> finalMessages, boolean invertMatch) {
+    /**
+     *
+     * @param inputQueue
+     * @param outputQueue
+     * @param ids
+     * @param BUFFER_SIZE
+     * @param TOOL_NAME
+     * @param finalMessages
+     * @param invertMatch
+     * @param window if not null, output is put on the queue in input order:
+     * exactly one SequencedList per input buffer
+     */
+    public MatcherConsumerProducer(BlockingQueue<ArrayList<String>> inputQueue, BlockingQueue<List<String>> outputQueue,
+            IdentifierSet ids, int BUFFER_SIZE, String TOOL_NAME, ArrayList<Message> finalMessages, boolean invertMatch,
+            ReorderWindow<?> window) {
         this.inputQueue = inputQueue;
         this.outputQueue = outputQueue;
         this.ids = ids;
@@ -61,34 +75,38 @@ public class MatcherConsumerProducer implements Runnable {
         this.finalMessages = finalMessages;
         this.BUFFER_SIZE = BUFFER_SIZE;
         this.invertMatch = invertMatch;
+        this.window = window;
     }
 
     @Override
     public void run() {
         try {
-            Pattern spliPattern = Pattern.compile("\t| |/");
             ArrayList<String> list;
             ArrayList<String> buffer = new ArrayList<>(BUFFER_SIZE);
 
 //            long countIn = 0;
 //            long countOut = 0;
             while (!(list = inputQueue.take()).isEmpty()) {
+                if (window != null) {
+                    buffer = new SequencedList<>(((SequencedList<?>) list).getSequenceNumber());
+                }
                 for (String line : list) {
-                    String toks[] = spliPattern.split(line);
 //                    countIn++;
-//                    String replaceFirst = toks[0].replaceFirst("\\/[1-2]", "");
-                    
-                    boolean contains = ids.contains(new Identifier(toks[0].substring(1)));//.replaceFirst("\\/[1-2]", "")));
+                    boolean contains = ids.contains(line, 1, idEnd(line)); //SKIP '@', NO SUBSTRING NEEDED
                     if (contains && !invertMatch || !contains && invertMatch) {
-                        if (buffer.size() >= BUFFER_SIZE) {
+                        if (window == null && buffer.size() >= BUFFER_SIZE) {
                             putOneQueue(outputQueue, buffer);
                             buffer = new ArrayList<>();
                         }
                         buffer.add(line);
                     }
                 }
+                if (window != null) {
+                    window.awaitTurn(((SequencedList<?>) buffer).getSequenceNumber());
+                    putOneQueue(outputQueue, buffer);
+                }
             }
-            if (!buffer.isEmpty()) {
+            if (window == null && !buffer.isEmpty()) {
                 putOneQueue(outputQueue, buffer);
             }
             putOneQueue(inputQueue, new ArrayList<>(0)); //inform other threads                
@@ -99,6 +117,21 @@ public class MatcherConsumerProducer implements Runnable {
         }
     }
 
+    /**
+     *
+     * @return index of the first tab, space or slash, i.e. where the
+     * identifier ends, or the line length
+     */
+    private static int idEnd(String line) {
+        for (int i = 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t' || c == ' ' || c == '/') {
+                return i;
+            }
+        }
+        return line.length();
+    }
+
     private void putOneQueue(BlockingQueue q, List buffer) throws InterruptedException {
 //        System.err.println(Thread.currentThread().getName() + "[MC] puts " + buffer.size() + " on " + q.hashCode());
         q.put(buffer);
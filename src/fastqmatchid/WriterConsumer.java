@@ -23,7 +23,9 @@ import java.text.NumberFormat;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.zip.GZIPOutputStream;
+import shared.ReorderWindow;
 import shared.Reporter;
+import shared.SequencedList;
 
 /**
  *
@@ -36,12 +38,24 @@ public class WriterConsumer implements Runnable {
     private int matcherThreads;
     private final int WRITER_BUFFER_SIZE = 8192;
     private final String TOOL_NAME;
+    private final ReorderWindow<List<String>> window;
 
-    public WriterConsumer(BlockingQueue<List<String>> outputQueue, String outFile, int matcherThreads, String TOOL_NAME) {
+    /**
+     *
+     * @param outputQueue
+     * @param outFile
+     * @param matcherThreads
+     * @param TOOL_NAME
+     * @param window if not null, buffers are expected to be SequencedList
+     * objects and are written in input order
+     */
+    public WriterConsumer(BlockingQueue<List<String>> outputQueue, String outFile, int matcherThreads, String TOOL_NAME,
+            ReorderWindow<List<String>> window) {
         this.outputQueue = outputQueue;
         this.outFile = outFile;
         this.matcherThreads = matcherThreads;        
         this.TOOL_NAME = TOOL_NAME;
+        this.window = window;
     }
     
     
@@ -62,13 +76,18 @@ public class WriterConsumer implements Runnable {
 
         try {
             List<String> list;
-            while (!(list = outputQueue.take()).isEmpty() || --matcherThreads > 0) {
-                count+=list.size();
-                for (String line : list) {
-                    out.write(line);
-                    out.newLine();
+            while (!SequencedList.isEndOfInput(list = outputQueue.take()) || --matcherThreads > 0) {
+                if (window == null) {
+                    count += write(out, list);
+                } else if (list instanceof SequencedList) {
+                    window.add(((SequencedList) list).getSequenceNumber(), list);
+                    while ((list = window.pollNext()) != null) {
+                        count += write(out, list);
+                    }
                 }
-                out.flush();
+            }
+            if (window != null && window.getWaiting() > 0) {
+                Reporter.report("[ERROR]", window.getWaiting() + " buffers not written, out of order input?", TOOL_NAME);
             }
             out.close();
         } catch (InterruptedException | IOException ex) {
@@ -78,4 +97,13 @@ public class WriterConsumer implements Runnable {
 
     }
 
+    private int write(BufferedWriter out, List<String> list) throws IOException {
+        for (String line : list) {
+            out.write(line);
+            out.newLine();
+        }
+        out.flush();
+        return list.size();
+    }
+
 }
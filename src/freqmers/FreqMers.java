@@ -43,10 +43,10 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import shared.InputReaderProducer;
 import shared.Message;
+import shared.ParallelGzipInputStream;
 import shared.Reporter;
 import shared.Sequence;
 import shared.SequenceOps;
@@ -162,7 +162,7 @@ public class FreqMers {
             String id = "";
             StringBuilder seqBuilder = new StringBuilder();
             if (fastaFileName.endsWith(".gz")) {
-                InputStream gzipStream = new GZIPInputStream(new FileInputStream(fastaFileName), READER_BUFFER_SIZE);
+                InputStream gzipStream = new ParallelGzipInputStream(new FileInputStream(fastaFileName));
                 bufferdReader = new BufferedReader(new InputStreamReader(gzipStream, "UTF-8"), READER_BUFFER_SIZE);
             } else {
                 bufferdReader = new BufferedReader(new FileReader(new File(fastaFileName)), READER_BUFFER_SIZE);
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package gbssplit;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Prefix trie over the barcodes of a flowcell, so that the sample of a read is
+ * resolved in a single walk over at most the length of the longest barcode,
+ * regardless of the number of barcodes.
+ *
+ * If mismatches are allowed, every sequence at a Hamming distance of 1 from a
+ * barcode is also inserted (the neighbour table), unless it is a neighbour of
+ * more than one barcode. Exact matches always take precedence.
+ *
+ * Built once, read-only and safe to share between splitter threads afterwards.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class BarcodeIndex {
+
+    private static final int ALPHABET_SIZE = 5; //A,C,G,T,N
+    private static final byte[] SYMBOLS = {'A', 'C', 'G', 'T', 'N'};
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (byte i = 0; i < SYMBOLS.length; i++) {
+            CODES[SYMBOLS[i]] = i;
+            CODES[Character.toLowerCase(SYMBOLS[i])] = i;
+        }
+    }
+
+    private int[] children = new int[ALPHABET_SIZE * 64]; //ALPHABET_SIZE SLOTS PER NODE, 0 = NO CHILD (ROOT IS NEVER A CHILD)
+    private Sample[] exact = new Sample[64];
+    private Sample[] corrected = new Sample[64];
+    private boolean[] ambiguous = new boolean[64];
+    private int nodes = 1;
+    private int maxDepth;
+
+    /**
+     *
+     * @param samples samples of a single flowcell, barcodes must be unique
+     * @param allowMismatch also index single mismatch neighbours of each
+     * barcode
+     */
+    public BarcodeIndex(Collection<Sample> samples, boolean allowMismatch) {
+        for (Sample sample : samples) {
+            int node = insert(sample.getBarcode()); //MAY REALLOCATE exact
+            exact[node] = sample;
+        }
+        if (allowMismatch) {
+            for (Sample sample : samples) {
+                char[] neighbour = sample.getBarcode().toUpperCase().toCharArray();
+                for (int i = 0; i < neighbour.length; i++) {
+                    char original = neighbour[i];
+                    for (byte symbol : SYMBOLS) {
+                        if (symbol == original) {
+                            continue;
+                        }
+                        neighbour[i] = (char) symbol;
+                        int node = insert(new String(neighbour));
+                        if (exact[node] == null) {
+                            if (corrected[node] != null && corrected[node] != sample) {
+                                ambiguous[node] = true;
+                            }
+                            corrected[node] = sample;
+                        }
+                    }
+                    neighbour[i] = original;
+                }
+            }
+        }
+    }
+
+    /**
+     * Longest barcode which the sequence starts with or, failing that, the
+     * barcode the sequence starts with at a single mismatch if there is only
+     * one such barcode
+     *
+     * @param sequence
+     * @return matching sample or null
+     */
+    public Sample find(String sequence) {
+        Sample found = null;
+        Sample foundCorrected = null;
+        boolean foundAmbiguous = false;
+        int node = 0;
+        int depth = Math.min(sequence.length(), maxDepth);
+        for (int i = 0; i < depth; i++) {
+            char c = sequence.charAt(i);
+            int code = c < CODES.length ? CODES[c] : -1;
+            if (code == -1 || (node = children[node * ALPHABET_SIZE + code]) == 0) {
+                break;
+            }
+            if (exact[node] != null) {
+                found = exact[node];
+            } else if (corrected[node] != null) {
+                if (ambiguous[node] || (foundCorrected != null && foundCorrected != corrected[node])) {
+                    foundAmbiguous = true;
+                }
+                foundCorrected = corrected[node];
+            }
+        }
+        if (found != null || foundAmbiguous) {
+            return found;
+        }
+        return foundCorrected;
+    }
+
+    /**
+     *
+     * @return node at which the sequence ends, created if needed
+     */
+    private int insert(String sequence) {
+        int node = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            int code = c < CODES.length ? CODES[c] : -1;
+            if (code == -1) {
+                throw new IllegalArgumentException("Unexpected character in barcode: " + sequence);
+            }
+            int slot = node * ALPHABET_SIZE + code;
+            if (children[slot] == 0) {
+                int child = newNode();
+                children[slot] = child;
+            }
+            node = children[slot];
+        }
+        maxDepth = Math.max(maxDepth, sequence.length());
+        return node;
+    }
+
+    private int newNode() {
+        if (nodes == exact.length) {
+            children = Arrays.copyOf(children, children.length * 2);
+            exact = Arrays.copyOf(exact, exact.length * 2);
+            corrected = Arrays.copyOf(corrected, corrected.length * 2);
+            ambiguous = Arrays.copyOf(ambiguous, ambiguous.length * 2);
+        }
+        return nodes++;
+    }
+
+}
@@ -38,6 +38,7 @@ import shared.Reporter;
 public class KeyMap {
 
     private ConcurrentHashMap<String, ConcurrentHashMap<String, Sample>> keyMap;
+    private ConcurrentHashMap<String, BarcodeIndex> barcodeIndexMap;
     private ConcurrentHashMap<String, BlockingQueue<PerSampleBuffer>> sampleToQueueMap;
     private ConcurrentHashMap<String, Long> sampleToCountMap;
     private ArrayBlockingQueue<PerSampleBuffer> matchlessOutQueue ;
@@ -48,13 +49,17 @@ public class KeyMap {
     private final String TOOL_NAME;
     private final String BLANK_SAMPLE_NAME;
     private final String restrictionRemanantI;
+    private final boolean BARCODE_MISMATCH;
 
-    public KeyMap(String keyFileName, String toolName, String BlankSampleName, int OUT_Q_CAPACITY, String restrictionRemnantI) {
+    public KeyMap(String keyFileName, String toolName, String BlankSampleName, int OUT_Q_CAPACITY, String restrictionRemnantI,
+        boolean BARCODE_MISMATCH) {
         TOOL_NAME = toolName;
         BLANK_SAMPLE_NAME = BlankSampleName;
         this.OUT_Q_CAPACITY = OUT_Q_CAPACITY;
         this.restrictionRemanantI = restrictionRemnantI;
+        this.BARCODE_MISMATCH = BARCODE_MISMATCH;
         populateMap(keyFileName);
+        indexBarcodes();
     }
 
     public Sample getSample(String flowCell, String barcode) {
@@ -64,6 +69,16 @@ public class KeyMap {
     public ConcurrentHashMap getBarcodes(String flowCell) {
         return keyMap.get(flowCell);
     }
+
+    /**
+     *
+     * @param flowCell
+     * @return index resolving reads to samples of the flowcell or null if
+     * flowcell not in the key file
+     */
+    public BarcodeIndex getBarcodeIndex(String flowCell) {
+        return barcodeIndexMap.get(flowCell);
+    }
         
     public int getSamplesTotal() {
         int tot = 0;
@@ -73,6 +88,18 @@ public class KeyMap {
         return tot;
     }
     
+    private void indexBarcodes() {
+        barcodeIndexMap = new ConcurrentHashMap<>(keyMap.size() * 2);
+        for (Map.Entry<String, ConcurrentHashMap<String, Sample>> entrySet : keyMap.entrySet()) {
+            try {
+                barcodeIndexMap.put(entrySet.getKey(), new BarcodeIndex(entrySet.getValue().values(), BARCODE_MISMATCH));
+            } catch (IllegalArgumentException ex) {
+                Reporter.report("[ERROR]", ex.getMessage(), TOOL_NAME);
+                System.exit(1);
+            }
+        }
+    }
+
     private void populateMap(String inputFile) {
         keyMap = new ConcurrentHashMap<>(1000);
         sampleToQueueMap = new ConcurrentHashMap<>(1000);
@@ -56,6 +56,8 @@ public class SplitGBS {
     private final int OUT_Q_CAPACITY;
     private boolean OVERWRITE = false;
     private boolean APPEND = false;
+    private final int COMPRESSION_LEVEL;
+    private final int COMPRESSOR_THREADS;
 
     private final int HELP_WIDTH = 180;
 
@@ -93,6 +95,8 @@ public class SplitGBS {
 
         OUT_BUFFER_SIZE = (int) optSet.getOpt("u").getValueOrDefault();
         OUT_Q_CAPACITY = (int) optSet.getOpt("q").getValueOrDefault();
+        COMPRESSION_LEVEL = (int) optSet.getOpt("z").getValueOrDefault();
+        COMPRESSOR_THREADS = (int) optSet.getOpt("compressor-threads").getValueOrDefault();
 
         if (optSet.getOpt("M").isUsed()) {
             MATCHLESS_OUT = (String) optSet.getOpt("M").getValueOrDefault();
@@ -123,6 +127,8 @@ public class SplitGBS {
         optSet.addOpt(new Opt(null, "restriction-remnant-II", "Second restriction remnant site", 1).setDefaultValue("CCG"));
         optSet.addOpt(new Opt('A', "expected-adapter", "Expected adapter sequence (a fragment will do)", 1).setDefaultValue("AGATCGGAAGAGCGGTTCAGCAGGAATGCCGAGACCGAT"));
         optSet.addOpt(new Opt(null, "adapter-prefix-length", "Length of the adapter prefix used to identify 3' read-through", 1).setDefaultValue(9));
+        optSet.addOpt(new Opt<Boolean>('m', "barcode-mismatch", "Assign a read to a sample if its barcode differs from sample's barcode at a single position, "
+            + "unless that would be ambiguous. Exact matches take precedence"));
         optSet.addOpt(new Opt('B', "blank-samples-name", "Name denoting blank samples in the key file. Name will by extended with remaining key-file fields", 1).setDefaultValue("Blank"));
         optSet.addOpt(new Opt('U', "in-buffer-size", "Number of FASTQ records (reads or pairs depending on input) "
             + "passed to in-queue", 1024, 128, 8092));
@@ -154,6 +160,9 @@ public class SplitGBS {
         optSet.addOpt(new Opt('S', "out-suffix-se", "Output file suffix for SE/orphaned reads", 1).setDefaultValue("_SE.fastq.gz"));
         optSet.addOpt(new Opt(null, "append", "If output file(s) exist(s) for a given sample, append"));
         optSet.addOpt(new Opt(null, "force", "If output file(s) exist(s) for a given sample, force overwrite"));
+        optSet.addOpt(new Opt<Integer>('z', "compression-level", "Compression level of the (BGZF) output files", 6, 0, 9));
+        optSet.addOpt(new Opt<Integer>(null, "compressor-threads", "Number of threads compressing output, shared by all samples",
+            Runtime.getRuntime().availableProcessors(), 1, 1024));
         optSet.addOpt(new Opt('M', "[TODO] matchless-output", "Output reads with unmatched barcodes to R1/R2/SE file(s) prefixed with <arg>. If not set, these reads will be discarded", 1));
         footId++;
         String footText2 = "Consider increasing to sacrifice memory for speed. Decrease if encountering 'out of memory' errors.";
@@ -170,7 +179,8 @@ public class SplitGBS {
     private void splitFiles(ArrayList<String> inputFilenamesList, OptSet optSet) {
         
         String restrictionRemnantI = (String) optSet.getOpt("restriction-remnant-I").getValueOrDefault();
-        KeyMap keyMap = new KeyMap(KEY_FILE_NAME, TOOL_NAME, BLANK_SAMPLE_NAME, OUT_Q_CAPACITY, restrictionRemnantI);
+        boolean barcodeMismatch = optSet.getOpt("barcode-mismatch").getOptFlag();
+        KeyMap keyMap = new KeyMap(KEY_FILE_NAME, TOOL_NAME, BLANK_SAMPLE_NAME, OUT_Q_CAPACITY, restrictionRemnantI, barcodeMismatch);
 
 //        ArrayList<String> r1 = new ArrayList<>();
 //        ArrayList<String> r2 = new ArrayList<>();
@@ -242,13 +252,15 @@ public class SplitGBS {
         }
 
         //WRITER THREADS not set if just counting
+        final ExecutorService compressorExecutorService = new ThreadPoolExecutor(COMPRESSOR_THREADS, COMPRESSOR_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
         if (!optSet.getOpt("only-count").getOptFlag()) {
             for (Map.Entry<String, BlockingQueue<PerSampleBuffer>> entrySet : keyMap.getSampleToQueueMap().entrySet()) {
                 String sample = entrySet.getKey();
 //                System.err.println("Starting writer thread for sample "+sample);
                 BlockingQueue<PerSampleBuffer> queue = entrySet.getValue();
 //            ioFutures.add(ioExecutorService.submit(new FileWriterConsumer(OUT_DIR + "/" + sample, queue, TOOL_NAME, SPLITTER_THREADS)));
-                ioFutures.add(ioExecutorService.submit(new FileWriterConsumer(queue, TOOL_NAME, OUT_DIR, sample, SPLITTER_THREADS, R1_SUFFIX, R2_SUFFIX, SE_SUFFIX, OVERWRITE, APPEND)));
+                ioFutures.add(ioExecutorService.submit(new FileWriterConsumer(queue, TOOL_NAME, OUT_DIR, sample, SPLITTER_THREADS, R1_SUFFIX, R2_SUFFIX, SE_SUFFIX, OVERWRITE, APPEND,
+                    compressorExecutorService, COMPRESSION_LEVEL)));
             }
         }
         splitterExecutorService.shutdown();
@@ -271,6 +283,7 @@ public class SplitGBS {
         } catch (TimeoutException ex) {
             Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
         }
+        compressorExecutorService.shutdown(); //ALL WRITERS CLOSED BY NOW
         for (Message fm : finalMessages) {
             Reporter.report(fm.getLevel().toString(), fm.getBody(), fm.getCaller());
         }
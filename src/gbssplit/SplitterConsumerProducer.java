@@ -32,7 +32,6 @@ package gbssplit;
 import argparser.OptSet;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -129,125 +128,121 @@ public class SplitterConsumerProducer implements Runnable {
 //                    ConcurrentHashMap<String, Sample> barcodes = keyMap.getBarcodes(toks[0].substring(1).replaceAll(":.*", "")); //worked fro DP data
                     String split[] = splitId.split(toks[0]);
                     String flowcell = split.length>2 ? split[2] : toks[0].substring(1).replaceAll(":.*", ""); //IF standard illumina ELSE take whole id
-                    ConcurrentHashMap<String, Sample> barcodes = keyMap.getBarcodes(flowcell);
-                    if (barcodes != null) {
+                    BarcodeIndex barcodeIndex = keyMap.getBarcodeIndex(flowcell);
+                    if (barcodeIndex != null) {
                         int matchingBarcodes = 0;
-                        for (Map.Entry<String, Sample> entrySet : barcodes.entrySet()) {
-                            String barcode = entrySet.getKey();
-                            if (toks[1].startsWith(barcode)) {
-                                Sample sample = entrySet.getValue();
-                                
-                                
-                                matchingBarcodes++;
-                                if (OUTPUT_PSTI_STARTING_ONLY && !toks[1].startsWith(sample.getBarcodeAndRestrictionRemnant1())) {
-//                                if (OUTPUT_PSTI_STARTING_ONLY && !toks[1].startsWith(barcode + "TGCAG")) {
-                                    notPstIStart++;
-                                    break;
-                                }
-                                PerSampleBuffer sampleBuffer = getPerSampleBuffer(sample.getSampleId());
+                        Sample sample = barcodeIndex.find(toks[1]); //LONGEST EXACT OR UNAMBIGUOUS SINGLE MISMATCH BARCODE
+                        if (sample != null) {
+                            String barcode = sample.getBarcode();
+                            matchingBarcodes++;
+                            //BARCODE MAY HAVE BEEN MATCHED WITH A MISMATCH SO ONLY CHECK WHAT FOLLOWS IT
+                            if (OUTPUT_PSTI_STARTING_ONLY && !toks[1].startsWith(RESTRICTION_REMNANT_I, barcode.length())) {
+//                            if (OUTPUT_PSTI_STARTING_ONLY && !toks[1].startsWith(barcode + "TGCAG")) {
+                                notPstIStart++;
+                                continue;
+                            }
+                            PerSampleBuffer sampleBuffer = getPerSampleBuffer(sample.getSampleId());
 
-                                //TRIM AND ASSESS RECORDS
-                                StringBuilder builderR1 = new StringBuilder();
-                                StringBuilder builderR2 = new StringBuilder();
-                                builderR1.append(toks[0]); //id
+                            //TRIM AND ASSESS RECORDS
+                            StringBuilder builderR1 = new StringBuilder();
+                            StringBuilder builderR2 = new StringBuilder();
+                            builderR1.append(toks[0]); //id
 
-                                if (TRIM_BARCODE) {
-                                    toks[1] = toks[1].substring(barcode.length());
-                                    toks[3] = toks[3].substring(barcode.length());
-//                                    if (PSTI_STARTING_ONLY && !toks[1].startsWith("TGCAG")) {
-//                                        continue;
-//                                    }
-//                                } else if (PSTI_STARTING_ONLY && !toks[1].startsWith(barcode + "TGCAG")) {
+                            if (TRIM_BARCODE) {
+                                toks[1] = toks[1].substring(barcode.length());
+                                toks[3] = toks[3].substring(barcode.length());
+//                                if (PSTI_STARTING_ONLY && !toks[1].startsWith("TGCAG")) {
+//                                    continue;
+//                                }
+//                            } else if (PSTI_STARTING_ONLY && !toks[1].startsWith(barcode + "TGCAG")) {
 
-                                }
-                                boolean trimmedMspI = false;
-                                if (TRIM_ADAPTERS) {
-//                                    int trimFrom = toks[1].indexOf("CCG" + ADAPTER);
-//                                    if (trimFrom >= 0) {
-                                    //I think: iterate through occurances of second remnant site until one is followed by adapter sequence. trim-off adapter sequence, done 
-                                    int idxMspI = 0;
-                                    while (idxMspI != -1) {                                         
-                                        idxMspI = toks[1].indexOf(msp1, idxMspI);
-                                        if (idxMspI != -1) {
-                                            String toTrim = toks[1].substring(idxMspI + restrictionRemnantIILength);
-                                            if (adapterPrefix.startsWith(toTrim) || toTrim.startsWith(adapterPrefix)) { //AGATCGGAA
-                                                toks[1] = toks[1].substring(0, idxMspI + restrictionRemnantIILength);
-                                                toks[3] = toks[3].substring(0, idxMspI + restrictionRemnantIILength);
-                                                trimmedMspI = true;
-                                                break;
-                                            }
-                                            idxMspI++;
+                            }
+                            boolean trimmedMspI = false;
+                            if (TRIM_ADAPTERS) {
+//                                int trimFrom = toks[1].indexOf("CCG" + ADAPTER);
+//                                if (trimFrom >= 0) {
+                                //I think: iterate through occurances of second remnant site until one is followed by adapter sequence. trim-off adapter sequence, done 
+                                int idxMspI = 0;
+                                while (idxMspI != -1) {                                         
+                                    idxMspI = toks[1].indexOf(msp1, idxMspI);
+                                    if (idxMspI != -1) {
+                                        String toTrim = toks[1].substring(idxMspI + restrictionRemnantIILength);
+                                        if (adapterPrefix.startsWith(toTrim) || toTrim.startsWith(adapterPrefix)) { //AGATCGGAA
+                                            toks[1] = toks[1].substring(0, idxMspI + restrictionRemnantIILength);
+                                            toks[3] = toks[3].substring(0, idxMspI + restrictionRemnantIILength);
+                                            trimmedMspI = true;
+                                            break;
                                         }
+                                        idxMspI++;
                                     }
                                 }
-                                builderR1.append("\t").append(toks[1]); //sequence (possibly trimmed)
-                                builderR1.append("\t").append("+"); //redundant id or '+
-                                builderR1.append("\t").append(toks[3]); //qualline (possibly trimmed)
-                                int mateLen = 0;
-                                boolean trimmedPstI = false;
-                                if (toks.length == 8) { //PE input
-                                    builderR2.append(toks[4]); //mate id                                            
-//                                    if (TRIM_BARCODE) { //technically we are trimming the barcode here, but this is in the read-through, not in R1
-                                    if (TRIM_ADAPTERS) {
-                                        //TODO
-                                        //FIND nBasesPrefix+CTGCA
-                                        //IF BASES PRESENT BEYOND THE MATCH THEN TRIM THEM OFF 
-                                        int idxPstI = toks[5].lastIndexOf(sample.getRestrictionRemnant1RC());
-//                                        int idxPstI = toks[5].lastIndexOf("CTGCA");
-//                                        int seqLen = toks[5].length();                                        
-//                                        int basesPastPstI = seqLen-idxPstI-5;
-                                        String toTrim = toks[5].substring(idxPstI + restrictionRemnantILength);
-                                        String barcodeRC = sample.getBarcodeRC();
-//                                        String barcodeRC = SequenceOps.getReverseComplementString(barcode);
-                                        if (barcodeRC.startsWith(toTrim) || toTrim.startsWith(barcodeRC)) {
-                                            toks[5] = toks[5].substring(0, idxPstI + restrictionRemnantILength); //+5 not to  trim the PstI site
-                                            toks[7] = toks[7].substring(0, idxPstI + restrictionRemnantILength);
-                                            trimmedPstI = true;
-                                        }
+                            }
+                            builderR1.append("\t").append(toks[1]); //sequence (possibly trimmed)
+                            builderR1.append("\t").append("+"); //redundant id or '+
+                            builderR1.append("\t").append(toks[3]); //qualline (possibly trimmed)
+                            int mateLen = 0;
+                            boolean trimmedPstI = false;
+                            if (toks.length == 8) { //PE input
+                                builderR2.append(toks[4]); //mate id                                            
+//                                if (TRIM_BARCODE) { //technically we are trimming the barcode here, but this is in the read-through, not in R1
+                                if (TRIM_ADAPTERS) {
+                                    //TODO
+                                    //FIND nBasesPrefix+CTGCA
+                                    //IF BASES PRESENT BEYOND THE MATCH THEN TRIM THEM OFF 
+                                    int idxPstI = toks[5].lastIndexOf(sample.getRestrictionRemnant1RC());
+//                                    int idxPstI = toks[5].lastIndexOf("CTGCA");
+//                                    int seqLen = toks[5].length();                                        
+//                                    int basesPastPstI = seqLen-idxPstI-5;
+                                    String toTrim = toks[5].substring(idxPstI + restrictionRemnantILength);
+                                    String barcodeRC = sample.getBarcodeRC();
+//                                    String barcodeRC = SequenceOps.getReverseComplementString(barcode);
+                                    if (barcodeRC.startsWith(toTrim) || toTrim.startsWith(barcodeRC)) {
+                                        toks[5] = toks[5].substring(0, idxPstI + restrictionRemnantILength); //+5 not to  trim the PstI site
+                                        toks[7] = toks[7].substring(0, idxPstI + restrictionRemnantILength);
+                                        trimmedPstI = true;
                                     }
-                                    builderR2.append("\t").append(toks[5]); //mate seq
-                                    builderR2.append("\t").append("+"); //redundant id or '+
-                                    builderR2.append("\t").append(toks[7]); //qual line
-                                    mateLen = toks[5].length();
                                 }
-                                //If all len cutoffs met (assuming PE)
-                                if (mateLen >= MIN_LENGTH_PAIR_EACH && toks[1].length() >= MIN_LENGTH_PAIR_EACH && mateLen + toks[1].length() >= MIN_LENGTH_PAIR_SUM) {
-                                    sampleBuffer.add(builderR1.append("\t").append(builderR2).toString());
-                                    //else if PE input
-                                } else if (toks.length == 8) {
-                                    //count pairs under combined length 
-                                    if (mateLen + toks[1].length() < MIN_LENGTH_PAIR_SUM) {
-                                        pairUnderLenSum++;
-                                    }
-                                    if (toks[1].length() < MIN_LENGTH_PAIR_EACH) {
-                                        pairedReadUnderLen++;
-                                    } else {
-                                        sampleBuffer.add(builderR1.toString());
-                                    }
-                                    if (mateLen < MIN_LENGTH_PAIR_EACH) {
-                                        pairedReadUnderLen++;
-                                    } else {
-                                        sampleBuffer.add(builderR2.toString());
-                                    }
-                                    //else if SE input
-                                } else if (toks.length == 4) {
-                                    if (toks[1].length() >= MIN_LENGTH_READ) {
-                                        sampleBuffer.add(builderR1.toString());
-                                    } else {
-                                        singleUnderLength++;
-                                    }
+                                builderR2.append("\t").append(toks[5]); //mate seq
+                                builderR2.append("\t").append("+"); //redundant id or '+
+                                builderR2.append("\t").append(toks[7]); //qual line
+                                mateLen = toks[5].length();
+                            }
+                            //If all len cutoffs met (assuming PE)
+                            if (mateLen >= MIN_LENGTH_PAIR_EACH && toks[1].length() >= MIN_LENGTH_PAIR_EACH && mateLen + toks[1].length() >= MIN_LENGTH_PAIR_SUM) {
+                                sampleBuffer.add(builderR1.append("\t").append(builderR2).toString());
+                                //else if PE input
+                            } else if (toks.length == 8) {
+                                //count pairs under combined length 
+                                if (mateLen + toks[1].length() < MIN_LENGTH_PAIR_SUM) {
+                                    pairUnderLenSum++;
+                                }
+                                if (toks[1].length() < MIN_LENGTH_PAIR_EACH) {
+                                    pairedReadUnderLen++;
                                 } else {
-                                    Reporter.report("[ERROR]", "FASTQ erecord expected to have 4 or 8 fileds, observed fields=" + toks.length, TOOL_NAME);
+                                    sampleBuffer.add(builderR1.toString());
                                 }
-                                //Cummulative trimming stats
-                                if (trimmedMspI && trimmedPstI) {
-                                    trimmedBothCutSitesInPair++;
-                                } else if (trimmedMspI) {
-                                    trimmedMspIcount++;
-                                } else if (trimmedPstI) {
-                                    trimmedPstIcount++;
+                                if (mateLen < MIN_LENGTH_PAIR_EACH) {
+                                    pairedReadUnderLen++;
+                                } else {
+                                    sampleBuffer.add(builderR2.toString());
+                                }
+                                //else if SE input
+                            } else if (toks.length == 4) {
+                                if (toks[1].length() >= MIN_LENGTH_READ) {
+                                    sampleBuffer.add(builderR1.toString());
+                                } else {
+                                    singleUnderLength++;
                                 }
-                                break; //skip other barcodes as match already found
+                            } else {
+                                Reporter.report("[ERROR]", "FASTQ erecord expected to have 4 or 8 fileds, observed fields=" + toks.length, TOOL_NAME);
+                            }
+                            //Cummulative trimming stats
+                            if (trimmedMspI && trimmedPstI) {
+                                trimmedBothCutSitesInPair++;
+                            } else if (trimmedMspI) {
+                                trimmedMspIcount++;
+                            } else if (trimmedPstI) {
+                                trimmedPstIcount++;
                             }
                         }
                         if (matchingBarcodes == 0) {
@@ -15,264 +15,186 @@
  */
 package kextender;
 
-
-import java.util.Arrays;
-
 /**
- *
+ * 2-bit encoding of nucleotide sequences (A=00, C=01, G=10, T=11) in arrays of
+ * bytes, ints or longs. The first element holds the leftover high-order bases,
+ * the remaining elements are full. Encoding is table-driven (one lookup per
+ * base, no branching on the base), longs are filled 8 bases at a time and
+ * validity of all 8 is checked at once.
  *
  * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
  */
 public class CoreCoder {
 
+    private static final byte[] CODES = new byte[256];
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    static {
+        for (int i = 0; i < CODES.length; i++) {
+            CODES[i] = -1;
+        }
+        CODES['A'] = CODES['a'] = 0;
+        CODES['C'] = CODES['c'] = 1;
+        CODES['G'] = CODES['g'] = 2;
+        CODES['T'] = CODES['t'] = 3;
+    }
+
+    /**
+     * 2-bit code of a nucleotide
+     *
+     * @param base
+     * @return 0-3 for A,C,G,T, -1 for anything else
+     */
+    public static int getCode(char base) {
+        return base < 256 ? CODES[base] : -1;
+    }
+
     public static byte[] encodeCoreByteArray(CharSequence kmerSequence) {
-        int BYTE_LENGTH = 8; 
         int stringLength = kmerSequence.length();
-        int bytesNeeded = (int) Math.ceil((double) stringLength * 2 / BYTE_LENGTH); 
-        int currentByte = 0;
+        byte kmerCoreBitsArray[] = new byte[(stringLength * 2 + 7) / 8];
         int position = 0;
-        int positionInByte = bytesNeeded * BYTE_LENGTH - stringLength * 2;
-        byte kmerCoreBitsArray[] = new byte[bytesNeeded];
-//        char[] kmerCharArray = kmerSequence.toCharArray();
-        while (position < stringLength) {
-            while ((positionInByte < BYTE_LENGTH) && (position < stringLength)) {
-                kmerCoreBitsArray[currentByte] <<= 1;
-                switch (kmerSequence.charAt(position)) {
-                    case 'A':
-                    case 'a':                        
-                        kmerCoreBitsArray[currentByte] <<= 1; //if A : 00
-                        break;
-                    case 'C':
-                    case 'c':                        
-                        kmerCoreBitsArray[currentByte] <<= 1; //if C : 01
-                        kmerCoreBitsArray[currentByte]++;
-                        break;
-                    case 'G':
-                    case 'g':                        
-                        kmerCoreBitsArray[currentByte]++; //if G : 10
-                        kmerCoreBitsArray[currentByte] <<= 1;
-                        break;
-                    case 'T':
-                    case 't':                        
-                        kmerCoreBitsArray[currentByte]++; //if T : 11
-                        kmerCoreBitsArray[currentByte] <<= 1;
-                        kmerCoreBitsArray[currentByte]++;
-                        break;
-                    default:
-                        System.err.println("Failed encoding kmerstring to byte array....");
-                        System.err.println("Offending char: \"" + kmerSequence.charAt(position)+"\"");
-                        System.err.println("at position " + position);
-                        System.err.println("in " + kmerSequence);
-                        System.err.println("....exiting");
-                        System.exit(1);
-                }
-                positionInByte += 2;
-                position++;
+        for (int i = 0; i < kmerCoreBitsArray.length; i++) {
+            int end = stringLength - (kmerCoreBitsArray.length - 1 - i) * 4; //4 BASES PER BYTE, LEFTOVER IN THE FIRST
+            int bits = 0;
+            for (; position < end; position++) {
+                bits = bits << 2 | getCodeOrExit(kmerSequence, position, "byte array");
             }
-            currentByte++;
-            positionInByte = 0;
+            kmerCoreBitsArray[i] = (byte) bits;
         }
         return kmerCoreBitsArray;
     }
-    
+
     public static String decodeCore(int encodedSequenceLength, byte kmerCoreBitsArray[]) {
-        int BYTE_LENGTH = 8; //32 - sign bit -1 to make even as 2 bits stored per nucleotide
-        StringBuilder sb = new StringBuilder();
-        int lastChunkLength = encodedSequenceLength * 2 % BYTE_LENGTH;
+        StringBuilder sb = new StringBuilder(encodedSequenceLength);
         for (int i = 0; i < kmerCoreBitsArray.length; i++) {
-            int startPrintingBitsFrom = BYTE_LENGTH - 1;
-            if (i == 0 && lastChunkLength != 0) {
-                startPrintingBitsFrom = lastChunkLength - 1;
-            }
-            for (int j = startPrintingBitsFrom; j > -1; j -= 2) {
-                int b1 = kmerCoreBitsArray[i] >> j & 1;
-                int b2 = kmerCoreBitsArray[i] >> j - 1 & 1;
-//                int b = (kmerCoreBitsArray[i] & (1 << j)) >> j;
-//                int m = (kmerCoreBitsArray[i] & (1 << j - 1)) >> j - 1;
-                if (b1 == 0 && b2 == 0) {
-                    sb.append("A");
-                } else if (b1 == 0 && b2 == 1) {
-                    sb.append("C");
-                } else if (b1 == 1 && b2 == 0) {
-                    sb.append("G");
-                } else if (b1 == 1 && b2 == 1) {
-                    sb.append("T");
-                }
+            int bases = i == 0 ? encodedSequenceLength - (kmerCoreBitsArray.length - 1) * 4 : 4;
+            for (int shift = bases * 2 - 2; shift >= 0; shift -= 2) {
+                sb.append(BASES[kmerCoreBitsArray[i] >>> shift & 3]);
             }
         }
         return sb.toString();
     }
-    
+
     public static int[] encodeCoreIntArray(CharSequence kmerSequence) {
-        int INT_LENGTH = 32; //32 - sign bit -1 to make even as 2 bits stored per nucleotide
         int stringLength = kmerSequence.length();
-        int intsNeeded = (int) Math.ceil((double) stringLength * 2 / INT_LENGTH); //number of ints needed to store this String 
-//        System.out.println("Need "+intsNeeded+" "+ INT_LENGTH +" bit word(s) to encode "+kmerString.length()+ " nucl sequence");
-        int currentInt = 0;
+        int kmerCoreBitsArray[] = new int[(stringLength * 2 + 31) / 32];
         int position = 0;
-        int positionInInt = intsNeeded * INT_LENGTH - stringLength * 2;
-        int kmerCoreBitsArray[] = new int[intsNeeded];
-//        char[] kmerCharArray = kmerSequence.toCharArray();
-        while (position < stringLength) {
-            while ((positionInInt < INT_LENGTH) && (position < stringLength)) {
-                kmerCoreBitsArray[currentInt] <<= 1;
-//                switch (kmerCharArray[position]) {
-                switch (kmerSequence.charAt(position)) {
-                    case 'A':
-                    case 'a':
-                        //if A : 00
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        break;
-                    case 'C':
-                    case 'c':
-                        //if C : 01
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        kmerCoreBitsArray[currentInt]++;
-                        break;
-                    case 'G':
-                    case 'g':
-                        //if G : 10
-                        kmerCoreBitsArray[currentInt]++;
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        break;
-                    case 'T':
-                    case 't':
-                        //if T : 11
-                        kmerCoreBitsArray[currentInt]++;
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        kmerCoreBitsArray[currentInt]++;
-                        break;
-                    default:
-                        System.err.println("Failed ecoding kmerstring to tmp int array....");
-                        System.err.println("Offending char: " + kmerSequence.charAt(position));
-                        System.err.println("in " + kmerSequence);
-                        System.err.println("....exiting");
-                        System.exit(1);
-                }
-                positionInInt += 2;
-                position++;
+        for (int i = 0; i < kmerCoreBitsArray.length; i++) {
+            int end = stringLength - (kmerCoreBitsArray.length - 1 - i) * 16; //16 BASES PER INT, LEFTOVER IN THE FIRST
+            int bits = 0;
+            for (; position < end; position++) {
+                bits = bits << 2 | getCodeOrExit(kmerSequence, position, "int array");
             }
-            currentInt++;
-            positionInInt = 0;
+            kmerCoreBitsArray[i] = bits;
         }
         return kmerCoreBitsArray;
     }
 
     public static String decodeCore(int encodedSequenceLength, int kmerCoreBitsArray[]) {
-        int INT_LENGTH = 32; //32 - sign bit -1 to make even as 2 bits stored per nucleotide
-        StringBuilder sb = new StringBuilder();
-        int lastChunkLength = encodedSequenceLength * 2 % INT_LENGTH;
+        StringBuilder sb = new StringBuilder(encodedSequenceLength);
         for (int i = 0; i < kmerCoreBitsArray.length; i++) {
-            int startPrintingBitsFrom = INT_LENGTH - 1;
-            if (i == 0 && lastChunkLength != 0) {
-                startPrintingBitsFrom = lastChunkLength - 1;
-            }
-            for (int j = startPrintingBitsFrom; j > -1; j -= 2) {
-                int b1 = kmerCoreBitsArray[i] >> j & 1;
-                int b2 = kmerCoreBitsArray[i] >> j - 1 & 1;
-//                int b = (kmerCoreBitsArray[i] & (1 << j)) >> j;
-//                int m = (kmerCoreBitsArray[i] & (1 << j - 1)) >> j - 1;
-                if (b1 == 0 && b2 == 0) {
-                    sb.append("A");
-                } else if (b1 == 0 && b2 == 1) {
-                    sb.append("C");
-                } else if (b1 == 1 && b2 == 0) {
-                    sb.append("G");
-                } else if (b1 == 1 && b2 == 1) {
-                    sb.append("T");
-                }
+            int bases = i == 0 ? encodedSequenceLength - (kmerCoreBitsArray.length - 1) * 16 : 16;
+            for (int shift = bases * 2 - 2; shift >= 0; shift -= 2) {
+                sb.append(BASES[kmerCoreBitsArray[i] >>> shift & 3]);
             }
         }
         return sb.toString();
     }
 
+    /**
+     * Exits on non-ACGT characters, see encodeCoreLongArray(CharSequence, int,
+     * int) for a version which throws instead
+     *
+     * @param coreSequence
+     * @return
+     */
     public static long[] encodeCoreLongArray(CharSequence coreSequence) {
-        int LONG_LENGTH = 64; //64 - sign bit -1 to make even as 2 bits stored per nucleotide
-        int stringLength = coreSequence.length();
-        int longsNeeded = (int) Math.ceil((double) stringLength * 2 / LONG_LENGTH); //number of ints needed to store this String 
-//        System.out.println("Need "+intsNeeded+" "+ INT_LENGTH +" bit word(s) to encode "+kmerString.length()+ " nucl sequence");
-        int currentInt = 0;
-        int position = 0;
-        int positionInInt = longsNeeded * LONG_LENGTH - stringLength * 2;
-        long kmerCoreBitsArray[] = new long[longsNeeded];
-//        char[] kmerCharArray = coreSeq.toCharArray();
-        while (position < stringLength) {
-            while ((positionInInt < LONG_LENGTH) && (position < stringLength)) {
-                kmerCoreBitsArray[currentInt] <<= 1;
-                switch (coreSequence.charAt(position)) {
-                    case 'A':
-                    case 'a':
-                        //if A : 00
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        break;
-                    case 'C':
-                    case 'c':
-                        //if C : 01
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        kmerCoreBitsArray[currentInt]++;
-                        break;
-                    case 'G':
-                    case 'g':
-                        //if G : 10
-                        kmerCoreBitsArray[currentInt]++;
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        break;
-                    case 'T':
-                    case 't':
-                        //if T : 11
-                        kmerCoreBitsArray[currentInt]++;
-                        kmerCoreBitsArray[currentInt] <<= 1;
-                        kmerCoreBitsArray[currentInt]++;
-                        break;
-                    default:
-                        System.err.println("Failed ecoding kmerstring to tmp long array....");
-                        System.err.println("Offending char: " + coreSequence.charAt(position));
-                        System.err.println("in " + coreSequence);
-                        System.err.println("....exiting");
-                        System.exit(1);
+        try {
+            return encodeCoreLongArray(coreSequence, 0, coreSequence.length());
+        } catch (NonACGTException e) {
+            System.err.println("Failed ecoding kmerstring to tmp long array....");
+            System.err.println(e.getMessage());
+            System.err.println("....exiting");
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Encode a fragment of a sequence without creating a sub-sequence
+     *
+     * @param sequence
+     * @param from
+     * @param to exclusive
+     * @return
+     * @throws NonACGTException
+     */
+    public static long[] encodeCoreLongArray(CharSequence sequence, int from, int to) throws NonACGTException {
+        int words = ((to - from) * 2 + 63) / 64;
+        long kmerCoreBitsArray[] = new long[words];
+        int position = from;
+        for (int i = 0; i < words; i++) {
+            int end = to - (words - 1 - i) * 32; //32 BASES PER LONG, LEFTOVER IN THE FIRST
+            long bits = 0;
+            for (; position + 8 <= end; position += 8) {
+                int c0 = getCode(sequence.charAt(position));
+                int c1 = getCode(sequence.charAt(position + 1));
+                int c2 = getCode(sequence.charAt(position + 2));
+                int c3 = getCode(sequence.charAt(position + 3));
+                int c4 = getCode(sequence.charAt(position + 4));
+                int c5 = getCode(sequence.charAt(position + 5));
+                int c6 = getCode(sequence.charAt(position + 6));
+                int c7 = getCode(sequence.charAt(position + 7));
+                if ((c0 | c1 | c2 | c3 | c4 | c5 | c6 | c7) < 0) { //ANY -1 SETS THE SIGN BIT
+                    throw nonACGT(sequence, from, to);
                 }
-                positionInInt += 2;
-                position++;
+                bits = bits << 16 | c0 << 14 | c1 << 12 | c2 << 10 | c3 << 8 | c4 << 6 | c5 << 4 | c6 << 2 | c7;
             }
-            currentInt++;
-            positionInInt = 0;
+            for (; position < end; position++) {
+                int code = getCode(sequence.charAt(position));
+                if (code < 0) {
+                    throw nonACGT(sequence, from, to);
+                }
+                bits = bits << 2 | code;
+            }
+            kmerCoreBitsArray[i] = bits;
         }
-//        String decodeCore = decodeCore(stringLength, kmerCoreBitsArray);
-//        if (!decodeCore.equals(coreString)) {
-////            System.err.println("Error encoding/decoding " + kmerCoreBits1 + " " + kmerCoreBits2);
-//            System.err.println(coreString + " <-core");
-//            System.err.println(decodeCore + " <-decoded");
-//            decodeCore = decodeCore(stringLength, kmerCoreBitsArray);
-//        }
         return kmerCoreBitsArray;
     }
 
     public static String decodeCore(int encodedSequenceLength, long kmerCoreBitsArray[]) {
-        int LONG_LENGTH = 64; //64 - sign bit -1 to make even as 2 bits stored per nucleotide
-        StringBuilder sb = new StringBuilder();
-        int lastChunkLength = encodedSequenceLength * 2 % LONG_LENGTH;
+        StringBuilder sb = new StringBuilder(encodedSequenceLength);
         for (int i = 0; i < kmerCoreBitsArray.length; i++) {
-            int startPrintingBitsFrom = LONG_LENGTH - 1;
-            if (i == 0 && lastChunkLength != 0) {
-                startPrintingBitsFrom = lastChunkLength - 1;
-            }
-            for (int j = startPrintingBitsFrom; j > -1; j -= 2) {
-                long b1 = kmerCoreBitsArray[i] >> j & 1;
-                long b2 = kmerCoreBitsArray[i] >> j - 1 & 1;
-                if (b1 == 0 && b2 == 0) {
-                    sb.append("A");
-                } else if (b1 == 0 && b2 == 1) {
-                    sb.append("C");
-                } else if (b1 == 1 && b2 == 0) {
-                    sb.append("G");
-                } else if (b1 == 1 && b2 == 1) {
-                    sb.append("T");
-                }
+            int bases = i == 0 ? encodedSequenceLength - (kmerCoreBitsArray.length - 1) * 32 : 32;
+            for (int shift = bases * 2 - 2; shift >= 0; shift -= 2) {
+                sb.append(BASES[(int) (kmerCoreBitsArray[i] >>> shift) & 3]);
             }
         }
         return sb.toString();
     }
 
+    private static int getCodeOrExit(CharSequence sequence, int position, String target) {
+        int code = getCode(sequence.charAt(position));
+        if (code < 0) {
+            System.err.println("Failed encoding kmerstring to " + target + "....");
+            System.err.println("Offending char: \"" + sequence.charAt(position) + "\"");
+            System.err.println("at position " + position);
+            System.err.println("in " + sequence);
+            System.err.println("....exiting");
+            System.exit(1);
+        }
+        return code;
+    }
+
+    private static NonACGTException nonACGT(CharSequence sequence, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (getCode(sequence.charAt(i)) < 0) {
+                return new NonACGTException("Failed encoding k-mer core. Offending char: " + sequence.charAt(i) + " in " + sequence.subSequence(from, to));
+            }
+        }
+        return new NonACGTException("Failed encoding k-mer core " + sequence.subSequence(from, to));
+    }
+
 //    public static int compareCores(int[] core, int[] anotherCore) {
 //        for (int i = 0; i < core.length; i++) {
 //            try {
@@ -342,95 +264,152 @@ public class CoreCoder {
     }
 
 
+    /**
+     * Each word mixed in turn, as 2-bit encoded bases hash poorly when words
+     * are simply folded (Arrays.hashCode())
+     *
+     * @param core
+     * @return
+     */
     public static int computeHash(long[] core) {
-        int hash = 3;
-        hash = 79 * hash + Arrays.hashCode(core);
-        return hash;
+        long hash = 3;
+        for (long word : core) {
+            hash = (hash ^ word) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
+        }
+        return (int) hash;
     }
 
     public static CharSequence decodeCore(int encodedSequenceLength, int ecodedCore) {
-        StringBuilder sb = new StringBuilder();
-        int startPrintingBitsFrom = encodedSequenceLength * 2 - 1;
-//        if (kmerCoreBits == 170160154469L) {
-//            String toBinaryString = Long.toBinaryString(kmerCoreBits);
-//            System.err.println(toBinaryString);
-//            for (int i = 64; i > -1; i--) {
-//                System.err.printf("%2d %d\n",i,(kmerCoreBits >>> i & 1));
-//            }
-//            System.err.println("DONE");
-//        }
-
-        for (int j = startPrintingBitsFrom; j > -1; j -= 2) {
-            int twoBits = ecodedCore >> j - 1 & 3;
-            switch (twoBits) {
-                case 0:
-                    sb.append("A");
-                    break;
-                case 1:
-                    sb.append("C");
-                    break;
-                case 2:
-                    sb.append("G");
-                    break;
-                case 3:
-                    sb.append("T");
-                    break;
-                default:
-                    break;
-            }
+        StringBuilder sb = new StringBuilder(encodedSequenceLength);
+        for (int shift = encodedSequenceLength * 2 - 2; shift >= 0; shift -= 2) {
+            sb.append(BASES[ecodedCore >>> shift & 3]);
         }
         return sb;
     }
 
     public static int encodeCore(CharSequence sequence) {
-//        System.err.println("Encoding seq len=" + kmerString.length());
-        int stringLength = sequence.length();
-//        int currentInt = 0;
-        int position = 0;
         int kmerCoreBits = 0;
-        while (position < stringLength) {
-            kmerCoreBits <<= 1;
-            switch (sequence.charAt(position)) {
-                case 'A':
-                case 'a':
-                    //if A : 00
-                    kmerCoreBits <<= 1;
-                    break;
-                case 'C':
-                case 'c':
-                    //if C : 01
-                    kmerCoreBits <<= 1;
-                    kmerCoreBits++;
-                    break;
-                case 'G':
-                case 'g':
-                    //if G : 10
-                    kmerCoreBits++;
-                    kmerCoreBits <<= 1;
-                    break;
-                case 'T':
-                case 't':
-                    //if T : 11
-                    kmerCoreBits++;
-                    kmerCoreBits <<= 1;
-                    kmerCoreBits++;
-                    break;
-                default:
-                    System.err.println("Failed ecoding kmerstring to long....");
-                    System.err.println("Offending char: " + sequence.charAt(position));
-                    System.err.println("in " + sequence);
-                    System.err.println("....exiting");
-                    System.exit(1);
-            }
-            position++;
+        for (int position = 0; position < sequence.length(); position++) {
+            kmerCoreBits = kmerCoreBits << 2 | getCodeOrExit(sequence, position, "int");
         }
-//        String decodeCore = decodeCore(stringLength);
-//        if (!decodeCore.equals(coreString)) {
-//            System.err.println("Error encoding/decoding " + kmerCoreBits);
-//            System.err.println(coreString + " <-core");
-//            System.err.println(decodeCore + " <-decoded");
-//            decodeCore = decodeCore(stringLength);
-//        }
         return kmerCoreBits;
     }
+
+    /**
+     * Core formed by prepending a base to all but the last base of the given
+     * core (i.e. core shifted right by one base). Both in the layout of
+     * encodeCoreLongArray(), the first long holds the leftover high-order bases
+     *
+     * @param core
+     * @param coreLength
+     * @param code 2-bit code of the prepended base
+     * @return
+     */
+    public static long[] shiftInLeft(long[] core, int coreLength, int code) {
+        long[] shifted = new long[core.length];
+        for (int i = core.length - 1; i > 0; i--) {
+            shifted[i] = (core[i] >>> 2) | (core[i - 1] << 62);
+        }
+        shifted[0] = (core[0] >>> 2) | ((long) code << (getHighBits(coreLength, core.length) - 2));
+        return shifted;
+    }
+
+    /**
+     * Core formed by appending a base to all but the first base of the given
+     * core (i.e. core shifted left by one base)
+     *
+     * @param core
+     * @param coreLength
+     * @param code 2-bit code of the appended base
+     * @return
+     */
+    public static long[] shiftInRight(long[] core, int coreLength, int code) {
+        long[] shifted = new long[core.length];
+        int last = core.length - 1;
+        for (int i = 0; i < last; i++) {
+            shifted[i] = (core[i] << 2) | (core[i + 1] >>> 62);
+        }
+        shifted[last] = (core[last] << 2) | code;
+        int highBits = getHighBits(coreLength, core.length);
+        if (highBits < 64) {
+            shifted[0] &= (1L << highBits) - 1;
+        }
+        return shifted;
+    }
+
+    public static long[] reverseComplement(long[] core, int coreLength) {
+        int words = core.length;
+        long[] rc = new long[words];
+        for (int i = 0; i < words; i++) {
+            rc[i] = ~reverseBases(core[words - 1 - i]);
+        }
+        //BASES NOW START AT THE MOST SIGNIFICANT BIT, DROP THE (COMPLEMENTED) PADDING
+        int padding = 64 - getHighBits(coreLength, words);
+        if (padding > 0) {
+            for (int i = words - 1; i > 0; i--) {
+                rc[i] = (rc[i] >>> padding) | (rc[i - 1] << (64 - padding));
+            }
+            rc[0] >>>= padding;
+        }
+        return rc;
+    }
+
+    /**
+     * Same as SequenceOps.isCanonical() on the decoded core, palindromes are
+     * canonical
+     *
+     * @param core
+     * @param coreLength
+     * @return
+     */
+    public static boolean isCanonical(long[] core, int coreLength) {
+        return isCanonical(core, reverseComplement(core, coreLength));
+    }
+
+    /**
+     *
+     * @param core
+     * @param rc reverse complement of the core, see reverseComplement()
+     * @return
+     */
+    public static boolean isCanonical(long[] core, long[] rc) {
+        for (int i = 0; i < core.length; i++) {
+            if (core[i] != rc[i]) {
+                return (core[i] ^ Long.MIN_VALUE) < (rc[i] ^ Long.MIN_VALUE); //unsigned
+            }
+        }
+        return true;
+    }
+
+    public static long[] getCanonical(long[] core, int coreLength) {
+        return isCanonical(core, coreLength) ? core : reverseComplement(core, coreLength);
+    }
+
+    /**
+     * 2-bit code of a single base clip as stored in PairMer (A=8, C=4, G=2,
+     * T=1)
+     *
+     * @param clipBin
+     * @return
+     */
+    public static int getClipCode(byte clipBin) {
+        return 3 - Integer.numberOfTrailingZeros(clipBin);
+    }
+
+    /**
+     * Reverse the order of the 2-bit bases in a word
+     */
+    private static long reverseBases(long bits) {
+        long reversed = Long.reverse(bits);
+        return ((reversed >>> 1) & 0x5555555555555555L) | ((reversed & 0x5555555555555555L) << 1);
+    }
+
+    /**
+     *
+     * @return number of bits used in the first long
+     */
+    private static int getHighBits(int coreLength, int words) {
+        return coreLength * 2 - (words - 1) * 64;
+    }
 }
@@ -20,12 +20,16 @@ import argparser.Opt;
 import argparser.OptSet;
 import argparser.PositionalOpt;
 import java.io.BufferedWriter;
+import java.io.File;
+import shared.CountingBloomFilter;
 import shared.Reporter;
 import shared.InputReaderProducer;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -35,9 +39,10 @@ import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -128,6 +133,27 @@ public class KmerExtender {
             }
         }
 
+        if (optSet.getOpt("iterative").isUsed() && optSet.getOpt("seed-file").isUsed()) {
+            Reporter.report("[ERROR]", "Iterative extension not available for seed extension", TOOL_NAME);
+            System.exit(1);
+        }
+        if (optSet.getOpt("iterative").isUsed() && (optSet.getOpt("load-snapshot").isUsed() || optSet.getOpt("save-snapshot").isUsed())) {
+            Reporter.report("[ERROR]", "Snapshots not available for iterative extension", TOOL_NAME);
+            System.exit(1);
+        }
+        if (optSet.getOpt("partitions").isUsed()) {
+            if (optSet.getOpt("seed-file").isUsed() || optSet.getOpt("iterative").isUsed()
+                    || optSet.getOpt("load-snapshot").isUsed() || optSet.getOpt("save-snapshot").isUsed()) {
+                Reporter.report("[ERROR]", "Partitioned mode not available for seed or iterative extension or with snapshots", TOOL_NAME);
+                System.exit(1);
+            }
+            if (optSet.getOpt("packed-table").isUsed()) {
+                Reporter.report("[WARNING]", "packed-table ignored in partitioned mode", TOOL_NAME);
+            }
+        }
+        if (optSet.getOpt("iterative-keep-input").isUsed() && !optSet.getOpt("iterative").isUsed()) {
+            Reporter.report("[WARNING]", "iterative-keep-input has no effect without iterative", TOOL_NAME);
+        }
         if (optSet.getOpt("seed-file").isUsed()) {
             seedSequences = new SeedSequences((String) optSet.getOpt("seed-file").getValueOrDefault(), optSet.getOpt("purged-input").isUsed());
             if (seedSequences.getSeedSequences().isEmpty()) {
@@ -197,11 +223,23 @@ public class KmerExtender {
                 + "passed to in-queue", 1024, 1, 8092));
         optSet.addOpt(new Opt('Q', "in-queue-capacity", "Maximum number of buffers put on queue for populator threads to pick-up",
                 2, 1, 256));
+        optSet.addOpt(new Opt<Long>(null, "packed-table", "Store PairMers in a packed open addressing table sized for <arg> distinct (k-1)-mers, "
+                + "far less memory per k-mer than the default map, but exits with an error once more (k-1)-mers are found than the table holds at a load factor of 0.75 (at least <arg>). Only for k <= 65", 1).setMinValue(1L));
+        optSet.addOpt(new Opt<String>(null, "load-snapshot", "Instead of reading input, load purged map(s) previously written with save-snapshot, "
+                + "if k-mer-length or k-mer-min/max given, only matching k values are loaded", 1));
+        optSet.addOpt(new Opt<Integer>(null, "partitions", "Disk-partitioned mode for k-mer sets larger than memory: k-mers are written to <arg> bucket files "
+                + "by minimizer, buckets are then extended independently (as many at a time as there are threads) and the partial extensions glued. "
+                + "Single k only, k <= 65", 1).setMinValue(1).setMaxValue(65536));
+        optSet.addOpt(new Opt<String>(null, "partition-dir", "Directory for temporary bucket files in partitioned mode, these take about 20 B (k <= 33) "
+                + "or 36 B (k <= 65) per distinct k-mer, more for repeated k-mers spread far apart in the input", 1).setDefaultValue(System.getProperty("java.io.tmpdir")));
+        optSet.addOpt(new Opt<Integer>(null, "singleton-filter", "When k-merizing reads, only add a k-mer to the map on its second sighting, "
+                + "sightings tracked in a counting Bloom filter of <arg> MB per k value. Keeps most erroneous k-mers out of memory altogether, "
+                + "a filter too small for the input lets more singletons through (each counted as seen twice)", 1).setMinValue(1));
 //        optSet.addOpt(new Opt('m', "min-frequency", "....", 1,1,Integer.MAX_VALUE));
         int footId = 1;
         String foot = "Warning! Exploring a large range of k values for a significant input [k-mers/FAST[A|Q]] "
                 + "will make the memory requirements explode, "
-                + "as it is done in parallel to avoid excessive I/O and to preserve stdin handling";
+                + "as it is done in parallel to avoid excessive I/O and to preserve stdin handling, unless iterative is used";
         optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Variable k-mer size for longest extension of a seed]");
         optSet.addOpt(new Opt('S', "seed-file", "Fasta file containing \"seeds\" to be extended", 1));
 //        optSet.addOpt(new Opt(null, "exclude", "Blacklisted k-mers to be excluded before extending", 1));
@@ -209,12 +247,18 @@ public class KmerExtender {
         optSet.addOpt(new Opt(null, "k-mer-min", "", 1).setMinValue(3).setMaxValue(2048).addFootnote(footId, foot));
         optSet.addOpt(new Opt(null, "k-mer-max", "", 1).setMinValue(3).setMaxValue(2048).addFootnote(footId, foot));
         optSet.addOpt(new Opt(null, "k-mer-step", "", 1).setMinValue(1).setDefaultValue(2).addFootnote(footId, foot));
+        optSet.addOpt(new Opt<Boolean>(null, "iterative", "Instead of populating maps for all k values at once, extend at each k in ascending order, "
+                + "only the first k is populated from the input, subsequent ones from extensions at the previous k, "
+                + "only one map held in memory at a time. Not for use with seeds"));
+        optSet.addOpt(new Opt<Boolean>(null, "iterative-keep-input", "With iterative, populate every k from the whole input in addition to the extensions "
+                + "at the previous k, so that extensions can be joined across branching points of the first k. "
+                + "Each k then costs as much as the first, input can not be read from stdin"));
 //        optSet.addOpt(new Opt(null, "k-values", "Explicitly set k values to be explored", 2).setMinValue(1).setDefaultValue(2).addFootnote(footId, foot));
         //RUNTIME
         optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Runtime settings]");
         int procs = Runtime.getRuntime().availableProcessors();
         optSet.addOpt(new Opt('t', "threads", "Number of worker threads, at various stages of program execution additional 1-3 threads may be running",
-                procs, 1, Math.min(procs, 255))); //max 255 threads as w use a byte to store thread id on visited pairmers with Byte.MAX_VALUE reserved as intial value representing not visited
+                procs, 1, procs));
 
         //OUTPUT
         optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Output settings]");
@@ -226,6 +270,8 @@ public class KmerExtender {
 //        optSet.addOpt(new Opt(null, "ambiguous-only", "Only output extensions around ambiguous positions", 1));
 //        optSet.addOpt(new Opt(null, "blunt-only", "Only output  unambiguous extensions (ones that end due to lack of sequence information rather than alternatives)", 1));
 
+        optSet.addOpt(new Opt<String>(null, "save-snapshot", "Write purged map(s) to <arg> binary file (gzipped if name ends with .gz) "
+                + "for subsequent runs to be started from with load-snapshot", 1));
         optSet.addOpt(new Opt('s', "stats-file", "Write extension stats to this file [TO BE RE-IMPLEMENTED - not much output here]", 1));
         optSet.addOpt(new Opt('d', "debug-file", "Write unkosher extensions details to this file - in practice these are just lists of k-mers for the unextended palindromic/circular sequences", 1));
         optSet.addOpt(new Opt('P', "print-user-settings", "Print the list of user-settings to stderr and continue executing"));
@@ -247,36 +293,30 @@ public class KmerExtender {
                 kSizes.add(k);
             }
         }
+        if (optSet.getOpt("partitions").isUsed()) {
+            extendPartitioned(kSizes, optSet);
+            Reporter.report("[INFO]", "Finished extending k-mers", TOOL_NAME);
+            return;
+        }
+        if (optSet.getOpt("iterative").isUsed()) {
+            Collections.sort(kSizes);
+            extendIteratively(kSizes, optSet);
+            Reporter.report("[INFO]", "Finished extending k-mers", TOOL_NAME);
+            return;
+        }
         Collections.sort(kSizes, Collections.reverseOrder());
 
         //READ k-mers AND POPULATE A MAP FOR EACH SIZE OF k
-        PairMerMaps pairMerMaps = new PairMerMaps(kSizes, TOOL_NAME);
-        readKmersAndPopulatePairMersMaps(pairMerMaps);
-
-        Iterator<Integer> kIterator = kSizes.iterator();
-        while (kIterator.hasNext()) {
-            Integer k = kIterator.next();
-//
-//        }
-//        for (Integer k : kSizes) {
-            PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
-//            Reporter.report("[INFO]", "Finished populating map, counting elements... ", TOOL_NAME);
-            Reporter.report("[INFO]", "Finished populating map, k=" + k + ", n=" + NumberFormat.getNumberInstance().format(pairMersMap.size()), TOOL_NAME);
-            if (pairMersMap.isEmpty()) {
-                pairMerMaps.removePairMersMap(k);
-                kIterator.remove();
+        PairMerMaps pairMerMaps;
+        if (optSet.getOpt("load-snapshot").isUsed()) {
+            pairMerMaps = loadSnapshot((String) optSet.getOpt("load-snapshot").getValueOrDefault(), kSizes, optSet);
+        } else {
+            pairMerMaps = populateAndPurgePairMersMaps(kSizes, inputFileNamesList, optSet, true);
+            if (optSet.getOpt("save-snapshot").isUsed()) {
+                saveSnapshot((String) optSet.getOpt("save-snapshot").getValueOrDefault(), pairMerMaps);
             }
         }
 
-        if (pairMerMaps.size() == 0) {
-            Reporter.report("[WARN]", "Empty k-mer map(s), nothing to extend... terminating", TOOL_NAME);
-            System.exit(0); //not sure if this should be non-zero 
-        }
-
-        //PURGING ALSO IDENTIFIES MOST TERMINAl PAIRMERS -> ALLOWING EFFICIENT MULTI-THREADED TRAVERSAL
-        Reporter.report("[INFO]", "Purging map and identifying terminal PairMers...", TOOL_NAME);
-        purgePopulatedPairMersMaps(pairMerMaps);
-
         ConcurrentHashMap<Integer, PairMerToSeedMap> kToSeedMers = null;
         if (seedSequences != null) {
             if (!optSet.getOpt("purged-input").isUsed()) {
@@ -358,11 +398,215 @@ public class KmerExtender {
         Reporter.report("[INFO]", "Finished extending k-mers", TOOL_NAME);
     }
 
+    /**
+     * Read input, populate a map for each size of k and purge the map(s)
+     *
+     * @param kSizes
+     * @param inputFiles
+     * @param optSet
+     * @param useSingletonFilter set to false to ignore singleton-filter, e.g.
+     * when input consists of previously extended sequences
+     * @return
+     */
+    private PairMerMaps populateAndPurgePairMersMaps(ArrayList<Integer> kSizes, ArrayList<String> inputFiles, OptSet optSet, boolean useSingletonFilter) {
+        Long tableExpectedSize = optSet.getOpt("packed-table").isUsed() ? (Long) optSet.getOpt("packed-table").getValueOrDefault() : null;
+        PairMerMaps pairMerMaps = new PairMerMaps(kSizes, TOOL_NAME, tableExpectedSize);
+        if (useSingletonFilter && optSet.getOpt("singleton-filter").isUsed()) {
+            long filterBytes = (long) (int) optSet.getOpt("singleton-filter").getValueOrDefault() << 20;
+            for (int k : kSizes) {
+                pairMerMaps.getPairMersMap(k).setSingletonFilter(new CountingBloomFilter(filterBytes));
+            }
+        }
+        readKmersAndPopulatePairMersMaps(pairMerMaps, inputFiles);
+
+        Iterator<Integer> kIterator = kSizes.iterator();
+        while (kIterator.hasNext()) {
+            Integer k = kIterator.next();
+//
+//        }
+//        for (Integer k : kSizes) {
+            PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
+//            Reporter.report("[INFO]", "Finished populating map, counting elements... ", TOOL_NAME);
+            Reporter.report("[INFO]", "Finished populating map, k=" + k + ", n=" + NumberFormat.getNumberInstance().format(pairMersMap.size()), TOOL_NAME);
+            if (pairMersMap.isEmpty()) {
+                pairMerMaps.removePairMersMap(k);
+                kIterator.remove();
+            }
+        }
+
+        if (pairMerMaps.size() == 0) {
+            Reporter.report("[WARN]", "Empty k-mer map(s), nothing to extend... terminating", TOOL_NAME);
+            System.exit(0); //not sure if this should be non-zero 
+        }
+
+        //PURGING ALSO IDENTIFIES MOST TERMINAl PAIRMERS -> ALLOWING EFFICIENT MULTI-THREADED TRAVERSAL
+        Reporter.report("[INFO]", "Purging map and identifying terminal PairMers...", TOOL_NAME);
+        purgePopulatedPairMersMaps(pairMerMaps);
+        return pairMerMaps;
+    }
+
+    /**
+     * Disk-partitioned extension, see PairMersPartitioner and
+     * PartitionedPairMersExtender
+     *
+     * @param kSizes
+     * @param optSet
+     */
+    private void extendPartitioned(ArrayList<Integer> kSizes, OptSet optSet) {
+        if (kSizes.size() != 1 || kSizes.get(0) - 1 > 64) {
+            Reporter.report("[ERROR]", "Partitioned mode requires a single k value, not greater than 65", TOOL_NAME);
+            System.exit(1);
+        }
+        int k = kSizes.get(0);
+        int buckets = (int) optSet.getOpt("partitions").getValueOrDefault();
+        File dir = null;
+        PairMersPartitioner partitioner = null;
+        try {
+            dir = Files.createTempDirectory(Paths.get((String) optSet.getOpt("partition-dir").getValueOrDefault()), "kextend_partitions_").toFile();
+            dir.deleteOnExit();
+            partitioner = new PairMersPartitioner(k, dir, buckets);
+        } catch (IOException e) {
+            Reporter.report("[ERROR]", "Failed creating bucket files: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        PairMerMaps pairMerMaps = new PairMerMaps(kSizes, TOOL_NAME);
+        PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
+        pairMersMap.setPartitioner(partitioner);
+        if (optSet.getOpt("singleton-filter").isUsed()) {
+            pairMersMap.setSingletonFilter(new CountingBloomFilter((long) (int) optSet.getOpt("singleton-filter").getValueOrDefault() << 20));
+        }
+        Reporter.report("[INFO]", "Writing k-mers to " + buckets + " bucket(s) in " + dir, TOOL_NAME);
+        readKmersAndPopulatePairMersMaps(pairMerMaps, inputFileNamesList);
+        pairMerMaps.removePairMersMap(k);
+        try {
+            partitioner.close();
+        } catch (IOException e) {
+            Reporter.report("[ERROR]", "Failed writing bucket files: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        long total = 0;
+        long largest = 0;
+        for (int i = 0; i < buckets; i++) {
+            total += partitioner.getRecords(i);
+            largest = Math.max(largest, partitioner.getRecords(i));
+        }
+        Reporter.report("[INFO]", "Finished partitioning, k=" + k + ", n=" + NumberFormat.getIntegerInstance().format(total)
+                + " PairMer records, largest bucket n=" + NumberFormat.getIntegerInstance().format(largest), TOOL_NAME);
+        Integer minLen = optSet.getOpt("min-length").isUsed() ? (int) optSet.getOpt("min-length").getValueOrDefault() : k + 1;
+        new PartitionedPairMersExtender(partitioner, dir, MIN_KMER_FREQUENCY, TOOL_NAME).extend(Math.min(MAX_THREADS, buckets), OUTPUT_FASTA, NAME_PREFIX,
+                (String) optSet.getOpt("out-file").getValueOrDefault(), minLen);
+        dir.delete();
+    }
+
+    private void saveSnapshot(String fileName, PairMerMaps pairMerMaps) {
+        Reporter.report("[INFO]", "Writing purged map(s) to " + fileName, TOOL_NAME);
+        try {
+            PairMersMapSnapshot.write(pairMerMaps, fileName);
+        } catch (IOException e) {
+            Reporter.report("[ERROR]", "Failed writing snapshot: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        Reporter.report("[INFO]", "Finished writing purged map(s) to " + fileName, TOOL_NAME);
+    }
+
+    /**
+     * Load purged map(s) instead of reading and purging the input
+     *
+     * @param fileName
+     * @param kSizes k values to be loaded, all if empty, on return holds the k
+     * values loaded, descending
+     * @param optSet
+     * @return
+     */
+    private PairMerMaps loadSnapshot(String fileName, ArrayList<Integer> kSizes, OptSet optSet) {
+        if (!inputFileNamesList.isEmpty()) {
+            Reporter.report("[WARNING]", "Input file(s) ignored, loading purged map(s) from " + fileName, TOOL_NAME);
+        }
+        Reporter.report("[INFO]", "Loading purged map(s) from " + fileName, TOOL_NAME);
+        Long tableExpectedSize = optSet.getOpt("packed-table").isUsed() ? (Long) optSet.getOpt("packed-table").getValueOrDefault() : null;
+        PairMerMaps pairMerMaps = null;
+        try {
+            pairMerMaps = PairMersMapSnapshot.read(fileName, kSizes, TOOL_NAME, tableExpectedSize);
+        } catch (IOException e) {
+            Reporter.report("[ERROR]", "Failed loading snapshot: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        } catch (OutOfMemoryError e) {
+            Reporter.report("[ERROR]", "Out of memory error!", TOOL_NAME);
+            System.exit(1);
+        }
+        if (kSizes.isEmpty()) {
+            Reporter.report("[WARN]", "No matching k-mer map(s) in snapshot, nothing to extend... terminating", TOOL_NAME);
+            System.exit(0);
+        }
+        Collections.sort(kSizes, Collections.reverseOrder());
+        for (int k : kSizes) {
+            PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
+            Reporter.report("[INFO]", "Loaded purged map, k=" + k + ", n=" + NumberFormat.getIntegerInstance().format(pairMersMap.size())
+                    + ", terminal PairMers=" + NumberFormat.getIntegerInstance().format(pairMersMap.sizeTerminals()), TOOL_NAME);
+        }
+        return pairMerMaps;
+    }
+
+    /**
+     * Extend at each k in ascending order, feeding the sequences extended at k
+     * back as input at the next k, so that only one map is held in memory at a
+     * time. All but the first k only k-merize the previous extensions, unless
+     * iterative-keep-input is set, in which case the original input is read
+     * again at each k.
+     *
+     * @param kSizes ascending
+     * @param optSet
+     */
+    private void extendIteratively(ArrayList<Integer> kSizes, OptSet optSet) {
+        boolean dropInput = !optSet.getOpt("iterative-keep-input").isUsed();
+        String outFile = (String) optSet.getOpt("out-file").getValueOrDefault();
+        if (!dropInput && kSizes.size() > 1 && (inputFileNamesList.isEmpty() || inputFileNamesList.contains("-"))) {
+            Reporter.report("[FATAL]", "Input can not be read from stdin more than once, use input file(s) with iterative-keep-input", TOOL_NAME);
+            System.exit(1);
+        }
+        File previous = null;
+        for (int i = 0; i < kSizes.size(); i++) {
+            int k = kSizes.get(i);
+            boolean last = i == kSizes.size() - 1;
+            ArrayList<String> inputFiles = new ArrayList<>();
+            if (previous == null || !dropInput) {
+                inputFiles.addAll(inputFileNamesList);
+            }
+            if (previous != null) {
+                inputFiles.add(previous.getPath());
+            }
+            Reporter.report("[INFO]", "Iteration " + (i + 1) + " of " + kSizes.size() + ", k=" + k + ", reading " + inputFiles.size() + " input file(s)", TOOL_NAME);
+            ArrayList<Integer> kSize = new ArrayList<>(1);
+            kSize.add(k);
+            PairMerMaps pairMerMaps = populateAndPurgePairMersMaps(kSize, inputFiles, optSet, previous == null);
+            if (previous != null) {
+                previous.delete();
+            }
+            PairMersExtender pairMersExtender = new PairMersExtender((String) optSet.getOpt("debug-file").getValueOrDefault(),
+                    (String) optSet.getOpt("stats-file").getValueOrDefault(), TOOL_NAME);
+            if (last) {
+                Integer minLen = optSet.getOpt("min-length").isUsed() ? (int) optSet.getOpt("min-length").getValueOrDefault() : k + 1;
+                pairMersExtender.matchAndExtendKmers(k, pairMerMaps.getPairMersMap(k), OUTPUT_FASTA, NAME_PREFIX, outFile, minLen, MAX_THREADS);
+            } else {
+                try {
+                    previous = File.createTempFile("kextend_k" + k + "_", ".fa");
+                    previous.deleteOnExit();
+                } catch (IOException e) {
+                    Reporter.report("[FATAL]", "Failed creating temporary file for extensions at k=" + k + ": " + e.getMessage(), TOOL_NAME);
+                    System.exit(1);
+                }
+                pairMersExtender.matchAndExtendKmers(k, pairMerMaps.getPairMersMap(k), true, "k" + k, previous.getPath(), k + 1, MAX_THREADS);
+            }
+            pairMerMaps.removePairMersMap(k); //ONE MAP AT A TIME
+            Reporter.report("[INFO]", "Finished extending for k=" + k, TOOL_NAME);
+        }
+    }
+
     /**
      * Producer-consumer multi-threading to: - read the input (k-mers, FASTA,
      * etc) - generate PairMer objects - populate Map(s)
      */
-    private void readKmersAndPopulatePairMersMaps(PairMerMaps pairMerMaps) {
+    private void readKmersAndPopulatePairMersMaps(PairMerMaps pairMerMaps, ArrayList<String> inputFiles) {
         BlockingQueue inputQueue = new ArrayBlockingQueue(INPUT_QUEUE_SIZE);
 
         try {
@@ -374,7 +618,7 @@ public class KmerExtender {
 
             //SPAWN INPUT READING THREAD
             ArrayList<Integer> kSizes = pairMerMaps.getkSizes();
-            InputReaderProducer inputReaderProducer = new InputReaderProducer(inputQueue, kSizes, inputFileNamesList, INPUT_BUFFER_SIZE, TOOL_NAME);
+            InputReaderProducer inputReaderProducer = new InputReaderProducer(inputQueue, kSizes, inputFiles, INPUT_BUFFER_SIZE, TOOL_NAME);
 
             Future<?> future = readAndPopulateExecutor.submit(inputReaderProducer);
             futures.add(future);
@@ -396,6 +640,9 @@ public class KmerExtender {
 //            Integer kSizeFromInput = null;
             if (inputReaderProducer.getGuessedInputFormat().equals(InputReaderProducer.InFormat.KMERS)) {
                 splitInputSequenceIntoKmers = false;
+                if (pairMerMaps.getPairMersMap(kSizes.get(0)).getSingletonFilter() != null) {
+                    Reporter.report("[WARNING]", "Input is a list of k-mers, singleton-filter ignored", TOOL_NAME);
+                }
             }
 
             //SPAWN THREADS TO POPULATE MAP
@@ -421,6 +668,17 @@ public class KmerExtender {
                 Reporter.report("[ERROR]", "PairMerSet populator timeout exception!", TOOL_NAME);
             }
 
+            for (int k : kSizes) { //RELEASE FILTERS BEFORE PURGING
+                PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
+                CountingBloomFilter filter = pairMersMap.getSingletonFilter();
+                if (filter != null) {
+                    if (splitInputSequenceIntoKmers) {
+                        Reporter.report("[INFO]", "Singleton filter held back " + NumberFormat.getNumberInstance().format(filter.getFirstSightings())
+                                + " k-mers seen only once so far, k=" + k, TOOL_NAME);
+                    }
+                    pairMersMap.setSingletonFilter(null);
+                }
+            }
 //            if (pairMersMap.isOutOfMemory()) {
 //                Reporter.report("[ERROR]", "Terminating, out of memory while populating the Map, k=" + KMER_LENGTH + ", n=" + NumberFormat.getIntegerInstance().format(pairMersMap.getPairMersSkipListMap().size()), TOOL_NAME);
 //                System.exit(1);
@@ -435,101 +693,33 @@ public class KmerExtender {
     }
 
     private void purgePopulatedPairMersMaps(PairMerMaps pairMerMaps) {
-        //PREPARE EXECUTOR SERVICE
-        int threads = MAX_THREADS;
-        ArrayList<Future<?>> futures = new ArrayList<>(threads);
-        final ExecutorService purgeMapsExecutorService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-
-//        //No NEED TO SPLIT MAP(s) FOR PURGING IF #MAPS >= THREADS
-//        int subMapThreads = pairMerMaps.size() >= threads ? 1 : threads;
-        //INIT PURGER THREADS
-        ArrayBlockingQueue<PairMersMap> mapsQueue = new ArrayBlockingQueue(Math.max(pairMerMaps.size(), threads) + 1);
-        for (int i = 0; i < threads; i++) {
-            futures.add(purgeMapsExecutorService.submit(new PairMerMapPurgerConsumer(mapsQueue, TOOL_NAME, MIN_KMER_FREQUENCY)));
-        }
-
-        //STATS OF MAP SPLITTING FOR MULTITHREADED PURGING
-//        long total = 0;
-//        long min = Long.MAX_VALUE;
-//        long max = Long.MIN_VALUE;
-//        int[] sizes = null;
-//        ArrayList<ConcurrentNavigableMap<PairMer, PairMer>> mapChunks = new ArrayList<>();
-        int BUFFER_SIZE = 100000;
-
-        //PREPARE MAPS ON QUEUE TO BE PICKED-UP BY THREADS
+        //ONE ROOT TASK PER MAP, SPLIT FURTHER AND STOLEN BY IDLE THREADS
+        ForkJoinPool purgePool = new ForkJoinPool(MAX_THREADS);
+        ArrayList<ForkJoinTask<Long>> tasks = new ArrayList<>();
         Iterator<Integer> it = pairMerMaps.getkSizes().iterator();
-        try {
-            while (it.hasNext()) {
-                Integer k = it.next();
-                PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
-                if (pairMersMap.storeSize() == 0) { //Record for stats after purging, also continue if empty
-                    continue;
-                }
-                if (pairMerMaps.size() >= threads) {
-                    mapsQueue.put(pairMersMap);
-                } else { //WE HAVE MORE THREADS THAN MAPS SO LETS SPLIT THE MAPS
-//                    Reporter.report("[EXPERIMENTAL]", "Running recursive map splitting, need boundary cases testing as it can get stuck or crash", TOOL_NAME);
-//                    long attempts = pairMersMap.recursiveSplitMap(mapChunks, pairMersMap.size() / threads / 100, pairMersMap.size() / threads / 2, mapsQueue);
-//                    Reporter.report("[EXPERIMENTAL]", "Finished running recursive map splitting, total attempts = " + attempts, TOOL_NAME);
-                    Iterator<PairMer> pairMersIterator = pairMersMap.iterator();
-                    PairMer head = null;
-                    PairMer tail = null;
-                    long counter = 0;
-                    if (pairMersIterator.hasNext()) {
-                        head = pairMersIterator.next();
-                        counter++;
-                    }
-                    while (pairMersIterator.hasNext()) {
-                        if (counter++ % BUFFER_SIZE == 0) {
-                            tail = pairMersIterator.next();
-                            ConcurrentNavigableMap subMap = pairMersMap.getPairMersMap().subMap(head, tail);
-                            mapsQueue.put(new PairMersMap(k, subMap, pairMersMap));
-                            head = tail;
-                        } else {
-                            pairMersIterator.next();
-                        }
-                    }
-                    ConcurrentNavigableMap tailMap = pairMersMap.getPairMersMap().tailMap(head);
-                    mapsQueue.put(new PairMersMap(k, tailMap, pairMersMap));
-                }
+        while (it.hasNext()) {
+            Integer k = it.next();
+            PairMersMap pairMersMap = pairMerMaps.getPairMersMap(k);
+            if (pairMersMap.storeSize() == 0) { //Record for stats after purging, also continue if empty
+                continue;
             }
-            mapsQueue.put(new PairMersMap(null));
-        } catch (InterruptedException ex) {
-            System.err.println(ex.getMessage());
+            tasks.add(purgePool.submit(new PairMersMapPurgeTask(pairMersMap, MIN_KMER_FREQUENCY)));
         }
 
         //WAIT UNTIL DONE
-        purgeMapsExecutorService.shutdown();
         try {
-            for (Future<?> f : futures) {
-                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (ForkJoinTask<Long> task : tasks) {
+                task.get();
             }
-            purgeMapsExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
         } catch (InterruptedException e) {
             Reporter.report("[ERROR]", "PairMerSet purger interrupted exception!", TOOL_NAME);
         } catch (ExecutionException ex) {
             Reporter.report("[ERROR]", "PairMerSet purger execution exception!", TOOL_NAME);
             ex.printStackTrace();
             System.exit(1);
-        } catch (TimeoutException ex) {
-            ex.printStackTrace();
-            Reporter.report("[ERROR]", "PairMerSet purger timeout exception!", TOOL_NAME);
-        }
-//        sizes = new int[mapChunks.size()];
-//        for (int j = 0; j < mapChunks.size(); j++) {
-////            System.err.println("chunk " + j + " size = " + mapChunks.get(j).size());
-//            sizes[j] = mapChunks.get(j).size();
-//            total += mapChunks.get(j).size();
-//            min = sizes[j] < min ? sizes[j] : min;
-//            max = sizes[j] > max ? sizes[j] : max;
-////                        PairMersMap mapChunk = new PairMersMap(k, mapChunks.get(j), pairMersMap);
-////                        mapsQueue.put(mapChunk);
-//        }
-//        if (sizes != null) {
-//            Reporter.report("[INFO]", "Map split into " + sizes.length + " chunks, total elements=" + NumberFormat.getNumberInstance().format(total)
-//                    + ", median=" + NumberFormat.getNumberInstance().format(CommonMaths.getMedian(sizes))
-//                    + ", min=" + NumberFormat.getNumberInstance().format(min) + ", max=" + NumberFormat.getNumberInstance().format(max), TOOL_NAME);
-//        }
+        } finally {
+            purgePool.shutdown();
+        }
         it = pairMerMaps.getkSizes().iterator();
         while (it.hasNext()) {
             Integer k = it.next();
@@ -673,7 +863,7 @@ public class KmerExtender {
         } catch (InterruptedException ex) {
         }
 
-        byte threadId = Byte.MIN_VALUE;
+        int threadId = PairMer.NOT_VISITED + 1;
         //INIT THREADS
         for (int i = 0; i < threads; i++) {
 //            PairMersSeedExtenderConsumer = new PairMersSeedExtenderConsumer
@@ -15,6 +15,7 @@
  */
 package kextender;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import shared.Reporter;
 import shared.SequenceOps;
 
@@ -35,25 +36,42 @@ public class PairMer {//implements Comparable<PairMer> {
     //hence some nodes next to ambig ext are not identified as such    
 //    private byte clipLeft;    //1B                    
 //    private byte clipRight;   //1B                   
-    private byte clipLeftBin;    //1B                      
-    private byte clipRightBin;   //1B                     
+    //CLIPS, STORED COUNTS, FLAGS AND VISITOR ID PACKED IN A SINGLE INT, UPDATED WITH CAS
+    //0-3      left clip bin (A=8,C=4,G=2,T=1)
+    //4-7      right clip bin
+    //8-12     stored count left (saturating at MAX_STORED_COUNT, only tested for presence and against min frequency)
+    //13-17    stored count right
+    //18       invalid
+    //19       next to ambiguous
+    //20-31    visitedBy (extender thread id), NOT_VISITED if not visited
+    private static final int CLIP_LEFT_SHIFT = 0;
+    private static final int CLIP_RIGHT_SHIFT = 4;
+    private static final int COUNT_LEFT_SHIFT = 8;
+    private static final int COUNT_RIGHT_SHIFT = 13;
+    private static final int VISITED_SHIFT = 20;
+    private static final int CLIP_MASK = 0xF;
+    private static final int COUNT_MASK = 0x1F;
+    private static final int INVALID_BIT = 1 << 18;
+    private static final int NEXT_TO_AMBIGUOUS_BIT = 1 << 19;
+    private static final int VISITED_MASK = 0xFFF << VISITED_SHIFT;
+    private static final AtomicIntegerFieldUpdater<PairMer> STATE = AtomicIntegerFieldUpdater.newUpdater(PairMer.class, "state");
 
-    private byte storedCountLeft;  //1B 
-    private byte storedCountRigth; //1B 
-    private boolean invalid;       //1B   //can be derived from what is stored in either clip 
-    private byte visitedBy = Byte.MAX_VALUE;
-    
-    private boolean nextToAmbiguous;
+    /**
+     * Extender thread ids start above this value, lower id = higher priority
+     */
+    public static final int NOT_VISITED = 0;
+
+    /**
+     * Highest extender thread id which can be stored
+     */
+    public static final int MAX_VISITED_BY = VISITED_MASK >>> VISITED_SHIFT;
+
+    public static final int MAX_STORED_COUNT = COUNT_MASK;
+
+    //4B, FITS IN THE GAP AFTER THE OBJECT HEADER (COMPRESSED OOPS), SO E.G. PairMer1LongEncoded TAKES 24B INSTEAD OF 32B
+    private volatile int state;
 
 //    private boolean ambiguousTMP; //temporary - experimenting with treating blunt end unitigs differently from ambiguous end unitigs, ambig = next to a invalidated PairMer
-    //then round to multi of 8
-    //could save 7B by encoding all the fields in a single B (storedCount would not be stored exactly but the state of the other bits could indicate is count is 1,2 or more)
-    //7 (sign) 
-    //6,5,4    left clip:  \fi,A,C,G,T or X for extensions conflict
-    //3,2,1    right clip: \fi,A,C,G,T or X for extensions conflict
-    //0        wasVisited: 0==false, 1==true 
-    //could save even more if encoded along core in long, 2*long etc.
-    //in such case, use masks for core-comparisons that ignore these encoded fields
     /**
      * It is assumed that the input PairMer matches this one (another.core ==
      * this.core)
@@ -64,13 +82,23 @@ public class PairMer {//implements Comparable<PairMer> {
      * @param freq : k-mer frequency (known if input is pre-computed k-mers,
      * otherwise counting is done here)
      */
-    public synchronized void addKmerSynchronized(PairMer another, boolean inputKmersUnique, int freq) {
-        if (another.hasLeftClip()) {
-            setClipLeftBin(another.getClipLeftBin(), freq);
-        }
-        if (another.hasRightClip()) {
-            setClipRightBin(another.getClipRightBin(), freq);
-        }
+    public void addKmer(PairMer another, boolean inputKmersUnique, int freq) {
+        boolean addLeft = another.hasLeftClip();
+        boolean addRight = another.hasRightClip();
+        byte clipLeftBin = another.getClipLeftBin();
+        byte clipRightBin = another.getClipRightBin();
+        int current;
+        int updated;
+        do {
+            current = state;
+            updated = current;
+            if (addLeft) {
+                updated = addClip(updated, CLIP_LEFT_SHIFT, COUNT_LEFT_SHIFT, clipLeftBin, freq);
+            }
+            if (addRight) {
+                updated = addClip(updated, CLIP_RIGHT_SHIFT, COUNT_RIGHT_SHIFT, clipRightBin, freq);
+            }
+        } while (!STATE.compareAndSet(this, current, updated));
 
 //        //if already invalid PairMer  or more than second kmer being added
 //        if (isInvalid() || (inputKmersUnique && (getStoredCountLeft() > 0 && getStoredCountRigth() > 0))) {
@@ -134,13 +162,13 @@ public class PairMer {//implements Comparable<PairMer> {
     protected boolean hasLeftClip() {
 //        return clipLeft != '#';
 //        return clipLeft > 0;
-        return storedCountLeft > 0;
+        return getStoredCountLeft() > 0;
     }
 
     protected boolean hasRightClip() {
 //        return clipRight != '#';
 //        return clipRight > 0;
-        return storedCountRigth > 0;
+        return getStoredCountRigth() > 0;
     }
 
     protected boolean hasBothClips() {
@@ -154,7 +182,7 @@ public class PairMer {//implements Comparable<PairMer> {
 //            storedCountRigth = (byte) Math.min(storedCountRigth + freq, Byte.MAX_VALUE);
 //        }
 //    }
-    private char getClip(byte clip) {
+    static char getClip(byte clip) {
         switch (clip) {
             case 8:
                 return 'A';
@@ -250,119 +278,142 @@ public class PairMer {//implements Comparable<PairMer> {
     }
 
     public boolean isInvalid() {
-        return invalid;
+        return (state & INVALID_BIT) != 0;
     }
 
     protected byte getStoredCount() {
-        return (byte) Math.min(storedCountLeft + storedCountRigth, Byte.MAX_VALUE);
+        return (byte) Math.min(getStoredCountLeft() + getStoredCountRigth(), Byte.MAX_VALUE);
     }
 
     public byte getStoredCountLeft() {
-        return storedCountLeft;
+        return (byte) ((state >>> COUNT_LEFT_SHIFT) & COUNT_MASK);
     }
 
     public byte getStoredCountRigth() {
-        return storedCountRigth;
+        return (byte) ((state >>> COUNT_RIGHT_SHIFT) & COUNT_MASK);
     }
 
     protected void setClipLeftBin(byte clipLeftBin, int freq) {
-        this.clipLeftBin |= clipLeftBin;
-        storedCountLeft = (byte) Math.min(storedCountLeft + freq, Byte.MAX_VALUE);
-        if (getClipLeftBin() != clipLeftBin) {
-            setIsInvalid(); //Ambiguous really
-        }
+        int current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, addClip(current, CLIP_LEFT_SHIFT, COUNT_LEFT_SHIFT, clipLeftBin, freq)));
     }
 
     protected void setClipRightBin(byte clipRightBin, int freq) {
-        this.clipRightBin |= clipRightBin;
-        storedCountRigth = (byte) Math.min(storedCountRigth + freq, Byte.MAX_VALUE);
-        if (getClipRightBin() != clipRightBin) {
-            setIsInvalid();  //Ambiguous really
+        int current;
+        do {
+            current = state;
+        } while (!STATE.compareAndSet(this, current, addClip(current, CLIP_RIGHT_SHIFT, COUNT_RIGHT_SHIFT, clipRightBin, freq)));
+    }
+
+    /**
+     * Add clip to a packed state, incrementing the corresponding count, the
+     * PairMer becomes invalid if the clip differs from one already stored
+     */
+    private static int addClip(int state, int clipShift, int countShift, byte clipBin, int freq) {
+        int bin = ((state >>> clipShift) & CLIP_MASK) | clipBin;
+        int count = (int) Math.min(((state >>> countShift) & COUNT_MASK) + (long) freq, MAX_STORED_COUNT);
+        state &= ~((CLIP_MASK << clipShift) | (COUNT_MASK << countShift));
+        state |= (bin << clipShift) | (count << countShift);
+        if (bin != clipBin) {
+            state |= INVALID_BIT; //Ambiguous really
         }
+        return state;
     }
 
-    protected byte setClipLeft(char clipLeft, int freq) {
-        //this.clipLeft = clipLeft;
-        switch (clipLeft) {
+    private static byte getClipBin(char clip) {
+        switch (clip) {
             case 'A':
-                this.clipLeftBin |= 8;
-                break;
+                return 8;
             case 'C':
-                this.clipLeftBin |= 4;
-                break;
+                return 4;
             case 'G':
-                this.clipLeftBin |= 2;
-                break;
+                return 2;
             case 'T':
-                this.clipLeftBin |= 1;
-                break;
-//            case 'A' : this.clipLeft = 1; this.clipLeftBin |= 8; break;
-//            case 'C' : this.clipLeft = 2; this.clipLeftBin |= 4; break;
-//            case 'G' : this.clipLeft = 3; this.clipLeftBin |= 2; break;
-//            case 'T' : this.clipLeft = 4; this.clipLeftBin |= 1; break;
+                return 1;
         }
-        storedCountLeft = (byte) Math.min(storedCountLeft + freq, Byte.MAX_VALUE);
+        return 0;
+    }
+
+    protected byte setClipLeft(char clipLeft, int freq) {
+        setClipLeftBin(getClipBin(clipLeft), freq);
         return getClipLeftBin();
     }
 
     protected byte setClipRight(char clipRight, int freq) {
-//        this.clipRight = clipRight;
-        switch (clipRight) {
-            case 'A':
-                this.clipRightBin |= 8;
-                break;
-            case 'C':
-                this.clipRightBin |= 4;
-                break;
-            case 'G':
-                this.clipRightBin |= 2;
-                break;
-            case 'T':
-                this.clipRightBin |= 1;
-                break;
-//            case 'A' : this.clipRight = 1; this.clipRightBin |= 8; break;
-//            case 'C' : this.clipRight = 2; this.clipRightBin |= 4; break;
-//            case 'G' : this.clipRight = 3; this.clipRightBin |= 2; break;
-//            case 'T' : this.clipRight = 4; this.clipRightBin |= 1; break;
-        }
-
-        storedCountRigth = (byte) Math.min(storedCountRigth + freq, Byte.MAX_VALUE);
+        setClipRightBin(getClipBin(clipRight), freq);
         return getClipRightBin();
     }
 
     protected void setIsInvalid() {
-        this.invalid = true;
+        int current;
+        do {
+            current = state;
+        } while ((current & INVALID_BIT) == 0 && !STATE.compareAndSet(this, current, current | INVALID_BIT));
     }
 
     public boolean isVisited() {
-        return visitedBy != Byte.MAX_VALUE;
-    }
-
-    public synchronized byte checkAndSetVisitedBy(byte id) {
-        if (visitedBy == Byte.MAX_VALUE) {  //NODE NOT VISITED BEFORE
-            visitedBy = id;
-            return Byte.MAX_VALUE;
-        } else if (visitedBy == id) { //NODE ALREADY VISITED BY THE SAME THREAD
-            return id;
-        } else if (visitedBy > id) { //NODE PREVIOUSLY VISITED BY A LOWER PRIORITY THREAD
-            byte prev = visitedBy;
-            visitedBy = id;
-            return prev;
+        return getVisitedBy() != NOT_VISITED;
+    }
+
+    public int getVisitedBy() {
+        return state >>> VISITED_SHIFT;
+    }
+
+    /**
+     * Claim an unvisited PairMer, e.g. the one an extension is started from
+     *
+     * @param id extender thread id
+     * @return false if already visited, by this or any other thread
+     */
+    public boolean claim(int id) {
+        int current;
+        do {
+            current = state;
+            if ((current >>> VISITED_SHIFT) != NOT_VISITED) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, current, (current & ~VISITED_MASK) | (id << VISITED_SHIFT)));
+        return true;
+    }
+
+    /**
+     * Mark as visited by thread id unless already visited by a higher priority
+     * (lower id) thread
+     *
+     * @param id extender thread id
+     * @return previous visitor, NOT_VISITED if none
+     */
+    public int checkAndSetVisitedBy(int id) {
+        while (true) {
+            int current = state;
+            int visitedBy = current >>> VISITED_SHIFT;
+            if (visitedBy == id) { //NODE ALREADY VISITED BY THE SAME THREAD
+                return id;
+            } else if (visitedBy != NOT_VISITED && visitedBy < id) {
+                return visitedBy; //NODE PREVIOUSLY VISITED BY A HIGHER PRIORITY THREAD
+            }
+            //NODE NOT VISITED BEFORE OR VISITED BY A LOWER PRIORITY THREAD
+            if (STATE.compareAndSet(this, current, (current & ~VISITED_MASK) | (id << VISITED_SHIFT))) {
+                return visitedBy;
+            }
         }
-        return visitedBy; //NODE PREVIOUSLY VISITED BY A HIGHER PRIORITY THREAD 
     }
 
     public boolean isNextToAmbiguous() {
-        return nextToAmbiguous;
+        return (state & NEXT_TO_AMBIGUOUS_BIT) != 0;
     }
 
     public void setNextToAmbiguous(boolean nextToAmbiguous) {
-        this.nextToAmbiguous = nextToAmbiguous;
+        int current;
+        int updated;
+        do {
+            current = state;
+            updated = nextToAmbiguous ? current | NEXT_TO_AMBIGUOUS_BIT : current & ~NEXT_TO_AMBIGUOUS_BIT;
+        } while (current != updated && !STATE.compareAndSet(this, current, updated));
     }
 
- 
-
-
 //    public boolean isAmbiguousTMP() {
 //        return ambiguousTMP;
 //    }
@@ -371,42 +422,88 @@ public class PairMer {//implements Comparable<PairMer> {
 //        this.ambiguousTMP = ambiguousTMP;
 //    }
     public byte getClipLeftBin() {
-        return clipLeftBin;
+        return (byte) ((state >>> CLIP_LEFT_SHIFT) & CLIP_MASK);
     }
 
     public byte getClipRightBin() {
-        return clipRightBin;
+        return (byte) ((state >>> CLIP_RIGHT_SHIFT) & CLIP_MASK);
     }
 
+    /**
+     * Key (core only, canonical) for retrieving the PairMer which shares the
+     * k-mer formed by the left clip and this core. Overridden by subclasses
+     * which can shift the encoded core directly, this one goes via Strings.
+     *
+     * @param k
+     * @return
+     */
     public PairMer getOtherPairmerCoreLeft(int k) {
-        return null;
+        try {
+            return PairMerTypeSelector.getPairMer(getOtherCoreLeft(k), k);
+        } catch (NonACGTException ex) {
+            return null;
+        }
     }
 
     public PairMer getOtherPairmerCoreRight(int k) {
-        return null;
+        try {
+            return PairMerTypeSelector.getPairMer(getOtherCoreRight(k), k);
+        } catch (NonACGTException ex) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param k
+     * @return true if the PairMer retrieved using getOtherPairmerCoreLeft()
+     * holds the shared k-mer reverse complemented
+     */
+    public boolean isOtherPairmerCoreLeftReversed(int k) {
+        return !SequenceOps.isCanonical(getOtherCoreLeft(k));
+    }
+
+    public boolean isOtherPairmerCoreRightReversed(int k) {
+        return !SequenceOps.isCanonical(getOtherCoreRight(k));
+    }
+
+    private String getOtherCoreLeft(int k) {
+        String decodedCore = decodeCore(k - 1);
+        return getClipLeft() + decodedCore.substring(0, decodedCore.length() - 1);
+    }
+
+    private String getOtherCoreRight(int k) {
+        return decodeCore(k - 1).substring(1) + getClipRight();
     }
 
     public PairMer getNextPairMer() {
         return null;
     }
 
-    protected void encodeCore(CharSequence kmerCoreOnly) {
+    /**
+     * Store the core, called once on construction
+     *
+     * @param canonicalCore in the layout of CoreCoder.encodeCoreLongArray()
+     */
+    protected void setCore(long[] canonicalCore) {
 
     }
 
-    public final void addFirstKmer(CharSequence sequence, int from, int to, boolean frontClip, int freq) {
+    public final void addFirstKmer(CharSequence sequence, int from, int to, boolean frontClip, int freq) throws NonACGTException {
         if (getStoredCount() == 0) {        //If this is the first of the two k-mers that could be stored
             int coreStart = frontClip ? from + 1 : from;
             int coreEnd = frontClip ? to : to - 1;
-            if (SequenceOps.isCanonical(sequence.subSequence(coreStart, coreEnd + 1))) {
-                encodeCore(sequence.subSequence(coreStart, coreEnd + 1));
+            long[] core = CoreCoder.encodeCoreLongArray(sequence, coreStart, coreEnd + 1);
+            long[] rc = CoreCoder.reverseComplement(core, coreEnd - coreStart + 1);
+            if (CoreCoder.isCanonical(core, rc)) {
+                setCore(core);
                 if (frontClip) {
                     setClipLeft(sequence.charAt(from), freq);
                 } else {
                     setClipRight(sequence.charAt(to), freq);
                 }
             } else {
-                encodeCore(SequenceOps.getReverseComplement(sequence.subSequence(coreStart, coreEnd + 1)));
+                setCore(rc);
                 if (frontClip) {
                     setClipRight(SequenceOps.complement(sequence.charAt(from)), freq);
                 } else {
@@ -418,6 +515,4 @@ public class PairMer {//implements Comparable<PairMer> {
             Reporter.report("[BUG?]", "Only the first k-mer in a PairMer can be added using addFirstKmer()!!!", getClass().getSimpleName());
         }
     }
-
-    
 }
@@ -15,7 +15,6 @@
  */
 package kextender;
 
-import shared.SequenceOps;
 import shared.Reporter;
 
 /**
@@ -36,23 +35,45 @@ public class PairMer1LongEncoded extends PairMer implements Comparable<PairMer1L
      * @param frontClip
      * @param freq
      */
-    public PairMer1LongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) {
+    public PairMer1LongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) throws NonACGTException {
         addFirstKmer(sequence, from, to, frontClip, freq);
     }
 
     
 
+    /**
+     * Constructor for a core already encoded in its canonical form, see
+     * RollingCoreEncoder
+     *
+     * @param canonicalCore
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param freq
+     */
+    public PairMer1LongEncoded(long[] canonicalCore, byte clipLeftBin, byte clipRightBin, int freq) {
+        kmerCoreBits1 = canonicalCore[0];
+        if (clipLeftBin != 0) {
+            setClipLeftBin(clipLeftBin, freq);
+        }
+        if (clipRightBin != 0) {
+            setClipRightBin(clipRightBin, freq);
+        }
+    }
+
+    /**
+     * For subclasses holding the core elsewhere, see PairMersTable
+     */
+    protected PairMer1LongEncoded() {
+    }
+
     /**
      * Does not generate a complete PairMer, just the core, for Set/Map lookups
      *
      * @param kmerCoreOnly
+     * @throws NonACGTException
      */
-    public PairMer1LongEncoded(CharSequence kmerCoreOnly) {
-        if (SequenceOps.isCanonical(kmerCoreOnly)) {
-            encodeCore(kmerCoreOnly);
-        } else {
-            encodeCore(SequenceOps.getReverseComplement(kmerCoreOnly));
-        }
+    public PairMer1LongEncoded(CharSequence kmerCoreOnly) throws NonACGTException {
+        setCore(CoreCoder.getCanonical(CoreCoder.encodeCoreLongArray(kmerCoreOnly, 0, kmerCoreOnly.length()), kmerCoreOnly.length()));
     }
 
     @Override
@@ -70,6 +91,34 @@ public class PairMer1LongEncoded extends PairMer implements Comparable<PairMer1L
         return CoreCoder.compareCores(getBitFields(), anotherKmer.getBitFields());
     }
 
+    @Override
+    public PairMer getOtherPairmerCoreLeft(int k) {
+        return new PairMer1LongEncoded(CoreCoder.getCanonical(getOtherCoreLeftBits(k), k - 1), (byte) 0, (byte) 0, 0);
+    }
+
+    @Override
+    public PairMer getOtherPairmerCoreRight(int k) {
+        return new PairMer1LongEncoded(CoreCoder.getCanonical(getOtherCoreRightBits(k), k - 1), (byte) 0, (byte) 0, 0);
+    }
+
+    @Override
+    public boolean isOtherPairmerCoreLeftReversed(int k) {
+        return !CoreCoder.isCanonical(getOtherCoreLeftBits(k), k - 1);
+    }
+
+    @Override
+    public boolean isOtherPairmerCoreRightReversed(int k) {
+        return !CoreCoder.isCanonical(getOtherCoreRightBits(k), k - 1);
+    }
+
+    private long[] getOtherCoreLeftBits(int k) {
+        return CoreCoder.shiftInLeft(getBitFields(), k - 1, CoreCoder.getClipCode(getClipLeftBin()));
+    }
+
+    private long[] getOtherCoreRightBits(int k) {
+        return CoreCoder.shiftInRight(getBitFields(), k - 1, CoreCoder.getClipCode(getClipRightBin()));
+    }
+
     public long[] getBitFields() {
         long bitsArray[] = {kmerCoreBits1};
         return bitsArray;
@@ -82,12 +131,11 @@ public class PairMer1LongEncoded extends PairMer implements Comparable<PairMer1L
     }
 
     @Override
-    protected void encodeCore(CharSequence kmerCoreOnly) {
-        long[] encodeCoreLong = CoreCoder.encodeCoreLongArray(kmerCoreOnly);
-        if (encodeCoreLong.length != 1) {
+    protected void setCore(long[] canonicalCore) {
+        if (canonicalCore.length != 1) {
             Reporter.report("[BUG?]", " 1*long value expected from core encoding", getClass().getSimpleName());
         } else {
-            kmerCoreBits1 = encodeCoreLong[0];
+            kmerCoreBits1 = canonicalCore[0];
         }
 //        //Sanity check
 //        String decodeCore = decodeCore(kmerCoreOnly.length());
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+/**
+ * View of a PairMer stored in a PairMersTable slot, core in 1 long field(s).
+ * Reads and updates go straight to the table, nothing is cached here.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMer1LongTableEntry extends PairMer1LongEncoded {
+
+    private final PairMersTable table;
+    private final long slot;
+
+    public PairMer1LongTableEntry(PairMersTable table, long slot) {
+        this.table = table;
+        this.slot = slot;
+    }
+
+    public long getSlot() {
+        return slot;
+    }
+
+    @Override
+    public long[] getBitFields() {
+        return table.getCore(slot);
+    }
+
+    @Override
+    public String decodeCore(int coreLength) {
+        return CoreCoder.decodeCore(coreLength, getBitFields());
+    }
+
+    @Override
+    public void addKmer(PairMer another, boolean inputKmersUnique, int freq) {
+        table.addKmer(slot, another, freq);
+    }
+
+    @Override
+    public byte getClipLeftBin() {
+        return PairMersTable.getClipLeftBin(table.getState(slot));
+    }
+
+    @Override
+    public byte getClipRightBin() {
+        return PairMersTable.getClipRightBin(table.getState(slot));
+    }
+
+    @Override
+    public byte getStoredCountLeft() {
+        return PairMersTable.getStoredCountLeft(table.getState(slot));
+    }
+
+    @Override
+    public byte getStoredCountRigth() {
+        return PairMersTable.getStoredCountRigth(table.getState(slot));
+    }
+
+    @Override
+    public boolean isInvalid() {
+        return PairMersTable.isInvalid(table.getState(slot));
+    }
+
+    @Override
+    public boolean isVisited() {
+        return getVisitedBy() != NOT_VISITED;
+    }
+
+    @Override
+    public int getVisitedBy() {
+        return PairMersTable.getVisitedBy(table.getState(slot));
+    }
+
+    @Override
+    public boolean claim(int id) {
+        return table.claim(slot, id);
+    }
+
+    @Override
+    public int checkAndSetVisitedBy(int id) {
+        return table.checkAndSetVisitedBy(slot, id);
+    }
+
+    @Override
+    public boolean isNextToAmbiguous() {
+        return PairMersTable.isNextToAmbiguous(table.getState(slot));
+    }
+
+    @Override
+    public void setNextToAmbiguous(boolean nextToAmbiguous) {
+        table.setNextToAmbiguous(slot, nextToAmbiguous);
+    }
+
+}
@@ -15,7 +15,6 @@
  */
 package kextender;
 
-import shared.SequenceOps;
 import shared.Reporter;
 
 /**
@@ -38,7 +37,7 @@ public class PairMer3LongEncoded extends PairMer implements Comparable<PairMer3L
      * @param frontClip
      * @param freq
      */
-    public PairMer3LongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) {
+    public PairMer3LongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) throws NonACGTException {
         addFirstKmer(sequence, from, to, frontClip, freq);
     }
 
@@ -67,17 +66,34 @@ public class PairMer3LongEncoded extends PairMer implements Comparable<PairMer3L
 //        }
 //    }
 
+    /**
+     * Constructor for a core already encoded in its canonical form
+     *
+     * @param canonicalCore
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param freq
+     */
+    public PairMer3LongEncoded(long[] canonicalCore, byte clipLeftBin, byte clipRightBin, int freq) {
+        kmerCoreBits1 = canonicalCore[0];
+        kmerCoreBits2 = canonicalCore[1];
+        kmerCoreBits3 = canonicalCore[2];
+        if (clipLeftBin != 0) {
+            setClipLeftBin(clipLeftBin, freq);
+        }
+        if (clipRightBin != 0) {
+            setClipRightBin(clipRightBin, freq);
+        }
+    }
+
     /**
      * Does not generate a complete PairMer, just the core, for Set/Map lookups
      *
      * @param kmerCoreOnly
+     * @throws NonACGTException
      */
-    public PairMer3LongEncoded(CharSequence kmerCoreOnly) {
-        if (SequenceOps.isCanonical(kmerCoreOnly)) {
-            encodeCore(kmerCoreOnly);
-        } else {
-            encodeCore(SequenceOps.getReverseComplement(kmerCoreOnly));
-        }
+    public PairMer3LongEncoded(CharSequence kmerCoreOnly) throws NonACGTException {
+        setCore(CoreCoder.getCanonical(CoreCoder.encodeCoreLongArray(kmerCoreOnly, 0, kmerCoreOnly.length()), kmerCoreOnly.length()));
     }
 
     @Override
@@ -95,6 +111,34 @@ public class PairMer3LongEncoded extends PairMer implements Comparable<PairMer3L
         return CoreCoder.compareCores(getBitFields(), anotherKmer.getBitFields());
     }
 
+    @Override
+    public PairMer getOtherPairmerCoreLeft(int k) {
+        return new PairMer3LongEncoded(CoreCoder.getCanonical(getOtherCoreLeftBits(k), k - 1), (byte) 0, (byte) 0, 0);
+    }
+
+    @Override
+    public PairMer getOtherPairmerCoreRight(int k) {
+        return new PairMer3LongEncoded(CoreCoder.getCanonical(getOtherCoreRightBits(k), k - 1), (byte) 0, (byte) 0, 0);
+    }
+
+    @Override
+    public boolean isOtherPairmerCoreLeftReversed(int k) {
+        return !CoreCoder.isCanonical(getOtherCoreLeftBits(k), k - 1);
+    }
+
+    @Override
+    public boolean isOtherPairmerCoreRightReversed(int k) {
+        return !CoreCoder.isCanonical(getOtherCoreRightBits(k), k - 1);
+    }
+
+    private long[] getOtherCoreLeftBits(int k) {
+        return CoreCoder.shiftInLeft(getBitFields(), k - 1, CoreCoder.getClipCode(getClipLeftBin()));
+    }
+
+    private long[] getOtherCoreRightBits(int k) {
+        return CoreCoder.shiftInRight(getBitFields(), k - 1, CoreCoder.getClipCode(getClipRightBin()));
+    }
+
     public long[] getBitFields() {
         long bitsArray[] = {kmerCoreBits1, kmerCoreBits2, kmerCoreBits3};
         return bitsArray;
@@ -107,14 +151,13 @@ public class PairMer3LongEncoded extends PairMer implements Comparable<PairMer3L
     }
 
     @Override
-    protected void encodeCore(CharSequence kmerCoreOnly) {
-        long[] encodeCoreLong = CoreCoder.encodeCoreLongArray(kmerCoreOnly);
-        if (encodeCoreLong.length != 3) {
+    protected void setCore(long[] canonicalCore) {
+        if (canonicalCore.length != 3) {
             Reporter.report("[BUG?]", " 3*long values expected from core encoding", getClass().getSimpleName());
         } else {
-            kmerCoreBits1 = encodeCoreLong[0];
-            kmerCoreBits2 = encodeCoreLong[1];
-            kmerCoreBits3 = encodeCoreLong[2];
+            kmerCoreBits1 = canonicalCore[0];
+            kmerCoreBits2 = canonicalCore[1];
+            kmerCoreBits3 = canonicalCore[2];
         }
 //        //Sanity check
 //        String decodeCore = decodeCore(kmerCoreOnly.length());
@@ -15,7 +15,6 @@
  */
 package kextender;
 
-import shared.SequenceOps;
 import shared.Reporter;
 
 /**
@@ -39,7 +38,7 @@ public class PairMer4LongEncoded extends PairMer implements Comparable<PairMer4L
      * @param frontClip
      * @param freq
      */
-    public PairMer4LongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) {
+    public PairMer4LongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) throws NonACGTException {
         addFirstKmer(sequence, from, to, frontClip, freq);
     }
 
@@ -72,13 +71,10 @@ public class PairMer4LongEncoded extends PairMer implements Comparable<PairMer4L
      * Does not generate a complete PairMer, just the core, for Set/Map lookups
      *
      * @param kmerCoreOnly
+     * @throws NonACGTException
      */
-    public PairMer4LongEncoded(CharSequence kmerCoreOnly) {
-        if (SequenceOps.isCanonical(kmerCoreOnly)) {
-            encodeCore(kmerCoreOnly);
-        } else {
-            encodeCore(SequenceOps.getReverseComplement(kmerCoreOnly));
-        }
+    public PairMer4LongEncoded(CharSequence kmerCoreOnly) throws NonACGTException {
+        setCore(CoreCoder.getCanonical(CoreCoder.encodeCoreLongArray(kmerCoreOnly, 0, kmerCoreOnly.length()), kmerCoreOnly.length()));
     }
 
     @Override
@@ -108,15 +104,14 @@ public class PairMer4LongEncoded extends PairMer implements Comparable<PairMer4L
     }
 
     @Override
-    protected void encodeCore(CharSequence kmerCoreOnly) {
-        long[] encodeCoreLong = CoreCoder.encodeCoreLongArray(kmerCoreOnly);
-        if (encodeCoreLong.length != 4) {
+    protected void setCore(long[] canonicalCore) {
+        if (canonicalCore.length != 4) {
             Reporter.report("[BUG?]", " 4*long values expected from core encoding", getClass().getSimpleName());
         } else {
-            kmerCoreBits1 = encodeCoreLong[0];
-            kmerCoreBits2 = encodeCoreLong[1];
-            kmerCoreBits3 = encodeCoreLong[2];
-            kmerCoreBits4 = encodeCoreLong[3];
+            kmerCoreBits1 = canonicalCore[0];
+            kmerCoreBits2 = canonicalCore[1];
+            kmerCoreBits3 = canonicalCore[2];
+            kmerCoreBits4 = canonicalCore[3];
         }
 //        //Sanity check
 //        String decodeCore = decodeCore(kmerCoreOnly.length());
@@ -549,44 +549,6 @@ public class PairMerIntArrEncoded extends PairMer implements Comparable<PairMerI
         return storeCanonical(kmerCoreBitsArray, kmerCoreBitsArrayRC); //, sequence.subSequence(from , to+1).toString());
     }
 
-    /**
-     * UNUSED
-     *
-     * @param k
-     * @return
-     */
-    @Override
-    public PairMer getOtherPairmerCoreLeft(int k) {
-        
-        
-        if (!isInvalid() && getStoredCount() == 2) {
-
-//            String decodedCore = decodeCore(k - 1);
-            //Reconstruct k-mer 1
-//            String s = getClipLeft() + decodedCore.substring(0, decodedCore.length() - 1) + " <- other core1\n";
-//            printPaddedEncoded(k, kmerCoreBitsArray);
-            //SHIFT BITS RIGHT TWICE TO DROP 2 RIGHTMOST BITS
-            //SET 2 LEFTMOST BITS TO THE VALUE OF CLIP-LEFT
-            return new PairMerIntArrEncoded(shiftBitsRightAndAddLeftClip(kmerCoreBitsArray, k - 1), k - 1);
-//            int[] leftClipCore = shiftBitsRightAndAddLeftClip(kmerCoreBitsArray, k - 1);
-//            int[] rightClipCore = shiftBitsLeftAndAddRightClip(kmerCoreBitsArray, k - 1);
-//            String[] s = new String []{decodeCore(k-1, leftClipCore),decodeCore(k-1, rightClipCore)};
-
-//            System.err.println("with leftclip:");
-//            printPaddedEncoded(k, leftClipCore);
-//            System.err.println("with rightclip:");
-//            printPaddedEncoded(k, rightClipCore);
-//            System.exit(1);
-            //Reconstruct k-mer 2
-//            s += decodedCore.substring(1) + getClipRight() + " <- other core2";
-            //SHIFT LEFT TWICE ADDING THE VALUE OF CLIP-RIGH
-            //MASK 2 LEFTMOST BITS
-//            int[] rigthClipCore = shiftBitsLeftAndAddRightClip(kmerCoreBitsArray, k-1);
-//            return s;
-        }
-        return null;
-    }
-
 //    /**
 //     * UNUSED
 //     *
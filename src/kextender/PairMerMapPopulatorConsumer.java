@@ -17,10 +17,13 @@ package kextender;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.BlockingQueue;
+import shared.CountingBloomFilter;
 import shared.Reporter;
+import shared.SequenceOps;
 
 /**
  *
@@ -35,6 +38,7 @@ public class PairMerMapPopulatorConsumer implements Runnable {
 //    private final Integer KMER_LENGTH;
     private final ArrayList<Integer> kList;
     private final boolean SKIP_TERMINAL_BASES;
+    private final HashMap<Integer, RollingCoreEncoder> encoders = new HashMap<>();
 //    private long pairMersGenerated;
 
     public PairMerMapPopulatorConsumer(BlockingQueue<List<String>> queue, PairMerMaps pairMerMaps,
@@ -119,6 +123,10 @@ public class PairMerMapPopulatorConsumer implements Runnable {
 
     private void kmerizeAndAddToMaps(CharSequence sequence) {
         for (int k : kList) {
+            if (k - 1 <= 64) {
+                kmerizeRollingAndAddToMap(sequence, k);
+                continue;
+            }
             try {
                 int maxKmer = sequence.length() - k + 1;
                 int startAt = 0;
@@ -126,10 +134,20 @@ public class PairMerMapPopulatorConsumer implements Runnable {
                     --maxKmer;
                     startAt++;
                 }
+                PairMersMap pairMersMap = pairMersMaps.getPairMersMap(k);
+                CountingBloomFilter filter = pairMersMap.getSingletonFilter();
                 for (int i = startAt; i < maxKmer; i++) {
 //                String s = (String) sequence.subSequence(i, i + KMER_LENGTH);
-                    pairMersMaps.getPairMersMap(k).addToPairMersMap(sequence, i, i + k - 1, true, !SPLIT_INPUT_INTO_KMERS, 1);
-                    pairMersMaps.getPairMersMap(k).addToPairMersMap(sequence, i, i + k - 1, false, !SPLIT_INPUT_INTO_KMERS, 1);
+                    int freq = 1;
+                    if (filter != null) {
+                        int seen = filter.add(hashCanonical(sequence, i, i + k - 1));
+                        if (seen == 0) { //FIRST SIGHTING, HELD BACK
+                            continue;
+                        }
+                        freq = seen == 1 ? 2 : 1;
+                    }
+                    pairMersMap.addToPairMersMap(sequence, i, i + k - 1, true, !SPLIT_INPUT_INTO_KMERS, freq);
+                    pairMersMap.addToPairMersMap(sequence, i, i + k - 1, false, !SPLIT_INPUT_INTO_KMERS, freq);
                 }
             } catch (OutOfMemoryError e) {
 //            Reporter.report("[ERROR]", "Out of memory error !");
@@ -143,4 +161,108 @@ public class PairMerMapPopulatorConsumer implements Runnable {
             }
         }
     }
+
+    /**
+     * Equivalent of adding both PairMers of each k-mer, but cores are encoded
+     * by sliding along the sequence rather than for each k-mer separately.
+     * Each k-mer spans two consecutive (k-1)-long windows, it is the back core
+     * of the first one and the front core of the second one. Windows with
+     * non-ACGT bases are skipped.
+     *
+     * If the map has a singleton filter, a k-mer is keyed on the (canonical)
+     * cores of its two windows, which is the same for both strands.
+     *
+     * @param sequence
+     * @param k
+     */
+    private void kmerizeRollingAndAddToMap(CharSequence sequence, int k) {
+        try {
+            PairMersMap pairMersMap = pairMersMaps.getPairMersMap(k);
+            CountingBloomFilter filter = pairMersMap.getSingletonFilter();
+            RollingCoreEncoder encoder = encoders.get(k);
+            if (encoder == null) {
+                encoder = new RollingCoreEncoder(k - 1);
+                encoders.put(k, encoder);
+            }
+            encoder.reset();
+            int coreLength = k - 1;
+            int maxKmer = sequence.length() - k + 1;
+            int startAt = 0;
+            if (SKIP_TERMINAL_BASES) { //to exclude terminal k-mers
+                --maxKmer;
+                startAt++;
+            }
+            long[] previousCore = null;
+            boolean previousValid = false;
+            boolean previousCanonical = false;
+            long previousHash = 0;
+            for (int pos = 0; pos < sequence.length(); pos++) {
+                if (!encoder.add(sequence.charAt(pos))) {
+                    previousValid = false;
+                    continue;
+                }
+                int coreStart = pos - coreLength + 1;
+                boolean canonical = encoder.isCanonical();
+                long[] core = encoder.getCanonicalCore();
+                long hash = filter == null ? 0 : CountingBloomFilter.hash(core);
+                if (previousValid && coreStart - 1 >= startAt && coreStart - 1 < maxKmer) { //K-MER STARTING AT coreStart - 1
+                    int freq = 1;
+                    if (filter != null) {
+                        int seen = filter.add(CountingBloomFilter.mix(Math.min(hash, previousHash) ^ Long.rotateLeft(Math.max(hash, previousHash), 31)));
+                        freq = seen == 0 ? 0 : seen == 1 ? 2 : 1; //HELD BACK ON FIRST SIGHTING, WHICH IS ADDED ON THE SECOND
+                    }
+                    if (freq > 0) {
+                        //PREVIOUS CORE FOLLOWED BY A CLIP
+                        int code = RollingCoreEncoder.getCode(sequence.charAt(pos));
+                        if (previousCanonical) {
+                            pairMersMap.addToPairMersMap(previousCore, (byte) 0, RollingCoreEncoder.getClipBin(code), !SPLIT_INPUT_INTO_KMERS, freq);
+                        } else {
+                            pairMersMap.addToPairMersMap(previousCore, RollingCoreEncoder.getClipBin(3 - code), (byte) 0, !SPLIT_INPUT_INTO_KMERS, freq);
+                        }
+                        //CURRENT CORE PRECEDED BY A CLIP
+                        code = RollingCoreEncoder.getCode(sequence.charAt(coreStart - 1));
+                        if (canonical) {
+                            pairMersMap.addToPairMersMap(core, RollingCoreEncoder.getClipBin(code), (byte) 0, !SPLIT_INPUT_INTO_KMERS, freq);
+                        } else {
+                            pairMersMap.addToPairMersMap(core, (byte) 0, RollingCoreEncoder.getClipBin(3 - code), !SPLIT_INPUT_INTO_KMERS, freq);
+                        }
+                    }
+                }
+                if (previousCore == null) {
+                    previousCore = new long[core.length];
+                }
+                System.arraycopy(core, 0, previousCore, 0, core.length);
+                previousCanonical = canonical;
+                previousHash = hash;
+                previousValid = true;
+            }
+        } catch (OutOfMemoryError e) {
+            pairMersMaps.getPairMersMap(k).setOutOfMemory();
+            try {
+                queue.put(new ArrayList<String>());
+            } catch (InterruptedException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * FNV-1a over the canonical form of [from,to] (inclusive) of the sequence,
+     * without creating it
+     */
+    static long hashCanonical(CharSequence sequence, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        if (SequenceOps.isCanonical(sequence, from, to)) {
+            for (int i = from; i <= to; i++) {
+                h ^= Character.toUpperCase(sequence.charAt(i));
+                h *= 0x100000001b3L;
+            }
+        } else {
+            for (int i = to; i >= from; i--) {
+                h ^= SequenceOps.complement(Character.toUpperCase(sequence.charAt(i)));
+                h *= 0x100000001b3L;
+            }
+        }
+        return CountingBloomFilter.mix(h);
+    }
 }
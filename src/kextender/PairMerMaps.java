@@ -30,16 +30,39 @@ public class PairMerMaps {
     private final String TOOL_NAME;
     private long totalPairMersGenerated;
     private PairMersMap singleMap;
+    private final Long tableExpectedSize;
 
     public PairMerMaps(ArrayList<Integer> kSizes, String TOOL_NAME) {
+        this(kSizes, TOOL_NAME, null);
+    }
+
+    /**
+     *
+     * @param kSizes
+     * @param TOOL_NAME
+     * @param tableExpectedSize if not null, maps for k up to 65 are backed by
+     * a PairMersTable sized for this many PairMers
+     */
+    public PairMerMaps(ArrayList<Integer> kSizes, String TOOL_NAME, Long tableExpectedSize) {
         this.TOOL_NAME = TOOL_NAME;
         this.kSizes = kSizes;
+        this.tableExpectedSize = tableExpectedSize;
         kSizeToPairMersMap = new ConcurrentHashMap<>(kSizes.size());
         for (int k : kSizes) {
             if (k != 0) {
-                kSizeToPairMersMap.put(k, new PairMersMap(k));
+                kSizeToPairMersMap.put(k, newPairMersMap(k));
+            }
+        }
+    }
+
+    private PairMersMap newPairMersMap(int k) {
+        if (tableExpectedSize != null) {
+            if (k - 1 <= 64) {
+                return new PairMersMap(k, new PairMersTable(k - 1, tableExpectedSize, TOOL_NAME));
             }
+            Reporter.report("[WARNING]", "PairMers table only available for k <= 65, using the default map for k=" + k, TOOL_NAME);
         }
+        return new PairMersMap(k);
     }
 
     /**
@@ -50,7 +73,7 @@ public class PairMerMaps {
     public PairMersMap getPairMersMap(int k) {
         PairMersMap map = kSizeToPairMersMap.get(k);
         if (map == null) {
-            map = new PairMersMap(k);
+            map = newPairMersMap(k);
 //            synchronized (this) {
                 PairMersMap previous = kSizeToPairMersMap.putIfAbsent(k, map);
                 if (previous == null) {
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+/**
+ * Storing PairMer core in an array of longs, for cores too long for the fixed
+ * 1-3 long encodings, in the layout of CoreCoder.encodeCoreLongArray().
+ * Canonical orientation and adjacent cores are computed on the encoded words,
+ * without going through Strings.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMerNLongEncoded extends PairMer implements Comparable<PairMerNLongEncoded> {
+
+    private long[] kmerCoreBits;
+
+    /**
+     * Proper constructor
+     *
+     * @param sequence
+     * @param from
+     * @param to inclusive
+     * @param frontClip
+     * @param freq
+     */
+    public PairMerNLongEncoded(CharSequence sequence, int from, int to, boolean frontClip, int freq) throws NonACGTException {
+        addFirstKmer(sequence, from, to, frontClip, freq);
+    }
+
+    /**
+     * Constructor for a core already encoded in its canonical form
+     *
+     * @param canonicalCore
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param freq
+     */
+    public PairMerNLongEncoded(long[] canonicalCore, byte clipLeftBin, byte clipRightBin, int freq) {
+        kmerCoreBits = canonicalCore;
+        if (clipLeftBin != 0) {
+            setClipLeftBin(clipLeftBin, freq);
+        }
+        if (clipRightBin != 0) {
+            setClipRightBin(clipRightBin, freq);
+        }
+    }
+
+    /**
+     * Does not generate a complete PairMer, just the core, for Set/Map lookups
+     *
+     * @param kmerCoreOnly
+     * @throws NonACGTException
+     */
+    public PairMerNLongEncoded(CharSequence kmerCoreOnly) throws NonACGTException {
+        kmerCoreBits = CoreCoder.getCanonical(CoreCoder.encodeCoreLongArray(kmerCoreOnly, 0, kmerCoreOnly.length()), kmerCoreOnly.length());
+    }
+
+    @Override
+    public boolean equals(Object anotherKmer) {
+        return compareTo((PairMerNLongEncoded) anotherKmer) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return CoreCoder.computeHash(kmerCoreBits);
+    }
+
+    @Override
+    public int compareTo(PairMerNLongEncoded anotherKmer) {
+        return CoreCoder.compareCores(kmerCoreBits, anotherKmer.kmerCoreBits);
+    }
+
+    @Override
+    public PairMer getOtherPairmerCoreLeft(int k) {
+        return new PairMerNLongEncoded(CoreCoder.getCanonical(getOtherCoreLeftBits(k), k - 1), (byte) 0, (byte) 0, 0);
+    }
+
+    @Override
+    public PairMer getOtherPairmerCoreRight(int k) {
+        return new PairMerNLongEncoded(CoreCoder.getCanonical(getOtherCoreRightBits(k), k - 1), (byte) 0, (byte) 0, 0);
+    }
+
+    @Override
+    public boolean isOtherPairmerCoreLeftReversed(int k) {
+        return !CoreCoder.isCanonical(getOtherCoreLeftBits(k), k - 1);
+    }
+
+    @Override
+    public boolean isOtherPairmerCoreRightReversed(int k) {
+        return !CoreCoder.isCanonical(getOtherCoreRightBits(k), k - 1);
+    }
+
+    private long[] getOtherCoreLeftBits(int k) {
+        return CoreCoder.shiftInLeft(kmerCoreBits, k - 1, CoreCoder.getClipCode(getClipLeftBin()));
+    }
+
+    private long[] getOtherCoreRightBits(int k) {
+        return CoreCoder.shiftInRight(kmerCoreBits, k - 1, CoreCoder.getClipCode(getClipRightBin()));
+    }
+
+    /**
+     *
+     * @return the encoded core itself, not a copy
+     */
+    public long[] getBitFields() {
+        return kmerCoreBits;
+    }
+
+    @Override
+    public String decodeCore(int coreLength) {
+        return CoreCoder.decodeCore(coreLength, kmerCoreBits);
+    }
+
+    @Override
+    protected void setCore(long[] canonicalCore) {
+        kmerCoreBits = canonicalCore;
+    }
+
+}
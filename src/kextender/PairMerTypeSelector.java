@@ -119,10 +119,27 @@ public class PairMerTypeSelector {
 //        } else if (kmerString.length() - 1 <= MAX_5LONG_ENCODE) {
 //            return new PairMer5LongEncoded(leftClip, core, rightClip);
         } else {
-            return new PairMerIntArrEncoded(sequence, kmerFrom, kmerTo, frontClip, freq);
+            return new PairMerNLongEncoded(sequence, kmerFrom, kmerTo, frontClip, freq);
         }
     }
 
+    /**
+     * GeneratePairMer object from a core already encoded in its canonical form
+     * (up to 2 longs, see RollingCoreEncoder)
+     *
+     * @param canonicalCore
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param freq
+     * @return
+     */
+    public static PairMer generatePairMer(long[] canonicalCore, byte clipLeftBin, byte clipRightBin, int freq) {
+        if (canonicalCore.length == 1) {
+            return new PairMer1LongEncoded(canonicalCore, clipLeftBin, clipRightBin, freq);
+        }
+        return new PairMer2LongEncoded(canonicalCore, clipLeftBin, clipRightBin, freq);
+    }
+
     /**
      * Given a core string, generates a PairMer (without clips) for querying
      * populated PairMerMaps
@@ -144,7 +161,7 @@ public class PairMerTypeSelector {
 //        } else if (k - 1 <= MAX_5LONG_ENCODE) {
 //            return new PairMer5LongEncoded(core);
         } else {
-            return new PairMerIntArrEncoded(core);
+            return new PairMerNLongEncoded(core);
         }
     }
 
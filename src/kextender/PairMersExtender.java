@@ -23,10 +23,11 @@ import java.io.UnsupportedEncodingException;
 import shared.Reporter;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -48,6 +49,7 @@ public class PairMersExtender {
     private final String TOOL_NAME;
 //    private HashMap<String,String> ID_2_SEED_SEQUENCE_MAP;
     private final int WRITER_BUFFER_SIZE = 8192;
+    private final long RANGE_SIZE = 100000; //MIN NUMBER OF PairMers (OR SLOTS) PER RANGE IN SECOND PASS
 
     /**
      * Given optional DEBUG and STATS filenames, init Object
@@ -89,11 +91,19 @@ public class PairMersExtender {
         int longest = 0;
         int shortest = Integer.MAX_VALUE;
         int MAX_LENGTH_STATS = 2000;
-        int potentialDuplicate = 0;
+        long extensionsTerminated = 0;
+        long claimsLost = 0;
+        long visitedInVain = 0;
         if (STATS_FILE != null) {
             Reporter.writeToFile(STATS_FILE, Reporter.formatReport("[STATS]", "Kmer extrending stats", TOOL_NAME), false);
             extendedLengths = new int[MAX_LENGTH_STATS];
         }
+        final int EXTENDER_THREADS = extenderThreads;
+        //THREAD IDS OF BOTH PASSES MUST FIT THE VISITOR ID BITS OF PairMer
+        if (extenderThreads * 2 > PairMer.MAX_VISITED_BY) {
+            Reporter.report("[ERROR]", "At most " + PairMer.MAX_VISITED_BY / 2 + " extender threads supported", TOOL_NAME);
+            System.exit(1);
+        }
         BufferedWriter out = null;
         try {
             if (outFile.endsWith(".gz")) {
@@ -102,8 +112,9 @@ public class PairMersExtender {
                 out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), "UTF-8"), WRITER_BUFFER_SIZE);
             }
 
-            byte threadId = Byte.MIN_VALUE;
-            BlockingQueue inqueue = new ArrayBlockingQueue(extenderThreads + 1);
+            int threadId = PairMer.NOT_VISITED + 1;
+            ArrayList<PairMersExtenderConsumer> consumers = new ArrayList<>(extenderThreads * 2);
+            BlockingQueue<List<PairMer>> inqueue = new ArrayBlockingQueue<>(extenderThreads + 1);
             BlockingQueue<List<ConnectedPairMers>> outqueue = new ArrayBlockingQueue(extenderThreads);
             ArrayList<Future<?>> futures = new ArrayList<>(extenderThreads + 1);
             final ExecutorService producerConsumerExecutor = new ThreadPoolExecutor(extenderThreads + 1, extenderThreads + 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
@@ -114,6 +125,7 @@ public class PairMersExtender {
             //SPAWN CONSUMER THREADS
             for (int i = 0; i < extenderThreads; i++) {
                 PairMersExtenderConsumer consumer = new PairMersExtenderConsumer(pairMersMap, inqueue, outqueue, k, DEBUG_FILE, threadId++, TOOL_NAME, BUFFER_SIZE);
+                consumers.add(consumer);
                 futures.add(producerConsumerExecutor.submit(consumer));
             }
             //COUNT AND PRINT EXTENDED SEQUENCES, RESOLVE CONFLICTS...
@@ -139,67 +151,58 @@ public class PairMersExtender {
                     }
                     for (ConnectedPairMers connectedPairMers : list) {
                         clusterNumber++;
-                        try {
-                            if (connectedPairMers.hasTerminalOrSingletonNode()) {
-                                extendedNumber++;
+                        if (connectedPairMers.hasTerminalOrSingletonNode()) {
+                            extendedNumber++;
 //                        System.err.println(connectedPairMers.getKeys().size() + " pairMers == " + connectedMers.length() + " bp");
-                                CharSequence connectedMers = connectedPairMers.toCharSeq(k);
-                                int len = connectedMers.length();
-                                extendedLength += len;
+                            CharSequence connectedMers = connectedPairMers.toCharSeq(k);
+                            int len = connectedMers.length();
+                            extendedLength += len;
 
-                                if (connectedPairMers.isPotentialDuplicate()) {
-                                    potentialDuplicate++;
-                                }
-                                if (len > longest) {
-                                    longest = len;
-                                }
-                                if (len < shortest) {
-                                    shortest = len;
-                                }
-                                if (STATS_FILE != null) {
-                                    if (len < MAX_LENGTH_STATS) {
-                                        extendedLengths[len]++;
-                                    } else {
-                                        extendedLengths[0]++;
-                                    }
+                            if (len > longest) {
+                                longest = len;
+                            }
+                            if (len < shortest) {
+                                shortest = len;
+                            }
+                            if (STATS_FILE != null) {
+                                if (len < MAX_LENGTH_STATS) {
+                                    extendedLengths[len]++;
+                                } else {
+                                    extendedLengths[0]++;
                                 }
-                                if (len >= minLen) {
-                                    longEnough++;
-                                    longEnoughBp += len;
+                            }
+                            if (len >= minLen) {
+                                longEnough++;
+                                longEnoughBp += len;
 
-                                    //SYNC THIS ?
-                                    if (outputFasta) {
-                                        //TMP
-                                        if (connectedPairMers.hasAmbiguousEndTMP()) {
-                                            out.write(">" + namePrefix + clusterNumber + "_AMB_" +connectedPairMers.countAmbiguousEnds()+ " " + len + (connectedPairMers.isPotentialDuplicate() ? " potential_duplicate" : ""));
+                                //SYNC THIS ?
+                                if (outputFasta) {
+                                    //TMP
+                                    if (connectedPairMers.hasAmbiguousEndTMP()) {
+                                        out.write(">" + namePrefix + clusterNumber + "_AMB_" +connectedPairMers.countAmbiguousEnds()+ " " + len);
 
-                                        } else {
-                                            out.write(">" + namePrefix + clusterNumber + " " + len + (connectedPairMers.isPotentialDuplicate() ? " potential_duplicate" : ""));
-                                        }
-                                        out.newLine();
+                                    } else {
+                                        out.write(">" + namePrefix + clusterNumber + " " + len);
                                     }
-                                    out.write(connectedMers.toString());// + "\t" + SequenceOps.getReverseComplementString(connected));
                                     out.newLine();
+                                }
+                                out.write(connectedMers.toString());// + "\t" + SequenceOps.getReverseComplementString(connected));
+                                out.newLine();
 //                            } else {
 //                                System.err.println("too short at "+len+" "+connectedMers.toString()+" given minlen = "+minLen);
-                                }
+                            }
 
-                            } else { //THIS IS NOT REALLY POSSIBLE HERE - REMOVE?
-                                String message = "No terminal PairMer identified in cluster " + clusterNumber + " @ k=" + k;
-                                Reporter.report("[WARNING]", message, TOOL_NAME);
-                                if (DEBUG_FILE != null) {
-                                    ArrayList<String> toReport = new ArrayList<>();
-                                    toReport.add("No terminal PairMer identified in cluster " + clusterNumber + " @ k=" + k + " PairMers in cluster:");
-                                    for (PairMer pm : connectedPairMers.getKeys()) {
-                                        toReport.add(pm.getPairMerString(k));
-                                    }
-                                    Reporter.writeToFile(DEBUG_FILE, toReport, true);
+                        } else { //THIS IS NOT REALLY POSSIBLE HERE - REMOVE?
+                            String message = "No terminal PairMer identified in cluster " + clusterNumber + " @ k=" + k;
+                            Reporter.report("[WARNING]", message, TOOL_NAME);
+                            if (DEBUG_FILE != null) {
+                                ArrayList<String> toReport = new ArrayList<>();
+                                toReport.add("No terminal PairMer identified in cluster " + clusterNumber + " @ k=" + k + " PairMers in cluster:");
+                                for (PairMer pm : connectedPairMers.getKeys()) {
+                                    toReport.add(pm.getPairMerString(k));
                                 }
+                                Reporter.writeToFile(DEBUG_FILE, toReport, true);
                             }
-                        } catch (StackOverflowError error) {
-                            Reporter.report("[ERROR]", "StackOverflow error, possible solution lies in : 'java -Xss<size> : set java thread stack size'", TOOL_NAME);
-                            Reporter.report("[ERROR]", "To obtain defaults: 'java -XX:+PrintFlagsFinal -version | grep ThreadStackSize'", TOOL_NAME);
-                            System.exit(1);
                         }
                         out.flush();
 
@@ -214,44 +217,26 @@ public class PairMersExtender {
                 e.printStackTrace();
             }
 
-            producerConsumerExecutor.shutdown();
-            try {
-                for (Future<?> f : futures) {
-                    f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-                }
-                producerConsumerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            } catch (InterruptedException e) {
-                Reporter.report("[ERROR]", "PairMer extender interrupted exception!", TOOL_NAME);
-            } catch (ExecutionException ex) {
-                Reporter.report("[ERROR]", "PairMer extender execution exception!", TOOL_NAME);
-                ex.printStackTrace();
+            waitForAll(futures);
 
-            } catch (TimeoutException ex) {
-                Reporter.report("[ERROR]", "PairMer extender timeout exception!", TOOL_NAME);
-            } catch (Exception e) {
-                Reporter.report("[ERROR]", "PairMer extender StackOverflow exception!", TOOL_NAME);
-                e.printStackTrace();
-            } catch (StackOverflowError error) {
-                Reporter.report("[ERROR]", "StackOverflow error, try : 'java -Xss<size> : to increase java thread stack size'", TOOL_NAME);
-                Reporter.report("[ERROR]", "To obtain defaults run: 'java -XX:+PrintFlagsFinal -version | grep ThreadStackSize'", TOOL_NAME);
-                System.exit(1);
+            //SECOND PASS OVER RANGES OF THE MAP, PICKS UP WHAT IS NOT REACHABLE FROM TERMINALS (CYCLES)
+            Reporter.report("[INFO]", "Starting second-pass, multi-threaded extending", TOOL_NAME);
+            Queue<Iterable<PairMer>> ranges = new ConcurrentLinkedQueue<>(pairMersMap.splitIntoRanges(EXTENDER_THREADS, RANGE_SIZE));
+            futures.clear();
+            for (int i = 0; i < EXTENDER_THREADS; i++) {
+                PairMersExtenderConsumer consumer = new PairMersExtenderConsumer(pairMersMap, ranges, outqueue, k, DEBUG_FILE, threadId++, TOOL_NAME, BUFFER_SIZE);
+                consumers.add(consumer);
+                futures.add(producerConsumerExecutor.submit(consumer));
             }
-
-            Reporter.report("[INFO]", "Starting second-pass, single threaded extending", TOOL_NAME);
-            Iterator<PairMer> it = pairMersMap.iterator();
             int extendedInSecondPass = 0;
-            while (it.hasNext()) {
-                PairMer pairMer = it.next();
-                if (pairMer != null && !pairMer.isVisited()) {
-                    clusterNumber++;
-                    ConnectedPairMers connectedPairMers = new ConnectedPairMers();
-                    if (!connectedPairMers.connectPairMers(pairMer, k, pairMersMap, threadId, DEBUG_FILE)) {
-                        System.err.println("Failed connecting pairmers - shoukld not happen in second pass");
-                    }
-                    try {
+            try {
+                List<ConnectedPairMers> list;
+                int running = EXTENDER_THREADS;
+                while (!(list = outqueue.take()).isEmpty() || --running > 0) {
+                    for (ConnectedPairMers connectedPairMers : list) {
+                        clusterNumber++;
                         if (connectedPairMers.hasTerminalOrSingletonNode()) {
                             extendedNumber++;
-//                        System.err.println(connectedPairMers.getKeys().size() + " pairMers == " + connectedMers.length() + " bp");
                             CharSequence connectedMers = connectedPairMers.toCharSeq(k);
                             int len = connectedMers.length();
                             extendedLength += len;
@@ -262,14 +247,6 @@ public class PairMersExtender {
                             if (len < shortest) {
                                 shortest = len;
                             }
-
-//                            if (len != k + 1) {
-//                                System.err.println(connectedMers);
-//                                for (PairMer pm : connectedPairMers.getKeys()) {
-//                                    System.err.println(pm.getPairMerString(k, "_"));
-//                                }
-//                            }
-//                            
                             if (STATS_FILE != null) {
                                 if (len < MAX_LENGTH_STATS) {
                                     extendedLengths[len]++;
@@ -282,15 +259,10 @@ public class PairMersExtender {
                                 longEnough++;
                                 longEnoughBp += len;
                                 if (outputFasta) {
-//                                    if (connectedPairMers.hasAmbiguousEndTMP()) {
-//                                        out.write(">" + namePrefix + clusterNumber + "_AMB" + " " + len + (connectedPairMers.isPotentialDuplicate() ? " potential_duplicate" : ""));
-//
-//                                    } else {
-                                        out.write(">" + namePrefix + clusterNumber + " " + len);
-                                        out.newLine();
-//                                    }
+                                    out.write(">" + namePrefix + clusterNumber + " " + len);
+                                    out.newLine();
                                 }
-                                out.write(connectedMers.toString());// + "\t" + SequenceOps.getReverseComplementString(connected));
+                                out.write(connectedMers.toString());
                                 out.newLine();
                             }
                         } else {
@@ -305,15 +277,25 @@ public class PairMersExtender {
                                 Reporter.writeToFile(DEBUG_FILE, toReport, true);
                             }
                         }
-                    } catch (StackOverflowError error) {
-                        Reporter.report("[ERROR]", "StackOverflow error, try : 'java -Xss<size> : to increase java thread stack size'", TOOL_NAME);
-                        Reporter.report("[ERROR]", "To obtain defaults run: 'java -XX:+PrintFlagsFinal -version | grep ThreadStackSize'", TOOL_NAME);
-                        System.exit(1);
                     }
                 }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            producerConsumerExecutor.shutdown();
+            waitForAll(futures);
+            for (PairMersExtenderConsumer consumer : consumers) {
+                extensionsTerminated += consumer.getExtensionsTerminated();
+                claimsLost += consumer.getClaimsLost();
+                visitedInVain += consumer.getPairMersVisitedInVain();
+            }
+            try {
+                producerConsumerExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Reporter.report("[ERROR]", "PairMer extender interrupted exception!", TOOL_NAME);
             }
             out.close();
-            Reporter.report("[INFO]", NumberFormat.getNumberInstance().format(extendedInSecondPass) + " extended in second-pass (single threaded extending)", TOOL_NAME);
+            Reporter.report("[INFO]", NumberFormat.getNumberInstance().format(extendedInSecondPass) + " extended in second-pass (multi-threaded extending)", TOOL_NAME);
 
         } catch (UnsupportedEncodingException e) {
             Reporter.report("[ERROR]", e.getMessage(), TOOL_NAME);
@@ -321,10 +303,6 @@ public class PairMersExtender {
             Reporter.report("[ERROR]", e.getMessage(), TOOL_NAME);
 //        } catch (InterruptedException e) {
 //            Reporter.report("[ERROR]", e.getMessage(), TOOL_NAME);
-        } catch (StackOverflowError error) {
-            Reporter.report("[ERROR]", "StackOverflow error, try : 'java -Xss<size> : to increase java thread stack size'", TOOL_NAME);
-            Reporter.report("[ERROR]", "To obtain defaults run: 'java -XX:+PrintFlagsFinal -version | grep ThreadStackSize'", TOOL_NAME);
-            System.exit(1);
         } finally {
             try {
                 if (out != null) {
@@ -342,7 +320,9 @@ public class PairMersExtender {
                 + NumberFormat.getNumberInstance().format(longEnough);
         String longEnoughMessage2 = "Total length of reported sequences " + NumberFormat.getNumberInstance().format(minLen) + " bp or longer = "
                 + NumberFormat.getNumberInstance().format(longEnoughBp) + " bp";
-        String duplicatesExtMessage = "Number of terminated extensions = " + NumberFormat.getNumberInstance().format(potentialDuplicate);
+        String duplicatesExtMessage = "Number of terminated extensions (concurrent walks on the same unitig, discarded) = " + NumberFormat.getNumberInstance().format(extensionsTerminated)
+                + " (" + NumberFormat.getNumberInstance().format(visitedInVain) + " PairMers visited in vain)";
+        String claimsLostMessage = "Number of extensions not started, PairMer already claimed = " + NumberFormat.getNumberInstance().format(claimsLost);
         if (STATS_FILE != null) {
             Reporter.writeToFile(STATS_FILE, Reporter.formatReport("[STATS]", longestExtMessage, TOOL_NAME), true);
             Reporter.writeToFile(STATS_FILE, Reporter.formatReport("[STATS]", totalExtendedMessage, TOOL_NAME), true);
@@ -355,7 +335,33 @@ public class PairMersExtender {
         Reporter.report("[INFO]", longEnoughMessage, TOOL_NAME);
         Reporter.report("[INFO]", longEnoughMessage2, TOOL_NAME);
         Reporter.report("[INFO]", duplicatesExtMessage, TOOL_NAME);
+        Reporter.report("[INFO]", claimsLostMessage, TOOL_NAME);
+
+    }
+
+    /**
+     * Wait for the extender tasks to complete, without shutting down the
+     * executor, so that it can be re-used
+     *
+     * @param futures
+     */
+    private void waitForAll(List<Future<?>> futures) {
+        try {
+            for (Future<?> f : futures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Reporter.report("[ERROR]", "PairMer extender interrupted exception!", TOOL_NAME);
+        } catch (ExecutionException ex) {
+            Reporter.report("[ERROR]", "PairMer extender execution exception!", TOOL_NAME);
+            ex.printStackTrace();
 
+        } catch (TimeoutException ex) {
+            Reporter.report("[ERROR]", "PairMer extender timeout exception!", TOOL_NAME);
+        } catch (Exception e) {
+            Reporter.report("[ERROR]", "PairMer extender exception!", TOOL_NAME);
+            e.printStackTrace();
+        }
     }
 
 }
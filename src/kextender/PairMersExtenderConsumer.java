@@ -17,6 +17,7 @@ package kextender;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import shared.Reporter;
 
@@ -28,18 +29,22 @@ public class PairMersExtenderConsumer implements Runnable {
 
     private final PairMersMap map;
     private final BlockingQueue<List<PairMer>> inqueue;
+    private final Queue<Iterable<PairMer>> ranges;
     private final BlockingQueue<List<ConnectedPairMers>> outqueue;
     private String DEBUG_FILE = null;
     private final String TOOL_NAME;
     private int k;
     private final int OUT_BUFFER_SIZE;
-    private final byte threadId;
+    private final int threadId;
     private int extensionsTerminated = 0;
+    private int claimsLost = 0;
+    private long pairMersVisitedInVain = 0;
 
     public PairMersExtenderConsumer(PairMersMap map, BlockingQueue<List<PairMer>> inqueue, BlockingQueue<List<ConnectedPairMers>> outqueue,
-            int k, String DEBUG_FILE, byte threadId, String TOOL_NAME, int BUFFER_SIZE) {
+            int k, String DEBUG_FILE, int threadId, String TOOL_NAME, int BUFFER_SIZE) {
         this.map = map;
         this.inqueue = inqueue;
+        this.ranges = null;
         this.outqueue = outqueue;
         this.DEBUG_FILE = DEBUG_FILE;
         this.k = k;
@@ -48,44 +53,85 @@ public class PairMersExtenderConsumer implements Runnable {
         this.OUT_BUFFER_SIZE = BUFFER_SIZE;
     }
 
+    /**
+     * Consumer taking its input from a shared queue of ranges of the map (e.g.
+     * PairMersMap.splitIntoRanges()), for extending what is left unvisited
+     * once the first pass is done, it terminates once the queue is drained
+     *
+     * @param map
+     * @param ranges
+     * @param outqueue
+     * @param k
+     * @param DEBUG_FILE
+     * @param threadId
+     * @param TOOL_NAME
+     * @param BUFFER_SIZE
+     */
+    public PairMersExtenderConsumer(PairMersMap map, Queue<Iterable<PairMer>> ranges, BlockingQueue<List<ConnectedPairMers>> outqueue,
+            int k, String DEBUG_FILE, int threadId, String TOOL_NAME, int BUFFER_SIZE) {
+        this.map = map;
+        this.inqueue = null;
+        this.ranges = ranges;
+        this.outqueue = outqueue;
+        this.DEBUG_FILE = DEBUG_FILE;
+        this.k = k;
+        this.threadId = threadId;
+        this.TOOL_NAME = TOOL_NAME;
+        this.OUT_BUFFER_SIZE = BUFFER_SIZE;
+    }
+
+    /**
+     *
+     * @return next chunk of input, null once input exhausted
+     * @throws InterruptedException
+     */
+    private Iterable<PairMer> next() throws InterruptedException {
+        if (ranges != null) {
+            return ranges.poll();
+        }
+        List<PairMer> list = inqueue.take();
+        return list.isEmpty() ? null : list;
+    }
+
     @Override
     public void run() {
         try {
-            List<PairMer> list;
+            Iterable<PairMer> list;
             ArrayList<ConnectedPairMers> outBuffer = new ArrayList<>(OUT_BUFFER_SIZE);
-            while (!(list = inqueue.take()).isEmpty()) {
+            while ((list = next()) != null) {
 //                System.err.println(Thread.currentThread().getName() + "[PC] taken " + list.size());
                 for (PairMer pairMer : list) {
                     ///extend, put on outqueue
 //                                System.err.println(pairMer.getPairMerString(6, "_")+" AMB="+pairMer.isAmbiguousTMP());
 
-                    if (!pairMer.isVisited()) {
-                        try {
-                            ConnectedPairMers connectedPairMers = new ConnectedPairMers();
-                            if (!connectedPairMers.connectPairMers(pairMer, k, map, threadId, DEBUG_FILE)) {
+                    if (pairMer != null && !pairMer.isVisited()) {
+                        ConnectedPairMers connectedPairMers = new ConnectedPairMers();
+                        if (!connectedPairMers.connectPairMers(pairMer, k, map, threadId, DEBUG_FILE)) {
+                            if (connectedPairMers.size() == 0) { //ANOTHER THREAD GOT THERE FIRST, NOTHING WALKED
+                                claimsLost++;
+                            } else {
                                 extensionsTerminated++;
+                                pairMersVisitedInVain += connectedPairMers.size();
+                            }
 //                            Reporter.report("[INFO]", "Thread "+threadId+" duplicate extension detected for "+pairMer.getPairMerString(k, "_"), TOOL_NAME);
 //                            System.err.println("Failed extending pairmer "+pairMer.getPairMerString(k));
-                                continue;
-                            }
+                            continue;
+                        }
 //                        if(connectedPairMers.size() == 0) {
 //                            int x = 0;
 //                            connectedPairMers.connectPairMers(pairMer, k, map, threadId, DEBUG_FILE, true);
 //                        }
+                        if (connectedPairMers.hasTerminalOrSingletonNode()) { //CYCLES ARE REPORTED DOWNSTREAM
                             connectedPairMers.toCharSeq(k);
-                            
-                            
-                            
-                            if (outBuffer.size() >= OUT_BUFFER_SIZE) {
-                                putOneQueue(outqueue, outBuffer);
-                                outBuffer = new ArrayList<>(OUT_BUFFER_SIZE);
-                            }
-                            outBuffer.add(connectedPairMers);
-                        } catch (StackOverflowError error) {
-                            Reporter.report("[ERROR]", "StackOverflow error, possible solution lies in : 'java -Xss<size> : set java thread stack size'", TOOL_NAME);
-                            Reporter.report("[ERROR]", "To obtain defaults: 'java -XX:+PrintFlagsFinal -version | grep ThreadStackSize'", TOOL_NAME);
-                            System.exit(1);
                         }
+                        
+                        
+                        
+                        if (outBuffer.size() >= OUT_BUFFER_SIZE) {
+                            putOneQueue(outqueue, outBuffer);
+                            outBuffer = new ArrayList<>(OUT_BUFFER_SIZE);
+                        }
+                        outBuffer.add(connectedPairMers);
                     }
                 }
             }
@@ -93,7 +139,9 @@ public class PairMersExtenderConsumer implements Runnable {
                 putOneQueue(outqueue, outBuffer);
             }
             putOneQueue(outqueue, new ArrayList<>(0)); //inform other threads
-            putOneQueue(inqueue, new ArrayList<>()); //inform other threads
+            if (inqueue != null) {
+                putOneQueue(inqueue, new ArrayList<>()); //inform other threads
+            }
 //            Reporter.report("[INFO]", "Thread " + threadId + " finished, terminated extensions = " + extensionsTerminated, TOOL_NAME + " " + Thread.currentThread().getName());
 
         } catch (InterruptedException e) {
@@ -102,6 +150,33 @@ public class PairMersExtenderConsumer implements Runnable {
 //        pairMersMaps.addToTotalPairMersGenerated(pairMersGenerated);
     }
 
+    /**
+     *
+     * @return number of extensions abandoned to a higher priority thread
+     * which started on the same unitig concurrently, these walks are discarded
+     * and their PairMers counted in getPairMersVisitedInVain()
+     */
+    public int getExtensionsTerminated() {
+        return extensionsTerminated;
+    }
+
+    /**
+     *
+     * @return number of extensions not started because the PairMer had been
+     * claimed in the meantime
+     */
+    public int getClaimsLost() {
+        return claimsLost;
+    }
+
+    /**
+     *
+     * @return number of PairMers walked over in abandoned extensions
+     */
+    public long getPairMersVisitedInVain() {
+        return pairMersVisitedInVain;
+    }
+
     private void putOneQueue(BlockingQueue q, List buffer) throws InterruptedException {
 //        System.err.println(Thread.currentThread().getName() + "[PC] puts " + buffer.size() + " on " + q.hashCode());
         q.put(buffer);
@@ -16,16 +16,20 @@
 package kextender;
 
 //import gnu.trove..set.hash.THashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import shared.CountingBloomFilter;
 import shared.Reporter;
 
 /**
- * Wrapper around a concurrent collection (ConcurrentSkipListMap, but other
- * options possible) of PairMer objects. After the Map is populated, use
- * .purge()
+ * Wrapper around a concurrent collection (ConcurrentSkipListMap, or a packed
+ * open addressing PairMersTable for k up to 65) of PairMer objects. After the
+ * Map is populated, use .purge()
  *
  * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
  */
@@ -35,6 +39,9 @@ public class PairMersMap extends shared.MerMap {
     private ConcurrentSkipListMap<PairMer, PairMer> pairMersSkipListMap;
     private ConcurrentSkipListMap<PairMer, PairMerCLips> pairMerClipsMap;  //to store ambigous clip info/counts UNUSED
     private ConcurrentSkipListMap<PairMer, PairMer> terminalPairMers;
+    private PairMersTable pairMersTable;
+    private long fromSlot;
+    private long toSlot;
 //    private ConcurrentSkipListMap<PairMer, PairMer> pairMersSkipListMap;
     private Integer k;
     private PairMersMap parentMap;
@@ -42,6 +49,8 @@ public class PairMersMap extends shared.MerMap {
     private AtomicLong size;
     private AtomicLong sizeTerminal = new AtomicLong();
     private long storedSize;
+    private CountingBloomFilter singletonFilter;
+    private PairMersPartitioner partitioner;
 
 
     /**
@@ -62,21 +71,41 @@ public class PairMersMap extends shared.MerMap {
         }
     }
 
+    /**
+     * Instantiate the Map backed by a PairMersTable
+     *
+     * @param k
+     * @param pairMersTable
+     */
+    public PairMersMap(Integer k, PairMersTable pairMersTable) {
+        this.size = new AtomicLong();
+        this.ambiguous = new AtomicLong();
+        this.sizeTerminal = new AtomicLong();
+        this.terminalPairMers = new ConcurrentSkipListMap<>();
+        this.pairMersTable = pairMersTable;
+        this.fromSlot = 0;
+        this.toSlot = pairMersTable.getCapacity();
+        this.k = k;
+    }
+
     public ConcurrentSkipListMap<PairMer, PairMerCLips> getPairMerClipsMap() {
         return pairMerClipsMap;
     }
 
     /**
-     * Constructor for exposing a subMap for multithreaded purging
+     * Constructor for exposing a range of PairMersTable slots for
+     * multithreaded purging
      *
      * @param k
-     * @param subMap
+     * @param fromSlot inclusive
+     * @param toSlot exclusive
      * @param parentMap
      */
-    public PairMersMap(Integer k, ConcurrentNavigableMap<PairMer, PairMer> subMap, PairMersMap parentMap) {
+    public PairMersMap(Integer k, long fromSlot, long toSlot, PairMersMap parentMap) {
         this.k = k;
-        this.pairMersSkipListMap = new ConcurrentSkipListMap<>(subMap);
-        this.pairMerClipsMap = parentMap.getPairMerClipsMap();
+        this.pairMersTable = parentMap.getPairMersTable();
+        this.fromSlot = fromSlot;
+        this.toSlot = toSlot;
         this.terminalPairMers = parentMap.getTerminalPairMers();
         this.sizeTerminal = parentMap.getSizeTerminal();
         this.ambiguous = parentMap.getAmbiguous();
@@ -84,6 +113,40 @@ public class PairMersMap extends shared.MerMap {
         this.parentMap = parentMap;
     }
 
+    /**
+     *
+     * @return filter tracking k-mers seen once so far, null if all k-mers are
+     * to be added straight away
+     */
+    public CountingBloomFilter getSingletonFilter() {
+        return singletonFilter;
+    }
+
+    /**
+     * When k-merizing reads, only add k-mers once seen for the second time,
+     * with the first sighting accounted for in the stored counts
+     *
+     * @param singletonFilter null to add all k-mers (default) and to release
+     * the filter once the Map is populated
+     */
+    public void setSingletonFilter(CountingBloomFilter singletonFilter) {
+        this.singletonFilter = singletonFilter;
+    }
+
+    public PairMersPartitioner getPartitioner() {
+        return partitioner;
+    }
+
+    /**
+     * Write added k-mers out to bucket files instead of storing them, see
+     * PairMersPartitioner
+     *
+     * @param partitioner null to store k-mers in this Map (default)
+     */
+    public void setPartitioner(PairMersPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
     public AtomicLong getAmbiguous() {
         return ambiguous;
     }
@@ -97,11 +160,22 @@ public class PairMersMap extends shared.MerMap {
     }
 
     public boolean isEmpty() {
+        if (pairMersTable != null) {
+            return parentMap == null && size() == 0; //slot ranges are not considered empty, these are put on purging queue 
+        }
         return pairMersSkipListMap == null || pairMersSkipListMap.isEmpty();
     }
 
     public boolean isNull() {
-        return pairMersSkipListMap == null;
+        return pairMersSkipListMap == null && pairMersTable == null;
+    }
+
+    public boolean isTableBacked() {
+        return pairMersTable != null;
+    }
+
+    public PairMersTable getPairMersTable() {
+        return pairMersTable;
     }
 
 //    /**
@@ -127,8 +201,8 @@ public class PairMersMap extends shared.MerMap {
 //    }
 //    Random r = new Random();
     /**
-     * First tries to atomically add a k-mer to the Map, if this fails,
-     * synchronized method is used to update the previously stored PairMer
+     * First tries to atomically add a k-mer to the Map, if this fails, the
+     * previously stored PairMer is updated (lock-free)
      *
      * @param sequence
      * @param from
@@ -158,7 +232,13 @@ public class PairMersMap extends shared.MerMap {
 //            Reporter.report("[WARNING]", ex.getMessage(), getClass().getCanonicalName());
             failed = true;
         }
-        if (!failed) {
+        if (!failed && partitioner != null) {
+            partitioner.add(getCoreBits(pairMer), pairMer.getClipLeftBin(), pairMer.getClipRightBin(), freq);
+        } else if (!failed && pairMersTable != null) {
+            if (pairMersTable.add(getCoreBits(pairMer), pairMer.getClipLeftBin(), pairMer.getClipRightBin(), freq)) {
+                size.incrementAndGet();
+            }
+        } else if (!failed) {
 //            ConcurrentSkipListSet<PairMer> pairMersSkipListSet = new ConcurrentSkipListSet<>();
 //            pairMersSkipListSet.
 
@@ -175,13 +255,41 @@ public class PairMersMap extends shared.MerMap {
                 size.incrementAndGet();
             } else {
                 //TODO!!!! If rc of a seq == seq we don't wan't duplciates i.e. 2 clipmers derived from a single kmer[checking the underlying kmer not just the clipped part]
-                previousStoredPairMer.addKmerSynchronized(pairMer, inputKmersUnique, freq);
+                previousStoredPairMer.addKmer(pairMer, inputKmersUnique, freq);
             }
         }
 //        }
 
     }
 
+    /**
+     * Add a k-mer given as a core already encoded in its canonical form
+     * (RollingCoreEncoder) and one of the clips
+     *
+     * @param canonicalCore
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param inputKmersUnique
+     * @param freq
+     */
+    public void addToPairMersMap(long[] canonicalCore, byte clipLeftBin, byte clipRightBin, boolean inputKmersUnique, int freq) {
+        if (partitioner != null) {
+            partitioner.add(canonicalCore, clipLeftBin, clipRightBin, freq);
+        } else if (pairMersTable != null) {
+            if (pairMersTable.add(canonicalCore, clipLeftBin, clipRightBin, freq)) {
+                size.incrementAndGet();
+            }
+        } else {
+            PairMer pairMer = PairMerTypeSelector.generatePairMer(canonicalCore, clipLeftBin, clipRightBin, freq);
+            PairMer previousStoredPairMer = pairMersSkipListMap.putIfAbsent(pairMer, pairMer);
+            if (previousStoredPairMer == null) {
+                size.incrementAndGet();
+            } else {
+                previousStoredPairMer.addKmer(pairMer, inputKmersUnique, freq);
+            }
+        }
+    }
+
     /**
      * Given a core string, retrieves the matching PairMer
      *
@@ -191,7 +299,7 @@ public class PairMersMap extends shared.MerMap {
      * @throws kextender.NonACGTException
      */
     public PairMer get(CharSequence core, int k) throws NonACGTException {
-        return pairMersSkipListMap.get(PairMerTypeSelector.getPairMer(core, k));
+        return get(PairMerTypeSelector.getPairMer(core, k));
     }
 
 //    /**
@@ -213,9 +321,27 @@ public class PairMersMap extends shared.MerMap {
      * @return
      */
     public PairMer get(PairMer anotherPairMer) {
+        if (pairMersTable != null) {
+            long slot = pairMersTable.find(getCoreBits(anotherPairMer));
+            return slot < 0 ? null : pairMersTable.getPairMer(slot);
+        }
         return pairMersSkipListMap.get(anotherPairMer);
     }
 
+    /**
+     * Table-backed (and partitioned) maps only hold cores encoded in 1 or 2
+     * longs
+     *
+     * @param pairMer
+     * @return
+     */
+    private long[] getCoreBits(PairMer pairMer) {
+        if (pairMer instanceof PairMer1LongEncoded) {
+            return ((PairMer1LongEncoded) pairMer).getBitFields();
+        }
+        return ((PairMer2LongEncoded) pairMer).getBitFields();
+    }
+
     public long size() {
         return size.longValue();
     }
@@ -225,6 +351,14 @@ public class PairMersMap extends shared.MerMap {
     }
 
     public boolean remove(PairMer elem) {
+        if (pairMersTable != null) {
+            long slot = pairMersTable.find(getCoreBits(elem));
+            if (slot >= 0 && pairMersTable.remove(slot)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
         if (pairMersSkipListMap.remove(elem) != null) {
             size.decrementAndGet();
             return true;
@@ -234,20 +368,85 @@ public class PairMersMap extends shared.MerMap {
 
     /**
      *
-     * @return the underlying data structure
+     * @return the underlying data structure, null if table-backed
      */
     public ConcurrentSkipListMap getPairMersMap() {
         return pairMersSkipListMap;
     }
 
     public boolean contains(PairMer key) {
+        if (pairMersTable != null) {
+            return pairMersTable.find(getCoreBits(key)) >= 0;
+        }
         return pairMersSkipListMap.containsKey(key);
     }
 
     public Iterator<PairMer> iterator() {
+        if (pairMersTable != null) {
+            return pairMersTable.iterator(fromSlot, toSlot);
+        }
         return pairMersSkipListMap.keySet().iterator();
     }
 
+    /**
+     * Skip-list backed Map only, splits in place along the skip-list index,
+     * see PairMersMapPurgeTask
+     *
+     * @return
+     */
+    public Spliterator<PairMer> spliterator() {
+        return pairMersSkipListMap.keySet().spliterator();
+    }
+
+    /**
+     * Split the Map into key ranges (slot ranges if table-backed), so that it
+     * can be traversed by multiple threads. A skip-list backed Map is split in
+     * place along its index levels (via its Spliterator, as in
+     * PairMersMapPurgeTask), so no thread reads the whole Map up front. Ranges
+     * are views of this Map, nothing is copied, each to be iterated once.
+     *
+     * @param threads
+     * @param minRangeSize
+     * @return
+     */
+    public ArrayList<Iterable<PairMer>> splitIntoRanges(int threads, long minRangeSize) {
+        ArrayList<Iterable<PairMer>> ranges = new ArrayList<>();
+        if (pairMersTable != null) {
+            long rangeSize = Math.max(minRangeSize, (toSlot - fromSlot) / (threads * 16));
+            for (long from = fromSlot; from < toSlot; from += rangeSize) {
+                final long rangeFrom = from;
+                final long rangeTo = Math.min(from + rangeSize, toSlot);
+                ranges.add(() -> pairMersTable.iterator(rangeFrom, rangeTo));
+            }
+            return ranges;
+        }
+        //SPLIT BREADTH-FIRST UNTIL ENOUGH RANGES, SIZE TAKEN FROM THE COUNTER RATHER THAN BY TRAVERSAL
+        long maxRanges = Math.max(1, Math.min(threads * 16L, size() / Math.max(1, minRangeSize)));
+        Spliterator<PairMer> root = spliterator();
+        //THE ROOT SPLITERATOR (JDK 9+) CANNOT BE SPLIT BEFORE IT ADVANCES PAST THE HEAD OF THE SKIP-LIST
+        ArrayList<PairMer> first = new ArrayList<>(1);
+        if (root.tryAdvance(first::add)) {
+            ranges.add(first);
+        }
+        ArrayDeque<Spliterator<PairMer>> toSplit = new ArrayDeque<>();
+        toSplit.add(root);
+        ArrayList<Spliterator<PairMer>> splits = new ArrayList<>();
+        while (!toSplit.isEmpty()) {
+            Spliterator<PairMer> split = toSplit.poll();
+            Spliterator<PairMer> prefix = toSplit.size() + splits.size() + 1 < maxRanges ? split.trySplit() : null;
+            if (prefix != null) {
+                toSplit.add(prefix);
+                toSplit.add(split);
+            } else {
+                splits.add(split);
+            }
+        }
+        for (Spliterator<PairMer> split : splits) {
+            ranges.add(() -> Spliterators.iterator(split));
+        }
+        return ranges;
+    }
+
     public ConcurrentSkipListMap<PairMer, PairMer> getTerminalPairMers() {
         return terminalPairMers;
     }
@@ -287,7 +486,7 @@ public class PairMersMap extends shared.MerMap {
 
         long count = 0L;
 //        prePurgeSize = getSize().longValue();
-        Iterator<PairMer> it = pairMersSkipListMap.keySet().iterator();
+        Iterator<PairMer> it = iterator();
 
 //        Reporter.report("[WARNING]", "Pointless map traversal started", getClass().getCanonicalName());
 //        long c = 0;
@@ -360,41 +559,7 @@ public class PairMersMap extends shared.MerMap {
 //            if (next.isInvalid()) {
 //                it.remove();
 //                count++;
-            if (next.isInvalid() || next.getStoredCountLeft() == 0 || next.getStoredCountRigth() == 0) {
-//                //PM removed either due to ambig or holding just one k-mer, any valid adjacent k-mer present in map must be a terminal one
-                if (next.isInvalid()) {
-                    ambiguous.incrementAndGet();
-                }
-                try {
-                    String decodedCore = next.decodeCore(k - 1);
-                    if (next.hasLeftClip()) {
-                        //IF AMBIGUOUS, THERE WILL BE MORE THAN ONE CLIP BASE, SO MORE THAN ONE PATH TO EXPLORE
-                        for (char clipLeft : next.getClipsLeft()) {
-                            StringBuilder otherCoreOfKmer1 = new StringBuilder();
-                            otherCoreOfKmer1.append(clipLeft);
-                            otherCoreOfKmer1.append(decodedCore.subSequence(0, decodedCore.length() - 1));
-                            if (addTerminal(otherCoreOfKmer1, minKmerFrequency, next.isInvalid())) {
-                                sizeTerminal.incrementAndGet();
-                            }
-                        }
-
-                    }
-                    if (next.hasRightClip()) {
-                        //IF AMBIGUOUS, THERE WILL BE MORE THAN ONE CLIP BASE, SO MORE THAN ONE PATH TO EXPLORE
-                        for (char clipRight : next.getClipsRight()) {
-                            StringBuilder otherCoreOfKmer2 = new StringBuilder();
-                            otherCoreOfKmer2.append(decodedCore.subSequence(1, decodedCore.length()));
-                            otherCoreOfKmer2.append(clipRight);
-                            if (addTerminal(otherCoreOfKmer2, minKmerFrequency, next.isInvalid())) {
-                                sizeTerminal.incrementAndGet();
-                            }
-                        }
-                    }
-                } catch (NonACGTException ex) {
-                    Reporter.report("[WARNING]", "Unexpected NonACGTException caught", getClass().getCanonicalName());
-                }
-                getParentMap().remove(next);
-                size.decrementAndGet();
+            if (purge(next, minKmerFrequency)) {
                 count++;
 //                }
 //            } else if (!terminalPairMers.containsKey(next)) { //if not already marked as terminal
@@ -497,6 +662,55 @@ public class PairMersMap extends shared.MerMap {
         return count;
     }
 
+    /**
+     * Remove a PairMer if it is ambiguous or holds a single k-mer, any valid
+     * adjacent PairMers in the Map are marked as terminal. Safe to call
+     * concurrently for different PairMers, see PairMersMapPurgeTask
+     *
+     * @param next
+     * @param minKmerFrequency
+     * @return true if removed
+     */
+    public boolean purge(PairMer next, int minKmerFrequency) {
+        if (!(next.isInvalid() || next.getStoredCountLeft() == 0 || next.getStoredCountRigth() == 0)) {
+            return false;
+        }
+        //PM REMOVED EITHER DUE TO AMBIG OR HOLDING JUST ONE k-mer, ANY VALID ADJACENT k-mer PRESENT IN MAP MUST BE A TERMINAL ONE
+        if (next.isInvalid()) {
+            ambiguous.incrementAndGet();
+        }
+        try {
+            String decodedCore = next.decodeCore(k - 1);
+            if (next.hasLeftClip()) {
+                //IF AMBIGUOUS, THERE WILL BE MORE THAN ONE CLIP BASE, SO MORE THAN ONE PATH TO EXPLORE
+                for (char clipLeft : next.getClipsLeft()) {
+                    StringBuilder otherCoreOfKmer1 = new StringBuilder();
+                    otherCoreOfKmer1.append(clipLeft);
+                    otherCoreOfKmer1.append(decodedCore.subSequence(0, decodedCore.length() - 1));
+                    if (addTerminal(otherCoreOfKmer1, minKmerFrequency, next.isInvalid())) {
+                        sizeTerminal.incrementAndGet();
+                    }
+                }
+
+            }
+            if (next.hasRightClip()) {
+                //IF AMBIGUOUS, THERE WILL BE MORE THAN ONE CLIP BASE, SO MORE THAN ONE PATH TO EXPLORE
+                for (char clipRight : next.getClipsRight()) {
+                    StringBuilder otherCoreOfKmer2 = new StringBuilder();
+                    otherCoreOfKmer2.append(decodedCore.subSequence(1, decodedCore.length()));
+                    otherCoreOfKmer2.append(clipRight);
+                    if (addTerminal(otherCoreOfKmer2, minKmerFrequency, next.isInvalid())) {
+                        sizeTerminal.incrementAndGet();
+                    }
+                }
+            }
+        } catch (NonACGTException ex) {
+            Reporter.report("[WARNING]", "Unexpected NonACGTException caught", getClass().getCanonicalName());
+        }
+        getParentMap().remove(next); //DECREMENTS SIZE
+        return true;
+    }
+
     private boolean addTerminal(CharSequence pairMerCore, int minKmerFrequency, boolean ambiguous) throws NonACGTException {
         //Encode core to find PairMer in Map
         PairMer encodedCoreOfKmer = PairMerTypeSelector.getPairMer(pairMerCore, k);
@@ -511,6 +725,21 @@ public class PairMersMap extends shared.MerMap {
         return false;
     }
 
+    /**
+     * Mark a PairMer already in the Map as terminal, e.g. when loading a
+     * purged Map, see PairMersMapSnapshot
+     *
+     * @param pairMer
+     * @return false if already marked as terminal
+     */
+    public boolean putTerminal(PairMer pairMer) {
+        if (terminalPairMers.putIfAbsent(pairMer, pairMer) == null) {
+            sizeTerminal.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
     public Integer getK() {
         return k;
     }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Fork/join purging of a populated PairMersMap, terminal PairMers are
+ * identified in the same pass (see PairMersMap.purge(PairMer, int)).
+ *
+ * A skip-list backed Map is split in place along its index levels (via its
+ * Spliterator), a table-backed Map by halving slot ranges, nothing is copied.
+ * Tasks keep splitting off work for as long as idle threads are likely to
+ * steal it, so uneven key distributions do not leave threads idle.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersMapPurgeTask extends RecursiveTask<Long> {
+
+    private static final long serialVersionUID = 1L;
+    private static final int SURPLUS_TASKS = 3;
+    private static final long MIN_SLOTS = 1 << 16;
+
+    private final PairMersMap pairMersMap;
+    private final int minKmerFrequency;
+    private final Spliterator<PairMer> spliterator;
+    private final long fromSlot;
+    private final long toSlot;
+
+    /**
+     *
+     * @param pairMersMap populated map
+     * @param minKmerFrequency
+     */
+    public PairMersMapPurgeTask(PairMersMap pairMersMap, int minKmerFrequency) {
+        this(pairMersMap, minKmerFrequency, pairMersMap.isTableBacked() ? null : pairMersMap.spliterator(),
+                0, pairMersMap.isTableBacked() ? pairMersMap.getPairMersTable().getCapacity() : 0);
+    }
+
+    private PairMersMapPurgeTask(PairMersMap pairMersMap, int minKmerFrequency, Spliterator<PairMer> spliterator, long fromSlot, long toSlot) {
+        this.pairMersMap = pairMersMap;
+        this.minKmerFrequency = minKmerFrequency;
+        this.spliterator = spliterator;
+        this.fromSlot = fromSlot;
+        this.toSlot = toSlot;
+    }
+
+    /**
+     *
+     * @return number of PairMers purged
+     */
+    @Override
+    protected Long compute() {
+        ArrayList<PairMersMapPurgeTask> forked = new ArrayList<>();
+        long purged = 0;
+        if (spliterator != null) {
+            final long[] removed = new long[1];
+            Consumer<PairMer> purge = pairMer -> {
+                if (pairMersMap.purge(pairMer, minKmerFrequency)) {
+                    removed[0]++;
+                }
+            };
+            //ADVANCE FIRST, THE ROOT SPLITERATOR (JDK 9+) CANNOT BE SPLIT WHILE ON THE HEAD OF THE SKIP-LIST
+            spliterator.tryAdvance(purge);
+            Spliterator<PairMer> split;
+            while (getSurplusQueuedTaskCount() <= SURPLUS_TASKS && (split = spliterator.trySplit()) != null) {
+                forked.add(fork(new PairMersMapPurgeTask(pairMersMap, minKmerFrequency, split, 0, 0)));
+            }
+            spliterator.forEachRemaining(purge);
+            purged += removed[0];
+        } else {
+            long from = fromSlot;
+            long to = toSlot;
+            while (getSurplusQueuedTaskCount() <= SURPLUS_TASKS && to - from > MIN_SLOTS) {
+                long mid = from + (to - from) / 2;
+                forked.add(fork(new PairMersMapPurgeTask(pairMersMap, minKmerFrequency, null, mid, to)));
+                to = mid;
+            }
+            purged += new PairMersMap(pairMersMap.getK(), from, to, pairMersMap).purge(minKmerFrequency);
+        }
+        for (PairMersMapPurgeTask task : forked) {
+            purged += task.join();
+        }
+        return purged;
+    }
+
+    private static PairMersMapPurgeTask fork(PairMersMapPurgeTask task) {
+        task.fork();
+        return task;
+    }
+}
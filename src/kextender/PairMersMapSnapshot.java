@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary snapshot of purged PairMersMap(s), so that the graph can be extended
+ * again (e.g. with different seeds or output settings) without re-reading and
+ * re-purging the input.
+ *
+ * Layout: magic, version, number of maps, then for each map k, longs per core,
+ * number of PairMers, number of terminal PairMers and number of ambiguous
+ * extensions, followed by PairMer records (2-bit encoded canonical core as in
+ * CoreCoder.encodeCoreLongArray() and an int holding clips, counts and
+ * nextToAmbiguous flag) and finally the cores of terminal PairMers. Records
+ * come in map order, sorted by core unless the map is table-backed.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersMapSnapshot {
+
+    private static final long MAGIC = 0x59414b4154504d53L; //"YAKATPMS"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CLIP_RIGHT_SHIFT = 4;
+    private static final int COUNT_LEFT_SHIFT = 8;
+    private static final int COUNT_RIGHT_SHIFT = 15;
+    private static final int NEXT_TO_AMBIGUOUS_BIT = 1 << 22;
+
+    /**
+     * Write purged map(s) to file, gzipped if the file name ends with .gz
+     *
+     * @param pairMerMaps
+     * @param fileName
+     * @throws IOException
+     */
+    public static void write(PairMerMaps pairMerMaps, String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileName.endsWith(".gz")
+                ? new GZIPOutputStream(new FileOutputStream(fileName), BUFFER_SIZE) : new FileOutputStream(fileName), BUFFER_SIZE))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(pairMerMaps.size());
+            for (int k : pairMerMaps.getkSizes()) {
+                write(pairMerMaps.getPairMersMap(k), out);
+            }
+        }
+    }
+
+    private static void write(PairMersMap pairMersMap, DataOutputStream out) throws IOException {
+        int k = pairMersMap.getK();
+        out.writeInt(k);
+        out.writeInt(getWords(k));
+        long size = 0; //COUNTED, AS SIZE COUNTER IS ONLY APPROXIMATE AFTER PURGING
+        Iterator<PairMer> it = pairMersMap.iterator();
+        while (it.hasNext()) {
+            it.next();
+            size++;
+        }
+        out.writeLong(size);
+        out.writeLong(pairMersMap.getTerminalPairMers().size());
+        out.writeLong(pairMersMap.getAmbiguous().get());
+        long written = 0;
+        it = pairMersMap.iterator();
+        while (it.hasNext()) {
+            PairMer pairMer = it.next();
+            writeCore(pairMer, k, out);
+            int flags = pairMer.getClipLeftBin() | pairMer.getClipRightBin() << CLIP_RIGHT_SHIFT
+                    | pairMer.getStoredCountLeft() << COUNT_LEFT_SHIFT | pairMer.getStoredCountRigth() << COUNT_RIGHT_SHIFT;
+            if (pairMer.isNextToAmbiguous()) {
+                flags |= NEXT_TO_AMBIGUOUS_BIT;
+            }
+            out.writeInt(flags);
+            written++;
+        }
+        if (written != size) {
+            throw new IOException("Map size changed while writing snapshot at k=" + k + ", expected " + size + " written " + written);
+        }
+        for (PairMer terminal : pairMersMap.getTerminalPairMers().keySet()) {
+            writeCore(terminal, k, out);
+        }
+    }
+
+    private static void writeCore(PairMer pairMer, int k, DataOutputStream out) throws IOException {
+        long[] core;
+        if (pairMer instanceof PairMer1LongEncoded) {
+            core = ((PairMer1LongEncoded) pairMer).getBitFields();
+        } else if (pairMer instanceof PairMer2LongEncoded) {
+            core = ((PairMer2LongEncoded) pairMer).getBitFields();
+        } else if (pairMer instanceof PairMerNLongEncoded) {
+            core = ((PairMerNLongEncoded) pairMer).getBitFields();
+        } else {
+            core = CoreCoder.encodeCoreLongArray(pairMer.decodeCore(k - 1));
+        }
+        for (long word : core) {
+            out.writeLong(word);
+        }
+    }
+
+    private static int getWords(int k) {
+        return (2 * (k - 1) + 63) / 64;
+    }
+
+    /**
+     * Load map(s) from a snapshot written by write()
+     *
+     * @param fileName
+     * @param kSizes only load maps for these k values, all if empty, on return
+     * holds the k values loaded
+     * @param TOOL_NAME
+     * @param tableExpectedSize as in PairMerMaps
+     * @return
+     * @throws IOException
+     */
+    public static PairMerMaps read(String fileName, ArrayList<Integer> kSizes, String TOOL_NAME, Long tableExpectedSize) throws IOException {
+        ArrayList<Integer> wanted = new ArrayList<>(kSizes);
+        kSizes.clear();
+        PairMerMaps pairMerMaps = new PairMerMaps(kSizes, TOOL_NAME, tableExpectedSize);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(fileName.endsWith(".gz")
+                ? new GZIPInputStream(new FileInputStream(fileName), BUFFER_SIZE) : new FileInputStream(fileName), BUFFER_SIZE))) {
+            if (in.readLong() != MAGIC) {
+                throw new IOException("Not a kextend snapshot: " + fileName);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + fileName);
+            }
+            int maps = in.readInt();
+            for (int i = 0; i < maps; i++) {
+                int k = in.readInt();
+                if (wanted.isEmpty() || wanted.contains(k)) {
+                    read(pairMerMaps.getPairMersMap(k), in);
+                } else {
+                    skip(k, in);
+                }
+            }
+        }
+        return pairMerMaps;
+    }
+
+    private static void read(PairMersMap pairMersMap, DataInputStream in) throws IOException {
+        int k = pairMersMap.getK();
+        long[] core = new long[in.readInt()];
+        long size = in.readLong();
+        long terminals = in.readLong();
+        pairMersMap.getAmbiguous().set(in.readLong());
+        for (long i = 0; i < size; i++) {
+            readCore(core, in);
+            int flags = in.readInt();
+            byte clipLeftBin = (byte) (flags & 0xF);
+            byte clipRightBin = (byte) (flags >>> CLIP_RIGHT_SHIFT & 0xF);
+            int countLeft = flags >>> COUNT_LEFT_SHIFT & 0x7F;
+            int countRight = flags >>> COUNT_RIGHT_SHIFT & 0x7F;
+            if (core.length <= 2) {
+                pairMersMap.addToPairMersMap(core, clipLeftBin, (byte) 0, true, countLeft);
+                pairMersMap.addToPairMersMap(core, (byte) 0, clipRightBin, true, countRight);
+            } else { //LONGER CORES ARE ENCODED DIFFERENTLY, GO THROUGH k-mer STRINGS
+                String decodedCore = CoreCoder.decodeCore(k - 1, core);
+                pairMersMap.addToPairMersMap(PairMer.getClip(clipLeftBin) + decodedCore, 0, k - 1, true, true, countLeft);
+                pairMersMap.addToPairMersMap(decodedCore + PairMer.getClip(clipRightBin), 0, k - 1, false, true, countRight);
+            }
+            if ((flags & NEXT_TO_AMBIGUOUS_BIT) != 0) {
+                find(pairMersMap, core, k).setNextToAmbiguous(true);
+            }
+        }
+        for (long i = 0; i < terminals; i++) {
+            readCore(core, in);
+            pairMersMap.putTerminal(find(pairMersMap, core, k));
+        }
+        pairMersMap.storeSize();
+    }
+
+    private static PairMer find(PairMersMap pairMersMap, long[] core, int k) throws IOException {
+        PairMer pairMer;
+        if (core.length <= 2) {
+            pairMer = pairMersMap.get(PairMerTypeSelector.generatePairMer(core, (byte) 0, (byte) 0, 0));
+        } else {
+            try {
+                pairMer = pairMersMap.get(CoreCoder.decodeCore(k - 1, core), k);
+            } catch (NonACGTException ex) {
+                pairMer = null;
+            }
+        }
+        if (pairMer == null) {
+            throw new IOException("Corrupted snapshot, PairMer missing at k=" + k);
+        }
+        return pairMer;
+    }
+
+    private static void readCore(long[] core, DataInputStream in) throws IOException {
+        for (int i = 0; i < core.length; i++) {
+            core[i] = in.readLong();
+        }
+    }
+
+    private static void skip(int k, DataInputStream in) throws IOException {
+        int words = in.readInt();
+        long size = in.readLong();
+        long terminals = in.readLong();
+        in.readLong();
+        long bytes = size * (words * 8L + 4) + terminals * words * 8L;
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                throw new IOException("Truncated snapshot, k=" + k);
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import shared.CountingBloomFilter;
+import shared.Reporter;
+
+/**
+ * Instead of storing PairMers, writes each (canonical core, clip) pair to one
+ * of a number of bucket files, chosen by the minimizer of the core, so that
+ * each bucket can later be loaded, purged and extended on its own, see
+ * PartitionedPairMersExtender. All k-mers sharing a core go to the same
+ * bucket, so PairMers are complete within a bucket. Minimizers are computed
+ * over canonical m-mers, consecutive cores of a sequence tend to share them
+ * and so end up in the same bucket. Repeated (core, clip) pairs are summed in
+ * a small hash table per bucket before being written out, so that a bucket
+ * file holds each pair about once per table spill rather than once per
+ * occurrence.
+ *
+ * Set on a PairMersMap (see PairMersMap.setPartitioner()) before populating
+ * it, thread safe. Only for cores encoded in 1 or 2 longs (k &lt;= 65).
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersPartitioner {
+
+    private static final int MAX_MINIMIZER_LENGTH = 12;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long COMBINER_BUDGET = 64L << 20; //BYTES SHARED BY ALL BUCKETS
+    private static final int MIN_COMBINER_CAPACITY = 64;
+    private static final int MAX_COMBINER_CAPACITY = 1 << 16;
+
+    private final int k;
+    private final int coreLength;
+    private final int words;
+    private final int minimizerLength;
+    private final File[] files;
+    private final DataOutputStream[] outs;
+    private final Combiner[] combiners;
+    private final AtomicLongArray records;
+
+    /**
+     * Open addressing table of (core, clip bins) to summed frequency, written
+     * out to the bucket file when 3/4 full and on close
+     */
+    private static class Combiner {
+
+        private final int words;
+        private final long[] cores;
+        private final byte[] bins;
+        private final int[] freqs; //0 IF SLOT EMPTY
+        private int size;
+
+        Combiner(int capacity, int words) {
+            this.words = words;
+            this.cores = new long[capacity * words];
+            this.bins = new byte[capacity];
+            this.freqs = new int[capacity];
+        }
+
+        /**
+         *
+         * @param core
+         * @param bin
+         * @param freq
+         * @return true if the table should now be spilled
+         */
+        boolean add(long[] core, byte bin, int freq) {
+            long hash = bin;
+            for (int i = 0; i < words; i++) {
+                hash = CountingBloomFilter.mix(hash ^ core[i]);
+            }
+            int mask = freqs.length - 1;
+            int slot = (int) hash & mask;
+            while (freqs[slot] != 0) {
+                if (bins[slot] == bin && matches(slot, core)) {
+                    freqs[slot] = Math.min(freqs[slot] + freq, Byte.MAX_VALUE);
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            System.arraycopy(core, 0, cores, slot * words, words);
+            bins[slot] = bin;
+            freqs[slot] = Math.min(freq, Byte.MAX_VALUE);
+            return ++size >= freqs.length / 4 * 3;
+        }
+
+        private boolean matches(int slot, long[] core) {
+            for (int i = 0; i < words; i++) {
+                if (cores[slot * words + i] != core[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Write all entries and empty the table
+         *
+         * @param out
+         * @return number of records written
+         * @throws IOException
+         */
+        int spill(DataOutputStream out) throws IOException {
+            int written = 0;
+            for (int slot = 0; slot < freqs.length && written < size; slot++) {
+                if (freqs[slot] != 0) {
+                    for (int i = 0; i < words; i++) {
+                        out.writeLong(cores[slot * words + i]);
+                    }
+                    out.writeByte(bins[slot]);
+                    out.writeByte(freqs[slot]);
+                    freqs[slot] = 0;
+                    written++;
+                }
+            }
+            size = 0;
+            return written;
+        }
+    }
+
+    /**
+     *
+     * @param k
+     * @param dir bucket files are created in this directory
+     * @param buckets
+     * @throws IOException
+     */
+    public PairMersPartitioner(int k, File dir, int buckets) throws IOException {
+        this.k = k;
+        this.coreLength = k - 1;
+        this.words = (2 * coreLength + 63) / 64;
+        this.minimizerLength = Math.min(MAX_MINIMIZER_LENGTH, coreLength);
+        this.files = new File[buckets];
+        this.outs = new DataOutputStream[buckets];
+        this.combiners = new Combiner[buckets];
+        this.records = new AtomicLongArray(buckets);
+        long perBucket = COMBINER_BUDGET / buckets / (8L * words + 5);
+        int capacity = Integer.highestOneBit((int) Math.max(MIN_COMBINER_CAPACITY, Math.min(MAX_COMBINER_CAPACITY, perBucket)));
+        for (int i = 0; i < buckets; i++) {
+            files[i] = new File(dir, "k" + k + "_bucket" + i + ".bin");
+            outs[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[i]), BUFFER_SIZE));
+            combiners[i] = new Combiner(capacity, words);
+        }
+    }
+
+    /**
+     * Same arguments as PairMersMap.addToPairMersMap(long[], byte, byte,
+     * boolean, int)
+     *
+     * @param canonicalCore
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param freq
+     */
+    public void add(long[] canonicalCore, byte clipLeftBin, byte clipRightBin, int freq) {
+        int bucket = getBucket(canonicalCore);
+        Combiner combiner = combiners[bucket];
+        try {
+            synchronized (combiner) {
+                if (combiner.add(canonicalCore, (byte) (clipLeftBin | clipRightBin << 4), freq)) {
+                    records.addAndGet(bucket, combiner.spill(outs[bucket]));
+                }
+            }
+        } catch (IOException e) {
+            Reporter.report("[ERROR]", "Failed writing to " + files[bucket] + ": " + e.getMessage(), getClass().getSimpleName());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Bucket chosen by the smallest hash of the canonical m-mers of the core
+     *
+     * @param core
+     * @return
+     */
+    int getBucket(long[] core) {
+        long mask = (1L << 2 * minimizerLength) - 1;
+        int rcShift = 2 * (minimizerLength - 1);
+        long forward = 0;
+        long reverse = 0;
+        long minimum = Long.MAX_VALUE;
+        for (int i = 0; i < coreLength; i++) {
+            int offset = 2 * (coreLength - 1 - i); //FROM THE RIGHT END OF THE ENCODED CORE
+            long code = (core[words - 1 - offset / 64] >>> (offset % 64)) & 3L;
+            forward = ((forward << 2) | code) & mask;
+            reverse = (reverse >>> 2) | ((3L - code) << rcShift);
+            if (i >= minimizerLength - 1) {
+                long hash = CountingBloomFilter.mix(Math.min(forward, reverse)) >>> 1;
+                if (hash < minimum) {
+                    minimum = hash;
+                }
+            }
+        }
+        return (int) (minimum % files.length);
+    }
+
+    /**
+     * Flush and close all bucket files, must be called once populating is
+     * done and before buckets are loaded
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        for (int i = 0; i < outs.length; i++) {
+            synchronized (combiners[i]) {
+                records.addAndGet(i, combiners[i].spill(outs[i]));
+                outs[i].close();
+            }
+            combiners[i] = null; //NOT NEEDED WHILE BUCKETS ARE LOADED
+        }
+    }
+
+    /**
+     * Populate the map with the content of a bucket
+     *
+     * @param bucket
+     * @param pairMersMap
+     * @throws IOException
+     */
+    public void load(int bucket, PairMersMap pairMersMap) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(files[bucket]), BUFFER_SIZE))) {
+            long[] core = new long[words];
+            for (long i = 0; i < records.get(bucket); i++) {
+                for (int j = 0; j < words; j++) {
+                    core[j] = in.readLong();
+                }
+                int bins = in.readUnsignedByte();
+                int freq = in.readUnsignedByte();
+                pairMersMap.addToPairMersMap(core, (byte) (bins & 0xF), (byte) (bins >>> 4), false, freq);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated bucket file " + files[bucket], e);
+        }
+    }
+
+    /**
+     * Delete the bucket file, e.g. once loaded
+     *
+     * @param bucket
+     */
+    public void delete(int bucket) {
+        files[bucket].delete();
+    }
+
+    public int getBuckets() {
+        return files.length;
+    }
+
+    public long getRecords(int bucket) {
+        return records.get(bucket);
+    }
+
+    public int getK() {
+        return k;
+    }
+}
@@ -34,11 +34,11 @@ public class PairMersSeedExtenderConsumer implements Runnable {
     private final String TOOL_NAME;
     private final BlockingQueue<PairMersMap> pairMersMapsQueue;
     private final ConcurrentHashMap<Integer, PairMerToSeedMap> kToSeedMers;
-    private final byte threadId;
+    private final int threadId;
 //    private HashMap<String,String> ID_2_SEED_SEQUENCE_MAP;
 
     public PairMersSeedExtenderConsumer(BlockingQueue<PairMersMap> pairMersMapsQueue,
-        ConcurrentHashMap<Integer, PairMerToSeedMap> kToSeedMers, String DEBUG_FILE, String TOOL_NAME, byte threadId) {
+        ConcurrentHashMap<Integer, PairMerToSeedMap> kToSeedMers, String DEBUG_FILE, String TOOL_NAME, int threadId) {
         this.DEBUG_FILE = DEBUG_FILE;
 //        this.STATS_FILE = STATS_FILE;
         this.TOOL_NAME = TOOL_NAME;
@@ -64,35 +64,29 @@ public class PairMersSeedExtenderConsumer implements Runnable {
                         if(!connectedPairMers.connectPairMers(pairMer, k, pairMersMap, threadId, DEBUG_FILE)) {
                             System.err.println("Failed connecting pairmers "+this.getClass().getCanonicalName());
                         }
-                        try {
-                            if (connectedPairMers.hasTerminalOrSingletonNode()) {
-                                SeedSequence seedSequence = kToSeedMers.get(k).get(seedMer);
-                                 if (seedSequence != null && seedSequence.getSequenceString() != null) {
-                                    String connectedMers = connectedPairMers.toCharSeq(k).toString(); //TODO CONSIDER SWITCHING TO CHAr SEQ
-                                    String connectedMersRC = SequenceOps.getReverseComplementString(connectedMers);
+                        if (connectedPairMers.hasTerminalOrSingletonNode()) {
+                            SeedSequence seedSequence = kToSeedMers.get(k).get(seedMer);
+                             if (seedSequence != null && seedSequence.getSequenceString() != null) {
+                                String connectedMers = connectedPairMers.toCharSeq(k).toString(); //TODO CONSIDER SWITCHING TO CHAr SEQ
+                                String connectedMersRC = SequenceOps.getReverseComplementString(connectedMers);
 //                            String extension = extendSeed(connectedMers, extendSeed(connectedMersRC, seedSequence.getExtendedOrOriginal(k), k), k);
 //                            seedSequence.setExtended(k, extension);
 
-                                    //experimenting with storing left and right extensions separately
-                                    extendSeedAndStoreExtensions(connectedMers, seedSequence, k);
-                                    extendSeedAndStoreExtensions(connectedMersRC, seedSequence, k);
-                                }
-                            } else {
-                                String message = "No terminal PairMer identified in cluster @ k=" + k;
-                                Reporter.report("[WARNING]", message, TOOL_NAME);
-                                if (DEBUG_FILE != null) {
-                                    ArrayList<String> toReport = new ArrayList<>();
-                                    toReport.add("No terminal PairMer identified in cluster @ k=" + k + " PairMers in cluster:");
-                                    for (PairMer pm : connectedPairMers.getKeys()) {
-                                        toReport.add(pm.getPairMerString(k));
-                                    }
-                                    Reporter.writeToFile(DEBUG_FILE, toReport, true);
+                                //experimenting with storing left and right extensions separately
+                                extendSeedAndStoreExtensions(connectedMers, seedSequence, k);
+                                extendSeedAndStoreExtensions(connectedMersRC, seedSequence, k);
+                            }
+                        } else {
+                            String message = "No terminal PairMer identified in cluster @ k=" + k;
+                            Reporter.report("[WARNING]", message, TOOL_NAME);
+                            if (DEBUG_FILE != null) {
+                                ArrayList<String> toReport = new ArrayList<>();
+                                toReport.add("No terminal PairMer identified in cluster @ k=" + k + " PairMers in cluster:");
+                                for (PairMer pm : connectedPairMers.getKeys()) {
+                                    toReport.add(pm.getPairMerString(k));
                                 }
+                                Reporter.writeToFile(DEBUG_FILE, toReport, true);
                             }
-                        } catch (StackOverflowError error) {
-                            Reporter.report("[ERROR]", "StackOverflow error, possible solution lies in : 'java -Xss<size> : set java thread stack size'", TOOL_NAME);
-                            Reporter.report("[ERROR]", "Obtain defaults: 'java -XX:+PrintFlagsFinal -version | grep ThreadStackSize'", TOOL_NAME);
-                            System.exit(1);
                         }
                     }
                 }
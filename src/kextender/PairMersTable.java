@@ -0,0 +1,473 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import shared.Reporter;
+
+/**
+ * Open addressing (linear probing) table of PairMers with cores of up to 64
+ * bases (1 or 2 longs). Instead of holding a PairMer object per entry, each
+ * slot consists of the encoded core stored in plain long[] pages and a single
+ * state word holding clips, counts and flags, which is updated with CAS. No
+ * per-entry objects are kept, PairMer views are only created on retrieval.
+ *
+ * Capacity is fixed on construction, entries are never moved, removed entries
+ * are marked as such (tombstones) so that probing sequences remain intact.
+ * Tombstones are reused by add(), which assumes that removals do not run
+ * concurrently with adding, i.e. the table is only purged once populated. The
+ * number of slots ever taken is kept below MAX_LOAD_FACTOR of the capacity,
+ * adding beyond that is a fatal error rather than letting probing sequences
+ * grow until the table is full.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersTable {
+
+    private static final int PAGE_BITS = 24; //16M slots per page
+    private static final long PAGE_MASK = (1L << PAGE_BITS) - 1;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    //STATE WORD LAYOUT
+    //bits 0-3   left clip bin (A=8,C=4,G=2,T=1 as in PairMer)
+    //bits 4-7   right clip bin
+    //bits 8-15  left count (saturating at Byte.MAX_VALUE)
+    //bits 16-23 right count
+    //bit 24     invalid
+    //bit 25     next to ambiguous
+    //bits 32-55 visitedBy (extender thread id, PairMer.NOT_VISITED if not visited)
+    //bits 62-63 slot status
+    private static final int CLIP_LEFT_SHIFT = 0;
+    private static final int CLIP_RIGHT_SHIFT = 4;
+    private static final int COUNT_LEFT_SHIFT = 8;
+    private static final int COUNT_RIGHT_SHIFT = 16;
+    private static final int VISITED_SHIFT = 32;
+    private static final long CLIP_MASK = 0xFL;
+    private static final long COUNT_MASK = 0xFFL;
+    private static final long VISITED_MASK = 0xFFFFFFL << VISITED_SHIFT;
+    private static final long INVALID_BIT = 1L << 24;
+    private static final long NEXT_TO_AMBIGUOUS_BIT = 1L << 25;
+
+    private static final long EMPTY = 0L;
+    private static final long BUSY = 1L << 62;
+    private static final long OCCUPIED = 2L << 62;
+    private static final long REMOVED = 3L << 62;
+    private static final long STATUS_MASK = 3L << 62;
+
+    private final int coreWords;
+    private final long capacity;
+    private final long mask;
+    private final long maxUsed;
+    private final AtomicLong used = new AtomicLong();
+    private final long[][] corePages;
+    private final AtomicLongArray[] statePages;
+    private final String TOOL_NAME;
+
+    /**
+     *
+     * @param coreLength k-1, up to 64
+     * @param expectedSize number of distinct PairMers (cores) expected
+     * @param toolName
+     */
+    public PairMersTable(int coreLength, long expectedSize, String toolName) {
+        this.TOOL_NAME = toolName;
+        this.coreWords = coreLength <= 32 ? 1 : 2;
+        long minCapacity = (long) Math.ceil(expectedSize / MAX_LOAD_FACTOR);
+        long cap = 1024;
+        while (cap < minCapacity) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.maxUsed = (long) (cap * MAX_LOAD_FACTOR);
+        int pages = (int) ((cap + PAGE_MASK) >>> PAGE_BITS);
+        int slotsPerPage = (int) Math.min(cap, PAGE_MASK + 1);
+        corePages = new long[pages][];
+        statePages = new AtomicLongArray[pages];
+        for (int i = 0; i < pages; i++) {
+            corePages[i] = new long[slotsPerPage * coreWords];
+            statePages[i] = new AtomicLongArray(slotsPerPage);
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getCoreWords() {
+        return coreWords;
+    }
+
+    /**
+     * Add a PairMer holding a single k-mer to the table, if a PairMer with the
+     * same core is already present, its clips and counts are updated
+     *
+     * @param core encoded canonical core
+     * @param clipLeftBin
+     * @param clipRightBin
+     * @param freq
+     * @return true if a new entry was created
+     */
+    public boolean add(long[] core, byte clipLeftBin, byte clipRightBin, int freq) {
+        long slot = hash(core) & mask;
+        long tombstone = -1; //FIRST REMOVED SLOT ON THE PROBING SEQUENCE
+        for (long probes = 0; probes < capacity; probes++) {
+            AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+            int offset = (int) (slot & PAGE_MASK);
+            long state = states.get(offset);
+            if (state == EMPTY) {
+                //CORE NOT PRESENT, PREFER REUSING A TOMBSTONE OVER TAKING A NEW SLOT
+                if (tombstone >= 0) {
+                    AtomicLongArray tombstoneStates = statePages[(int) (tombstone >>> PAGE_BITS)];
+                    int tombstoneOffset = (int) (tombstone & PAGE_MASK);
+                    long removed = tombstoneStates.get(tombstoneOffset);
+                    if ((removed & STATUS_MASK) == REMOVED && tombstoneStates.compareAndSet(tombstoneOffset, removed, BUSY)) {
+                        occupy(tombstoneStates, tombstoneOffset, tombstone, core, clipLeftBin, clipRightBin, freq);
+                        return true;
+                    }
+                    return add(core, clipLeftBin, clipRightBin, freq); //TOMBSTONE TAKEN, POSSIBLY BY THE SAME CORE
+                }
+                if (used.get() >= maxUsed) {
+                    Reporter.report("[FATAL]", "PairMers table load factor of " + MAX_LOAD_FACTOR + " exceeded (" + maxUsed + " of " + capacity
+                            + " slots taken), increase the expected number of PairMers", TOOL_NAME);
+                    System.exit(1);
+                }
+                if (states.compareAndSet(offset, EMPTY, BUSY)) {
+                    used.incrementAndGet();
+                    occupy(states, offset, slot, core, clipLeftBin, clipRightBin, freq);
+                    return true;
+                }
+                state = states.get(offset);
+            }
+            while ((state & STATUS_MASK) == BUSY) { //another thread is writing the core
+                Thread.yield();
+                state = states.get(offset);
+            }
+            if ((state & STATUS_MASK) == OCCUPIED && coreEquals(slot, core)) {
+                long updated;
+                do {
+                    state = states.get(offset);
+                    updated = state;
+                    if (clipLeftBin != 0) {
+                        updated = addClip(updated, CLIP_LEFT_SHIFT, COUNT_LEFT_SHIFT, clipLeftBin, freq);
+                    }
+                    if (clipRightBin != 0) {
+                        updated = addClip(updated, CLIP_RIGHT_SHIFT, COUNT_RIGHT_SHIFT, clipRightBin, freq);
+                    }
+                } while (!states.compareAndSet(offset, state, updated));
+                return false;
+            }
+            if (tombstone < 0 && (state & STATUS_MASK) == REMOVED) {
+                tombstone = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        //ONLY REACHED IF EVERY SLOT IS OCCUPIED OR REMOVED
+        Reporter.report("[FATAL]", "PairMers table full (capacity=" + capacity + "), increase the expected number of PairMers", TOOL_NAME);
+        System.exit(1);
+        return false;
+    }
+
+    /**
+     * Write the core and the initial state to a slot claimed as BUSY
+     */
+    private void occupy(AtomicLongArray states, int offset, long slot, long[] core, byte clipLeftBin, byte clipRightBin, int freq) {
+        writeCore(slot, core);
+        long first = OCCUPIED | ((long) PairMer.NOT_VISITED << VISITED_SHIFT);
+        if (clipLeftBin != 0) {
+            first = addClip(first, CLIP_LEFT_SHIFT, COUNT_LEFT_SHIFT, clipLeftBin, freq);
+        }
+        if (clipRightBin != 0) {
+            first = addClip(first, CLIP_RIGHT_SHIFT, COUNT_RIGHT_SHIFT, clipRightBin, freq);
+        }
+        states.set(offset, first);
+    }
+
+    /**
+     * Equivalent of PairMer.setClipLeftBin()/setClipRightBin() on a packed
+     * state
+     */
+    private static long addClip(long state, int clipShift, int countShift, byte clipBin, int freq) {
+        long bin = ((state >>> clipShift) & CLIP_MASK) | clipBin;
+        long count = Math.min(((state >>> countShift) & COUNT_MASK) + freq, Byte.MAX_VALUE);
+        state &= ~((CLIP_MASK << clipShift) | (COUNT_MASK << countShift));
+        state |= (bin << clipShift) | (count << countShift);
+        if (bin != clipBin) {
+            state |= INVALID_BIT; //Ambiguous really
+        }
+        return state;
+    }
+
+    /**
+     *
+     * @param core encoded canonical core
+     * @return slot holding the core or -1 if not present
+     */
+    public long find(long[] core) {
+        long slot = hash(core) & mask;
+        for (long probes = 0; probes < capacity; probes++) {
+            AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+            int offset = (int) (slot & PAGE_MASK);
+            long state = states.get(offset);
+            if (state == EMPTY) {
+                return -1;
+            }
+            while ((state & STATUS_MASK) == BUSY) {
+                Thread.yield();
+                state = states.get(offset);
+            }
+            if ((state & STATUS_MASK) == OCCUPIED && coreEquals(slot, core)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Mark slot as removed, the core is retained so that probing is not
+     * affected
+     *
+     * @param slot
+     * @return false if already removed
+     */
+    public boolean remove(long slot) {
+        AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+        int offset = (int) (slot & PAGE_MASK);
+        long state;
+        do {
+            state = states.get(offset);
+            if ((state & STATUS_MASK) != OCCUPIED) {
+                return false;
+            }
+        } while (!states.compareAndSet(offset, state, (state & ~STATUS_MASK) | REMOVED));
+        return true;
+    }
+
+    public boolean isOccupied(long slot) {
+        return (getState(slot) & STATUS_MASK) == OCCUPIED;
+    }
+
+    public long getState(long slot) {
+        return statePages[(int) (slot >>> PAGE_BITS)].get((int) (slot & PAGE_MASK));
+    }
+
+    public long[] getCore(long slot) {
+        long[] page = corePages[(int) (slot >>> PAGE_BITS)];
+        int from = (int) (slot & PAGE_MASK) * coreWords;
+        long[] core = new long[coreWords];
+        for (int i = 0; i < coreWords; i++) {
+            core[i] = page[from + i];
+        }
+        return core;
+    }
+
+    private void writeCore(long slot, long[] core) {
+        long[] page = corePages[(int) (slot >>> PAGE_BITS)];
+        int from = (int) (slot & PAGE_MASK) * coreWords;
+        for (int i = 0; i < coreWords; i++) {
+            page[from + i] = core[i];
+        }
+    }
+
+    private boolean coreEquals(long slot, long[] core) {
+        long[] page = corePages[(int) (slot >>> PAGE_BITS)];
+        int from = (int) (slot & PAGE_MASK) * coreWords;
+        for (int i = 0; i < coreWords; i++) {
+            if (page[from + i] != core[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3 applied to each core word, Arrays-style
+     * hashCode of the cores clusters badly with linear probing
+     */
+    private static long hash(long[] core) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (long word : core) {
+            h ^= word;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+        }
+        return h;
+    }
+
+    public static byte getClipLeftBin(long state) {
+        return (byte) ((state >>> CLIP_LEFT_SHIFT) & CLIP_MASK);
+    }
+
+    public static byte getClipRightBin(long state) {
+        return (byte) ((state >>> CLIP_RIGHT_SHIFT) & CLIP_MASK);
+    }
+
+    public static byte getStoredCountLeft(long state) {
+        return (byte) ((state >>> COUNT_LEFT_SHIFT) & COUNT_MASK);
+    }
+
+    public static byte getStoredCountRigth(long state) {
+        return (byte) ((state >>> COUNT_RIGHT_SHIFT) & COUNT_MASK);
+    }
+
+    public static boolean isInvalid(long state) {
+        return (state & INVALID_BIT) != 0;
+    }
+
+    public static boolean isNextToAmbiguous(long state) {
+        return (state & NEXT_TO_AMBIGUOUS_BIT) != 0;
+    }
+
+    public static int getVisitedBy(long state) {
+        return (int) ((state & VISITED_MASK) >>> VISITED_SHIFT);
+    }
+
+    public void setNextToAmbiguous(long slot, boolean nextToAmbiguous) {
+        AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+        int offset = (int) (slot & PAGE_MASK);
+        long state;
+        long updated;
+        do {
+            state = states.get(offset);
+            updated = nextToAmbiguous ? state | NEXT_TO_AMBIGUOUS_BIT : state & ~NEXT_TO_AMBIGUOUS_BIT;
+        } while (state != updated && !states.compareAndSet(offset, state, updated));
+    }
+
+    /**
+     * Same contract as PairMer.claim()
+     *
+     * @param slot
+     * @param id
+     * @return
+     */
+    public boolean claim(long slot, int id) {
+        AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+        int offset = (int) (slot & PAGE_MASK);
+        long state;
+        do {
+            state = states.get(offset);
+            if (getVisitedBy(state) != PairMer.NOT_VISITED) {
+                return false;
+            }
+        } while (!states.compareAndSet(offset, state, (state & ~VISITED_MASK) | ((long) id << VISITED_SHIFT)));
+        return true;
+    }
+
+    /**
+     * Same contract as PairMer.checkAndSetVisitedBy()
+     *
+     * @param slot
+     * @param id
+     * @return
+     */
+    public int checkAndSetVisitedBy(long slot, int id) {
+        AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+        int offset = (int) (slot & PAGE_MASK);
+        while (true) {
+            long state = states.get(offset);
+            int visitedBy = getVisitedBy(state);
+            if (visitedBy == id) { //NODE ALREADY VISITED BY THE SAME THREAD
+                return id;
+            } else if (visitedBy != PairMer.NOT_VISITED && visitedBy < id) {
+                return visitedBy; //NODE PREVIOUSLY VISITED BY A HIGHER PRIORITY THREAD
+            }
+            //NODE NOT VISITED BEFORE OR VISITED BY A LOWER PRIORITY THREAD
+            long updated = (state & ~VISITED_MASK) | ((long) id << VISITED_SHIFT);
+            if (states.compareAndSet(offset, state, updated)) {
+                return visitedBy;
+            }
+        }
+    }
+
+    /**
+     * Merge clips of another PairMer into the one stored at slot
+     *
+     * @param slot
+     * @param another
+     * @param freq
+     */
+    public void addKmer(long slot, PairMer another, int freq) {
+        AtomicLongArray states = statePages[(int) (slot >>> PAGE_BITS)];
+        int offset = (int) (slot & PAGE_MASK);
+        long state;
+        long updated;
+        do {
+            state = states.get(offset);
+            updated = state;
+            if (another.hasLeftClip()) {
+                updated = addClip(updated, CLIP_LEFT_SHIFT, COUNT_LEFT_SHIFT, another.getClipLeftBin(), freq);
+            }
+            if (another.hasRightClip()) {
+                updated = addClip(updated, CLIP_RIGHT_SHIFT, COUNT_RIGHT_SHIFT, another.getClipRightBin(), freq);
+            }
+        } while (!states.compareAndSet(offset, state, updated));
+    }
+
+    /**
+     * Create a PairMer view of an occupied slot
+     *
+     * @param slot
+     * @return
+     */
+    public PairMer getPairMer(long slot) {
+        if (coreWords == 1) {
+            return new PairMer1LongTableEntry(this, slot);
+        }
+        return new PairMer2LongTableEntry(this, slot);
+    }
+
+    /**
+     * Iterate over PairMers stored in slots [fromSlot, toSlot)
+     *
+     * @param fromSlot
+     * @param toSlot
+     * @return
+     */
+    public Iterator<PairMer> iterator(final long fromSlot, final long toSlot) {
+        return new Iterator<PairMer>() {
+            private long next = advance(fromSlot);
+
+            private long advance(long slot) {
+                while (slot < toSlot && !isOccupied(slot)) {
+                    slot++;
+                }
+                return slot;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < toSlot;
+            }
+
+            @Override
+            public PairMer next() {
+                if (next >= toSlot) {
+                    throw new NoSuchElementException();
+                }
+                PairMer pairMer = getPairMer(next);
+                next = advance(next + 1);
+                return pairMer;
+            }
+        };
+    }
+}
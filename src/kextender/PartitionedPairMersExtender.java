@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import shared.Reporter;
+import shared.SequenceOps;
+
+/**
+ * Second and third stage of the disk-partitioned (BCALM-style) extension,
+ * following PairMersPartitioner.
+ *
+ * Each bucket is loaded into its own PairMersMap, purged and extended on its
+ * own, by as many threads as there are buckets in memory at a time. Walks end
+ * where the next PairMer is in another bucket, these partial extensions are
+ * written to a temporary file. A k-mer spans two PairMers, so where an
+ * extension was cut at a bucket boundary, both partial extensions end with
+ * the same k-mer. Partial extensions are then glued on these shared k-mers,
+ * with only the (hashed) end k-mers and file offsets held in memory.
+ *
+ * As in the non-partitioned case, circular extensions are not reported.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PartitionedPairMersExtender {
+
+    private static final int WRITER_BUFFER_SIZE = 8192;
+    private static final double MAX_LOAD = 0.5;
+
+    private final PairMersPartitioner partitioner;
+    private final int k;
+    private final int MIN_KMER_FREQUENCY;
+    private final String TOOL_NAME;
+    private final File partialsFile;
+
+    //PARTIAL EXTENSIONS, INDEXED IN THE ORDER WRITTEN
+    private OutputStream partialsOut;
+    private long partialsOffset;
+    private int partials;
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private long[] endHashes = new long[2048]; //2 * PARTIAL + (0 FIRST k-mer, 1 LAST k-mer)
+
+    private final AtomicLong circularInBuckets = new AtomicLong();
+
+    /**
+     *
+     * @param partitioner closed, i.e. populated
+     * @param dir partial extensions are temporarily stored in this directory
+     * @param MIN_KMER_FREQUENCY
+     * @param TOOL_NAME
+     */
+    public PartitionedPairMersExtender(PairMersPartitioner partitioner, File dir, int MIN_KMER_FREQUENCY, String TOOL_NAME) {
+        this.partitioner = partitioner;
+        this.k = partitioner.getK();
+        this.MIN_KMER_FREQUENCY = MIN_KMER_FREQUENCY;
+        this.TOOL_NAME = TOOL_NAME;
+        this.partialsFile = new File(dir, "k" + k + "_partial_extensions.txt");
+    }
+
+    /**
+     *
+     * @param threads number of buckets processed (held in memory) at a time
+     * @param outputFasta
+     * @param namePrefix
+     * @param outFile
+     * @param minLen
+     */
+    public void extend(int threads, boolean outputFasta, String namePrefix, String outFile, int minLen) {
+        try {
+            partialsOut = new BufferedOutputStream(new FileOutputStream(partialsFile), 1 << 20);
+            extendBuckets(threads);
+            partialsOut.close();
+            Reporter.report("[INFO]", "Gluing " + NumberFormat.getIntegerInstance().format(partials) + " partial extensions at k=" + k, TOOL_NAME);
+            glue(outputFasta, namePrefix, outFile, minLen);
+        } catch (IOException e) {
+            Reporter.report("[ERROR]", "Failed extending partitioned k-mers: " + e.getMessage(), TOOL_NAME);
+            System.exit(1);
+        } finally {
+            partialsFile.delete();
+        }
+    }
+
+    private void extendBuckets(int threads) throws IOException {
+        final int buckets = partitioner.getBuckets();
+        final AtomicInteger nextBucket = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final int reportEvery = Math.max(1, buckets / 10);
+        ArrayList<Future<?>> futures = new ArrayList<>(threads);
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                int bucket;
+                while ((bucket = nextBucket.getAndIncrement()) < buckets) {
+                    try {
+                        addPartials(extendBucket(bucket));
+                    } catch (IOException e) {
+                        Reporter.report("[ERROR]", "Failed processing bucket " + bucket + ": " + e.getMessage(), TOOL_NAME);
+                        System.exit(1);
+                    }
+                    if (done.incrementAndGet() % reportEvery == 0) {
+                        Reporter.report("[INFO]", done.get() + " of " + buckets + " buckets extended at k=" + k, TOOL_NAME);
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Reporter.report("[ERROR]", "Bucket extender interrupted exception!", TOOL_NAME);
+        } catch (ExecutionException e) {
+            Reporter.report("[ERROR]", "Bucket extender execution exception!", TOOL_NAME);
+            e.printStackTrace();
+            System.exit(1);
+        }
+        if (circularInBuckets.get() > 0) {
+            Reporter.report("[INFO]", "Skipped " + NumberFormat.getIntegerInstance().format(circularInBuckets.get()) + " circular extension(s) within buckets", TOOL_NAME);
+        }
+    }
+
+    /**
+     * Load, purge and extend a single bucket
+     *
+     * @param bucket
+     * @return (partial) extensions
+     * @throws IOException
+     */
+    private List<CharSequence> extendBucket(int bucket) throws IOException {
+        PairMersMap pairMersMap = new PairMersMap(k);
+        partitioner.load(bucket, pairMersMap);
+        partitioner.delete(bucket);
+        pairMersMap.purge(MIN_KMER_FREQUENCY);
+        ArrayList<CharSequence> extended = new ArrayList<>();
+        Iterator<PairMer> it = pairMersMap.iterator();
+        while (it.hasNext()) {
+            PairMer pairMer = it.next();
+            if (!pairMer.isVisited()) {
+                ConnectedPairMers connectedPairMers = new ConnectedPairMers();
+                if (connectedPairMers.connectPairMers(pairMer, k, pairMersMap, PairMer.NOT_VISITED + 1, null)) {
+                    if (connectedPairMers.hasTerminalOrSingletonNode()) {
+                        extended.add(connectedPairMers.toCharSeq(k));
+                    } else {
+                        circularInBuckets.incrementAndGet();
+                    }
+                }
+            }
+        }
+        return extended;
+    }
+
+    private synchronized void addPartials(List<CharSequence> extended) throws IOException {
+        for (CharSequence sequence : extended) {
+            if (partials == offsets.length) {
+                offsets = Arrays.copyOf(offsets, partials * 2);
+                lengths = Arrays.copyOf(lengths, partials * 2);
+                endHashes = Arrays.copyOf(endHashes, partials * 4);
+            }
+            int length = sequence.length();
+            offsets[partials] = partialsOffset;
+            lengths[partials] = length;
+            endHashes[2 * partials] = PairMerMapPopulatorConsumer.hashCanonical(sequence, 0, k - 1);
+            endHashes[2 * partials + 1] = PairMerMapPopulatorConsumer.hashCanonical(sequence, length - k, length - 1);
+            partials++;
+            for (int i = 0; i < length; i++) {
+                partialsOut.write(sequence.charAt(i));
+            }
+            partialsOffset += length;
+        }
+    }
+
+    /**
+     * Pair up ends of partial extensions sharing a k-mer and follow the pairs
+     * from partial extensions with an unpaired end
+     */
+    private void glue(boolean outputFasta, String namePrefix, String outFile, int minLen) throws IOException {
+        if (!namePrefix.isEmpty() && !namePrefix.endsWith("_")) {
+            namePrefix += "_";
+        }
+        int[] partner = pairEnds();
+        boolean[] visited = new boolean[partials];
+        long extendedNumber = 0;
+        long longEnough = 0;
+        long longEnoughBp = 0;
+        int longest = 0;
+        long mismatched = 0;
+        try (RandomAccessFile in = new RandomAccessFile(partialsFile, "r");
+                BufferedWriter out = new BufferedWriter(new OutputStreamWriter(outFile.endsWith(".gz")
+                        ? new GZIPOutputStream(new FileOutputStream(outFile)) : new FileOutputStream(outFile), StandardCharsets.UTF_8), WRITER_BUFFER_SIZE)) {
+            boolean progress = true;
+            while (progress) { //REPEATED AS ENDS MAY GET UNPAIRED ON MISMATCH
+                progress = false;
+                for (int i = 0; i < partials; i++) {
+                    if (visited[i] || (partner[2 * i] != -1 && partner[2 * i + 1] != -1)) {
+                        continue;
+                    }
+                    progress = true;
+                    int entry = partner[2 * i] == -1 ? 2 * i : 2 * i + 1;
+                    StringBuilder extended = new StringBuilder(read(in, i, entry % 2 == 1));
+                    visited[i] = true;
+                    int exit = entry ^ 1;
+                    while (partner[exit] != -1 && !visited[partner[exit] / 2]) {
+                        int next = partner[exit];
+                        CharSequence sequence = read(in, next / 2, next % 2 == 1);
+                        if (!overlaps(extended, sequence)) { //HASH COLLISION
+                            mismatched++;
+                            partner[next] = -1;
+                            partner[exit] = -1;
+                            break;
+                        }
+                        extended.append(sequence, k, sequence.length());
+                        visited[next / 2] = true;
+                        exit = next ^ 1;
+                    }
+                    extendedNumber++;
+                    int len = extended.length();
+                    longest = Math.max(longest, len);
+                    if (len >= minLen) {
+                        longEnough++;
+                        longEnoughBp += len;
+                        if (outputFasta) {
+                            out.write(">" + namePrefix + extendedNumber + " " + len);
+                            out.newLine();
+                        }
+                        out.write(extended.toString());
+                        out.newLine();
+                    }
+                }
+            }
+        }
+        long circular = 0;
+        for (boolean v : visited) {
+            if (!v) {
+                circular++;
+            }
+        }
+        if (mismatched > 0) {
+            Reporter.report("[WARNING]", NumberFormat.getIntegerInstance().format(mismatched) + " partial extension end(s) paired on a hash collision, not glued", TOOL_NAME);
+        }
+        if (circular > 0) {
+            Reporter.report("[INFO]", "Skipped " + NumberFormat.getIntegerInstance().format(circular) + " partial extension(s) glued into circular extensions", TOOL_NAME);
+        }
+        Reporter.report("[INFO]", "Longest extended sequence = " + NumberFormat.getIntegerInstance().format(longest) + " bp", TOOL_NAME);
+        Reporter.report("[INFO]", "Number of extended sequences = " + NumberFormat.getIntegerInstance().format(extendedNumber), TOOL_NAME);
+        Reporter.report("[INFO]", "Number of extended sequences of at least " + minLen + " bp = " + NumberFormat.getIntegerInstance().format(longEnough)
+                + ", total length = " + NumberFormat.getIntegerInstance().format(longEnoughBp) + " bp", TOOL_NAME);
+    }
+
+    /**
+     * Open addressing on end k-mer hashes, the first two ends sharing a hash
+     * are paired, any further ones are left unpaired
+     *
+     * @return for each end, the end it is paired with or -1
+     */
+    private int[] pairEnds() {
+        int ends = 2 * partials;
+        int capacity = 16;
+        while (capacity * MAX_LOAD < ends) {
+            capacity <<= 1;
+        }
+        int mask = capacity - 1;
+        long[] keys = new long[capacity];
+        int[] values = new int[capacity]; //0 EMPTY, END + 1 IF SEEN ONCE, -1 IF ALREADY PAIRED
+        int[] partner = new int[ends];
+        Arrays.fill(partner, -1);
+        for (int end = 0; end < ends; end++) {
+            long hash = endHashes[end];
+            int slot = (int) hash & mask;
+            while (values[slot] != 0 && keys[slot] != hash) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == 0) {
+                keys[slot] = hash;
+                values[slot] = end + 1;
+            } else if (values[slot] > 0) {
+                int other = values[slot] - 1;
+                partner[end] = other;
+                partner[other] = end;
+                values[slot] = -1;
+            }
+        }
+        endHashes = null;
+        return partner;
+    }
+
+    /**
+     *
+     * @return partial extension, reverse complemented if entered from its
+     * last k-mer
+     */
+    private CharSequence read(RandomAccessFile in, int partial, boolean reverse) throws IOException {
+        byte[] bytes = new byte[lengths[partial]];
+        in.seek(offsets[partial]);
+        in.readFully(bytes);
+        String sequence = new String(bytes, StandardCharsets.US_ASCII);
+        return reverse ? SequenceOps.getReverseComplement(sequence) : sequence;
+    }
+
+    private boolean overlaps(StringBuilder extended, CharSequence sequence) {
+        int from = extended.length() - k;
+        for (int i = 0; i < k; i++) {
+            if (extended.charAt(from + i) != sequence.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
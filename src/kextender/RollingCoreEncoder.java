@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+/**
+ * Slides a window of up to 64 bases along a sequence, keeping the 2-bit
+ * encoding of the window and of its reverse complement up to date in O(1) per
+ * base. Encodings use the same layout as CoreCoder.encodeCoreLongArray() (the
+ * first long holds the leftover high-order bases), so the canonical core can be
+ * used by PairMer1LongEncoded, PairMer2LongEncoded and PairMersTable directly.
+ *
+ * Not thread safe, keep one instance per thread and core length.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class RollingCoreEncoder {
+
+    private final int coreLength;
+    private final int longsNeeded;
+    private final long highMask; //bits used in the first long
+    private final int highShift; //position of the first base of the window in the first long
+    private final long[] forward;
+    private final long[] reverse;
+    private int validBases;
+
+    /**
+     *
+     * @param coreLength between 1 and 64
+     */
+    public RollingCoreEncoder(int coreLength) {
+        this.coreLength = coreLength;
+        this.longsNeeded = coreLength <= 32 ? 1 : 2;
+        int highBits = coreLength * 2 - (longsNeeded - 1) * 64;
+        this.highMask = highBits == 64 ? -1L : (1L << highBits) - 1;
+        this.highShift = highBits - 2;
+        this.forward = new long[longsNeeded];
+        this.reverse = new long[longsNeeded];
+    }
+
+    public void reset() {
+        validBases = 0;
+        for (int i = 0; i < longsNeeded; i++) {
+            forward[i] = 0;
+            reverse[i] = 0;
+        }
+    }
+
+    /**
+     * Same as CoreCoder.getCode()
+     *
+     * @param base
+     * @return 0-3 for A,C,G,T, -1 for anything else
+     */
+    public static int getCode(char base) {
+        return CoreCoder.getCode(base);
+    }
+
+    /**
+     * Clip bin as stored in PairMer (A=8, C=4, G=2, T=1)
+     *
+     * @param code
+     * @return
+     */
+    public static byte getClipBin(int code) {
+        return (byte) (8 >> code);
+    }
+
+    /**
+     * Slide the window by one base
+     *
+     * @param base
+     * @return true if the window holds coreLength valid (ACGT) bases
+     */
+    public boolean add(char base) {
+        int code = getCode(base);
+        if (code < 0) {
+            reset();
+            return false;
+        }
+        int complement = 3 - code;
+        if (longsNeeded == 1) {
+            forward[0] = ((forward[0] << 2) | code) & highMask;
+            reverse[0] = (reverse[0] >>> 2) | ((long) complement << highShift);
+        } else {
+            forward[0] = ((forward[0] << 2) | (forward[1] >>> 62)) & highMask;
+            forward[1] = (forward[1] << 2) | code;
+            reverse[1] = (reverse[1] >>> 2) | (reverse[0] << 62);
+            reverse[0] = (reverse[0] >>> 2) | ((long) complement << highShift);
+        }
+        if (validBases < coreLength) {
+            validBases++;
+        }
+        return validBases == coreLength;
+    }
+
+    /**
+     * Same as SequenceOps.isCanonical() applied to the current window,
+     * palindromes are canonical
+     *
+     * @return
+     */
+    public boolean isCanonical() {
+        for (int i = 0; i < longsNeeded; i++) {
+            if (forward[i] != reverse[i]) {
+                return (forward[i] ^ Long.MIN_VALUE) < (reverse[i] ^ Long.MIN_VALUE); //unsigned
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @return the encoding of the canonical form of the current window; the
+     * array is reused, copy it if it is to be retained
+     */
+    public long[] getCanonicalCore() {
+        return isCanonical() ? forward : reverse;
+    }
+
+    public int getCoreLength() {
+        return coreLength;
+    }
+}
@@ -19,6 +19,7 @@ import argparser.ArgParser;
 import argparser.Opt;
 import argparser.OptSet;
 import argparser.PositionalOpt;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.text.NumberFormat;
 import java.util.ArrayList;
@@ -36,6 +37,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import kmermatch.KmerSetPopulatorConsumer;
 import kmermatch.KmerSetsMap;
+import kmermatch.MappedKmerIndex;
 import shared.FastaIndexed;
 import shared.InputReaderProducer;
 import shared.Reporter;
@@ -89,6 +91,7 @@ public class KmerLocator {
         optSet.addOpt(new Opt('b', "first-bases", "Only consider first <arg> bases of a FASTA entry", 1).setMinValue(6));
         optSet.addOpt(new Opt('s', "first-sequences", "Only consider first <arg> sequences in the input FASTA file", 1).setMinValue(1));
         optSet.addOpt(new Opt('a', "ascii-encoding", "Store k-mers in plain ascii - possibly faster than the default encoding, but will consume more memory."));
+        optSet.addOpt(new Opt<String>('i', "index", "Memory-map k-mer index prebuilt with 'kmatch index' instead of reading INPUT_KMERS_FILENAMEs", 1));
 
         optSet.addOpt(new Opt('Q', "in-queue-capacity", "Maximum number of buffers put on queue for processing threads to pick-up",
                 2, 1, 256));
@@ -112,6 +115,22 @@ public class KmerLocator {
     }
 
     private void locateKmers(ArrayList<String> inputFilenamesList, OptSet optSet) {        
+        MappedKmerIndex kmerIndex = null;
+        if (optSet.getOpt("i").isUsed()) {
+            if (!inputFilenamesList.isEmpty() || optSet.getOpt("a").isUsed()) {
+                Reporter.report("[ERROR]", "Neither INPUT_KMERS_FILENAMEs nor " + optSet.getOpt("a").getOptLabelStringQuoted() + " can be used with a k-mer index", TOOL_NAME);
+                System.exit(1);
+            }
+            String indexFile = (String) optSet.getOpt("i").getValueOrDefault();
+            try {
+                kmerIndex = new MappedKmerIndex(indexFile);
+            } catch (IOException ex) {
+                Reporter.report("[ERROR]", "Failed loading k-mer index: " + ex.getMessage(), TOOL_NAME);
+                System.exit(1);
+            }
+            Reporter.report("[INFO]", "Mapped k-mer index " + indexFile + ", k= " + kmerIndex.getK() + ", n="
+                    + NumberFormat.getNumberInstance().format(kmerIndex.size()), TOOL_NAME);
+        }
         if (inputFilenamesList == null || inputFilenamesList.isEmpty()) { //READSTDIN
             inputFilenamesList = new ArrayList<>();
             inputFilenamesList.add("-");
@@ -129,46 +148,9 @@ public class KmerLocator {
         Integer firsSeqsNum = optSet.getOpt("s").isUsed() ? (int) optSet.getOpt("s").getValueOrDefault() : null;
         
 
-        ArrayList<Integer> kLengths = new ArrayList<>();
-
-        BlockingQueue<ArrayList<String>> inputKmersQueue = new ArrayBlockingQueue(IN_Q_CAPACITY);
-        //SPAWN KMERS INPUT READING THREAD        
-        ArrayList<Future<?>> inputKmersFutures = new ArrayList<>(1);
-        final ExecutorService inputKmersExecutorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
-        InputReaderProducer inputReaderProducer = new InputReaderProducer(inputKmersQueue, kLengths, inputFilenamesList, INPUT_BUFFER_SIZE, TOOL_NAME);
-        inputKmersFutures.add(inputKmersExecutorService.submit(inputReaderProducer));
-
-        Reporter.report("[INFO]", "Start populating k-mers set", TOOL_NAME);
-
-        Integer kNULL = null; //prevent k-merizing
-
-        //SPAWN MAP POPULATOR THREADS
         KmerSetsMap kmerSetsMap = new KmerSetsMap(TOOL_NAME);
-        final ExecutorService populatorExecutorService = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
-        ArrayList<Future<?>> populatorFutures = new ArrayList<>(THREADS);
-        for (int i = 0; i < THREADS; i++) {
-            populatorFutures.add(populatorExecutorService.submit(new KmerSetPopulatorConsumer(kmerSetsMap, inputKmersQueue, kNULL, storeASCII)));
-
-        }
-        populatorExecutorService.shutdown();
-        inputKmersExecutorService.shutdown();
-        try {
-
-            for (Future<?> f : populatorFutures) {
-                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            }
-            populatorExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            for (Future<?> f : inputKmersFutures) {
-                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            }
-            inputKmersExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Reporter.report("[ERROR]", "interrupted exception!", getClass().getSimpleName());
-        } catch (ExecutionException ex) {
-            Reporter.report("[ERROR]", "execution exception! " + ex.getCause().getMessage(), getClass().getSimpleName());
-            ex.printStackTrace();
-        } catch (TimeoutException ex) {
-            Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
+        if (kmerIndex == null) {
+            populate(kmerSetsMap, inputFilenamesList, THREADS, storeASCII);
         }
 //
 //        if(kLengths.size()>1) {
@@ -183,7 +165,7 @@ public class KmerLocator {
         BlockingQueue<ArrayList<Sequence>> queriesQueue = new ArrayBlockingQueue<>(2);
 
         for (int i = 0; i < THREADS; i++) {
-            locatorFutures.add(locatorExecutorService.submit(new KmerLocatorConsumer(queriesQueue, kmerSetsMap, TOOL_NAME, bufferedOut, storeASCII, totalPLaced)));
+            locatorFutures.add(locatorExecutorService.submit(new KmerLocatorConsumer(queriesQueue, kmerSetsMap, kmerIndex, TOOL_NAME, bufferedOut, storeASCII, totalPLaced)));
 //            locatorFutures.add(locatorExecutorService.submit(new KmerLocatorConsumer(queriesQueue, kmerSetsMap, TOOL_NAME, bufferedOut, storeASCII, stats)));
         }
 
@@ -231,4 +213,50 @@ public class KmerLocator {
         Reporter.report("[INFO]", "Finished placing k-mers, "+NumberFormat.getInstance().format(totalPLaced.get())+" placed.", TOOL_NAME);
 //        Reporter.report("[INFO]", "Finished placing k-mers, "+NumberFormat.getInstance().format(stats.getTotalPlaced())+" placed.", TOOL_NAME);
     }
+
+    /**
+     * Read k-mers from INPUT_KMERS_FILENAMEs into the k-mer set(s)
+     */
+    private void populate(KmerSetsMap kmerSetsMap, ArrayList<String> inputFilenamesList, int threads, boolean storeASCII) {
+        ArrayList<Integer> kLengths = new ArrayList<>();
+
+        BlockingQueue<ArrayList<String>> inputKmersQueue = new ArrayBlockingQueue(IN_Q_CAPACITY);
+        //SPAWN KMERS INPUT READING THREAD        
+        ArrayList<Future<?>> inputKmersFutures = new ArrayList<>(1);
+        final ExecutorService inputKmersExecutorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        InputReaderProducer inputReaderProducer = new InputReaderProducer(inputKmersQueue, kLengths, inputFilenamesList, INPUT_BUFFER_SIZE, TOOL_NAME);
+        inputKmersFutures.add(inputKmersExecutorService.submit(inputReaderProducer));
+
+        Reporter.report("[INFO]", "Start populating k-mers set", TOOL_NAME);
+
+        Integer kNULL = null; //prevent k-merizing
+
+        //SPAWN MAP POPULATOR THREADS
+        final ExecutorService populatorExecutorService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ArrayList<Future<?>> populatorFutures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            populatorFutures.add(populatorExecutorService.submit(new KmerSetPopulatorConsumer(kmerSetsMap, inputKmersQueue, kNULL, storeASCII)));
+
+        }
+        populatorExecutorService.shutdown();
+        inputKmersExecutorService.shutdown();
+        try {
+
+            for (Future<?> f : populatorFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            populatorExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (Future<?> f : inputKmersFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            inputKmersExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Reporter.report("[ERROR]", "interrupted exception!", getClass().getSimpleName());
+        } catch (ExecutionException ex) {
+            Reporter.report("[ERROR]", "execution exception! " + ex.getCause().getMessage(), getClass().getSimpleName());
+            ex.printStackTrace();
+        } catch (TimeoutException ex) {
+            Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
+        }
+    }
 }
@@ -23,8 +23,12 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicLong;
+import kextender.RollingCoreEncoder;
+import kmermatch.EncodedKmerLookup;
+import kmermatch.EncodedKmerSet;
 import kmermatch.Kmer;
 import kmermatch.KmerSetsMap;
+import kmermatch.MappedKmerIndex;
 import shared.Reporter;
 import shared.Sequence;
 import shared.SequenceOps;
@@ -40,11 +44,22 @@ public class KmerLocatorConsumer implements Runnable {
     private final PrintStream bufferedOut;
     private final boolean storeASCII;
     private final KmerSetsMap kmerSetsMap;
+    private final MappedKmerIndex kmerIndex;
 //    private final LocatorStats stats;
 //    private final BlockingQueue<Stat> statsQ;
     private final AtomicLong total;
 
-    public KmerLocatorConsumer(BlockingQueue<ArrayList<Sequence>> inputQueue, KmerSetsMap kmerSetsMap, String TOOL_NAME, PrintStream bufferedOut,
+    /**
+     *
+     * @param inputQueue
+     * @param kmerSetsMap
+     * @param kmerIndex if not null, used instead of kmerSetsMap
+     * @param TOOL_NAME
+     * @param bufferedOut
+     * @param storeASCII
+     * @param total
+     */
+    public KmerLocatorConsumer(BlockingQueue<ArrayList<Sequence>> inputQueue, KmerSetsMap kmerSetsMap, MappedKmerIndex kmerIndex, String TOOL_NAME, PrintStream bufferedOut,
             boolean storeASCII, AtomicLong total) {
 //            boolean storeASCII, BlockingQueue<Stat> statsQ) {
 //            boolean storeASCII, LocatorStats stats) {
@@ -53,6 +68,7 @@ public class KmerLocatorConsumer implements Runnable {
         this.bufferedOut = bufferedOut;
         this.storeASCII = storeASCII;
         this.kmerSetsMap = kmerSetsMap;
+        this.kmerIndex = kmerIndex;
         this.total = total;
 //        this.stats = stats;
 //        this.statsQ = statsQ;
@@ -70,6 +86,12 @@ public class KmerLocatorConsumer implements Runnable {
                     ConcurrentHashMap<Integer, ConcurrentSkipListSet<Kmer>> map = kmerSetsMap.getKmerSetsMap();
                     Reporter.report("[INFO]", "Locating k-mers on " + sequence.getId(), TOOL_NAME);
                     long perSeqCount = 0;
+                    if (kmerIndex != null) {
+                        perSeqCount += locateEncoded(sequence, kmerIndex, kmerIndex.getK());
+                    }
+                    for (Map.Entry<Integer, EncodedKmerSet> entry : kmerSetsMap.getEncodedKmerSetsMap().entrySet()) {
+                        perSeqCount += locateEncoded(sequence, entry.getValue(), entry.getKey());
+                    }
                     for (Map.Entry<Integer, ConcurrentSkipListSet<Kmer>> entry : map.entrySet()) {
                         int count = 0;
                         int k = entry.getKey();
@@ -105,4 +127,22 @@ public class KmerLocatorConsumer implements Runnable {
         }
     }
 
+    /**
+     * Roll over the sequence with a 2-bit encoder, k-mers containing non-ACGT
+     * characters are skipped
+     *
+     * @return number of k-mers located
+     */
+    private long locateEncoded(Sequence sequence, EncodedKmerLookup kmers, int k) {
+        RollingCoreEncoder encoder = new RollingCoreEncoder(k);
+        CharSequence sequenceString = sequence.getSequenceString();
+        long count = 0;
+        for (int i = 0; i < sequenceString.length(); i++) {
+            if (encoder.add(sequenceString.charAt(i)) && kmers.contains(encoder.getCanonicalCore())) {
+                count++;
+                bufferedOut.append(sequenceString.subSequence(i - k + 1, i + 1) + "\t" + sequence.getId() + "\t" + (i - k + 2) + "\t" + (i + 1) + "\t" + System.lineSeparator());
+            }
+        }
+        return count;
+    }
 }
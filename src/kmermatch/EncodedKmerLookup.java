@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import java.util.Iterator;
+
+/**
+ * Read-only view of a set of 2-bit encoded canonical k-mers (1 long per k-mer
+ * for k up to 32, 2 longs for k up to 64), populated in memory
+ * (EncodedKmerSet) or prebuilt on disk (MappedKmerIndex)
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public interface EncodedKmerLookup {
+
+    /**
+     *
+     * @param kmer encoded canonical k-mer, 1 or 2 longs
+     * @return
+     */
+    boolean contains(long[] kmer);
+
+    int getWords();
+
+    long size();
+
+    Iterator<long[]> iterator();
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Open addressing hash set of 2-bit encoded canonical k-mers, one long per
+ * k-mer for k up to 32, two longs for k up to 64 (layout as in
+ * CoreCoder.encodeCoreLongArray() and RollingCoreEncoder). Keys are split
+ * between shards, each grown independently under its own lock while
+ * populating. Lookups take no locks and allocate nothing, they are meant to
+ * be done once populating is complete.
+ *
+ * Optionally (see EncodedKmerSet(int, boolean)) each k-mer carries a bitmask
+ * of the references it comes from, for binning reads against up to 64
+ * references in one pass.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class EncodedKmerSet implements EncodedKmerLookup {
+
+    private static final int SHARD_BITS = 8;
+    private static final int INITIAL_SHARD_CAPACITY = 1024;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    private final int words;
+    private final Shard[] shards;
+
+    /**
+     *
+     * @param k up to 64
+     */
+    public EncodedKmerSet(int k) {
+        this(k, false);
+    }
+
+    /**
+     *
+     * @param k up to 64
+     * @param referenceMasks if true, k-mers are to be added with
+     * add(long[], long) and looked up with getMask()
+     */
+    public EncodedKmerSet(int k, boolean referenceMasks) {
+        this.words = k <= 32 ? 1 : 2;
+        this.shards = new Shard[1 << SHARD_BITS];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(words, referenceMasks);
+        }
+    }
+
+    @Override
+    public int getWords() {
+        return words;
+    }
+
+    /**
+     *
+     * @param kmer encoded canonical k-mer, 1 or 2 longs
+     * @return true if not already present
+     */
+    public boolean add(long[] kmer) {
+        long high = words == 1 ? 0 : kmer[0];
+        long low = kmer[words - 1];
+        long hash = hash(high, low);
+        Shard shard = shards[(int) (hash >>> (64 - SHARD_BITS))];
+        synchronized (shard) {
+            return shard.add(high, low, hash);
+        }
+    }
+
+    /**
+     * Add a k-mer or, if already present, add to its bitmask
+     *
+     * @param kmer encoded canonical k-mer, 1 or 2 longs
+     * @param referenceMask
+     */
+    public void add(long[] kmer, long referenceMask) {
+        long high = words == 1 ? 0 : kmer[0];
+        long low = kmer[words - 1];
+        long hash = hash(high, low);
+        Shard shard = shards[(int) (hash >>> (64 - SHARD_BITS))];
+        synchronized (shard) {
+            shard.addMask(high, low, hash, referenceMask);
+        }
+    }
+
+    /**
+     *
+     * @param kmer encoded canonical k-mer, 1 or 2 longs
+     * @return bitmask of references the k-mer was added from, 0 if absent
+     */
+    public long getMask(long[] kmer) {
+        long high = words == 1 ? 0 : kmer[0];
+        long low = kmer[words - 1];
+        long hash = hash(high, low);
+        return shards[(int) (hash >>> (64 - SHARD_BITS))].getMask(high, low, hash);
+    }
+
+    /**
+     *
+     * @param kmer encoded canonical k-mer, 1 or 2 longs
+     * @return
+     */
+    @Override
+    public boolean contains(long[] kmer) {
+        long high = words == 1 ? 0 : kmer[0];
+        long low = kmer[words - 1];
+        long hash = hash(high, low);
+        return shards[(int) (hash >>> (64 - SHARD_BITS))].contains(high, low, hash);
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    /**
+     *
+     * @return iterator over encoded k-mers, not to be used while populating
+     */
+    @Override
+    public Iterator<long[]> iterator() {
+        return new Iterator<long[]>() {
+            private int shard = 0;
+            private int slot = -2; //-1 stands for the all-zero key
+
+            {
+                advance();
+            }
+
+            private void advance() {
+                slot++;
+                while (shard < shards.length) {
+                    Shard s = shards[shard];
+                    if (slot == -1) {
+                        if (s.hasZero) {
+                            return;
+                        }
+                        slot = 0;
+                    }
+                    while (slot < s.lows.length && s.isEmpty(slot)) {
+                        slot++;
+                    }
+                    if (slot < s.lows.length) {
+                        return;
+                    }
+                    shard++;
+                    slot = -1;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return shard < shards.length;
+            }
+
+            @Override
+            public long[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long[] kmer = new long[words];
+                if (slot >= 0) {
+                    Shard s = shards[shard];
+                    kmer[words - 1] = s.lows[slot];
+                    if (words == 2) {
+                        kmer[0] = s.highs[slot];
+                    }
+                }
+                advance();
+                return kmer;
+            }
+        };
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3, top bits select the shard, bottom
+     * bits the slot, also used by MappedKmerIndex
+     */
+    static long hash(long high, long low) {
+        long h = low ^ (high * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Linear probing table, all-zero key (poly-A) is kept as a flag as zero
+     * marks empty slots
+     */
+    private static class Shard {
+
+        private long[] lows;
+        private long[] highs;
+        private long[] referenceMasks;
+        private long mask;
+        private int size;
+        private boolean hasZero;
+        private long zeroReferenceMask;
+
+        Shard(int words, boolean withReferenceMasks) {
+            lows = new long[INITIAL_SHARD_CAPACITY];
+            highs = words == 2 ? new long[INITIAL_SHARD_CAPACITY] : null;
+            referenceMasks = withReferenceMasks ? new long[INITIAL_SHARD_CAPACITY] : null;
+            mask = INITIAL_SHARD_CAPACITY - 1;
+        }
+
+        boolean isEmpty(int slot) {
+            return lows[slot] == 0 && (highs == null || highs[slot] == 0);
+        }
+
+        boolean add(long high, long low, long hash) {
+            if (high == 0 && low == 0) {
+                if (hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                size++;
+                return true;
+            }
+            if (size + 1 > lows.length * MAX_LOAD_FACTOR) {
+                resize();
+            }
+            int slot = (int) (hash & mask);
+            while (!isEmpty(slot)) {
+                if (lows[slot] == low && (highs == null || highs[slot] == high)) {
+                    return false;
+                }
+                slot = (int) ((slot + 1) & mask);
+            }
+            lows[slot] = low;
+            if (highs != null) {
+                highs[slot] = high;
+            }
+            size++;
+            return true;
+        }
+
+        void addMask(long high, long low, long hash, long referenceMask) {
+            if (high == 0 && low == 0) {
+                if (!hasZero) {
+                    hasZero = true;
+                    size++;
+                }
+                zeroReferenceMask |= referenceMask;
+                return;
+            }
+            if (size + 1 > lows.length * MAX_LOAD_FACTOR) {
+                resize();
+            }
+            int slot = (int) (hash & mask);
+            while (!isEmpty(slot)) {
+                if (lows[slot] == low && (highs == null || highs[slot] == high)) {
+                    referenceMasks[slot] |= referenceMask;
+                    return;
+                }
+                slot = (int) ((slot + 1) & mask);
+            }
+            lows[slot] = low;
+            if (highs != null) {
+                highs[slot] = high;
+            }
+            referenceMasks[slot] = referenceMask;
+            size++;
+        }
+
+        long getMask(long high, long low, long hash) {
+            if (high == 0 && low == 0) {
+                return zeroReferenceMask;
+            }
+            int slot = (int) (hash & mask);
+            while (!isEmpty(slot)) {
+                if (lows[slot] == low && (highs == null || highs[slot] == high)) {
+                    return referenceMasks[slot];
+                }
+                slot = (int) ((slot + 1) & mask);
+            }
+            return 0;
+        }
+
+        boolean contains(long high, long low, long hash) {
+            if (high == 0 && low == 0) {
+                return hasZero;
+            }
+            int slot = (int) (hash & mask);
+            while (!isEmpty(slot)) {
+                if (lows[slot] == low && (highs == null || highs[slot] == high)) {
+                    return true;
+                }
+                slot = (int) ((slot + 1) & mask);
+            }
+            return false;
+        }
+
+        private void resize() {
+            long[] oldLows = lows;
+            long[] oldHighs = highs;
+            long[] oldReferenceMasks = referenceMasks;
+            lows = new long[oldLows.length * 2];
+            highs = oldHighs == null ? null : new long[oldLows.length * 2];
+            referenceMasks = oldReferenceMasks == null ? null : new long[oldLows.length * 2];
+            mask = lows.length - 1;
+            for (int i = 0; i < oldLows.length; i++) {
+                long low = oldLows[i];
+                long high = oldHighs == null ? 0 : oldHighs[i];
+                if (low != 0 || high != 0) {
+                    int slot = (int) (hash(high, low) & mask);
+                    while (!isEmpty(slot)) {
+                        slot = (int) ((slot + 1) & mask);
+                    }
+                    lows[slot] = low;
+                    if (highs != null) {
+                        highs[slot] = high;
+                    }
+                    if (referenceMasks != null) {
+                        referenceMasks[slot] = oldReferenceMasks[i];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import kextender.RollingCoreEncoder;
+import shared.BlockedBloomFilter;
+import shared.InputReaderProducer.InFormat;
+import shared.SequenceOps;
+
+/**
+ * Single-pass binning of records against several references at once. Each
+ * k-mer of the index carries a bitmask of the references it comes from, a
+ * record goes to the output queue of every reference for which it has
+ * sufficient matching k-mers, or, if there is none, to the last queue
+ * ("unmatched").
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class KmerBinnerConsumerProducer implements Runnable {
+
+    private final BlockingQueue<List<String>> inputQueue;
+    private final ArrayList<BlockingQueue<List<String>>> binQueues;
+    private final ConcurrentSkipListMap<Kmer, Long> kmerMasks;
+    private final EncodedKmerSet encodedKmers;
+    private final BlockedBloomFilter bloomFilter;
+    private final RollingCoreEncoder encoder;
+    private final AtomicLongArray binCounts;
+    private final int BUFFER_SIZE;
+    private final int minMatches;
+    private final double minMatchesFraction;
+    private final InFormat inFormat;
+    private final int k;
+    private final boolean storeASCII;
+    private final int references;
+    private final int[] matches;
+
+    /**
+     *
+     * @param inputQueue
+     * @param binQueues one per reference followed by one for unmatched
+     * records
+     * @param kmerMasks k-mer to references bitmask, null if encodedKmers used
+     * @param encodedKmers with reference masks, null if kmerMasks used
+     * @param bloomFilter if not null, consulted before kmerMasks or
+     * encodedKmers
+     * @param binCounts records put on each queue, updated once done
+     * @param BUFFER_SIZE
+     * @param minMatches
+     * @param minMatchesFraction
+     * @param inFormat
+     * @param k
+     * @param storeASCII
+     */
+    public KmerBinnerConsumerProducer(BlockingQueue<List<String>> inputQueue, ArrayList<BlockingQueue<List<String>>> binQueues,
+            ConcurrentSkipListMap<Kmer, Long> kmerMasks, EncodedKmerSet encodedKmers, BlockedBloomFilter bloomFilter,
+            AtomicLongArray binCounts, int BUFFER_SIZE, int minMatches, double minMatchesFraction, InFormat inFormat, int k, boolean storeASCII) {
+        this.inputQueue = inputQueue;
+        this.binQueues = binQueues;
+        this.kmerMasks = kmerMasks;
+        this.encodedKmers = encodedKmers;
+        this.bloomFilter = bloomFilter;
+        this.encoder = encodedKmers == null ? null : new RollingCoreEncoder(k);
+        this.binCounts = binCounts;
+        this.BUFFER_SIZE = BUFFER_SIZE;
+        this.minMatches = minMatches;
+        this.minMatchesFraction = minMatchesFraction;
+        this.inFormat = inFormat;
+        this.k = k;
+        this.storeASCII = storeASCII;
+        this.references = binQueues.size() - 1;
+        this.matches = new int[references];
+    }
+
+    @Override
+    public void run() {
+        try {
+            Pattern spliPattern = Pattern.compile("\t");
+            ArrayList<ArrayList<String>> buffers = new ArrayList<>(binQueues.size());
+            long[] counts = new long[binQueues.size()];
+            for (int i = 0; i < binQueues.size(); i++) {
+                buffers.add(new ArrayList<>(BUFFER_SIZE));
+            }
+            //Special case, default settings, a single matching k-mer is enough, no need to count
+            boolean anyMatch = minMatches == 1 && minMatchesFraction == 0;
+            List<String> list;
+            while (!(list = inputQueue.take()).isEmpty()) {
+                for (String line : list) {
+                    String toks[] = spliPattern.split(line);
+                    String mateSeq = null;
+                    if (inFormat == InFormat.FASTA_PE_ONE_LINE) {
+                        mateSeq = toks[3];
+                    } else if (inFormat == InFormat.FASTQ_PE_ONE_LINE) {
+                        mateSeq = toks[7];
+                    }
+                    long selected;
+                    if (anyMatch) {
+                        selected = getMasks(toks[1], 0L);
+                        if (mateSeq != null) {
+                            selected = getMasks(mateSeq, selected);
+                        }
+                    } else {
+                        for (int r = 0; r < references; r++) {
+                            matches[r] = 0;
+                        }
+                        countMatches(toks[1]);
+                        if (mateSeq != null) {
+                            countMatches(mateSeq);
+                        }
+                        selected = 0;
+                        double kmers = toks[1].length() - k;
+                        for (int r = 0; r < references; r++) {
+                            if (matches[r] >= minMatches && matches[r] / kmers >= minMatchesFraction) {
+                                selected |= 1L << r;
+                            }
+                        }
+                    }
+                    if (selected == 0) {
+                        add(buffers, references, line);
+                        counts[references]++;
+                    }
+                    for (; selected != 0; selected &= selected - 1) {
+                        int r = Long.numberOfTrailingZeros(selected);
+                        add(buffers, r, line);
+                        counts[r]++;
+                    }
+                }
+            }
+            for (int i = 0; i < binQueues.size(); i++) {
+                if (!buffers.get(i).isEmpty()) {
+                    binQueues.get(i).put(buffers.get(i));
+                }
+                binCounts.addAndGet(i, counts[i]);
+            }
+            inputQueue.put(new ArrayList<>(0)); //inform other threads
+            for (BlockingQueue<List<String>> q : binQueues) {
+                q.put(new ArrayList<>(0)); //inform writer threads
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(KmerBinnerConsumerProducer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void add(ArrayList<ArrayList<String>> buffers, int bin, String line) throws InterruptedException {
+        ArrayList<String> buffer = buffers.get(bin);
+        if (buffer.size() >= BUFFER_SIZE) {
+            binQueues.get(bin).put(buffer);
+            buffer = new ArrayList<>(BUFFER_SIZE);
+            buffers.set(bin, buffer);
+        }
+        buffer.add(line);
+    }
+
+    /**
+     *
+     * @param sequence
+     * @param selected references already matched
+     * @return selected with references matched by any k-mer of the sequence
+     * added
+     */
+    private long getMasks(CharSequence sequence, long selected) {
+        long all = (references == 64 ? 0 : 1L << references) - 1;
+        if (encodedKmers != null) {
+            encoder.reset();
+            for (int i = 0; i < sequence.length() && selected != all; i++) {
+                if (encoder.add(sequence.charAt(i))) {
+                    selected |= getMask(encoder.getCanonicalCore());
+                }
+            }
+            return selected;
+        }
+        int maxKmer = sequence.length() - k + 1;
+        for (int i = 0; i < maxKmer && selected != all; i++) {
+            selected |= getMask(sequence, i);
+        }
+        return selected;
+    }
+
+    private void countMatches(CharSequence sequence) {
+        if (encodedKmers != null) {
+            encoder.reset();
+            for (int i = 0; i < sequence.length(); i++) {
+                if (encoder.add(sequence.charAt(i))) {
+                    count(getMask(encoder.getCanonicalCore()));
+                }
+            }
+            return;
+        }
+        int maxKmer = sequence.length() - k + 1;
+        for (int i = 0; i < maxKmer; i++) {
+            count(getMask(sequence, i));
+        }
+    }
+
+    private void count(long mask) {
+        for (; mask != 0; mask &= mask - 1) {
+            matches[Long.numberOfTrailingZeros(mask)]++;
+        }
+    }
+
+    private long getMask(long[] canonicalCore) {
+        if (bloomFilter != null && !bloomFilter.mightContain(BlockedBloomFilter.hash(canonicalCore))) {
+            return 0;
+        }
+        return encodedKmers.getMask(canonicalCore);
+    }
+
+    private long getMask(CharSequence sequence, int from) {
+        //Dont query N-containing k-mers
+        if (sequence.subSequence(from, from + k).chars().anyMatch(x -> x == 'N' || x == 'n')) {
+            return 0;
+        }
+        Kmer kmer = new Kmer(SequenceOps.getCanonical(sequence.subSequence(from, from + k).toString()), storeASCII);
+        if (bloomFilter != null && !bloomFilter.mightContain(BlockedBloomFilter.hash(kmer.getBytes()))) {
+            return 0;
+        }
+        Long mask = kmerMasks.get(kmer);
+        return mask == null ? 0 : mask;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import argparser.ArgParser;
+import argparser.Opt;
+import argparser.OptSet;
+import java.io.IOException;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import shared.InputReaderProducer;
+import shared.Reporter;
+
+/**
+ * Populate a k-mer set from reference k-mers (or sequences to be k-merized)
+ * once and write it to a MappedKmerIndex, which can then be given to kmatch
+ * (-K) or kmerloc (--index) instead of the reference
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class KmerIndexBuilder {
+
+    private final String TOOL_NAME;
+    private final int HELP_WIDTH = 180;
+    private final int THREADS;
+    private final int IN_BUFFER_SIZE;
+    private final int IN_Q_CAPACITY;
+
+    public KmerIndexBuilder(String[] args, String callerName, String toolName) {
+        OptSet optSet = populateOptSet();
+        ArgParser argParser = new ArgParser();
+        argParser.processArgs(args, optSet, true, callerName, HELP_WIDTH);
+        TOOL_NAME = callerName + " " + toolName;
+        IN_BUFFER_SIZE = (int) optSet.getOpt("U").getValueOrDefault();
+        IN_Q_CAPACITY = (int) optSet.getOpt("Q").getValueOrDefault();
+        THREADS = (int) optSet.getOpt("t").getValueOrDefault();
+        if (optSet.getOpt("P").isUsed()) {
+            optSet.printUserSettings(TOOL_NAME);
+        }
+        build(optSet);
+    }
+
+    private OptSet populateOptSet() {
+        OptSet optSet = new OptSet("Build an immutable k-mer index (k up to 64) to be memory-mapped by kmatch (-K <index>) or kmerloc (--index <index>) "
+                + "instead of populating k-mer set from the reference on every run.");
+        //INPUT
+        optSet.setListingGroupLabel("[Input settings]");
+        optSet.addOpt(new Opt<String>('K', "k-mers", "Sequence(s) to be indexed, by default a set of k-mers is expected. If <arg> needs to be k-merized then -k / --k-mer-length is also required.", 1).setRequired(true));
+        optSet.addOpt(new Opt<Integer>('k', "k-mer-length", "Specify required k-mer size if reference is to be k-merized", 1).setMinValue(2).setMaxValue(64));
+        optSet.addOpt(new Opt<Integer>('U', "in-buffer-size", "Number of records passed to in-queue", 2048, 1, 8092));
+        optSet.addOpt(new Opt<Integer>('Q', "in-queue-capacity", "Maximum number of buffers put on queue for processing threads to pick-up",
+                2, 1, 256));
+        //RUNTIME
+        optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Runtime settings]");
+        optSet.addOpt(new Opt<Integer>('t', "threads", "Number of threads. ", 1, 1, Runtime.getRuntime().availableProcessors(), 1, 1));
+        optSet.addOpt(new Opt<Boolean>('P', "print-user-settings", "Print the list of user-settings to stderr and continue executing"));
+        //OUTPUT
+        optSet.setListingGroupLabel(optSet.incrementLisitngGroup(), "[Output settings]");
+        optSet.addOpt(new Opt<String>('o', "out-file", "Write index to <arg> file", 1).setRequired(true));
+        return optSet;
+    }
+
+    private void build(OptSet optSet) {
+        Integer k = (Integer) optSet.getOpt("k").getValueIfSingle();
+        ArrayList<Integer> kValues = new ArrayList<>();
+        kValues.add(k != null ? k : 0);
+        KmerSetsMap kmerSetsMap = new KmerSetsMap(TOOL_NAME);
+
+        Reporter.report("[INFO]", "Start populating k-mers set", TOOL_NAME);
+        BlockingQueue<ArrayList<String>> inputKmersQueue = new ArrayBlockingQueue<>(IN_Q_CAPACITY);
+        ArrayList<Future<?>> inputKmersFutures = new ArrayList<>(1);
+        final ExecutorService inputKmersExecutorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ArrayList<String> kmersFiles = new ArrayList<>();
+        for (Object kmersFile : optSet.getOpt("K").getValues()) {
+            kmersFiles.add((String) kmersFile);
+        }
+        InputReaderProducer inputReaderProducer = new InputReaderProducer(inputKmersQueue, kValues, kmersFiles, IN_BUFFER_SIZE, TOOL_NAME);
+        inputKmersFutures.add(inputKmersExecutorService.submit(inputReaderProducer));
+
+        final ExecutorService populatorExecutorService = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ArrayList<Future<?>> populatorFutures = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            populatorFutures.add(populatorExecutorService.submit(new KmerSetPopulatorConsumer(kmerSetsMap, inputKmersQueue, k, false)));
+        }
+        populatorExecutorService.shutdown();
+        inputKmersExecutorService.shutdown();
+        try {
+            for (Future<?> f : populatorFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            populatorExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (Future<?> f : inputKmersFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            inputKmersExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Reporter.report("[ERROR]", "interrupted exception!", getClass().getSimpleName());
+        } catch (ExecutionException ex) {
+            Reporter.report("[ERROR]", "execution exception! " + ex.getCause().getMessage(), getClass().getSimpleName());
+            ex.printStackTrace();
+        } catch (TimeoutException ex) {
+            Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
+        }
+
+        if (!kmerSetsMap.getKmerSetsMap().isEmpty() || kmerSetsMap.getEncodedKmerSetsMap().size() != 1) {
+            Reporter.report("[ERROR]", "Index requires k-mers of a single length of up to 64", TOOL_NAME);
+            System.exit(1);
+        }
+        k = kmerSetsMap.getEncodedKmerSetsMap().keySet().iterator().next();
+        EncodedKmerSet kmers = kmerSetsMap.getEncodedKmerSet(k);
+        Reporter.report("[INFO]", "Finished populating k-mers set, k= " + k + ", n=" + NumberFormat.getNumberInstance().format(kmers.size()), TOOL_NAME);
+        String outFile = (String) optSet.getOpt("o").getValueOrDefault();
+        try {
+            MappedKmerIndex.write(kmers, k, outFile);
+        } catch (IOException ex) {
+            Reporter.report("[ERROR]", "Failed writing index to " + outFile + ": " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        Reporter.report("[INFO]", "Index written to " + outFile, TOOL_NAME);
+    }
+}
@@ -9,14 +9,18 @@ import argparser.ArgParser;
 import argparser.Opt;
 import argparser.OptSet;
 import argparser.PositionalOpt;
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -25,9 +29,14 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
 import kextender.CoreCoder;
+import shared.ByteRecordReaderProducer;
 import shared.InputReaderProducer;
 import shared.Message;
+import shared.RecordBatch;
+import shared.RecordBatchWriterConsumer;
+import shared.ReorderWindow;
 import shared.Reporter;
 
 /**
@@ -48,6 +57,10 @@ public class KmerMatch {
     private final int OUT_Q_CAPACITY;
     private final int HELP_WIDTH = 180;
 
+    //BINNING
+    private static final int MAX_BINS = 64; //ONE BIT PER REFERENCE IN A LONG
+    private static final String UNMATCHED_LABEL = "unmatched";
+
     public KmerMatch(String[] args, String callerName, String toolName) {
         ArrayList<String> inputFilenamesList = new ArrayList<>();
         OptSet optSet = populateOptSet();
@@ -81,12 +94,15 @@ public class KmerMatch {
         OptSet optSet = new OptSet("Given a set of k-mers (or FASTA/FASTQ to be k-merized) and (by default one-per-line) FAST[A|Q] input, output FAST[A|Q] records if sufficient matching k-mers are present. Do not mix different input types in one run (FASTA/FASTQ/PE/SE) as input format is recognized early on and subsequent records are assumed to be in the same format.");
         //INPUT
         optSet.setListingGroupLabel("[Input settings]");
-        optSet.addOpt(new Opt('K', "k-mers", "Sequence(s) to be used as reference for matching the reads, by default a set of k-mers is expected. If <arg> needs to be k-merized then -k / --k-mer-length is also required.", 1).setRequired(true));
+        optSet.addOpt(new Opt<String>('K', "k-mers", "Sequence(s) to be used as reference for matching the reads, by default a set of k-mers is expected. If <arg> needs to be k-merized then -k / --k-mer-length is also required. "
+                + "Alternatively, an index prebuilt with 'kmatch index', which is memory-mapped rather than loaded.", 1).setRequired(true));
         optSet.addOpt(new Opt('k', "k-mer-length", "Specify required k-mer size if reference is to be k-merized", 1).setMinValue(2).setMaxValue(1024));
         optSet.addOpt(new Opt('U', "in-buffer-size", "Number of FASTQ records (reads or pairs depending on input) "
                 + "passed to in-queue", 2048, 1, 8092));
         optSet.addOpt(new Opt('Q', "in-queue-capacity", "Maximum number of buffers put on queue for processing threads to pick-up",
                 2, 1, 256));
+        optSet.addOpt(new Opt<Boolean>(null, "byte-records", "Read input records into recycled byte buffers rather than lines of text, "
+                + "less garbage collection overhead which pays off with many threads"));
         int footId = 1;
 //        String footText1 = "Note that certain combinations of min-length-* settings can lead to both mates of a pair ending up in SE/orphans output file.";
         //RUNTIME
@@ -95,6 +111,9 @@ public class KmerMatch {
         optSet.addOpt(new Opt('M', "min-matches-fraction", "Minimum fraction of k-mers from the targeted sequence (pair) present in the reference", 0.0, 0.0, 1.0));
         optSet.addOpt(new Opt('v', "invert-matching", "Invert matching: output targets that contain fewer than -m <arg> k-mers matching the reference set"));
         optSet.addOpt(new Opt('a', "ascii-encoding", "Store k-mers in plain ascii - possibly faster than the default encoding, but will consume more memory."));
+        optSet.addOpt(new Opt<Integer>(null, "bloom-filter", "Put a blocked Bloom filter of <arg> MB in front of reference k-mer lookups, "
+                + "so that most k-mers absent from the reference are rejected with a single memory access. Pays off when most reads match nothing, "
+                + "about 2 bytes per reference k-mer keeps false positives (which only cost an exact lookup) under 1%", 1).setMinValue(1));
         
 //                optSet.addOpt(new Opt('S', "stranded-matching", "Do not reverse-complement k-mers (by default canonical representation of a k-mer is stored and matched)"));
 //        optSet.addOpt(new Opt('B', "match-both-mates", "Relevant for PE input only. Demand each mate to have -m <arg> k-mers matching the reference set, by default, both mates are caught if at least one has [-M] kmer(s) matching the reference"));
@@ -117,6 +136,12 @@ public class KmerMatch {
 
 //        footId++;
         optSet.addOpt(new Opt('o', "out-file", "Send output to <arg> file", 1).setDefaultValue("/dev/stdout"));
+        optSet.addOpt(new Opt<String>(null, "bins", "Single-pass binning against several references: -K <arg> is then a comma-separated list of "
+                + "[label=]reference (at most 64, label defaults to the file name without extensions) and each record is written "
+                + "to the output of every reference it matches, or to the 'unmatched' output. Output file names are given by <arg> "
+                + "with %s replaced by the label, e.g. bins/%s.fq.gz", 1));
+        optSet.addOpt(new Opt<Boolean>('O', "ordered-output", "Output records in input order, otherwise, if more than one thread used, "
+                + "buffers of records are output in the order in which they are processed"));
 
         String footText2 = "Consider increasing to sacrifice memory for speed. Decrease if encountering 'out of memory' errors.";
         optSet.addOpt(new Opt('u', "out-buffer-size", "Number of FASTQ records (reads or pairs) "
@@ -136,68 +161,115 @@ public class KmerMatch {
         ArrayList<Integer> kValues = new ArrayList<>();
         kValues.add(k != null ? k : 0);
         
-        BlockingQueue inputKmersQueue = new ArrayBlockingQueue(IN_Q_CAPACITY);
-        //SPAWN KMERS INPUT READING THREAD        
-        ArrayList<Future<?>> inputKmersFutures = new ArrayList<>(1);
-        final ExecutorService inputKmersExecutorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
-        InputReaderProducer inputReaderProducer = new InputReaderProducer( inputKmersQueue, kValues, optSet.getOpt("-K").getValues(), IN_BUFFER_SIZE, TOOL_NAME);
-
-        inputKmersFutures.add(inputKmersExecutorService.submit(inputReaderProducer));
-        
-        Reporter.report("[INFO]", "Start populating k-mers set", TOOL_NAME);
-
         //SPAWN MAP - POPULATOR THREADS
 //        ConcurrentSkipListSet<Kmer> kmers = new ConcurrentSkipListSet();
         KmerSetsMap kmerSetsMap = new KmerSetsMap(TOOL_NAME);
-        final ExecutorService populatorExecutorService = new ThreadPoolExecutor(MATCHER_THREADS, MATCHER_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
-        ArrayList<Future<?>> populatorFutures = new ArrayList<>(MATCHER_THREADS);
-        ArrayList<Message> finalMessages = new ArrayList<>(MATCHER_THREADS * 5);
-        for (int i = 0; i < MATCHER_THREADS; i++) {
-            populatorFutures.add(populatorExecutorService.submit(new KmerSetPopulatorConsumer(kmerSetsMap, inputKmersQueue, k, storeASCII)));
+        if (optSet.getOpt("bloom-filter").isUsed()) {
+            kmerSetsMap.setBloomFilterBytes((long) (int) optSet.getOpt("bloom-filter").getValueOrDefault() << 20);
         }
-        populatorExecutorService.shutdown();
-        inputKmersExecutorService.shutdown();
-        try {
-
-            for (Future<?> f : populatorFutures) {
-                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        ArrayList<Message> finalMessages = new ArrayList<>(MATCHER_THREADS * 5);
+        ArrayList<String> binLabels = null;
+        InputReaderProducer inputReaderProducer = null;
+        MappedKmerIndex kmerIndex = null;
+        if (optSet.getOpt("bins").isUsed()) {
+            binLabels = new ArrayList<>();
+            ArrayList<String> references = new ArrayList<>();
+            parseBinReferences(optSet, binLabels, references);
+            kmerSetsMap.setReferenceMasks(true);
+            for (int i = 0; i < references.size(); i++) {
+                Reporter.report("[INFO]", "Start populating k-mers set, reference " + binLabels.get(i), TOOL_NAME);
+                ArrayList<String> referenceFiles = new ArrayList<>(1);
+                referenceFiles.add(references.get(i));
+                InputReaderProducer referenceReader = populate(kmerSetsMap, referenceFiles, kValues, k, storeASCII, 1L << i);
+                if (k == null && inputReaderProducer != null
+                        && !inputReaderProducer.getKmerLengths().get(0).equals(referenceReader.getKmerLengths().get(0))) {
+                    Reporter.report("[ERROR]", "All references must hold k-mers of the same length, offending reference: " + binLabels.get(i), TOOL_NAME);
+                    System.exit(1);
+                }
+                inputReaderProducer = referenceReader;
             }
-            populatorExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            for (Future<?> f : inputKmersFutures) {
-                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } else if (MappedKmerIndex.isIndex((String) optSet.getOpt("K").getValueOrDefault())) {
+            kmerIndex = openIndex(optSet, k);
+            k = kmerIndex.getK();
+        } else {
+            Reporter.report("[INFO]", "Start populating k-mers set", TOOL_NAME);
+            ArrayList<String> referenceFiles = new ArrayList<>();
+            for (Object referenceFile : optSet.getOpt("-K").getValues()) {
+                referenceFiles.add((String) referenceFile);
             }
-            inputKmersExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Reporter.report("[ERROR]", "interrupted exception!", getClass().getSimpleName());
-        } catch (ExecutionException ex) {
-            Reporter.report("[ERROR]", "execution exception! " + ex.getCause().getMessage(), getClass().getSimpleName());
-            ex.printStackTrace();
-        } catch (TimeoutException ex) {
-            Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
+            inputReaderProducer = populate(kmerSetsMap, referenceFiles, kValues, k, storeASCII, 0);
         }
         ConcurrentHashMap<Integer, ConcurrentSkipListSet<Kmer>> map = kmerSetsMap.getKmerSetsMap();
         for (Map.Entry<Integer, ConcurrentSkipListSet<Kmer>> entry : map.entrySet()) {           
             Reporter.report("[INFO]", "Finished populating k-mers set, k= "+entry.getKey()+", n=" + NumberFormat.getNumberInstance().format(entry.getValue().size()), TOOL_NAME);            
         }
+        for (Map.Entry<Integer, EncodedKmerSet> entry : kmerSetsMap.getEncodedKmerSetsMap().entrySet()) {           
+            Reporter.report("[INFO]", "Finished populating k-mers set, k= "+entry.getKey()+", n=" + NumberFormat.getNumberInstance().format(entry.getValue().size()), TOOL_NAME);            
+        }
+        for (Map.Entry<Integer, ConcurrentSkipListMap<Kmer, Long>> entry : kmerSetsMap.getKmerMasksMap().entrySet()) {
+            Reporter.report("[INFO]", "Finished populating k-mers set, k= "+entry.getKey()+", n=" + NumberFormat.getNumberInstance().format(entry.getValue().size()), TOOL_NAME);
+        }
+        if (optSet.getOpt("bloom-filter").isUsed()) {
+            for (int kValue : kmerSetsMap.getKmerMasksMap().keySet()) {
+                reportBloomFilter(kmerSetsMap, kValue);
+            }
+            for (int kValue : kmerSetsMap.getKmerSetsMap().keySet()) {
+                reportBloomFilter(kmerSetsMap, kValue);
+            }
+            for (int kValue : kmerSetsMap.getEncodedKmerSetsMap().keySet()) {
+                reportBloomFilter(kmerSetsMap, kValue);
+            }
+        }
 //        Reporter.report("[INFO]", "Finished populating k-mers set, n=" + NumberFormat.getNumberInstance().format(kmers.size()), TOOL_NAME);
 
 //        for(String inputFileName: inputFilenamesList) {
 //            
 //        }
+        if (binLabels != null) {
+            bin(inputFilenamesList, optSet, kmerSetsMap, binLabels, k != null ? k : inputReaderProducer.getKmerLengths().get(0), storeASCII);
+            return;
+        }
         //NOW PROCESS INPUT READS, BUT FIRST SET-UP OUTPUT WRITING 
         String outFile = (String) optSet.getOpt("out-file").getValueOrDefault();
-        BlockingQueue outputQueue = new ArrayBlockingQueue(OUT_Q_CAPACITY);
-        BlockingQueue inputQueue = new ArrayBlockingQueue(IN_Q_CAPACITY);
         ArrayList<Future<?>> ioFutures = new ArrayList<>(2);
         final ExecutorService ioExecutorService = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
         //READER THREAD
-        InputReaderProducer inputReaderProducer2 = new InputReaderProducer(inputQueue, inputFilenamesList, TOOL_NAME, "records", IN_BUFFER_SIZE);
+        boolean byteRecords = optSet.getOpt("byte-records").isUsed();
+        BlockingQueue<List<String>> outputQueue = byteRecords ? null : new ArrayBlockingQueue<>(OUT_Q_CAPACITY);
+        BlockingQueue<List<String>> inputQueue = byteRecords ? null : new ArrayBlockingQueue<>(IN_Q_CAPACITY);
+        BlockingQueue<RecordBatch> batchOutputQueue = byteRecords ? new ArrayBlockingQueue<>(OUT_Q_CAPACITY) : null;
+        BlockingQueue<RecordBatch> batchInputQueue = byteRecords ? new ArrayBlockingQueue<>(IN_Q_CAPACITY) : null;
+        //HOLDS BACK BUFFERS PROCESSED AHEAD OF TIME, AT MOST AS MANY AS CAN BE QUEUED OR IN MATCHERS' HANDS
+        ReorderWindow<RecordBatch> batchWindow = null;
+        ReorderWindow<List<String>> listWindow = null;
+        if (optSet.getOpt("O").isUsed() && byteRecords) {
+            batchWindow = new ReorderWindow<>(OUT_Q_CAPACITY + MATCHER_THREADS);
+        } else if (optSet.getOpt("O").isUsed()) {
+            listWindow = new ReorderWindow<>(OUT_Q_CAPACITY + MATCHER_THREADS);
+        }
+        ReorderWindow<?> window = byteRecords ? batchWindow : listWindow;
+        InputReaderProducer inputReaderProducer2 = null;
+        ByteRecordReaderProducer byteRecordReaderProducer = null;
+        BlockingQueue<RecordBatch> batchPool = null;
+        if (byteRecords) {
+            int maxBatches = IN_Q_CAPACITY + OUT_Q_CAPACITY + MATCHER_THREADS + 2; //queued, being matched, being read and written
+            if (window != null) {
+                maxBatches += MATCHER_THREADS; //HELD BACK BY THE WRITER
+            }
+            batchPool = new ArrayBlockingQueue<>(maxBatches);
+            byteRecordReaderProducer = new ByteRecordReaderProducer(batchInputQueue, batchPool, maxBatches, inputFilenamesList, IN_BUFFER_SIZE, TOOL_NAME);
+            ioFutures.add(ioExecutorService.submit(byteRecordReaderProducer));
+        } else {
+            inputReaderProducer2 = new InputReaderProducer(inputQueue, inputFilenamesList, TOOL_NAME, "records", IN_BUFFER_SIZE);
+            inputReaderProducer2.setSequenceBuffers(window != null);
 //        InputReaderProducer inputReaderProducer2 = new InputReaderProducer(inputQueue, kValues, inputFilenamesList, IN_BUFFER_SIZE, TOOL_NAME);
-        ioFutures.add(ioExecutorService.submit(inputReaderProducer2));
+            ioFutures.add(ioExecutorService.submit(inputReaderProducer2));
+        }
 
         long timeStart = System.currentTimeMillis();
         int count = 0;
-        while (inputReaderProducer2.getGuessedInputFormat() == null) {
+        InputReaderProducer.InFormat inFormat;
+        while ((inFormat = byteRecords ? byteRecordReaderProducer.getGuessedInputFormat() : inputReaderProducer2.getGuessedInputFormat()) == null) {
             try {
                 //IF nothing happens after 5 seconds
                 if (System.currentTimeMillis() - timeStart > 2500 && (count++ % 25 == 0)) {
@@ -211,17 +283,24 @@ public class KmerMatch {
         k = k == null ? inputReaderProducer.getKmerLengths().get(0) : k;
 
         //WRITER THREAD
-        ioFutures.add(ioExecutorService.submit(new WriterConsumer(outputQueue, outFile, MATCHER_THREADS, TOOL_NAME)));
+        if (byteRecords) {
+            ioFutures.add(ioExecutorService.submit(new RecordBatchWriterConsumer(batchOutputQueue, batchPool, outFile, MATCHER_THREADS, TOOL_NAME, batchWindow)));
+        } else {
+            ioFutures.add(ioExecutorService.submit(new WriterConsumer(outputQueue, outFile, MATCHER_THREADS, TOOL_NAME, listWindow)));
+        }
 //        ioFutures.add(ioExecutorService.submit(new shared.WriterConsumer(outputQueue, "MATCHED_FASTQ", TOOL_NAME)));
 
+        boolean encoded = KmerSetsMap.isEncodable(k, storeASCII);
+        EncodedKmerLookup encodedKmers = kmerIndex != null ? kmerIndex : encoded ? kmerSetsMap.getEncodedKmerSet(k) : null;
         //SPAWN MATCHER-THREADS
         final ExecutorService matcherExecutorService = new ThreadPoolExecutor(MATCHER_THREADS, MATCHER_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
         ArrayList<Future<?>> matcherFutures = new ArrayList<>(MATCHER_THREADS);
         for (int i = 0; i < MATCHER_THREADS; i++) {
-            matcherFutures.add(matcherExecutorService.submit(new KmerMatcherConsumerProducer(inputQueue, outputQueue, kmerSetsMap.getKmerSet(k), IN_BUFFER_SIZE, TOOL_NAME,
+            matcherFutures.add(matcherExecutorService.submit(new KmerMatcherConsumerProducer(inputQueue, outputQueue, batchInputQueue, batchOutputQueue,
+                    encoded ? null : kmerSetsMap.getKmerSet(k), encodedKmers, kmerSetsMap.getBloomFilter(k), IN_BUFFER_SIZE, TOOL_NAME,
                     finalMessages, optSet.getOpt("v").isUsed(), (int) optSet.getOpt("m").getValueOrDefault(),
                     (double) optSet.getOpt("M").getValueOrDefault(),
-                    inputReaderProducer.getGuessedInputFormat(), k, storeASCII)));
+                    inFormat, k, storeASCII, window)));
         }
 
         matcherExecutorService.shutdown();
@@ -251,7 +330,12 @@ public class KmerMatch {
         }
         
         
-        if(optSet.getOpt("d").isUsed()) {
+        if(optSet.getOpt("d").isUsed() && encoded) {
+            Iterator<long[]> iterator = encodedKmers.iterator();
+            while (iterator.hasNext()) {
+                System.out.println(CoreCoder.decodeCore(k, iterator.next()));
+            }
+        } else if(optSet.getOpt("d").isUsed()) {
             Iterator<Kmer> iterator = kmerSetsMap.getKmerSet(k).iterator();
             while (iterator.hasNext()) {
                 Kmer next = iterator.next();
@@ -264,4 +348,211 @@ public class KmerMatch {
         }
     }
 
+    /**
+     * Read reference k-mers (or sequences to be k-merized) into the k-mer
+     * set(s)
+     *
+     * @param kmerSetsMap
+     * @param referenceFiles
+     * @param kValues
+     * @param k null if reference is a list of k-mers
+     * @param storeASCII
+     * @param referenceMask see KmerSetPopulatorConsumer
+     * @return the reader, holding the lengths of k-mers read
+     */
+    private InputReaderProducer populate(KmerSetsMap kmerSetsMap, ArrayList<String> referenceFiles, ArrayList<Integer> kValues, Integer k,
+            boolean storeASCII, long referenceMask) {
+        BlockingQueue<ArrayList<String>> inputKmersQueue = new ArrayBlockingQueue<>(IN_Q_CAPACITY);
+        //SPAWN KMERS INPUT READING THREAD        
+        ArrayList<Future<?>> inputKmersFutures = new ArrayList<>(1);
+        final ExecutorService inputKmersExecutorService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        InputReaderProducer inputReaderProducer = new InputReaderProducer( inputKmersQueue, kValues, referenceFiles, IN_BUFFER_SIZE, TOOL_NAME);
+
+        inputKmersFutures.add(inputKmersExecutorService.submit(inputReaderProducer));
+
+        final ExecutorService populatorExecutorService = new ThreadPoolExecutor(MATCHER_THREADS, MATCHER_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ArrayList<Future<?>> populatorFutures = new ArrayList<>(MATCHER_THREADS);
+        for (int i = 0; i < MATCHER_THREADS; i++) {
+            populatorFutures.add(populatorExecutorService.submit(new KmerSetPopulatorConsumer(kmerSetsMap, inputKmersQueue, k, storeASCII, referenceMask)));
+        }
+        populatorExecutorService.shutdown();
+        inputKmersExecutorService.shutdown();
+        try {
+
+            for (Future<?> f : populatorFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            populatorExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (Future<?> f : inputKmersFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            inputKmersExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Reporter.report("[ERROR]", "interrupted exception!", getClass().getSimpleName());
+        } catch (ExecutionException ex) {
+            Reporter.report("[ERROR]", "execution exception! " + ex.getCause().getMessage(), getClass().getSimpleName());
+            ex.printStackTrace();
+        } catch (TimeoutException ex) {
+            Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
+        }
+        return inputReaderProducer;
+    }
+
+    /**
+     * Map a prebuilt index given with -K, exit on settings incompatible with
+     * an index
+     *
+     * @param optSet
+     * @param k as given with -k, if any
+     * @return
+     */
+    private MappedKmerIndex openIndex(OptSet optSet, Integer k) {
+        for (String opt : new String[]{"a", "bloom-filter"}) {
+            if (optSet.getOpt(opt).isUsed()) {
+                Reporter.report("[ERROR]", "Option " + optSet.getOpt(opt).getOptLabelStringQuoted() + " not supported with a k-mer index", TOOL_NAME);
+                System.exit(1);
+            }
+        }
+        String indexFile = (String) optSet.getOpt("K").getValueOrDefault();
+        MappedKmerIndex kmerIndex = null;
+        try {
+            kmerIndex = new MappedKmerIndex(indexFile);
+        } catch (IOException ex) {
+            Reporter.report("[ERROR]", "Failed loading k-mer index: " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        if (k != null && k != kmerIndex.getK()) {
+            Reporter.report("[ERROR]", "Requested k=" + k + " but " + indexFile + " holds k=" + kmerIndex.getK(), TOOL_NAME);
+            System.exit(1);
+        }
+        Reporter.report("[INFO]", "Mapped k-mer index " + indexFile + ", k= " + kmerIndex.getK() + ", n="
+                + NumberFormat.getNumberInstance().format(kmerIndex.size()), TOOL_NAME);
+        return kmerIndex;
+    }
+
+    /**
+     * Split -K value into bin labels and reference files, exit on settings
+     * incompatible with binning
+     *
+     * @param optSet
+     * @param labels
+     * @param references
+     */
+    private void parseBinReferences(OptSet optSet, ArrayList<String> labels, ArrayList<String> references) {
+        for (String opt : new String[]{"v", "O", "d", "byte-records"}) {
+            if (optSet.getOpt(opt).isUsed()) {
+                Reporter.report("[ERROR]", "Option " + optSet.getOpt(opt).getOptLabelStringQuoted() + " not supported with --bins", TOOL_NAME);
+                System.exit(1);
+            }
+        }
+        if (!((String) optSet.getOpt("bins").getValueOrDefault()).contains("%s")) {
+            Reporter.report("[ERROR]", "Output file names given with --bins must contain %s to be replaced by reference label", TOOL_NAME);
+            System.exit(1);
+        }
+        for (String reference : ((String) optSet.getOpt("K").getValueOrDefault()).split(",")) {
+            int separator = reference.indexOf('=');
+            String label;
+            if (separator == -1) {
+                label = new File(reference).getName();
+                if (label.indexOf('.') > 0) {
+                    label = label.substring(0, label.indexOf('.'));
+                }
+            } else {
+                label = reference.substring(0, separator);
+                reference = reference.substring(separator + 1);
+            }
+            if (label.isEmpty() || label.equals(UNMATCHED_LABEL) || labels.contains(label)) {
+                Reporter.report("[ERROR]", "Empty, reserved or duplicate reference label: '" + label + "', set labels explicitly as label=reference", TOOL_NAME);
+                System.exit(1);
+            }
+            labels.add(label);
+            references.add(reference);
+        }
+        if (references.size() > MAX_BINS) {
+            Reporter.report("[ERROR]", "At most " + MAX_BINS + " references can be used with --bins, " + references.size() + " given", TOOL_NAME);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Stream input records once, writing each to one output per matched
+     * reference or to the unmatched output
+     */
+    private void bin(ArrayList<String> inputFilenamesList, OptSet optSet, KmerSetsMap kmerSetsMap, ArrayList<String> labels, int k,
+            boolean storeASCII) {
+        String pattern = (String) optSet.getOpt("bins").getValueOrDefault();
+        ArrayList<String> outFiles = new ArrayList<>(labels.size() + 1);
+        for (String label : labels) {
+            outFiles.add(pattern.replace("%s", label));
+        }
+        outFiles.add(pattern.replace("%s", UNMATCHED_LABEL));
+
+        BlockingQueue<List<String>> inputQueue = new ArrayBlockingQueue<>(IN_Q_CAPACITY);
+        ArrayList<BlockingQueue<List<String>>> binQueues = new ArrayList<>(outFiles.size());
+        ArrayList<Future<?>> ioFutures = new ArrayList<>(outFiles.size() + 1);
+        final ExecutorService ioExecutorService = new ThreadPoolExecutor(outFiles.size() + 1, outFiles.size() + 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        //READER THREAD
+        InputReaderProducer inputReaderProducer = new InputReaderProducer(inputQueue, inputFilenamesList, TOOL_NAME, "records", IN_BUFFER_SIZE);
+        ioFutures.add(ioExecutorService.submit(inputReaderProducer));
+
+        long timeStart = System.currentTimeMillis();
+        int count = 0;
+        InputReaderProducer.InFormat inFormat;
+        while ((inFormat = inputReaderProducer.getGuessedInputFormat()) == null) {
+            try {
+                if (System.currentTimeMillis() - timeStart > 2500 && (count++ % 25 == 0)) {
+                    Reporter.report("[WARNING]", "Stuck or waiting for standard input stream...", TOOL_NAME);
+                }
+                Thread.sleep(100); //wait for 1/10 of a second
+            } catch (InterruptedException ex) {
+            }
+        }
+
+        //WRITER THREADS, ONE PER BIN
+        for (String outFile : outFiles) {
+            BlockingQueue<List<String>> binQueue = new ArrayBlockingQueue<>(OUT_Q_CAPACITY);
+            binQueues.add(binQueue);
+            ioFutures.add(ioExecutorService.submit(new WriterConsumer(binQueue, outFile, MATCHER_THREADS, TOOL_NAME, null)));
+        }
+
+        boolean encoded = KmerSetsMap.isEncodable(k, storeASCII);
+        AtomicLongArray binCounts = new AtomicLongArray(outFiles.size());
+        //SPAWN BINNER-THREADS
+        final ExecutorService binnerExecutorService = new ThreadPoolExecutor(MATCHER_THREADS, MATCHER_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        ArrayList<Future<?>> binnerFutures = new ArrayList<>(MATCHER_THREADS);
+        for (int i = 0; i < MATCHER_THREADS; i++) {
+            binnerFutures.add(binnerExecutorService.submit(new KmerBinnerConsumerProducer(inputQueue, binQueues,
+                    encoded ? null : kmerSetsMap.getKmerMasks(k), encoded ? kmerSetsMap.getEncodedKmerSet(k) : null, kmerSetsMap.getBloomFilter(k),
+                    binCounts, OUT_BUFFER_SIZE, (int) optSet.getOpt("m").getValueOrDefault(), (double) optSet.getOpt("M").getValueOrDefault(),
+                    inFormat, k, storeASCII)));
+        }
+        binnerExecutorService.shutdown();
+        ioExecutorService.shutdown();
+        try {
+            for (Future<?> f : binnerFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            binnerExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (Future<?> f : ioFutures) {
+                f.get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            ioExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Reporter.report("[ERROR]", "interrupted exception!", getClass().getSimpleName());
+        } catch (ExecutionException ex) {
+            Reporter.report("[ERROR]", "execution exception! " + ex.getCause().getMessage(), getClass().getSimpleName());
+            ex.printStackTrace();
+        } catch (TimeoutException ex) {
+            Reporter.report("[ERROR]", "timeout exception!", getClass().getSimpleName());
+        }
+        for (int i = 0; i < outFiles.size(); i++) {
+            Reporter.report("[INFO]", NumberFormat.getNumberInstance().format(binCounts.get(i)) + " records written to " + outFiles.get(i), TOOL_NAME);
+        }
+    }
+
+    private void reportBloomFilter(KmerSetsMap kmerSetsMap, int k) {
+        Reporter.report("[INFO]", "Bloom filter in front of k-mers set, k= " + k + ", "
+                + NumberFormat.getNumberInstance().format(kmerSetsMap.getBloomFilter(k).getSizeBytes() >> 20) + " MB", TOOL_NAME);
+    }
+
 }
@@ -15,6 +15,7 @@
  */
 package kmermatch;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
@@ -22,9 +23,14 @@ import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import kextender.RollingCoreEncoder;
+import shared.BlockedBloomFilter;
 import shared.InputReaderProducer.InFormat;
 import shared.Message;
+import shared.RecordBatch;
+import shared.ReorderWindow;
 import shared.SequenceOps;
+import shared.SequencedList;
 
 /**
  *
@@ -32,9 +38,14 @@ import shared.SequenceOps;
  */
 public class KmerMatcherConsumerProducer implements Runnable {
 
-    private final BlockingQueue<ArrayList<String>> inputQueue;
-    private final BlockingQueue<ArrayList<String>> outputQueue;
+    private final BlockingQueue<List<String>> inputQueue;
+    private final BlockingQueue<List<String>> outputQueue;
+    private final BlockingQueue<RecordBatch> batchInputQueue;
+    private final BlockingQueue<RecordBatch> batchOutputQueue;
     private final ConcurrentSkipListSet<Kmer> map;
+    private final EncodedKmerLookup encodedKmers;
+    private final BlockedBloomFilter bloomFilter;
+    private final RollingCoreEncoder encoder;
     private final String TOOL_NAME;
     private final ArrayList<Message> finalMessages;
     private final int BUFFER_SIZE;
@@ -44,13 +55,45 @@ public class KmerMatcherConsumerProducer implements Runnable {
     private final InFormat inFormat;
     private final int k;
     private final boolean storeASCII;
+    private final boolean recordBatches;
+    private final ReorderWindow<?> window;
 
-    public KmerMatcherConsumerProducer(BlockingQueue<ArrayList<String>> inputQueue, BlockingQueue<ArrayList<String>> outputQueue,
-        ConcurrentSkipListSet<Kmer> kmers, int BUFFER_SIZE, String TOOL_NAME, ArrayList<Message> finalMessages, boolean invertMatch,
-        int minMatches, double minMatchesFraction, InFormat inFormat, int k, boolean storeASCII) {
+    /**
+     *
+     * @param inputQueue null if batchInputQueue used
+     * @param outputQueue null if batchOutputQueue used
+     * @param batchInputQueue if not null, RecordBatch objects are taken from
+     * this queue instead of lists of lines, matching records are flagged as
+     * selected and each batch is passed on as is
+     * @param batchOutputQueue
+     * @param kmers
+     * @param encodedKmers in-memory set or memory-mapped index
+     * @param bloomFilter if not null, consulted before kmers or encodedKmers
+     * @param BUFFER_SIZE
+     * @param TOOL_NAME
+     * @param finalMessages
+     * @param invertMatch
+     * @param minMatches
+     * @param minMatchesFraction
+     * @param inFormat
+     * @param k
+     * @param storeASCII
+     * @param window if not null, output is put on the queue in input order:
+     * exactly one SequencedList (or RecordBatch) per input buffer
+     */
+    public KmerMatcherConsumerProducer(BlockingQueue<List<String>> inputQueue, BlockingQueue<List<String>> outputQueue,
+        BlockingQueue<RecordBatch> batchInputQueue, BlockingQueue<RecordBatch> batchOutputQueue,
+        ConcurrentSkipListSet<Kmer> kmers, EncodedKmerLookup encodedKmers, BlockedBloomFilter bloomFilter, int BUFFER_SIZE, String TOOL_NAME, ArrayList<Message> finalMessages, boolean invertMatch,
+        int minMatches, double minMatchesFraction, InFormat inFormat, int k, boolean storeASCII,
+        ReorderWindow<?> window) {
         this.inputQueue = inputQueue;
         this.outputQueue = outputQueue;
+        this.batchInputQueue = batchInputQueue;
+        this.batchOutputQueue = batchOutputQueue;
         this.map = kmers;
+        this.encodedKmers = encodedKmers;
+        this.bloomFilter = bloomFilter;
+        this.encoder = encodedKmers == null ? null : new RollingCoreEncoder(k);
         this.TOOL_NAME = TOOL_NAME;
         this.finalMessages = finalMessages;
         this.BUFFER_SIZE = BUFFER_SIZE;
@@ -60,13 +103,19 @@ public class KmerMatcherConsumerProducer implements Runnable {
         this.inFormat = inFormat;
         this.k = k;
         this.storeASCII = storeASCII;
+        this.recordBatches = batchInputQueue != null;
+        this.window = window;
     }
 
     @Override
     public void run() {
         try {
+            if (recordBatches) {
+                matchRecordBatches();
+                return;
+            }
             Pattern spliPattern = Pattern.compile("\t");
-            ArrayList<String> list;
+            List<String> list;
             ArrayList<String> buffer = new ArrayList<>(BUFFER_SIZE);
 
 //            long countIn = 0;
@@ -74,6 +123,9 @@ public class KmerMatcherConsumerProducer implements Runnable {
             //Special case, default settings, quicker return as soon as one k-mer matches
             if (minMatches == 1 && minMatchesFraction == 0) {
                 while (!(list = inputQueue.take()).isEmpty()) {
+                    if (window != null) {
+                        buffer = new SequencedList<>(((SequencedList<?>) list).getSequenceNumber());
+                    }
                     for (String line : list) {
                         String toks[] = spliPattern.split(line);
                         String mateSeq = null;
@@ -84,16 +136,22 @@ public class KmerMatcherConsumerProducer implements Runnable {
                         }
                         boolean oneKmerMatch = oneKmerMatch(toks[1], mateSeq);
                         if (oneKmerMatch && !invertMatch || !oneKmerMatch && invertMatch) {
-                            if (buffer.size() >= BUFFER_SIZE) {
+                            if (window == null && buffer.size() >= BUFFER_SIZE) {
                                 putOneQueue(outputQueue, buffer);
                                 buffer = new ArrayList<>();
                             }
                             buffer.add(line);
                         }
                     }
+                    if (window != null) {
+                        putInOrder(buffer);
+                    }
                 }
             } else {
                 while (!(list = inputQueue.take()).isEmpty()) {
+                    if (window != null) {
+                        buffer = new SequencedList<>(((SequencedList<?>) list).getSequenceNumber());
+                    }
                     for (String line : list) {
                         String toks[] = spliPattern.split(line);
                         //Currently only considering one record per line wrapped FAST(A|Q) PE or SE
@@ -118,7 +176,7 @@ public class KmerMatcherConsumerProducer implements Runnable {
                         double mFrac = (double) matches / (toks[1].length() - k);
 
                         if ((matches >= minMatches && mFrac >= minMatchesFraction && !invertMatch) || ((matches < minMatches || mFrac < minMatchesFraction) && invertMatch)) {
-                            if (buffer.size() >= BUFFER_SIZE) {
+                            if (window == null && buffer.size() >= BUFFER_SIZE) {
                                 putOneQueue(outputQueue, buffer);
                                 buffer = new ArrayList<>();
                             }
@@ -128,9 +186,12 @@ public class KmerMatcherConsumerProducer implements Runnable {
 ////                        countOut++;
                         }
                     }
+                    if (window != null) {
+                        putInOrder(buffer);
+                    }
                 }
             }
-            if (!buffer.isEmpty()) {
+            if (window == null && !buffer.isEmpty()) {
                 putOneQueue(outputQueue, buffer);
             }
             putOneQueue(inputQueue, new ArrayList<>(0)); //inform other threads                
@@ -141,6 +202,75 @@ public class KmerMatcherConsumerProducer implements Runnable {
         }
     }
 
+    private void matchRecordBatches() throws InterruptedException {
+        int mateField = -1;
+        if (inFormat == InFormat.FASTA_PE_ONE_LINE) {
+            mateField = 3;
+        } else if (inFormat == InFormat.FASTQ_PE_ONE_LINE) {
+            mateField = 7;
+        }
+        RecordBatch batch;
+        while (!(batch = batchInputQueue.take()).isEmpty()) {
+            byte[] data = batch.getData();
+            for (int i = 0; i < batch.size(); i++) {
+                int fields = batch.getFieldCount(i);
+                if (fields <= RecordBatch.SEQUENCE) {
+                    batch.setSelected(i, invertMatch);
+                    continue;
+                }
+                int from = batch.getFieldStart(i, RecordBatch.SEQUENCE);
+                int to = batch.getFieldEnd(i, RecordBatch.SEQUENCE);
+                boolean hasMate = mateField > 0 && mateField < fields;
+                if (minMatches == 1 && minMatchesFraction == 0) {
+                    boolean oneKmerMatch = oneKmerMatch(data, from, to)
+                            || hasMate && oneKmerMatch(data, batch.getFieldStart(i, mateField), batch.getFieldEnd(i, mateField));
+                    batch.setSelected(i, oneKmerMatch && !invertMatch || !oneKmerMatch && invertMatch);
+                } else {
+                    int matches = kmerMatches(data, from, to);
+                    if (hasMate) {
+                        matches += kmerMatches(data, batch.getFieldStart(i, mateField), batch.getFieldEnd(i, mateField));
+                    }
+                    double mFrac = (double) matches / (to - from - k);
+                    batch.setSelected(i, (matches >= minMatches && mFrac >= minMatchesFraction && !invertMatch)
+                            || ((matches < minMatches || mFrac < minMatchesFraction) && invertMatch));
+                }
+            }
+            if (window != null) {
+                window.awaitTurn(batch.getSequenceNumber());
+            }
+            batchOutputQueue.put(batch);
+        }
+        batchInputQueue.put(batch); //inform other threads
+        batchOutputQueue.put(batch); //inform other threads
+    }
+
+    private int kmerMatches(byte[] data, int from, int to) {
+        if (encodedKmers == null) {
+            return kmerMatches(new String(data, from, to - from, StandardCharsets.US_ASCII));
+        }
+        int matches = 0;
+        encoder.reset();
+        for (int i = from; i < to; i++) {
+            if (encoder.add((char) data[i]) && contains(encoder.getCanonicalCore())) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private boolean oneKmerMatch(byte[] data, int from, int to) {
+        if (encodedKmers == null) {
+            return oneKmerMatch(new String(data, from, to - from, StandardCharsets.US_ASCII));
+        }
+        encoder.reset();
+        for (int i = from; i < to; i++) {
+            if (encoder.add((char) data[i]) && contains(encoder.getCanonicalCore())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 //    private boolean matchKmers(int minMatches, CharSequence sequence) {
 //        return kmerMatches(sequence) >= minMatches;
 //    }
@@ -157,6 +287,16 @@ public class KmerMatcherConsumerProducer implements Runnable {
     }
 
     private int kmerMatches(CharSequence sequence) {
+        if (encodedKmers != null) {
+            int matches = 0;
+            encoder.reset();
+            for (int i = 0; i < sequence.length(); i++) {
+                if (encoder.add(sequence.charAt(i)) && contains(encoder.getCanonicalCore())) {
+                    matches++;
+                }
+            }
+            return matches;
+        }
         int startAt = 0;
         int maxKmer = sequence.length() - k + 1;
         int matches = 0;
@@ -172,7 +312,7 @@ public class KmerMatcherConsumerProducer implements Runnable {
             if (sequence.subSequence(i, i + k).chars().anyMatch(x -> x == 'N' || x == 'n')) {
                 continue;
             }
-            if (map.contains(new Kmer(SequenceOps.getCanonical(sequence.subSequence(i, i + k).toString()), storeASCII))) {
+            if (contains(new Kmer(SequenceOps.getCanonical(sequence.subSequence(i, i + k).toString()), storeASCII))) {
                 matches++;
             }
         }
@@ -189,6 +329,15 @@ public class KmerMatcherConsumerProducer implements Runnable {
     }
 
     private boolean oneKmerMatch(CharSequence sequence) {
+        if (encodedKmers != null) {
+            encoder.reset();
+            for (int i = 0; i < sequence.length(); i++) {
+                if (encoder.add(sequence.charAt(i)) && contains(encoder.getCanonicalCore())) {
+                    return true;
+                }
+            }
+            return false;
+        }
         int startAt = 0;
         int maxKmer = sequence.length() - k + 1;
         for (int i = startAt; i < maxKmer; i++) {
@@ -196,14 +345,40 @@ public class KmerMatcherConsumerProducer implements Runnable {
             if (sequence.subSequence(i, i + k).chars().anyMatch(x -> x == 'N' || x == 'n')) {
                 continue;
             }
-            if (map.contains(new Kmer(SequenceOps.getCanonical(sequence.subSequence(i, i + k).toString()), storeASCII))) {
+            if (contains(new Kmer(SequenceOps.getCanonical(sequence.subSequence(i, i + k).toString()), storeASCII))) {
                 return true;
             }
         }
         return false;
     }
 
-    private void putOneQueue(BlockingQueue q, List buffer) throws InterruptedException {
+    /**
+     * Negatives are mostly rejected by the Bloom filter (if used) without
+     * touching the k-mer set
+     *
+     * @param canonicalCore
+     * @return
+     */
+    private boolean contains(long[] canonicalCore) {
+        return (bloomFilter == null || bloomFilter.mightContain(BlockedBloomFilter.hash(canonicalCore)))
+                && encodedKmers.contains(canonicalCore);
+    }
+
+    private boolean contains(Kmer kmer) {
+        return (bloomFilter == null || bloomFilter.mightContain(BlockedBloomFilter.hash(kmer.getBytes())))
+                && map.contains(kmer);
+    }
+
+    /**
+     * Wait until the writer is close enough to this buffer's position in the
+     * input, then put it on the output queue
+     */
+    private void putInOrder(ArrayList<String> buffer) throws InterruptedException {
+        window.awaitTurn(((SequencedList<?>) buffer).getSequenceNumber());
+        putOneQueue(outputQueue, buffer);
+    }
+
+    private void putOneQueue(BlockingQueue<List<String>> q, List<String> buffer) throws InterruptedException {
 //        System.err.println(Thread.currentThread().getName() + "[MC] puts " + buffer.size() + " on " + q.hashCode());
         q.put(buffer);
 //        System.err.println(Thread.currentThread().getName() + "[MC] puts " + buffer.size() + " on " + q.hashCode() + " done");
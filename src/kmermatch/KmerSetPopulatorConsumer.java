@@ -16,12 +16,15 @@
 package kmermatch;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.regex.Pattern;
+import kextender.RollingCoreEncoder;
+import shared.BlockedBloomFilter;
 import shared.SequenceOps;
 
 /**
@@ -36,6 +39,8 @@ public class KmerSetPopulatorConsumer implements Runnable {
     private final BlockingQueue<ArrayList<String>> inputQueue;
     private final Integer k;
     private final boolean storeASCII;
+    private final long referenceMask;
+    private final HashMap<Integer, RollingCoreEncoder> encoders = new HashMap<>();
 
     /**
      *
@@ -44,11 +49,25 @@ public class KmerSetPopulatorConsumer implements Runnable {
      * @param k - set to null if no need to kmerize input
      */
     public KmerSetPopulatorConsumer(KmerSetsMap kmerSetsMap, BlockingQueue<ArrayList<String>> inputQueue, Integer k, boolean storeASCII) {
+        this(kmerSetsMap, inputQueue, k, storeASCII, 0);
+    }
+
+    /**
+     *
+     * @param kmerSetsMap
+     * @param inputQueue
+     * @param k - set to null if no need to kmerize input
+     * @param storeASCII
+     * @param referenceMask if not 0, k-mers are added with this bitmask of
+     * references, see KmerSetsMap.setReferenceMasks()
+     */
+    public KmerSetPopulatorConsumer(KmerSetsMap kmerSetsMap, BlockingQueue<ArrayList<String>> inputQueue, Integer k, boolean storeASCII,
+            long referenceMask) {
         this.kmerSetsMap = kmerSetsMap;
         this.inputQueue = inputQueue;
         this.k = k;
         this.storeASCII = storeASCII;
-
+        this.referenceMask = referenceMask;
     }
 
     @Override
@@ -63,7 +82,18 @@ public class KmerSetPopulatorConsumer implements Runnable {
                     for (String line : list) {
                         tokenizer = new StringTokenizer(line);
                         String tok = tokenizer.nextToken().toUpperCase();
-                        kmerSetsMap.getKmerSet(tok.length()).add(new Kmer(SequenceOps.getCanonical(tab.split(line)[0]), storeASCII));
+                        if (KmerSetsMap.isEncodable(tok.length(), storeASCII)) {
+                            addEncoded(tok, tok.length());
+                        } else {
+                            addKmer(new Kmer(SequenceOps.getCanonical(tab.split(line)[0]), storeASCII), tok.length());
+                        }
+                    }
+                }
+            } else if (KmerSetsMap.isEncodable(k, storeASCII)) {  //KMERIZE, ROLLING ENCODING
+                while (!(list = inputQueue.take()).isEmpty()) {
+                    for (String line : list) {
+                        int end = line.indexOf('\t');
+                        addEncoded(end == -1 ? line : line.substring(0, end), k);
                     }
                 }
             } else {  //KMERIZE
@@ -74,7 +104,7 @@ public class KmerSetPopulatorConsumer implements Runnable {
                         for (int i = 0; i < maxKmer; i++) {                            
                             String canonical = SequenceOps.getCanonical(kmer.subSequence(i, i + k).toString());
                             if(!nonNuclPattern.matcher(canonical).matches()) {
-                                kmerSetsMap.getKmerSet(canonical.length()).add(new Kmer(canonical, storeASCII));
+                                addKmer(new Kmer(canonical, storeASCII), canonical.length());
                             }
                         }
                     }
@@ -85,4 +115,48 @@ public class KmerSetPopulatorConsumer implements Runnable {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Add all ACGT-only k-mers of the sequence to the corresponding
+     * EncodedKmerSet
+     *
+     * @param sequence
+     * @param kmerLength
+     */
+    private void addEncoded(CharSequence sequence, int kmerLength) {
+        RollingCoreEncoder encoder = encoders.get(kmerLength);
+        if (encoder == null) {
+            encoder = new RollingCoreEncoder(kmerLength);
+            encoders.put(kmerLength, encoder);
+        }
+        encoder.reset();
+        EncodedKmerSet set = kmerSetsMap.getEncodedKmerSet(kmerLength);
+        BlockedBloomFilter filter = kmerSetsMap.getBloomFilter(kmerLength);
+        for (int i = 0; i < sequence.length(); i++) {
+            if (encoder.add(sequence.charAt(i))) {
+                boolean added = true;
+                if (referenceMask != 0) {
+                    set.add(encoder.getCanonicalCore(), referenceMask);
+                } else {
+                    added = set.add(encoder.getCanonicalCore());
+                }
+                if (added && filter != null) {
+                    filter.add(BlockedBloomFilter.hash(encoder.getCanonicalCore()));
+                }
+            }
+        }
+    }
+
+    private void addKmer(Kmer kmer, int kmerLength) {
+        boolean added = true;
+        if (referenceMask != 0) {
+            kmerSetsMap.getKmerMasks(kmerLength).merge(kmer, referenceMask, (a, b) -> a | b);
+        } else {
+            added = kmerSetsMap.getKmerSet(kmerLength).add(kmer);
+        }
+        BlockedBloomFilter filter = kmerSetsMap.getBloomFilter(kmerLength);
+        if (added && filter != null) {
+            filter.add(BlockedBloomFilter.hash(kmer.getBytes()));
+        }
+    }
 }
@@ -17,7 +17,9 @@ package kmermatch;
 
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import shared.BlockedBloomFilter;
 import shared.Reporter;
 
 /**
@@ -27,11 +29,19 @@ import shared.Reporter;
 public class KmerSetsMap {
 
     private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Kmer>> kmersSetsMap;
+    private final ConcurrentHashMap<Integer, EncodedKmerSet> encodedKmerSetsMap;
+    private final ConcurrentHashMap<Integer, BlockedBloomFilter> bloomFiltersMap;
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<Kmer, Long>> kmerMasksMap;
+    private long bloomFilterBytes = 0;
+    private boolean referenceMasks = false;
     private final ArrayList<Integer> kSizes;
     private final String TOOL_NAME;    
     
     public KmerSetsMap(String TOOL_NAME) {
         this.kmersSetsMap = new ConcurrentHashMap<>();
+        this.encodedKmerSetsMap = new ConcurrentHashMap<>();
+        this.bloomFiltersMap = new ConcurrentHashMap<>();
+        this.kmerMasksMap = new ConcurrentHashMap<>();
         this.kSizes = new ArrayList<>();
         this.TOOL_NAME = TOOL_NAME;
     }
@@ -54,6 +64,106 @@ public class KmerSetsMap {
         return set;
     }
     
+    public ConcurrentHashMap<Integer, EncodedKmerSet> getEncodedKmerSetsMap() {
+        return encodedKmerSetsMap;
+    }
+
+    /**
+     * Hash set of 2-bit encoded k-mers, used instead of the ConcurrentSkipListSet for k up to 64 
+     * @param k
+     * @return 
+     */
+    public EncodedKmerSet getEncodedKmerSet(int k) {
+        EncodedKmerSet set = encodedKmerSetsMap.get(k);
+        if (set == null) {
+            set = new EncodedKmerSet(k, referenceMasks);
+            EncodedKmerSet previous = encodedKmerSetsMap.putIfAbsent(k, set);
+            if (previous == null) {
+                addKValue(k);
+            } else { //another thread just beat us to putting this one in
+                return previous;
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Map of k-mers to bitmasks of references they come from, used instead of
+     * the ConcurrentSkipListSet when binning reads against several references
+     *
+     * @param k
+     * @return
+     */
+    public ConcurrentSkipListMap<Kmer, Long> getKmerMasks(int k) {
+        ConcurrentSkipListMap<Kmer, Long> masks = kmerMasksMap.get(k);
+        if (masks == null) {
+            masks = new ConcurrentSkipListMap<>();
+            ConcurrentSkipListMap<Kmer, Long> previous = kmerMasksMap.putIfAbsent(k, masks);
+            if (previous == null) {
+                addKValue(k);
+            } else { //another thread just beat us to putting this one in
+                return previous;
+            }
+        }
+        return masks;
+    }
+
+    public ConcurrentHashMap<Integer, ConcurrentSkipListMap<Kmer, Long>> getKmerMasksMap() {
+        return kmerMasksMap;
+    }
+
+    /**
+     * Keep a bitmask of references with each k-mer, to be set before
+     * populating, see KmerSetPopulatorConsumer
+     *
+     * @param referenceMasks
+     */
+    public void setReferenceMasks(boolean referenceMasks) {
+        this.referenceMasks = referenceMasks;
+    }
+
+    /**
+     * Put a BlockedBloomFilter in front of each k-mer set, to be set before
+     * populating
+     *
+     * @param bytes per k value, 0 for no filters
+     */
+    public void setBloomFilterBytes(long bytes) {
+        this.bloomFilterBytes = bytes;
+    }
+
+    /**
+     * Filter holding all k-mers added to the k-mer set, see
+     * setBloomFilterBytes()
+     *
+     * @param k
+     * @return null if filters are not used
+     */
+    public BlockedBloomFilter getBloomFilter(int k) {
+        if (bloomFilterBytes == 0) {
+            return null;
+        }
+        BlockedBloomFilter filter = bloomFiltersMap.get(k);
+        if (filter == null) {
+            filter = new BlockedBloomFilter(bloomFilterBytes);
+            BlockedBloomFilter previous = bloomFiltersMap.putIfAbsent(k, filter);
+            if (previous != null) { //another thread just beat us to putting this one in
+                return previous;
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * 
+     * @param k
+     * @param storeASCII
+     * @return true if k-mers of this length are to be stored in an EncodedKmerSet
+     */
+    public static boolean isEncodable(int k, boolean storeASCII) {
+        return !storeASCII && k <= 64;
+    }
+
         private synchronized void addKValue(int k) {
         if (!kSizes.contains(k)) { //might have been added by input reader, 
             Reporter.report("[INFO]", "Initiating set for previously unseen k-mers, k=" + k, TOOL_NAME);
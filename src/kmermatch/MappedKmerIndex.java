@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable on-disk set of 2-bit encoded canonical k-mers (k up to 64), built
+ * once with 'kmatch index' and memory-mapped read-only by subsequent runs, so
+ * that loading takes constant time and the pages are shared (via the page
+ * cache) between concurrent runs on the same node.
+ *
+ * Layout, all big-endian longs: header (magic, version, k, longs per k-mer,
+ * bucket bits, number of k-mers and two reserved), bucket offsets table
+ * (2^bucket bits + 1 entries) and the k-mers grouped by bucket, sorted within
+ * each bucket. The bucket is given by the top bits of the same hash as used
+ * by EncodedKmerSet and there are about KEYS_PER_BUCKET k-mers in a bucket, so
+ * that a lookup is two random reads: the offsets and a short scan of the
+ * bucket.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class MappedKmerIndex implements EncodedKmerLookup {
+
+    private static final long MAGIC = 0x59414b41544b4d49L; //"YAKATKMI"
+    private static final int VERSION = 1;
+    private static final int HEADER_LONGS = 8;
+    private static final int KEYS_PER_BUCKET = 4;
+    private static final int CHUNK_BITS = 27; //1 GB PER MAPPING, WHICH MUST NOT EXCEED 2 GB
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private final int k;
+    private final int words;
+    private final int bucketBits;
+    private final long size;
+    private final long keysStart;
+    private final LongBuffer[] chunks;
+
+    /**
+     * Map an index written by write()
+     *
+     * @param fileName
+     * @throws IOException if not an index or truncated
+     */
+    public MappedKmerIndex(String fileName) throws IOException {
+        if (!isIndex(fileName)) {
+            throw new IOException("Not a k-mer index: " + fileName);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            chunks = map(file.getChannel(), FileChannel.MapMode.READ_ONLY, file.length() / 8, null);
+        }
+        int version = (int) get(1);
+        if (version != VERSION) {
+            throw new IOException("Unsupported k-mer index version " + version + " in " + fileName);
+        }
+        k = (int) get(2);
+        words = (int) get(3);
+        bucketBits = (int) get(4);
+        size = get(5);
+        keysStart = HEADER_LONGS + (1L << bucketBits) + 1;
+        if (keysStart + size * words != new File(fileName).length() / 8) {
+            throw new IOException("Truncated or corrupted k-mer index: " + fileName);
+        }
+    }
+
+    /**
+     *
+     * @param fileName
+     * @return true if fileName is a regular file starting with the index magic
+     * number, stdin or other streams are not touched
+     */
+    public static boolean isIndex(String fileName) {
+        File file = new File(fileName);
+        if (!file.isFile() || file.length() < HEADER_LONGS * 8) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readLong() == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Write k-mers to a new index, mapped read-write while building, so that
+     * apart from the k-mer set no memory is needed
+     *
+     * @param kmers not to be modified while writing
+     * @param k up to 64
+     * @param fileName
+     * @throws IOException
+     */
+    public static void write(EncodedKmerLookup kmers, int k, String fileName) throws IOException {
+        int words = kmers.getWords();
+        long size = kmers.size();
+        int bucketBits = 0;
+        while ((size >>> bucketBits) > KEYS_PER_BUCKET) {
+            bucketBits++;
+        }
+        long buckets = 1L << bucketBits;
+        long offsets = HEADER_LONGS;
+        long keysStart = offsets + buckets + 1;
+        long totalLongs = keysStart + size * words;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+            file.setLength(0); //ZERO-FILLED
+            file.setLength(totalLongs * 8);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((totalLongs + CHUNK_MASK) >>> CHUNK_BITS)];
+            LongBuffer[] chunks = map(file.getChannel(), FileChannel.MapMode.READ_WRITE, totalLongs, mapped);
+            long header[] = {MAGIC, VERSION, k, words, bucketBits, size, 0, 0};
+            for (int i = 0; i < header.length; i++) {
+                put(chunks, i, header[i]);
+            }
+            //COUNT K-MERS PER BUCKET
+            Iterator<long[]> it = kmers.iterator();
+            while (it.hasNext()) {
+                long b = offsets + getBucket(it.next(), words, bucketBits);
+                put(chunks, b, get(chunks, b) + 1);
+            }
+            //COUNTS TO BUCKET START POSITIONS
+            long start = 0;
+            for (long b = offsets; b < offsets + buckets; b++) {
+                long count = get(chunks, b);
+                put(chunks, b, start);
+                start += count;
+            }
+            if (start != size) {
+                throw new IOException("K-mer set size changed while writing index, expected " + size + " written " + start);
+            }
+            //PLACE K-MERS, EACH BUCKET START IS ADVANCED TO THE START OF THE NEXT ONE
+            it = kmers.iterator();
+            while (it.hasNext()) {
+                long[] kmer = it.next();
+                long b = offsets + getBucket(kmer, words, bucketBits);
+                long position = get(chunks, b);
+                put(chunks, b, position + 1);
+                for (int w = 0; w < words; w++) {
+                    put(chunks, keysStart + position * words + w, kmer[w]);
+                }
+            }
+            for (long b = offsets + buckets; b > offsets; b--) {
+                put(chunks, b, get(chunks, b - 1));
+            }
+            put(chunks, offsets, 0);
+            //SORT WITHIN BUCKETS, SO THAT THE FILE DOES NOT DEPEND ON THE ORDER IN WHICH THE SET WAS POPULATED
+            for (long b = offsets; b < offsets + buckets; b++) {
+                sortBucket(chunks, keysStart, words, get(chunks, b), get(chunks, b + 1));
+            }
+            for (MappedByteBuffer m : mapped) {
+                m.force();
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(long[] kmer) {
+        long bucket = HEADER_LONGS + getBucket(kmer, words, bucketBits);
+        long to = get(bucket + 1);
+        for (long i = get(bucket); i < to; i++) {
+            int cmp = compare(chunks, keysStart + i * words, kmer, words);
+            if (cmp >= 0) {
+                return cmp == 0;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int getWords() {
+        return words;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<long[]> iterator() {
+        return new Iterator<long[]>() {
+            private long i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            public long[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long[] kmer = new long[words];
+                for (int w = 0; w < words; w++) {
+                    kmer[w] = get(keysStart + i * words + w);
+                }
+                i++;
+                return kmer;
+            }
+        };
+    }
+
+    private long get(long index) {
+        return get(chunks, index);
+    }
+
+    private static long getBucket(long[] kmer, int words, int bucketBits) {
+        if (bucketBits == 0) {
+            return 0;
+        }
+        return EncodedKmerSet.hash(words == 1 ? 0 : kmer[0], kmer[words - 1]) >>> (64 - bucketBits);
+    }
+
+    /**
+     * Unsigned comparison of a stored k-mer with the given one, high word
+     * first
+     */
+    private static int compare(LongBuffer[] chunks, long index, long[] kmer, int words) {
+        for (int w = 0; w < words; w++) {
+            int cmp = Long.compareUnsigned(get(chunks, index + w), kmer[w]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Insertion sort, buckets hold only a few k-mers
+     */
+    private static void sortBucket(LongBuffer[] chunks, long keysStart, int words, long from, long to) {
+        long[] kmer = new long[words];
+        for (long i = from + 1; i < to; i++) {
+            for (int w = 0; w < words; w++) {
+                kmer[w] = get(chunks, keysStart + i * words + w);
+            }
+            long j = i;
+            for (; j > from && compare(chunks, keysStart + (j - 1) * words, kmer, words) > 0; j--) {
+                for (int w = 0; w < words; w++) {
+                    put(chunks, keysStart + j * words + w, get(chunks, keysStart + (j - 1) * words + w));
+                }
+            }
+            for (int w = 0; w < words; w++) {
+                put(chunks, keysStart + j * words + w, kmer[w]);
+            }
+        }
+    }
+
+    private static long get(LongBuffer[] chunks, long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+    }
+
+    private static void put(LongBuffer[] chunks, long index, long value) {
+        chunks[(int) (index >>> CHUNK_BITS)].put((int) (index & CHUNK_MASK), value);
+    }
+
+    /**
+     * Map the file in chunks, mappings stay valid once the channel is closed
+     *
+     * @param mapped if not null, filled with the underlying buffers
+     */
+    private static LongBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long totalLongs, MappedByteBuffer[] mapped) throws IOException {
+        LongBuffer[] chunks = new LongBuffer[(int) ((totalLongs + CHUNK_MASK) >>> CHUNK_BITS)];
+        for (int c = 0; c < chunks.length; c++) {
+            long from = (long) c << CHUNK_BITS;
+            long longs = Math.min(1L << CHUNK_BITS, totalLongs - from);
+            MappedByteBuffer buffer = channel.map(mode, from * 8, longs * 8);
+            if (mapped != null) {
+                mapped[c] = buffer;
+            }
+            chunks[c] = buffer.asLongBuffer();
+        }
+        return chunks;
+    }
+}
@@ -21,8 +21,10 @@ import fastqmatchid.FastqMatchId;
 import freqmers.FreqMers;
 import gbssplit.SplitGBS;
 import hmmerdoms.HmmerDomains;
+import java.util.Arrays;
 import kexpression.KeXpression;
 import kextender.KmerExtender;
+import kmermatch.KmerIndexBuilder;
 import kmermatch.KmerMatch;
 import kmerloc.KmerLocator;
 import processpileup.ProcessPileup;
@@ -48,6 +50,8 @@ public class Yakat {
             new KmerExtender(args, name, "kextend");
 //        } else if (args.length != 0 && args[0].matches("test(k)?extend(er)?")) {
 //            new CoreCoder(args, name, "testkextender");
+        } else if (args.length > 1 && args[0].matches("(k)?match(er)?") && args[1].equals("index")) {
+            new KmerIndexBuilder(Arrays.copyOfRange(args, 1, args.length), name, "kmatch index");
         } else if (args.length != 0 && args[0].matches("(k)?match(er)?")) {
             args[0] = "";
             new KmerMatch(args, name, "kmatch");
@@ -107,6 +111,7 @@ public class Yakat {
         System.out.println("                  report k-mer coverage and frequency for the input sequences");
         System.out.println("  kextend       : extend k-mers to unambiguous contigs or extend input \"seed\" sequences only");
         System.out.println("  kmatch        : match/filter/bait FAST(A|Q) sequences based on contained k-mers (or lack thereof)");
+        System.out.println("  kmatch index  : prebuild a memory-mapped k-mer index for kmatch and kmerloc");
         System.out.println("  kmerloc       : [PROTOTYPE] report locations of k-mers within a (indexed) FASTA");
         System.out.println("  seedmers      : [PROTOTYPE] given seed seequences interrogare sets of k-mers");
         System.out.println("                  to genotype presumed mutations at positions k bases from the seed edges");
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF: gzip made of independent blocks of up to 64 KB, readable by
+ * any gzip reader (and by ParallelGzipInputStream in parallel). Blocks are
+ * deflated on a compressor pool which can be shared between many streams,
+ * the writing thread only copies data in and writes compressed blocks out, in
+ * order.
+ *
+ * Not thread safe, one writing thread per stream.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    private static final int MAX_INPUT_SIZE = 0xff00; //SO THAT EVEN INCOMPRESSIBLE INPUT FITS IN A BLOCK
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final int MAX_PENDING = 4; //BLOCKS BEING COMPRESSED PER STREAM
+    private static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+        0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    private final OutputStream out;
+    private final ExecutorService compressors;
+    private final int level;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>(MAX_PENDING);
+    private final ArrayDeque<byte[]> pendingInputs = new ArrayDeque<>(MAX_PENDING);
+    private final ArrayDeque<byte[]> spareInputs = new ArrayDeque<>(MAX_PENDING);
+    private byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    /**
+     *
+     * @param out
+     * @param compressors pool deflating the blocks, not shut down by this
+     * stream
+     * @param level 0-9
+     */
+    public BgzfOutputStream(OutputStream out, ExecutorService compressors, int level) {
+        this.out = out;
+        this.compressors = compressors;
+        this.level = level;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (buffer == null) {
+            buffer = new byte[MAX_INPUT_SIZE];
+        }
+        buffer[count++] = (byte) b;
+        if (count == MAX_INPUT_SIZE) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = new byte[MAX_INPUT_SIZE];
+            }
+            int n = Math.min(len, MAX_INPUT_SIZE - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == MAX_INPUT_SIZE) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Ends the current block and waits for all pending blocks to be written
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        submitBlock();
+        while (!pending.isEmpty()) {
+            writeOldest();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            out.write(EOF_BLOCK);
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (pending.size() >= MAX_PENDING) {
+            writeOldest();
+        }
+        final byte[] input = buffer;
+        final int length = count;
+        pending.add(compressors.submit(() -> compressBlock(input, length, level)));
+        pendingInputs.add(input);
+        buffer = spareInputs.poll();
+        count = 0;
+    }
+
+    private void writeOldest() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause().getMessage(), ex.getCause());
+        }
+        spareInputs.add(pendingInputs.poll());
+    }
+
+    /**
+     * Runs on a compressor thread
+     *
+     * @return complete BGZF block
+     */
+    private static byte[] compressBlock(byte[] input, int length, int level) {
+        byte[] block = new byte[MAX_BLOCK_SIZE];
+        Deflater deflater = DEFLATERS.get();
+        int compressedLength = deflate(deflater, level, input, length, block);
+        if (compressedLength < 0) { //DID NOT FIT, STORE INSTEAD
+            compressedLength = deflate(deflater, Deflater.NO_COMPRESSION, input, length, block);
+        }
+        int blockSize = HEADER_SIZE + compressedLength + FOOTER_SIZE;
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 8; //DEFLATE
+        block[3] = 4; //FEXTRA
+        block[9] = (byte) 0xff; //OS UNKNOWN
+        block[10] = 6; //XLEN
+        block[12] = 'B';
+        block[13] = 'C';
+        block[14] = 2; //SLEN
+        putShort(block, 16, blockSize - 1);
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, length);
+        putInt(block, blockSize - 8, (int) crc.getValue());
+        putInt(block, blockSize - 4, length);
+        return Arrays.copyOf(block, blockSize);
+    }
+
+    /**
+     *
+     * @return compressed length or -1 if it would not fit in a block
+     */
+    private static int deflate(Deflater deflater, int level, byte[] input, int length, byte[] block) {
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int capacity = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+        int compressedLength = 0;
+        while (!deflater.finished() && compressedLength < capacity) { //A CHANGE OF LEVEL MAY TAKE A CALL OF ITS OWN
+            compressedLength += deflater.deflate(block, HEADER_SIZE + compressedLength, capacity - compressedLength);
+        }
+        return deflater.finished() ? compressedLength : -1;
+    }
+
+    private static void putShort(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+        b[off + 2] = (byte) (value >>> 16);
+        b[off + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Split block Bloom filter: a key maps to a single cache-line sized block of
+ * 8 longs and sets one bit in each of them, so that a lookup costs one memory
+ * access instead of one per probe. No false negatives, so it can be put in
+ * front of an exact set to reject most absent keys cheaply.
+ *
+ * Keys are 64-bit hashes, these should be well mixed, see hash(). Adding is
+ * thread safe, lookups are meant to follow once adding is done.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class BlockedBloomFilter {
+
+    private static final int BLOCK_WORDS = 8; //64 BYTES
+    private static final long SALT = 0x9E3779B97F4A7C15L;
+
+    private final AtomicLongArray words;
+    private final long blocks;
+
+    /**
+     *
+     * @param bytes memory to be used, at least 64
+     */
+    public BlockedBloomFilter(long bytes) {
+        long maxBlocks = (Integer.MAX_VALUE - 8) / BLOCK_WORDS;
+        blocks = Math.min(maxBlocks, Math.max(1, bytes / (BLOCK_WORDS * 8)));
+        words = new AtomicLongArray((int) blocks * BLOCK_WORDS);
+    }
+
+    public void add(long hash) {
+        int offset = getOffset(hash);
+        long bits = hash * SALT; //6 BITS PER WORD, TAKEN FROM THE TOP
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            long mask = 1L << (bits >>> (58 - 6 * i)); //SHIFT DISTANCE TAKEN MOD 64
+            int index = offset + i;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) { //ALREADY SET (SHARED BIT OR ANOTHER THREAD)
+                    break;
+                }
+            } while (!words.compareAndSet(index, word, word | mask));
+        }
+    }
+
+    /**
+     *
+     * @param hash
+     * @return false if the key has definitely not been added, true if it
+     * (most likely) has
+     */
+    public boolean mightContain(long hash) {
+        int offset = getOffset(hash);
+        long bits = hash * SALT;
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            if ((words.get(offset + i) & (1L << (bits >>> (58 - 6 * i)))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getSizeBytes() {
+        return (long) words.length() * 8;
+    }
+
+    /**
+     * Block chosen by the top 32 bits of the hash, by multiplication rather
+     * than modulo
+     */
+    private int getOffset(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    /**
+     *
+     * @param words e.g. a 2-bit encoded k-mer
+     * @return
+     */
+    public static long hash(long[] words) {
+        return CountingBloomFilter.hash(words);
+    }
+
+    /**
+     *
+     * @param bytes e.g. an encoded k-mer, see kmermatch.Kmer
+     * @return
+     */
+    public static long hash(byte[] bytes) {
+        long h = SALT;
+        long word = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            word = word << 8 | (bytes[i] & 0xFF);
+            if ((i & 7) == 7) {
+                h = CountingBloomFilter.mix(h ^ word);
+                word = 0;
+            }
+        }
+        return CountingBloomFilter.mix(h ^ word ^ bytes.length);
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import shared.InputReaderProducer.InFormat;
+
+/**
+ * Alternative to InputReaderProducer for modules processing FASTA/FASTQ
+ * records: input is read in large chunks and copied into RecordBatch objects
+ * without decoding it into Strings. Consumers are expected to hand each
+ * non-empty batch back to the pool once done with it, so that after the first
+ * few batches reading does not allocate.
+ *
+ * Supports one record per line input (any of the FAST[A|Q] one-line formats),
+ * FASTQ (4 lines per record) and FASTA (sequence may be wrapped). Empty lines
+ * are skipped. End of input is signalled by an empty batch. Batches are
+ * numbered in input order, see RecordBatch.getSequenceNumber().
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class ByteRecordReaderProducer implements Runnable {
+
+    private enum Layout {
+        LINES, FASTQ, FASTA;
+    }
+
+    private final BlockingQueue<RecordBatch> queue;
+    private final BlockingQueue<RecordBatch> pool;
+    private final int MAX_BATCHES;
+    private final ArrayList<String> inputFiles;
+    private final int RECORDS_PER_BATCH;
+    private final int MAX_BATCH_BYTES = 1 << 24; //PUT ON QUEUE ONCE THAT MUCH DATA IN A BATCH, EVEN IF FEWER RECORDS
+    private final int READ_CHUNK_SIZE = 1 << 20;
+    private final int NUM_TEST_LINES = 8;
+    private final String TOOL_NAME;
+    private volatile InFormat guessedInFormat;
+
+    //PARSER STATE
+    private RecordBatch batch;
+    private int batchesCreated;
+    private long batchesPut;
+    private Layout layout;
+    private boolean inLine; //current line started but its end not reached yet
+    private int lineInRecord; //FASTQ only
+    private boolean recordOpen; //FASTA only
+    private boolean inHeader; //FASTA only
+    private long recordCount;
+    private long reportThreshold;
+
+    /**
+     *
+     * @param queue batches of records are put on this queue
+     * @param pool consumers return processed batches to this pool
+     * @param maxBatches maximum number of batches in circulation
+     * @param inputFiles if null or empty, read from stdin
+     * @param RECORDS_PER_BATCH
+     * @param toolName
+     */
+    public ByteRecordReaderProducer(BlockingQueue<RecordBatch> queue, BlockingQueue<RecordBatch> pool, int maxBatches,
+            ArrayList<String> inputFiles, int RECORDS_PER_BATCH, String toolName) {
+        this.queue = queue;
+        this.pool = pool;
+        this.MAX_BATCHES = maxBatches;
+        this.inputFiles = inputFiles == null ? new ArrayList<>() : inputFiles;
+        this.RECORDS_PER_BATCH = RECORDS_PER_BATCH;
+        this.TOOL_NAME = toolName;
+    }
+
+    @Override
+    public void run() {
+        InputStream in = null;
+        try {
+            if (inputFiles.isEmpty()) { //READSTDIN
+                inputFiles.add("-");
+            }
+            byte[] chunk = new byte[READ_CHUNK_SIZE];
+            batch = nextBatch();
+            for (String inputFile : inputFiles) {
+                if (inputFile.equals("-")) {
+                    in = System.in;
+                } else if (inputFile.endsWith(".gz")) {
+                    in = new ParallelGzipInputStream(new FileInputStream(inputFile));
+                } else {
+                    in = new FileInputStream(inputFile);
+                }
+                int length = fill(in, chunk);
+                for (int i = 0; i < Math.min(length, 65535); i++) {
+                    if (chunk[i] == '\r') {
+                        Reporter.report("[FATAL]", "Non-UNIX line ending char detected (\\r), terminating...", TOOL_NAME);
+                        queue.put(RecordBatch.emptyBatch()); //OTHERWISE CONSUMER THREADS WILL KEEP GOING
+                        System.exit(1);
+                    }
+                }
+                guessedInFormat = InputReaderProducer.guessInputFormat(getTestLines(chunk, length));
+                Reporter.report("[INFO]", "Input format guessed: " + guessedInFormat.toString(), TOOL_NAME);
+                if (guessedInFormat == InFormat.EMPTY) {
+                    Reporter.report("[FATAL]", "Empty input file/stream...", TOOL_NAME);
+                    queue.put(RecordBatch.emptyBatch());
+                    System.exit(1);
+                }
+                if (guessedInFormat == InFormat.UNSUPPORTED_OR_UNRECOGNIZED) {
+                    Reporter.report("[FATAL]", "Unrecognized or unsupported input, terminating...", TOOL_NAME);
+                    queue.put(RecordBatch.emptyBatch());
+                    System.exit(1);
+                }
+                if (guessedInFormat == InFormat.FASTQ) {
+                    layout = Layout.FASTQ;
+                } else if (guessedInFormat == InFormat.FASTA) {
+                    layout = Layout.FASTA;
+                } else {
+                    layout = Layout.LINES;
+                }
+                recordCount = 0;
+                reportThreshold = (long) RECORDS_PER_BATCH;
+                while (length > 0) {
+                    parse(chunk, length);
+                    length = in.read(chunk);
+                }
+                endOfInput();
+                Reporter.report("[INFO]", NumberFormat.getNumberInstance().format(recordCount) + " " + guessedInFormat.toString() + " read-in", TOOL_NAME);
+                if (in != System.in) {
+                    in.close();
+                }
+                in = null;
+            }
+            if (!batch.isEmpty()) {
+                putBatch();
+            }
+            queue.put(RecordBatch.emptyBatch()); //TELLS CONSUMERS, NO MORE DATA
+        } catch (OutOfMemoryError err) {
+            Reporter.report("[ERROR]", "Out of memory error!", TOOL_NAME);
+            try {
+                queue.put(RecordBatch.emptyBatch());
+            } catch (InterruptedException ex) {
+                System.err.println(ex.getMessage());
+            }
+        } catch (InterruptedException ex) {
+            System.err.println(ex.getMessage());
+        } catch (FileNotFoundException ex) {
+            Reporter.report("[ERROR]", "File not found exception: " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
+        } catch (IOException ex) {
+            Reporter.report("[ERROR]", "Failed reading input: " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
+        } finally {
+            try {
+                if (in != null && in != System.in) {
+                    in.close();
+                }
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }
+    }
+
+    public InFormat getGuessedInputFormat() {
+        return guessedInFormat;
+    }
+
+    /**
+     * Read until chunk is full or end of input reached
+     *
+     * @return number of bytes read
+     */
+    private int fill(InputStream in, byte[] chunk) throws IOException {
+        int length = 0;
+        int read;
+        while (length < chunk.length && (read = in.read(chunk, length, chunk.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    /**
+     * Same lines InputReaderProducer would use for guessing the input format
+     */
+    private ArrayList<String> getTestLines(byte[] chunk, int length) {
+        ArrayList<String> testLines = new ArrayList<>(NUM_TEST_LINES);
+        int from = 0;
+        for (int i = 0; i < NUM_TEST_LINES && from < length; i++) {
+            int to = from;
+            while (to < length && chunk[to] != '\n') {
+                to++;
+            }
+            String line = new String(chunk, from, to - from, StandardCharsets.US_ASCII).trim();
+            if (!line.isEmpty()) {
+                testLines.add(line);
+            }
+            from = to + 1;
+        }
+        return testLines;
+    }
+
+    private RecordBatch nextBatch() throws InterruptedException {
+        RecordBatch next = pool.poll();
+        if (next == null) {
+            if (batchesCreated < MAX_BATCHES) {
+                batchesCreated++;
+                next = new RecordBatch(RECORDS_PER_BATCH, RECORDS_PER_BATCH * 256);
+            } else {
+                next = pool.take();
+            }
+        }
+        next.clear();
+        return next;
+    }
+
+    private void putBatch() throws InterruptedException {
+        batch.setSequenceNumber(batchesPut++);
+        queue.put(batch);
+    }
+
+    private void parse(byte[] chunk, int length) throws InterruptedException {
+        int pos = 0;
+        while (pos < length) {
+            if (!inLine) {
+                if (chunk[pos] == '\n') { //SKIP EMPTY LINE
+                    pos++;
+                    continue;
+                }
+                startLine(chunk[pos]);
+                inLine = true;
+            }
+            int i = pos;
+            if (layout == Layout.LINES) {
+                for (; i < length && chunk[i] != '\n'; i++) {
+                    if (chunk[i] == '\t') {
+                        batch.append(chunk, pos, i);
+                        batch.endField();
+                        batch.append((byte) '\t');
+                        batch.startField();
+                        pos = i + 1;
+                    }
+                }
+            } else {
+                while (i < length && chunk[i] != '\n') {
+                    i++;
+                }
+            }
+            batch.append(chunk, pos, i);
+            if (i < length) {
+                endLine();
+                inLine = false;
+            }
+            pos = i + 1;
+        }
+    }
+
+    private void startLine(byte firstByte) throws InterruptedException {
+        switch (layout) {
+            case LINES:
+                batch.startRecord();
+                batch.startField();
+                break;
+            case FASTQ:
+                if (lineInRecord == 0) {
+                    batch.startRecord();
+                } else {
+                    batch.append((byte) '\n');
+                }
+                batch.startField();
+                break;
+            case FASTA:
+                if (firstByte == '>') {
+                    if (recordOpen) {
+                        batch.endField();
+                        batch.endRecord();
+                        recordDone();
+                    }
+                    batch.startRecord();
+                    batch.startField();
+                    recordOpen = true;
+                    inHeader = true;
+                } else if (!recordOpen) { //SEQUENCE WITHOUT A HEADER, KEEP IT AS A RECORD WITH AN EMPTY ID
+                    batch.startRecord();
+                    batch.startField();
+                    batch.endField();
+                    batch.startField();
+                    recordOpen = true;
+                }
+                break;
+        }
+    }
+
+    private void endLine() throws InterruptedException {
+        //CRLF PAST THE CHECKED START OF INPUT, DROP THE CR AS BufferedReader.readLine() WOULD
+        batch.trimTrailing((byte) '\r');
+        switch (layout) {
+            case LINES:
+                batch.endField();
+                batch.endRecord();
+                recordDone();
+                break;
+            case FASTQ:
+                batch.endField();
+                if (++lineInRecord == 4) {
+                    lineInRecord = 0;
+                    batch.endRecord();
+                    recordDone();
+                }
+                break;
+            case FASTA:
+                if (inHeader) {
+                    batch.endField();
+                    batch.append((byte) '\n');
+                    batch.startField();
+                    inHeader = false;
+                }
+                break;
+        }
+    }
+
+    private void endOfInput() throws InterruptedException {
+        if (inLine) { //NO NEWLINE AT THE END OF INPUT
+            endLine();
+            inLine = false;
+        }
+        if (layout == Layout.FASTQ && lineInRecord != 0) {
+            Reporter.report("[WARNING]", "Incomplete FASTQ record at the end of input ignored", TOOL_NAME);
+            batch.dropRecord();
+            lineInRecord = 0;
+        }
+        if (layout == Layout.FASTA && recordOpen) {
+            batch.endField();
+            batch.endRecord();
+            recordDone();
+            recordOpen = false;
+        }
+    }
+
+    private void recordDone() throws InterruptedException {
+        recordCount++;
+        if (batch.size() >= RECORDS_PER_BATCH || batch.getDataLength() >= MAX_BATCH_BYTES) {
+            putBatch();
+            batch = nextBatch();
+        }
+        if (recordCount % reportThreshold == 0) {
+            if (reportThreshold < 1e8) {
+                reportThreshold <<= 1; // *= 2
+            }
+            Reporter.report("[INFO]", NumberFormat.getNumberInstance().format(recordCount) + " " + guessedInFormat.toString() + " read-in so far", TOOL_NAME);
+        }
+    }
+}
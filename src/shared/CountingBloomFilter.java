@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter with 2-bit saturating counters instead of bits, so that it can
+ * tell apart keys (most likely) not seen before, seen once and seen more than
+ * once. Counters are updated with CAS, conservatively (only the smallest of a
+ * key's counters are incremented), which keeps over-counting down.
+ *
+ * Keys are 64-bit hashes, these should be well mixed, see mix().
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class CountingBloomFilter {
+
+    private static final int HASHES = 3;
+    private static final int COUNTER_BITS = 2;
+    private static final int COUNTERS_PER_WORD = 64 / COUNTER_BITS;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+
+    private final AtomicLongArray words;
+    private final long counters;
+    private final LongAdder firstSightings = new LongAdder();
+
+    /**
+     *
+     * @param bytes memory to be used, at least 8
+     */
+    public CountingBloomFilter(long bytes) {
+        int length = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, bytes / 8));
+        words = new AtomicLongArray(length);
+        counters = (long) length * COUNTERS_PER_WORD;
+    }
+
+    /**
+     * Record another sighting of a key. Concurrent sightings of the same key
+     * get distinct results: each increment of the key's count is claimed with
+     * a CAS on its first smallest counter, which is updated last, and a thread
+     * losing that CAS counts again.
+     *
+     * @param hash
+     * @return number of times the key was seen before, saturating at 3, may be
+     * an overestimate (false positives) but never an underestimate
+     */
+    public int add(long hash) {
+        long h2 = (hash >>> 32) | 1L; //ODD, SO THAT PROBES DO NOT COLLAPSE
+        while (true) {
+            int seen = (int) COUNTER_MASK;
+            long claim = -1;
+            for (int i = 0; i < HASHES; i++) {
+                long index = index(hash, h2, i);
+                int value = get(index);
+                if (value < seen) {
+                    seen = value;
+                    claim = index;
+                }
+            }
+            if (seen == COUNTER_MASK) {
+                return seen;
+            }
+            for (int i = 0; i < HASHES; i++) {
+                long index = index(hash, h2, i);
+                if (index != claim) {
+                    incrementIfAt(index, seen);
+                }
+            }
+            if (incrementIfAt(claim, seen)) {
+                if (seen == 0) {
+                    firstSightings.increment();
+                }
+                return seen;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return number of add() calls for keys not seen before
+     */
+    public long getFirstSightings() {
+        return firstSightings.sum();
+    }
+
+    public long getSizeBytes() {
+        return (long) words.length() * 8;
+    }
+
+    private long index(long h1, long h2, int i) {
+        return ((h1 + i * h2) & Long.MAX_VALUE) % counters;
+    }
+
+    private int get(long index) {
+        long word = words.get((int) (index / COUNTERS_PER_WORD));
+        return (int) ((word >>> ((index % COUNTERS_PER_WORD) * COUNTER_BITS)) & COUNTER_MASK);
+    }
+
+    /**
+     *
+     * @return false if the counter was no longer at value
+     */
+    private boolean incrementIfAt(long index, int value) {
+        int offset = (int) (index / COUNTERS_PER_WORD);
+        int shift = (int) (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+        long word;
+        do {
+            word = words.get(offset);
+            if (((word >>> shift) & COUNTER_MASK) != value) { //ALREADY INCREMENTED (SHARED COUNTER OR ANOTHER THREAD)
+                return false;
+            }
+        } while (!words.compareAndSet(offset, word, word + (1L << shift)));
+        return true;
+    }
+
+    /**
+     * 64-bit finalizer from MurmurHash3
+     *
+     * @param h
+     * @return
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     *
+     * @param words e.g. an encoded k-mer core
+     * @return
+     */
+    public static long hash(long[] words) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (long word : words) {
+            h = mix(h ^ word);
+        }
+        return h;
+    }
+}
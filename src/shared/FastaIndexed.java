@@ -20,12 +20,25 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Objects;
 
 /**
+ * Region access to a FASTA file with a .fai index. The file is memory-mapped
+ * once, in chunks of up to 1 GB so that files over 2 GB are supported, and
+ * stays mapped for the lifetime of the object, so extracting a region is a
+ * lookup and a bulk copy per (wrapped) line rather than a file open, seek and
+ * reads.
+ *
+ * Thread-safe once constructed, any number of threads can extract regions
+ * concurrently.
  *
  * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
  */
@@ -37,13 +50,30 @@ public class FastaIndexed {
     //OFFSET	Offset within the FASTA file of this sequence's first base
     //LINEBASES	The number of bases on each line
     //LINEWIDTH	The number of bytes in each line, including the newline            
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final int CHUNK_MASK = (int) CHUNK_SIZE - 1;
+
     private String TOOL_NAME;
     private String fastaFile;
-    private HashMap<String, Integer> lengthsMap = new HashMap<>();
-    private HashMap<String, Long> offsetsMap = new HashMap<>();
-    private HashMap<String, Integer> lineBasesMap = new HashMap<>();
-    private HashMap<String, Integer> lineWidthsMap = new HashMap<>();
+    private HashMap<String, IndexEntry> indexMap = new HashMap<>();
     private ArrayList<String> ids;
+    private final MappedByteBuffer[] chunks;
+
+    private static class IndexEntry {
+
+        private final int length;
+        private final long offset;
+        private final int lineBases;
+        private final int lineWidth;
+
+        IndexEntry(int length, long offset, int lineBases, int lineWidth) {
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+    }
 
     public FastaIndexed(String TOOL_NAME, String fastaF, String fai) {
         this.ids = new ArrayList<>();
@@ -54,6 +84,7 @@ public class FastaIndexed {
         } else {
             readIndex(fai);
         }
+        chunks = map(fastaFile);
     }
 
     private void readIndex(String fai) {
@@ -64,10 +95,8 @@ public class FastaIndexed {
             while ((line = index.readLine()) != null && !line.isEmpty()) {
                 String[] toks = line.split("\t");
                 ids.add(toks[0]);
-                lengthsMap.put(toks[0], Integer.parseInt(toks[1]));
-                offsetsMap.put(toks[0], Long.parseLong(toks[2]));
-                lineBasesMap.put(toks[0], Integer.parseInt(toks[3]));
-                lineWidthsMap.put(toks[0], Integer.parseInt(toks[4]));
+                indexMap.put(toks[0], new IndexEntry(Integer.parseInt(toks[1]), Long.parseLong(toks[2]), Integer.parseInt(toks[3]),
+                        Integer.parseInt(toks[4])));
             }
         } catch (FileNotFoundException ex) {
             Reporter.report("[ERROR]", "File not found exception: " + ex.getMessage(), TOOL_NAME);
@@ -86,6 +115,28 @@ public class FastaIndexed {
         }
     }
 
+    /**
+     * Mapping remains valid after the channel is closed
+     */
+    private MappedByteBuffer[] map(String fastaFile) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fastaFile), StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < mapped.length; i++) {
+                long chunkStart = (long) i << CHUNK_BITS;
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(CHUNK_SIZE, size - chunkStart));
+            }
+            return mapped;
+        } catch (NoSuchFileException ex) {
+            Reporter.report("[ERROR]", "File not found exception: " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
+        } catch (IOException ex) {
+            Reporter.report("[ERROR]", "Failed mapping " + fastaFile + ": " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
+        }
+        return null;
+    }
+
     public ArrayList<String> getIds() {
         return ids;
     }
@@ -98,60 +149,50 @@ public class FastaIndexed {
      * Extract
      *
      * @param id
-     * @param from
-     * @param to
+     * @param from 1-based, inclusive, null for the start of the sequence
+     * @param to 1-based, inclusive, null for the end of the sequence
      * @return
      */
     public String getSequence(String id, Integer from, Integer to) {
-        RandomAccessFile file = null;
-        byte[] buff = null;
-        try {
-            file = new RandomAccessFile(fastaFile, "r");
-            Long start = offsetsMap.get(id);
-            if (start == null) {
-                Reporter.report("[ERROR]", id + " <- identifier  not found in .fai index for: " + fastaFile, TOOL_NAME);
-                System.exit(1);
-            }
-            if (from != null) {
-                start += from - 1;
-            }
-            file.seek(start);
-
-            int len = lengthsMap.get(id);
-            if(to != null && to < len) {
-              len = to - from + 1;
-            }
-            buff = new byte[len];
+        return new String(getSequenceBytes(id, from, to), StandardCharsets.ISO_8859_1);
+    }
 
-            int lineWidth = lineWidthsMap.get(id);
-            if (lineWidth < len) { //Wrapped FASTA                
-                int lineBases = lineBasesMap.get(id);
-                int wrapBytes = lineWidth - lineBases; //1 or 2 depending if linux or windows line endings
-                int lines = len / lineBases;
-                int offset = 0; //start writing buffer array from this position
-                for (int i = 0; i < lines; i++) {
-                    offset += file.read(buff, offset, lineBases);
-                    file.skipBytes(wrapBytes);
-                }
-                file.read(buff, offset, buff.length - offset);  //add last line which should fill the reminder of the buffer 
-            } else {  //Unwrapped FASTA                                    
-                file.read(buff);
-            }
-        } catch (FileNotFoundException ex) {
-            Reporter.report("[ERROR]", "File not found exception: " + ex.getMessage(), TOOL_NAME);
+    /**
+     * Extract the bases of a region, without line breaks
+     *
+     * @param id
+     * @param from 1-based, inclusive, null for the start of the sequence
+     * @param to 1-based, inclusive, null for the end of the sequence
+     * @return
+     */
+    public byte[] getSequenceBytes(String id, Integer from, Integer to) {
+        IndexEntry entry = indexMap.get(id);
+        if (entry == null) {
+            Reporter.report("[ERROR]", id + " <- identifier  not found in .fai index for: " + fastaFile, TOOL_NAME);
             System.exit(1);
-        } catch (IOException ex) {
-            System.err.println(ex.getMessage());
-        } finally {
-            try {
-                if (file != null) {
-                    file.close();
-                }
-            } catch (IOException ex) {
-                System.err.println(ex.getMessage());
+        }
+        int first = from == null ? 0 : Math.max(0, from - 1); //0-BASED
+        int end = to == null ? entry.length : Math.min(to, entry.length); //EXCLUSIVE
+        byte[] buff = new byte[Math.max(0, end - first)];
+        ByteBuffer view = null; //OWN POSITION, SO NO NEED TO SYNCHRONIZE ON THE SHARED MAPPING
+        int viewChunk = -1;
+        int copied = 0;
+        while (copied < buff.length) {
+            int base = first + copied;
+            int column = base % entry.lineBases;
+            long position = entry.offset + (long) (base / entry.lineBases) * entry.lineWidth + column;
+            int chunk = (int) (position >>> CHUNK_BITS);
+            int inChunk = (int) position & CHUNK_MASK;
+            //REST OF THE LINE, UNLESS IT CROSSES INTO THE NEXT CHUNK
+            int n = Math.min(Math.min(buff.length - copied, entry.lineBases - column), chunks[chunk].capacity() - inChunk);
+            if (chunk != viewChunk) {
+                view = chunks[chunk].duplicate();
+                viewChunk = chunk;
             }
+            view.position(inChunk);
+            view.get(buff, copied, n);
+            copied += n;
         }
-        return buff == null ? "" : new String(buff);
-//        return buff == null ? "" : (Objects.equals(lineBasesMap.get(id), lengthsMap.get(id)) ? new String(buff) : new String(buff).replaceAll("\\r\\n?|\\n", ""));
+        return buff;
     }
 }
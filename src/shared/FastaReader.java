@@ -17,9 +17,11 @@ package shared;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -31,6 +33,8 @@ import java.util.Set;
  */
 public class FastaReader {
 
+    private static final int READER_BUFFER_SIZE = 1 << 16;
+
     /**
      * Reads in a fasta file and generates a HashMap of Sequence objects input
      * fasta sequences can be broken over multiple lines
@@ -44,7 +48,7 @@ public class FastaReader {
         BufferedReader myData = null;
         try {
             String inputLine;
-            myData = new BufferedReader(new FileReader(newFile));
+            myData = openReader(newFile);
             String id = "";
             StringBuilder seqBuilder = new StringBuilder();
             while ((inputLine = myData.readLine()) != null) {
@@ -104,7 +108,7 @@ public class FastaReader {
         BufferedReader myData = null;
         try {
             String inputLine;
-            myData = new BufferedReader(new FileReader(newFile));
+            myData = openReader(newFile);
             String id = "";
             StringBuilder seqBuilder = new StringBuilder();
             while ((inputLine = myData.readLine()) != null) {
@@ -165,7 +169,7 @@ public class FastaReader {
         BufferedReader myData = null;
         try {
             String inputLine;
-            myData = new BufferedReader(new FileReader(newFile));
+            myData = openReader(newFile);
             String id = "";
             StringBuilder seqBuilder = new StringBuilder();
             while ((inputLine = myData.readLine()) != null) {
@@ -220,6 +224,16 @@ public class FastaReader {
         return sequencesMap;
     }
 
+    /**
+     * Gzipped input is recognized by the .gz extension
+     */
+    private static BufferedReader openReader(File file) throws IOException {
+        if (file.getName().endsWith(".gz")) {
+            return new BufferedReader(new InputStreamReader(new ParallelGzipInputStream(new FileInputStream(file)), "UTF-8"), READER_BUFFER_SIZE);
+        }
+        return new BufferedReader(new FileReader(file), READER_BUFFER_SIZE);
+    }
+
     private static String getClassName() {
         return MethodHandles.lookup().lookupClass().toString().replaceFirst("class ", "");
     }
@@ -24,8 +24,8 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.text.NumberFormat;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 
 /**
  *
@@ -45,9 +45,28 @@ public class FileWriterConsumer implements Runnable {
     private final String SE_SUFFIX;
     private final boolean append;
     private final boolean overwrite;
+    private final ExecutorService compressors;
+    private final int COMPRESSION_LEVEL;
 
+    /**
+     *
+     * @param outputQueue
+     * @param TOOL_NAME
+     * @param DIR_NAME
+     * @param FILE_NAME
+     * @param PRODUCER_THREADS
+     * @param R1_SUFFIX
+     * @param R2_SUFFIX
+     * @param SE_SUFFIX
+     * @param overwrite
+     * @param append
+     * @param compressors pool shared by all writers, output blocks are
+     * deflated there rather than on the writer thread
+     * @param COMPRESSION_LEVEL
+     */
     public FileWriterConsumer(BlockingQueue<PerSampleBuffer> outputQueue, String TOOL_NAME, String DIR_NAME, String FILE_NAME,
-        int PRODUCER_THREADS, String R1_SUFFIX, String R2_SUFFIX, String SE_SUFFIX, boolean overwrite, boolean append) {
+        int PRODUCER_THREADS, String R1_SUFFIX, String R2_SUFFIX, String SE_SUFFIX, boolean overwrite, boolean append,
+        ExecutorService compressors, int COMPRESSION_LEVEL) {
         this.outputQueue = outputQueue;
         this.TOOL_NAME = TOOL_NAME;
         this.DIR_NAME = DIR_NAME;
@@ -58,6 +77,8 @@ public class FileWriterConsumer implements Runnable {
         this.SE_SUFFIX = SE_SUFFIX;
         this.append = append;
         this.overwrite = overwrite;
+        this.compressors = compressors;
+        this.COMPRESSION_LEVEL = COMPRESSION_LEVEL;
     }
 
     @Override
@@ -98,7 +119,7 @@ public class FileWriterConsumer implements Runnable {
 
 //                                throw new IOException(file.getName()+" already exists, use --force-overwrite or --append");                                
                             }
-                            writerOrphans = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file, append)), "UTF-8"), BUFFER_SIZE);
+                            writerOrphans = new BufferedWriter(new OutputStreamWriter(new BgzfOutputStream(new FileOutputStream(file, append), compressors, COMPRESSION_LEVEL), "UTF-8"), BUFFER_SIZE);
 //                            System.err.println("Init writer SE "+(++s)+" "+list.getSampleId());                            
 //                            appendSE = true;
                         }
@@ -119,8 +140,8 @@ public class FileWriterConsumer implements Runnable {
                                 System.exit(1);
 //                                throw new IOException(file1.getName()+" already exists, use --force-overwrite or --append");
                             }
-                            writer1 = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file1, append)), "UTF-8"), BUFFER_SIZE);
-                            writer2 = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file2, append)), "UTF-8"), BUFFER_SIZE);
+                            writer1 = new BufferedWriter(new OutputStreamWriter(new BgzfOutputStream(new FileOutputStream(file1, append), compressors, COMPRESSION_LEVEL), "UTF-8"), BUFFER_SIZE);
+                            writer2 = new BufferedWriter(new OutputStreamWriter(new BgzfOutputStream(new FileOutputStream(file2, append), compressors, COMPRESSION_LEVEL), "UTF-8"), BUFFER_SIZE);
 //                            System.err.println("Init writer PE "+(++p)+" "+list.getSampleId());                            
 //                            appendPE = true;
                         }
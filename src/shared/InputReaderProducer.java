@@ -26,7 +26,6 @@ import java.io.InputStreamReader;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.concurrent.BlockingQueue;
-import java.util.zip.GZIPInputStream;
 
 /**
  *
@@ -55,6 +54,8 @@ public class InputReaderProducer implements Runnable {
 //    private String RECORD_NAME = "kmers";
     private boolean useLabelledBuffers; //so far only used for snpmers module
     private int REPORTING_SHIFT = 0;
+    private boolean SEQUENCE_BUFFERS = false;
+    private long buffersPut = 0L;
 
     public enum InFormat {
         KMERS, PER_SAMPLE_KMERS, FASTA_SE_ONE_LINE, FASTA_PE_ONE_LINE, FASTQ_SE_ONE_LINE, FASTQ_PE_ONE_LINE, FASTQ_PE_WITH_INDEX_ONE_LINE, FASTA, FASTQ,
@@ -213,6 +214,16 @@ public class InputReaderProducer implements Runnable {
         TOOL_NAME = toolName;
     }
 
+    /**
+     * Put buffers of records on the queue as SequencedList objects numbered in
+     * input order, so that consumers can restore that order in their output
+     *
+     * @param sequenceBuffers
+     */
+    public void setSequenceBuffers(boolean sequenceBuffers) {
+        this.SEQUENCE_BUFFERS = sequenceBuffers;
+    }
+
     /**
      * Execute InputReaderProducer thread
      */
@@ -230,7 +241,7 @@ public class InputReaderProducer implements Runnable {
                 if (inputFile.equals("-")) { //READSTDIN
                     content = new BufferedReader(new InputStreamReader(System.in, "UTF-8"), READER_BUFFER_SIZE);
                 } else if (inputFile.endsWith(".gz")) {// reading kmers from a compressed file
-                    InputStream gzipStream = new GZIPInputStream(new FileInputStream(inputFile), READER_BUFFER_SIZE);
+                    InputStream gzipStream = new ParallelGzipInputStream(new FileInputStream(inputFile));
                     content = new BufferedReader(new InputStreamReader(gzipStream, "UTF-8"), READER_BUFFER_SIZE);
                 } else {
                     content = new BufferedReader(new FileReader(new File(inputFile)), READER_BUFFER_SIZE);//reading from a text file
@@ -347,7 +358,8 @@ public class InputReaderProducer implements Runnable {
             Reporter.report("[ERROR]", "File not found exception: " + ex.getMessage(), TOOL_NAME);
             System.exit(1);
         } catch (IOException ex) {
-            System.err.println(ex.getMessage());
+            Reporter.report("[ERROR]", "Failed reading input: " + ex.getMessage(), TOOL_NAME);
+            System.exit(1);
         } finally {
             try {
                 if (content != null) {
@@ -361,7 +373,7 @@ public class InputReaderProducer implements Runnable {
 
     private void readLines(BufferedReader content, ArrayList<String> testLines)
             throws InterruptedException, IOException {
-        ArrayList<String> bufferList = new ArrayList<>(KMER_BUFFER_SIZE);
+        ArrayList<String> bufferList = newBuffer(KMER_BUFFER_SIZE);
         bufferList.addAll(testLines);
         long kmerCount = 0L;
         long reportThreshold = (long) KMER_BUFFER_SIZE;
@@ -371,7 +383,7 @@ public class InputReaderProducer implements Runnable {
             if (bufferList.size() == KMER_BUFFER_SIZE) {
                 putOnQueue(bufferList);
                 kmerCount += KMER_BUFFER_SIZE;
-                bufferList = new ArrayList<>();
+                bufferList = newBuffer(KMER_BUFFER_SIZE);
                 if (kmerCount % reportThreshold == 0) {
                     if (reportThreshold < 1e8) {
 //                                    reportThreshold *= 10;
@@ -463,7 +475,7 @@ public class InputReaderProducer implements Runnable {
         long fastqCount = 0L;
         long reportThreshold = (long) FASTQ_BUFFER_SIZE;
         int countFastqLine = 1; //WE ONLY WANT THE NUCL SEQ FROM FASTQ NOT THE OTHER THREE LINES OF EACH RECORD
-        ArrayList<String> bufferList = new ArrayList<>(FASTQ_BUFFER_SIZE);
+        ArrayList<String> bufferList = newBuffer(FASTQ_BUFFER_SIZE);
         for (int i = 1; i < testLines.size(); i += 4) {
             bufferList.add(testLines.get(i));
         }
@@ -473,7 +485,7 @@ public class InputReaderProducer implements Runnable {
                 if (bufferList.size() == FASTQ_BUFFER_SIZE) {
 //                                queue.put(bufferList);
                     putOnQueue(bufferList);
-                    bufferList = new ArrayList<>();
+                    bufferList = newBuffer(FASTQ_BUFFER_SIZE);
                     fastqCount += FASTQ_BUFFER_SIZE;
                     if (fastqCount % reportThreshold == 0) {
                         if (reportThreshold < 1e9) {
@@ -505,7 +517,7 @@ public class InputReaderProducer implements Runnable {
 //                    bufferList = new ArrayList<>(FASTA_BUFFER_SIZE);
 //                }
 
-                ArrayList<String> wrapper = new ArrayList<>(1);
+                ArrayList<String> wrapper = newBuffer(1);
                 wrapper.add(sb.toString());
 //                queue.put(wrapper);
                 putOnQueue(wrapper);
@@ -523,6 +535,22 @@ public class InputReaderProducer implements Runnable {
      * @return
      */
     private InFormat guessInputFormat(ArrayList<String> testLines1, ArrayList<String> testLines2) {
+        InFormat format = guessInputFormat(testLines1);
+        if (format == InFormat.KMERS) {
+            addKmerLength(testLines1.get(0).split("\t| ")[0].trim().length());
+        } else if (format == InFormat.PER_SAMPLE_KMERS) {
+            addKmerLength(testLines1.get(1).split("\t| ")[0].trim().length());
+        }
+        return format;
+    }
+
+    /**
+     * Attempt to guess the input format from up to first few non-empty lines
+     *
+     * @param testLines1
+     * @return
+     */
+    static InFormat guessInputFormat(ArrayList<String> testLines1) {
         if (testLines1.isEmpty()) {
             return InFormat.EMPTY;
         }
@@ -531,7 +559,6 @@ public class InputReaderProducer implements Runnable {
             String[] split1 = testLines1.get(1).split("\t| ");
             if (split0[0].matches("^[A|T|C|G]+$") && split1[0].matches("^[A|T|C|G]+$") && split0[0].length() == split1[0].length()) {
 //                setKmerLength(split0[0].trim().length());
-                addKmerLength(split0[0].trim().length());
                 return InFormat.KMERS;
 //            } else {
 //                return InFormat.UNSUPPORTED_OR_UNRECOGNIZED;
@@ -539,7 +566,6 @@ public class InputReaderProducer implements Runnable {
             if (testLines1.size() > 2) {
                 String[] split2 = testLines1.get(2).split("\t| ");
                 if (split0.length == 1 && split1[0].matches("^[A|T|C|G]+$") && split2[0].matches("^[A|T|C|G]+$") && split1[0].length() == split2[0].length()) {
-                    addKmerLength(split1[0].trim().length());
                     return InFormat.PER_SAMPLE_KMERS;
                 }
             }
@@ -640,9 +666,25 @@ public class InputReaderProducer implements Runnable {
         return kLengths != null && !kLengths.isEmpty() && kLengths.get(0) > 0;
     }
 
+    /**
+     * Buffers are filled in place, as SequencedList objects if these are to
+     * be numbered on the way to the queue
+     */
+    private ArrayList<String> newBuffer(int initialCapacity) {
+        return SEQUENCE_BUFFERS ? new SequencedList<>(0L, initialCapacity) : new ArrayList<>(initialCapacity);
+    }
+
 //    private void putOnQueue(ArrayList<String> list) throws InterruptedException {
     private void putOnQueue(Object list) throws InterruptedException {
 //        if (queue != null) {
+        if (list instanceof SequencedList) {
+            SequencedList<?> buffer = (SequencedList<?>) list;
+            if (buffer.isEmpty()) {
+                list = new ArrayList<>(0); //NOTHING LEFT TO NUMBER, MARKS THE END OF INPUT AS BEFORE
+            } else {
+                buffer.setSequenceNumber(buffersPut++);
+            }
+        }
 
         queue.put(list);
 //        } else {
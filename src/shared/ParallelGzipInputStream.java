@@ -0,0 +1,402 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Drop-in replacement for GZIPInputStream which takes decompression off the
+ * thread reading the stream.
+ *
+ * BGZF input (as written by bgzip, e.g. most .fastq.gz coming off recent
+ * pipelines) is split into its independent blocks which are inflated on
+ * several threads and handed back in order. Any other gzip input, including
+ * multi-member files, cannot be split without inflating it first, so it is
+ * inflated by a single read-ahead thread into large buffers. The same applies
+ * from the first non-BGZF member on, if one follows BGZF blocks.
+ *
+ * Threads are daemons and are stopped by close().
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class ParallelGzipInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int GZIP_HEADER_SIZE = 12; //UP TO AND INCLUDING XLEN
+    private static final int BGZF_MAX_BLOCK_SIZE = 1 << 16;
+    private static final int BLOCKS_PER_TASK = 16;
+    private static final int DEFAULT_THREADS = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 8));
+    private static final Chunk END = new Chunk(new byte[0], 0);
+
+    private final InputStream in;
+    private final boolean bgzf;
+    private final BlockingQueue<Future<Chunk>> chunks; //IN INPUT ORDER
+    private final BlockingQueue<byte[]> spareBuffers; //RECYCLED BY READ-AHEAD
+    private final ExecutorService inflaters;
+    private final Thread reader;
+    private Chunk current;
+    private int position;
+    private volatile boolean closed;
+
+    private static class Chunk {
+
+        private final byte[] data;
+        private final int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    public ParallelGzipInputStream(InputStream compressed) throws IOException {
+        this(compressed, DEFAULT_THREADS);
+    }
+
+    /**
+     *
+     * @param compressed
+     * @param threads number of threads inflating BGZF blocks
+     * @throws IOException
+     */
+    public ParallelGzipInputStream(InputStream compressed, int threads) throws IOException {
+        threads = Math.max(1, threads);
+        this.in = new BufferedInputStream(compressed, CHUNK_SIZE);
+        this.bgzf = isBgzf(in);
+        this.chunks = new ArrayBlockingQueue<>(threads * 4);
+        this.spareBuffers = new ArrayBlockingQueue<>(threads * 4 + 2);
+        if (bgzf) {
+            inflaters = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "bgzf-inflater");
+                t.setDaemon(true);
+                return t;
+            });
+            reader = new Thread(this::readBlocks, "bgzf-reader");
+        } else {
+            inflaters = null;
+            reader = new Thread(this::readAhead, "gzip-read-ahead");
+        }
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public boolean isBgzf() {
+        return bgzf;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (current == null || position >= current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || position >= current.length) {
+            if (!nextChunk()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.interrupt();
+        if (inflaters != null) {
+            inflaters.shutdownNow();
+        }
+        in.close();
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (current == END) {
+            return false;
+        }
+        if (current != null && current.data.length == CHUNK_SIZE) { //E.G. FROM READ-AHEAD
+            spareBuffers.offer(current.data);
+        }
+        try {
+            current = chunks.take().get();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException(ex.getMessage());
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause().getMessage(), ex.getCause());
+        }
+        position = 0;
+        return current != END;
+    }
+
+    /**
+     * Peek at the first gzip header
+     */
+    private static boolean isBgzf(InputStream in) throws IOException {
+        byte[] header = new byte[BGZF_MAX_BLOCK_SIZE];
+        in.mark(BGZF_MAX_BLOCK_SIZE);
+        int read = readBgzfHeader(in, header, 0);
+        in.reset();
+        return getBgzfBlockSize(header, 0, read) != -1;
+    }
+
+    /**
+     * Read a gzip header up to the end of its extra field, if it can be the
+     * header of a BGZF block
+     *
+     * @return number of bytes read
+     */
+    private static int readBgzfHeader(InputStream in, byte[] b, int off) throws IOException {
+        int read = readFully(in, b, off, GZIP_HEADER_SIZE);
+        if (read == GZIP_HEADER_SIZE && isGzipWithExtra(b, off) && GZIP_HEADER_SIZE + getUnsignedShort(b, off + 10) <= BGZF_MAX_BLOCK_SIZE) {
+            read += readFully(in, b, off + GZIP_HEADER_SIZE, getUnsignedShort(b, off + 10));
+        }
+        return read;
+    }
+
+    /**
+     * Gzip member with the extra field and no other optional header fields,
+     * so that the deflated data follows the extra field
+     */
+    private static boolean isGzipWithExtra(byte[] b, int off) {
+        return (b[off] & 0xff) == 0x1f && (b[off + 1] & 0xff) == 0x8b && b[off + 2] == 8 && (b[off + 3] & 0x1e) == 4;
+    }
+
+    /**
+     * BGZF is gzip with the BC extra subfield holding the size of the block,
+     * the extra field may hold other subfields too
+     *
+     * @param read bytes of the header read by readBgzfHeader()
+     * @return total block size, -1 if not a BGZF block header
+     */
+    private static int getBgzfBlockSize(byte[] b, int off, int read) {
+        if (read < GZIP_HEADER_SIZE || !isGzipWithExtra(b, off)) {
+            return -1;
+        }
+        int xlen = getUnsignedShort(b, off + 10);
+        if (read != GZIP_HEADER_SIZE + xlen) {
+            return -1;
+        }
+        int end = off + GZIP_HEADER_SIZE + xlen;
+        for (int p = off + GZIP_HEADER_SIZE; p + 4 <= end; p += 4 + getUnsignedShort(b, p + 2)) {
+            if (b[p] == 'B' && b[p + 1] == 'C' && getUnsignedShort(b, p + 2) == 2 && p + 6 <= end) {
+                int blockSize = getUnsignedShort(b, p + 4) + 1;
+                return blockSize >= read + 8 ? blockSize : -1; //DEFLATED DATA AND TRAILER MUST FIT
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Runs on the reader thread: cuts BGZF blocks out of the input and submits
+     * them for inflation, several blocks per task. Once a member which is not
+     * a BGZF block is found, the rest of the input is inflated sequentially.
+     */
+    private void readBlocks() {
+        try {
+            byte[] buffer = new byte[BLOCKS_PER_TASK * BGZF_MAX_BLOCK_SIZE];
+            int[] offsets = new int[BLOCKS_PER_TASK];
+            int blocks = 0;
+            int length = 0;
+            int inflatedSize = 0;
+            while (!closed) {
+                int read = readBgzfHeader(in, buffer, length);
+                if (read == 0) {
+                    break;
+                }
+                int blockSize = getBgzfBlockSize(buffer, length, read);
+                if (blockSize == -1) {
+                    if (blocks > 0) {
+                        submit(buffer, offsets, blocks, inflatedSize);
+                    }
+                    inflateAhead(new SequenceInputStream(new ByteArrayInputStream(buffer, length, read), in));
+                    return;
+                }
+                if (readFully(in, buffer, length + read, blockSize - read) < blockSize - read) {
+                    throw new IOException("Truncated BGZF block");
+                }
+                int isize = getInt(buffer, length + blockSize - 4);
+                if (isize == 0) { //EMPTY BLOCK, E.G. EOF MARKER
+                    continue;
+                }
+                offsets[blocks++] = length;
+                length += blockSize;
+                inflatedSize += isize;
+                if (blocks == BLOCKS_PER_TASK) {
+                    submit(buffer, offsets, blocks, inflatedSize);
+                    buffer = new byte[BLOCKS_PER_TASK * BGZF_MAX_BLOCK_SIZE];
+                    offsets = new int[BLOCKS_PER_TASK];
+                    blocks = 0;
+                    length = 0;
+                    inflatedSize = 0;
+                }
+            }
+            if (blocks > 0) {
+                submit(buffer, offsets, blocks, inflatedSize);
+            }
+            chunks.put(CompletableFuture.completedFuture(END));
+        } catch (IOException ex) {
+            if (!closed) {
+                fail(ex);
+            }
+        } catch (InterruptedException ex) {
+            //CLOSED
+        }
+    }
+
+    private void submit(byte[] buffer, int[] offsets, int blocks, int inflatedSize) throws InterruptedException {
+        chunks.put(inflaters.submit(() -> inflate(buffer, offsets, blocks, inflatedSize)));
+    }
+
+    private static Chunk inflate(byte[] buffer, int[] offsets, int blocks, int inflatedSize) throws IOException, DataFormatException {
+        byte[] out = new byte[inflatedSize];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        int position = 0;
+        try {
+            for (int i = 0; i < blocks; i++) {
+                int start = offsets[i];
+                int xlen = getUnsignedShort(buffer, start + 10);
+                int blockSize = getBgzfBlockSize(buffer, start, GZIP_HEADER_SIZE + xlen);
+                int dataStart = start + GZIP_HEADER_SIZE + xlen;
+                int isize = getInt(buffer, start + blockSize - 4);
+                inflater.reset();
+                inflater.setInput(buffer, dataStart, start + blockSize - 8 - dataStart);
+                int n = 0;
+                while (n < isize) {
+                    int inflated = inflater.inflate(out, position + n, isize - n);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != isize) {
+                    throw new IOException("Corrupt BGZF block, inflated " + n + " bytes, expected " + isize);
+                }
+                crc.reset();
+                crc.update(out, position, isize);
+                if ((int) crc.getValue() != getInt(buffer, start + blockSize - 8)) {
+                    throw new IOException("Corrupt BGZF block, CRC32 mismatch");
+                }
+                position += isize;
+            }
+        } finally {
+            inflater.end();
+        }
+        return new Chunk(out, inflatedSize);
+    }
+
+    /**
+     * Runs on the reader thread: inflates plain (multi-member) gzip ahead of
+     * the consumer
+     */
+    private void readAhead() {
+        inflateAhead(in);
+    }
+
+    private void inflateAhead(InputStream compressed) {
+        try (GZIPInputStream gzip = new GZIPInputStream(compressed, CHUNK_SIZE)) {
+            while (!closed) {
+                byte[] data = spareBuffers.poll();
+                if (data == null) {
+                    data = new byte[CHUNK_SIZE];
+                }
+                int length = readFully(gzip, data, 0, CHUNK_SIZE);
+                if (length == 0) {
+                    break;
+                }
+                chunks.put(CompletableFuture.completedFuture(new Chunk(data, length)));
+            }
+            chunks.put(CompletableFuture.completedFuture(END));
+        } catch (IOException ex) {
+            if (!closed) {
+                fail(ex);
+            }
+        } catch (InterruptedException ex) {
+            //CLOSED
+        }
+    }
+
+    /**
+     * Pass the exception on to the consumer
+     */
+    private void fail(IOException ex) {
+        CompletableFuture<Chunk> failed = new CompletableFuture<>();
+        failed.completeExceptionally(ex);
+        try {
+            chunks.put(failed);
+        } catch (InterruptedException ie) {
+            //CLOSED
+        }
+    }
+
+    /**
+     *
+     * @return number of bytes read, fewer than len only if end of stream
+     * reached
+     */
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        int read;
+        while (total < len && (read = in.read(b, off + total, len - total)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static int getUnsignedShort(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Batch of input records held as raw bytes in one reusable array, with each
+ * record and each of its fields addressed by offsets. For one record per line
+ * input the fields are the tab separated columns of a line, for FASTQ these are
+ * the four lines of a record and for FASTA the header and the sequence (with
+ * line breaks removed). Either way id, sequence and quality of a (first) read
+ * are fields 0, 1 and 3, so one-line and multi-line input can be processed
+ * alike.
+ *
+ * Batches are recycled by ByteRecordReaderProducer, arrays only grow when a
+ * batch needs more room than it ever had before. A batch with no records marks
+ * the end of input.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class RecordBatch {
+
+    public static final int ID = 0;
+    public static final int SEQUENCE = 1;
+    public static final int QUALITY = 3;
+
+    private byte[] data;
+    private int dataLength;
+    private int[] recordStarts;
+    private int[] recordEnds;
+    private int[] recordFirstFields; //index of the first field of a record, one extra entry closes the last record
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private boolean[] selected;
+    private int size;
+    private int fieldCount;
+    private long sequenceNumber; //POSITION IN INPUT, FOR ORDERED OUTPUT
+
+    /**
+     *
+     * @param records initial capacity in records
+     * @param bytes initial capacity in bytes
+     */
+    public RecordBatch(int records, int bytes) {
+        records = Math.max(records, 1);
+        data = new byte[Math.max(bytes, 16)];
+        recordStarts = new int[records];
+        recordEnds = new int[records];
+        recordFirstFields = new int[records + 1];
+        fieldStarts = new int[records * 4];
+        fieldEnds = new int[records * 4];
+        selected = new boolean[records];
+    }
+
+    /**
+     * Marks end of input
+     *
+     * @return an empty batch
+     */
+    public static RecordBatch emptyBatch() {
+        return new RecordBatch(1, 16);
+    }
+
+    public void clear() {
+        size = 0;
+        dataLength = 0;
+        fieldCount = 0;
+        recordFirstFields[0] = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return 0-based position of this batch in the input
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getRecordStart(int record) {
+        return recordStarts[record];
+    }
+
+    /**
+     *
+     * @param record
+     * @return exclusive end of the record, i.e. the position of the newline
+     * which would follow it
+     */
+    public int getRecordEnd(int record) {
+        return recordEnds[record];
+    }
+
+    public int getFieldCount(int record) {
+        return recordFirstFields[record + 1] - recordFirstFields[record];
+    }
+
+    public int getFieldStart(int record, int field) {
+        return fieldStarts[recordFirstFields[record] + field];
+    }
+
+    public int getFieldEnd(int record, int field) {
+        return fieldEnds[recordFirstFields[record] + field];
+    }
+
+    public int getFieldLength(int record, int field) {
+        int index = recordFirstFields[record] + field;
+        return fieldEnds[index] - fieldStarts[index];
+    }
+
+    /**
+     * Decodes a field, allocates so not to be used in hot loops
+     *
+     * @param record
+     * @param field
+     * @return
+     */
+    public String getFieldString(int record, int field) {
+        int index = recordFirstFields[record] + field;
+        return new String(data, fieldStarts[index], fieldEnds[index] - fieldStarts[index], StandardCharsets.US_ASCII);
+    }
+
+    public boolean isSelected(int record) {
+        return selected[record];
+    }
+
+    public void setSelected(int record, boolean select) {
+        selected[record] = select;
+    }
+
+    /*
+     * Methods used when filling-in the batch
+     */
+    void startRecord() {
+        if (size == recordStarts.length) {
+            int capacity = recordStarts.length * 2;
+            recordStarts = Arrays.copyOf(recordStarts, capacity);
+            recordEnds = Arrays.copyOf(recordEnds, capacity);
+            recordFirstFields = Arrays.copyOf(recordFirstFields, capacity + 1);
+            selected = Arrays.copyOf(selected, capacity);
+        }
+        recordStarts[size] = dataLength;
+        recordFirstFields[size] = fieldCount;
+        selected[size] = false;
+    }
+
+    void startField() {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = dataLength;
+    }
+
+    void endField() {
+        fieldEnds[fieldCount++] = dataLength;
+    }
+
+    void endRecord() {
+        recordEnds[size++] = dataLength;
+        recordFirstFields[size] = fieldCount;
+    }
+
+    /**
+     * Drop an incomplete record, i.e. one started but not ended
+     */
+    void dropRecord() {
+        dataLength = recordStarts[size];
+        fieldCount = recordFirstFields[size];
+    }
+
+    int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Remove the last byte appended if it equals b
+     */
+    void trimTrailing(byte b) {
+        if (dataLength > 0 && data[dataLength - 1] == b) {
+            dataLength--;
+        }
+    }
+
+    void append(byte b) {
+        if (dataLength == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[dataLength++] = b;
+    }
+
+    void append(byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (dataLength + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + length));
+        }
+        System.arraycopy(bytes, from, data, dataLength, length);
+        dataLength += length;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.NumberFormat;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes out selected records of each RecordBatch as they were read-in and
+ * returns the batch to the reader's pool
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class RecordBatchWriterConsumer implements Runnable {
+
+    private final BlockingQueue<RecordBatch> outputQueue;
+    private final BlockingQueue<RecordBatch> pool;
+    private final String outFile;
+    private int producerThreads;
+    private final int WRITER_BUFFER_SIZE = 1 << 16;
+    private final String TOOL_NAME;
+    private final ReorderWindow<RecordBatch> window;
+
+    /**
+     *
+     * @param outputQueue
+     * @param pool
+     * @param outFile
+     * @param producerThreads
+     * @param TOOL_NAME
+     * @param window if not null, batches are written in input order
+     */
+    public RecordBatchWriterConsumer(BlockingQueue<RecordBatch> outputQueue, BlockingQueue<RecordBatch> pool, String outFile,
+            int producerThreads, String TOOL_NAME, ReorderWindow<RecordBatch> window) {
+        this.outputQueue = outputQueue;
+        this.pool = pool;
+        this.outFile = outFile;
+        this.producerThreads = producerThreads;
+        this.TOOL_NAME = TOOL_NAME;
+        this.window = window;
+    }
+
+    @Override
+    public void run() {
+        long count = 0;
+        OutputStream out = null;
+        try {
+            if (outFile.endsWith(".gz")) {
+                out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(outFile), WRITER_BUFFER_SIZE), WRITER_BUFFER_SIZE);
+            } else {
+                out = new BufferedOutputStream(new FileOutputStream(outFile), WRITER_BUFFER_SIZE);
+            }
+            RecordBatch batch;
+            while (!(batch = outputQueue.take()).isEmpty() || --producerThreads > 0) {
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                if (window == null) {
+                    count += write(out, batch);
+                } else {
+                    window.add(batch.getSequenceNumber(), batch);
+                    while ((batch = window.pollNext()) != null) {
+                        count += write(out, batch);
+                    }
+                }
+            }
+            if (window != null && window.getWaiting() > 0) {
+                Reporter.report("[ERROR]", window.getWaiting() + " batches not written, out of order input?", TOOL_NAME);
+            }
+            out.flush();
+        } catch (InterruptedException | IOException ex) {
+            Reporter.report("[ERROR]", ex.getMessage(), TOOL_NAME);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                    Reporter.report("[ERROR]", ex.getMessage(), TOOL_NAME);
+                }
+            }
+        }
+        Reporter.report("[INFO]", "Finished outputing records, n=" + NumberFormat.getNumberInstance().format(count), TOOL_NAME);
+    }
+
+    /**
+     * Write selected records and return the batch to the pool
+     *
+     * @return number of records written
+     */
+    private int write(OutputStream out, RecordBatch batch) throws IOException {
+        int count = 0;
+        byte[] data = batch.getData();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isSelected(i)) {
+                out.write(data, batch.getRecordStart(i), batch.getRecordEnd(i) - batch.getRecordStart(i));
+                out.write('\n');
+                count++;
+            }
+        }
+        pool.offer(batch);
+        return count;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.util.HashMap;
+
+/**
+ * Puts buffers processed by several threads back in input order before they
+ * are written out.
+ *
+ * Processing threads call awaitTurn() before placing a buffer on the output
+ * queue, which blocks while the buffer is too far ahead of the next one to be
+ * written. The writing thread add()s whatever it takes off the queue and
+ * writes what pollNext() returns. The number of buffers held back by the
+ * writer is therefore bounded by the capacity of the window, and the buffer
+ * the writer waits for can always be put on the queue.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ * @param <T> buffer type
+ */
+public class ReorderWindow<T> {
+
+    private final int capacity;
+    private final HashMap<Long, T> waiting;
+    private long next;
+
+    /**
+     *
+     * @param capacity maximum number of buffers ahead of the next one to be
+     * written
+     */
+    public ReorderWindow(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.waiting = new HashMap<>(this.capacity * 2);
+    }
+
+    /**
+     * Called by a processing thread, blocks until the buffer is within the
+     * window
+     *
+     * @param sequenceNumber of the buffer about to be put on the output queue
+     * @throws InterruptedException
+     */
+    public synchronized void awaitTurn(long sequenceNumber) throws InterruptedException {
+        while (sequenceNumber >= next + capacity) {
+            wait();
+        }
+    }
+
+    /**
+     * Called by the writing thread
+     *
+     * @param sequenceNumber
+     * @param buffer
+     */
+    public synchronized void add(long sequenceNumber, T buffer) {
+        waiting.put(sequenceNumber, buffer);
+    }
+
+    /**
+     * Called by the writing thread
+     *
+     * @return next buffer in input order or null if not available yet
+     */
+    public synchronized T pollNext() {
+        T buffer = waiting.remove(next);
+        if (buffer != null) {
+            next++;
+            notifyAll();
+        }
+        return buffer;
+    }
+
+    /**
+     *
+     * @return number of buffers received but not written, should be 0 once all
+     * input processed
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+}
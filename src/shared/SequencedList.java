@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Buffer of records which knows its position in the input, so that the output
+ * of several processing threads can be put back in input order.
+ *
+ * Unlike a plain empty ArrayList, an empty SequencedList does not mark the end
+ * of input, it is a buffer in which no records were retained.
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class SequencedList<E> extends ArrayList<E> {
+
+    private static final long serialVersionUID = 1L;
+
+    private long sequenceNumber;
+
+    public SequencedList(long sequenceNumber) {
+        super();
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public SequencedList(long sequenceNumber, int initialCapacity) {
+        super(initialCapacity);
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * The reader fills the buffer first and numbers it once it is put on the
+     * queue
+     *
+     * @param sequenceNumber
+     */
+    void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     *
+     * @param buffer
+     * @return true if buffer marks the end of input rather than being empty
+     * after processing
+     */
+    public static boolean isEndOfInput(Collection<?> buffer) {
+        return buffer.isEmpty() && !(buffer instanceof SequencedList);
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fastqmatchid;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * IdentifierSet must answer as a HashSet of identifier strings does
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class IdentifierSetTest {
+
+    /**
+     * Illumina-like identifiers, duplicates included, the odd one short
+     */
+    private static ArrayList<String> randomIds(long seed, int n) {
+        Random random = new Random(seed);
+        ArrayList<String> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && random.nextInt(10) == 0) {
+                ids.add(ids.get(random.nextInt(ids.size())));
+            } else if (random.nextInt(1000) == 0) {
+                ids.add(Integer.toString(random.nextInt(100)));
+            } else {
+                ids.add("M00" + random.nextInt(10) + ":123:000000000-ABCDE:1:" + (1100 + random.nextInt(20))
+                        + ":" + random.nextInt(30000) + ":" + random.nextInt(30000));
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSameAsHashSet() {
+        //SMALL INITIAL CAPACITY TO GO THROUGH RESIZES, ENOUGH BYTES FOR A SECOND SLAB
+        ArrayList<String> ids = randomIds(1, 600000);
+        HashSet<String> expected = new HashSet<>();
+        IdentifierSet set = new IdentifierSet(10);
+        for (String id : ids) {
+            assertEquals(id, expected.add(id), set.add(id));
+        }
+        assertEquals(expected.size(), set.size());
+        for (String id : randomIds(2, 100000)) {
+            assertEquals(id, expected.contains(id), set.contains(id));
+        }
+        for (String id : ids) {
+            assertTrue(id, set.contains(id));
+        }
+    }
+
+    @Test
+    public void testContainsWithinLine() {
+        ArrayList<String> ids = randomIds(3, 10000);
+        IdentifierSet set = new IdentifierSet();
+        HashSet<String> expected = new HashSet<>();
+        for (int i = 0; i < ids.size(); i += 2) {
+            set.add(ids.get(i));
+            expected.add(ids.get(i));
+        }
+        for (String id : ids) {
+            String line = "@" + id + " 1:N:0:ACGTACGT";
+            assertEquals(id, expected.contains(id), set.contains(line, 1, 1 + id.length()));
+            String prefix = id.substring(0, id.length() - 1);
+            assertEquals(prefix, expected.contains(prefix), set.contains(line, 1, 1 + prefix.length()));
+        }
+        assertFalse(set.contains(""));
+        set.add("");
+        assertTrue(set.contains("@", 1, 1));
+    }
+
+    @Test
+    public void testTooLong() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() <= 0xffff) {
+            sb.append("ACGT");
+        }
+        IdentifierSet set = new IdentifierSet();
+        assertFalse(set.contains(sb));
+        try {
+            set.add(sb.toString());
+            fail("identifier over 65535 characters added");
+        } catch (IllegalArgumentException ex) {
+            //EXPECTED
+        }
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final ArrayList<String> ids = randomIds(4, 200000);
+        final IdentifierSet set = new IdentifierSet(10);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = offset; i < ids.size(); i += threads) {
+                    set.add(ids.get(i));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(new HashSet<>(ids).size(), set.size());
+        for (String id : ids) {
+            assertTrue(id, set.contains(id));
+        }
+    }
+}
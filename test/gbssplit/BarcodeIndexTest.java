@@ -0,0 +1,162 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package gbssplit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * BarcodeIndex must resolve reads as a linear scan over the barcodes of a
+ * flowcell does
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class BarcodeIndexTest {
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private static String randomString(Random random, char[] alphabet, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Unique barcodes of 4 to 9 bases, some extending others
+     */
+    private static ArrayList<Sample> randomSamples(Random random, int n) {
+        HashSet<String> barcodes = new HashSet<>();
+        ArrayList<Sample> samples = new ArrayList<>(n);
+        while (samples.size() < n) {
+            String barcode;
+            if (!samples.isEmpty() && random.nextInt(5) == 0) {
+                String shorter = samples.get(random.nextInt(samples.size())).getBarcode();
+                barcode = shorter + randomString(random, BASES, 1 + random.nextInt(3));
+            } else {
+                barcode = randomString(random, BASES, 4 + random.nextInt(6));
+            }
+            if (barcode.length() <= 9 && barcodes.add(barcode)) {
+                samples.add(new Sample(barcode, "TGCAG", "sample" + samples.size()));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Longest barcode the read starts with or, failing that and if allowed,
+     * the only barcode the read starts with at a single mismatch
+     */
+    private static Sample linearScan(ArrayList<Sample> samples, String read, boolean allowMismatch) {
+        String upper = read.toUpperCase();
+        Sample longest = null;
+        for (Sample sample : samples) {
+            if (upper.startsWith(sample.getBarcode()) && (longest == null || sample.getBarcode().length() > longest.getBarcode().length())) {
+                longest = sample;
+            }
+        }
+        if (longest != null || !allowMismatch) {
+            return longest;
+        }
+        Sample corrected = null;
+        for (Sample sample : samples) {
+            String barcode = sample.getBarcode();
+            if (barcode.length() > upper.length()) {
+                continue;
+            }
+            int mismatches = 0;
+            for (int i = 0; i < barcode.length(); i++) {
+                if (upper.charAt(i) != barcode.charAt(i)) {
+                    mismatches++;
+                }
+            }
+            if (mismatches == 1) {
+                if (corrected != null) {
+                    return null; //AMBIGUOUS
+                }
+                corrected = sample;
+            }
+        }
+        return corrected;
+    }
+
+    /**
+     * Barcode followed by the rest of the read, with up to two substitutions
+     * (N included), the occasional lowercase or truncated read
+     */
+    private static String randomRead(Random random, ArrayList<Sample> samples) {
+        final char[] SUBSTITUTES = {'A', 'C', 'G', 'T', 'N'};
+        char[] read = (samples.get(random.nextInt(samples.size())).getBarcode() + randomString(random, BASES, 20)).toCharArray();
+        int substitutions = random.nextInt(3);
+        for (int i = 0; i < substitutions; i++) {
+            read[random.nextInt(10)] = SUBSTITUTES[random.nextInt(SUBSTITUTES.length)];
+        }
+        String s = new String(read);
+        if (random.nextInt(10) == 0) {
+            s = s.toLowerCase();
+        }
+        if (random.nextInt(20) == 0) {
+            s = s.substring(0, random.nextInt(10));
+        }
+        return s;
+    }
+
+    private void assertSameAsLinearScan(long seed, int nSamples, boolean allowMismatch) {
+        Random random = new Random(seed);
+        ArrayList<Sample> samples = randomSamples(random, nSamples);
+        BarcodeIndex index = new BarcodeIndex(samples, allowMismatch);
+        for (int i = 0; i < 100000; i++) {
+            String read = random.nextInt(10) == 0 ? randomString(random, BASES, 30) : randomRead(random, samples);
+            assertSame(read, linearScan(samples, read, allowMismatch), index.find(read));
+        }
+    }
+
+    @Test
+    public void testExact() {
+        for (int nSamples : new int[]{1, 12, 96, 384}) {
+            assertSameAsLinearScan(nSamples, nSamples, false);
+        }
+    }
+
+    @Test
+    public void testMismatch() {
+        for (int nSamples : new int[]{1, 12, 96, 384}) {
+            assertSameAsLinearScan(nSamples, nSamples, true);
+        }
+    }
+
+    @Test
+    public void testExactTakesPrecedence() {
+        Sample acgt = new Sample("ACGT", "TGCAG", "acgt");
+        Sample acga = new Sample("ACGA", "TGCAG", "acga");
+        Sample acgtaa = new Sample("ACGTAA", "TGCAG", "acgtaa");
+        BarcodeIndex index = new BarcodeIndex(Arrays.asList(acgt, acga, acgtaa), true);
+        assertSame(acgt, index.find("ACGTCCCC"));
+        assertSame(acga, index.find("acgaCCCC"));
+        assertSame(acgtaa, index.find("ACGTAACC"));
+        assertSame(acgt, index.find("ACGTACCC")); //ACGT EXACT OVER ACGTAA AT ONE MISMATCH
+        assertNull(index.find("ACGNCCCC")); //ONE MISMATCH FROM BOTH ACGT AND ACGA
+        assertSame(acga, index.find("TCGACCCC"));
+        assertNull(index.find("ACG"));
+        assertNull(new BarcodeIndex(Arrays.asList(acgt, acga, acgtaa), false).find("TCGACCCC"));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import shared.SequenceOps;
+
+/**
+ * Table-driven CoreCoder encoding must give the words of the per-base
+ * encoding, and operations on words must match those on the decoded Strings
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class CoreCoderTest {
+
+    private static final int[] LENGTHS = {1, 2, 7, 8, 9, 15, 16, 17, 31, 32, 33, 40, 63, 64, 65, 96, 97, 100, 128, 150, 201};
+
+    private static String randomBases(Random random, int length, boolean lowerCase) {
+        final char[] BASES = {'A', 'C', 'G', 'T', 'a', 'c', 'g', 't'};
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = BASES[random.nextInt(lowerCase ? 8 : 4)];
+        }
+        return new String(bases);
+    }
+
+    /**
+     * One base at a time, as encoded before, 32 bases per long with the
+     * leftover in the first
+     */
+    private static long[] encodePerBase(String sequence) {
+        int words = (sequence.length() * 2 + 63) / 64;
+        long[] encoded = new long[words];
+        for (int i = 0; i < sequence.length(); i++) {
+            int word = words - 1 - (sequence.length() - 1 - i) / 32;
+            long code;
+            switch (Character.toUpperCase(sequence.charAt(i))) {
+                case 'A':
+                    code = 0;
+                    break;
+                case 'C':
+                    code = 1;
+                    break;
+                case 'G':
+                    code = 2;
+                    break;
+                default:
+                    code = 3;
+            }
+            encoded[word] = encoded[word] << 2 | code;
+        }
+        return encoded;
+    }
+
+    @Test
+    public void testEncodeAsPerBase() throws NonACGTException {
+        Random random = new Random(1);
+        for (int length : LENGTHS) {
+            for (int i = 0; i < 200; i++) {
+                String sequence = randomBases(random, length, i % 2 == 0);
+                String upper = sequence.toUpperCase();
+                long[] expected = encodePerBase(sequence);
+                assertArrayEquals(sequence, expected, CoreCoder.encodeCoreLongArray(sequence));
+                assertArrayEquals(sequence, expected, CoreCoder.encodeCoreLongArray("NN" + sequence + "N", 2, 2 + length));
+                assertEquals(upper, CoreCoder.decodeCore(length, expected));
+                assertEquals(upper, CoreCoder.decodeCore(length, CoreCoder.encodeCoreByteArray(sequence)));
+                assertEquals(upper, CoreCoder.decodeCore(length, CoreCoder.encodeCoreIntArray(sequence)));
+                if (length <= 16) {
+                    assertEquals(upper, CoreCoder.decodeCore(length, CoreCoder.encodeCore(sequence)).toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWordOperationsAsStrings() {
+        Random random = new Random(2);
+        for (int length : LENGTHS) {
+            for (int i = 0; i < 200; i++) {
+                String core = randomBases(random, length, false);
+                long[] encoded = CoreCoder.encodeCoreLongArray(core);
+                String rc = SequenceOps.getReverseComplementString(core);
+                assertEquals(core, rc, CoreCoder.decodeCore(length, CoreCoder.reverseComplement(encoded, length)));
+                assertEquals(core, SequenceOps.isCanonical(core), CoreCoder.isCanonical(encoded, length));
+                assertEquals(core, SequenceOps.getCanonical(core), CoreCoder.decodeCore(length, CoreCoder.getCanonical(encoded, length)));
+                int code = random.nextInt(4);
+                char base = "ACGT".charAt(code);
+                assertEquals(core, base + core.substring(0, length - 1), CoreCoder.decodeCore(length, CoreCoder.shiftInLeft(encoded, length, code)));
+                assertEquals(core, core.substring(1) + base, CoreCoder.decodeCore(length, CoreCoder.shiftInRight(encoded, length, code)));
+                String another = random.nextInt(10) == 0 ? core : randomBases(random, length, false);
+                long[] anotherEncoded = CoreCoder.encodeCoreLongArray(another);
+                int comparison = CoreCoder.compareCores(encoded, anotherEncoded);
+                assertEquals(core + " " + another, core.equals(another), comparison == 0);
+                assertEquals(core + " " + another, -comparison, CoreCoder.compareCores(anotherEncoded, encoded));
+            }
+        }
+    }
+
+    @Test
+    public void testPalindromeCanonical() {
+        long[] encoded = CoreCoder.encodeCoreLongArray("ACGT");
+        assertEquals(true, CoreCoder.isCanonical(encoded, 4));
+        assertArrayEquals(encoded, CoreCoder.reverseComplement(encoded, 4));
+    }
+
+    @Test
+    public void testNonACGT() {
+        Random random = new Random(3);
+        for (int length : new int[]{1, 8, 9, 33, 64, 100}) {
+            String sequence = randomBases(random, length, true);
+            for (int i = 0; i < length; i++) { //IN AND AFTER THE 8-BASE STEPS
+                String withN = sequence.substring(0, i) + "N" + sequence.substring(i + 1);
+                try {
+                    CoreCoder.encodeCoreLongArray(withN, 0, length);
+                    fail("encoded " + withN);
+                } catch (NonACGTException ex) {
+                    //EXPECTED
+                }
+            }
+        }
+    }
+}
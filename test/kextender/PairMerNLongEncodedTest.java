@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.HashSet;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+import shared.SequenceOps;
+
+/**
+ * PairMers encoded in longs for k above 97 must hold the canonical core and
+ * clips, and find their neighbours, as computed on Strings (as in PairMer and
+ * the int array encoding used before)
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMerNLongEncodedTest {
+
+    private static String randomBases(Random random, int length) {
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = "ACGT".charAt(random.nextInt(4));
+        }
+        return new String(bases);
+    }
+
+    /**
+     * PairMer of the core of sequence, i.e. of its two k-mers
+     */
+    private static PairMer pairMer(String sequence) throws NonACGTException {
+        int k = sequence.length() - 1;
+        PairMer pairMer = new PairMerNLongEncoded(sequence, 0, k - 1, true, 1);
+        pairMer.addKmer(new PairMerNLongEncoded(sequence, 1, k, false, 1), false, 1);
+        return pairMer;
+    }
+
+    private void assertSameAsStrings(int k) throws NonACGTException {
+        Random random = new Random(k);
+        for (int i = 0; i < 2000; i++) {
+            String sequence = randomBases(random, k + 1);
+            String context = "k=" + k + " " + sequence;
+            //EXPECTED: THE CORE AND CLIPS IN THE CANONICAL ORIENTATION
+            String core = sequence.substring(1, k);
+            char clipLeft = sequence.charAt(0);
+            char clipRight = sequence.charAt(k);
+            if (!SequenceOps.isCanonical(core)) {
+                core = SequenceOps.getReverseComplementString(core);
+                clipLeft = SequenceOps.complement(sequence.charAt(k));
+                clipRight = SequenceOps.complement(sequence.charAt(0));
+            }
+            String otherCoreLeft = clipLeft + core.substring(0, core.length() - 1);
+            String otherCoreRight = core.substring(1) + clipRight;
+
+            PairMer pairMer = pairMer(sequence);
+            assertEquals(context, clipLeft + "_" + core + "_" + clipRight, pairMer.getPairMerString(k, "_"));
+            assertEquals(context, SequenceOps.getCanonical(otherCoreLeft), pairMer.getOtherPairmerCoreLeft(k).decodeCore(k - 1));
+            assertEquals(context, SequenceOps.getCanonical(otherCoreRight), pairMer.getOtherPairmerCoreRight(k).decodeCore(k - 1));
+            assertEquals(context, !SequenceOps.isCanonical(otherCoreLeft), pairMer.isOtherPairmerCoreLeftReversed(k));
+            assertEquals(context, !SequenceOps.isCanonical(otherCoreRight), pairMer.isOtherPairmerCoreRightReversed(k));
+            assertEquals(context, new PairMerNLongEncoded(otherCoreLeft), pairMer.getOtherPairmerCoreLeft(k));
+
+            PairMer reverse = pairMer(SequenceOps.getReverseComplementString(sequence));
+            assertEquals(context, pairMer, reverse);
+            assertEquals(context, pairMer.hashCode(), reverse.hashCode());
+            assertEquals(context, pairMer.getPairMerString(k, "_"), reverse.getPairMerString(k, "_"));
+        }
+    }
+
+    @Test
+    public void testSameAsStrings() throws NonACGTException {
+        for (int k : new int[]{98, 99, 128, 129, 151, 201}) {
+            assertSameAsStrings(k);
+        }
+    }
+
+    @Test
+    public void testMap() throws NonACGTException {
+        int k = 101;
+        String sequence = PairMersTableTest.randomSequence(1, 5000, 5, 200);
+        PairMersMap map = new PairMersMap(k);
+        PairMersTableTest.populate(map, sequence, k);
+        HashSet<String> cores = new HashSet<>();
+        for (int i = 0; i + k - 1 <= sequence.length(); i++) {
+            String core = sequence.substring(i, i + k - 1);
+            cores.add(SequenceOps.getCanonical(core));
+            PairMer found = map.get(core, k);
+            assertNotNull(core, found);
+            assertTrue(found instanceof PairMerNLongEncoded);
+            assertEquals(SequenceOps.getCanonical(core), found.decodeCore(k - 1));
+        }
+        assertEquals(cores.size(), map.size());
+    }
+
+    @Test
+    public void testNonACGT() {
+        String sequence = PairMersTableTest.randomSequence(2, 120, 0, 0);
+        try {
+            new PairMerNLongEncoded(sequence.substring(0, 50) + "N" + sequence.substring(51), 0, 110, true, 1);
+            fail("k-mer with N encoded");
+        } catch (NonACGTException ex) {
+            //EXPECTED
+        }
+    }
+}
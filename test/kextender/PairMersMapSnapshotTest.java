@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Maps loaded from a snapshot must hold what the purged maps written held
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersMapSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final ArrayList<Integer> K_SIZES = new ArrayList<>(Arrays.asList(21, 61, 101));
+
+    /**
+     * Genome covered twice plus a copy with errors, purged so that there are
+     * terminal, ambiguous and next-to-ambiguous PairMers
+     */
+    private static PairMerMaps purgedMaps() {
+        String genome = PairMersTableTest.randomSequence(1, 20000, 20, 150);
+        char[] withErrors = genome.toCharArray();
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            withErrors[random.nextInt(withErrors.length)] = "ACGT".charAt(random.nextInt(4));
+        }
+        PairMerMaps pairMerMaps = new PairMerMaps(new ArrayList<>(K_SIZES), "test");
+        for (int k : K_SIZES) {
+            PairMersMap map = pairMerMaps.getPairMersMap(k);
+            PairMersTableTest.populate(map, genome, k);
+            PairMersTableTest.populate(map, genome, k);
+            PairMersTableTest.populate(map, new String(withErrors), k);
+            map.purge(1);
+        }
+        return pairMerMaps;
+    }
+
+    private static TreeSet<String> terminals(PairMersMap map, int k) {
+        TreeSet<String> terminals = new TreeSet<>();
+        for (PairMer pairMer : map.getTerminalPairMers().keySet()) {
+            terminals.add(pairMer.decodeCore(k - 1));
+        }
+        return terminals;
+    }
+
+    private static void assertSameMap(PairMersMap expected, PairMersMap actual, int k) {
+        assertEquals(PairMersTableTest.contents(expected, k), PairMersTableTest.contents(actual, k));
+        assertEquals(terminals(expected, k), terminals(actual, k));
+        assertEquals(expected.getAmbiguous().get(), actual.getAmbiguous().get());
+    }
+
+    private void assertRoundTrip(String fileName, Long tableExpectedSize) throws IOException {
+        PairMerMaps written = purgedMaps();
+        File file = new File(folder.getRoot(), fileName);
+        PairMersMapSnapshot.write(written, file.getPath());
+        ArrayList<Integer> kSizes = new ArrayList<>();
+        PairMerMaps read = PairMersMapSnapshot.read(file.getPath(), kSizes, "test", tableExpectedSize);
+        assertEquals(K_SIZES, kSizes);
+        for (int k : K_SIZES) {
+            PairMersMap map = written.getPairMersMap(k);
+            assertFalse(map.getTerminalPairMers().isEmpty());
+            assertTrue(map.getAmbiguous().get() > 0);
+            assertSameMap(map, read.getPairMersMap(k), k);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        assertRoundTrip("snapshot", null);
+    }
+
+    @Test
+    public void testRoundTripGzipped() throws IOException {
+        assertRoundTrip("snapshot.gz", null);
+    }
+
+    @Test
+    public void testRoundTripIntoTable() throws IOException {
+        assertRoundTrip("snapshot", 100000L);
+    }
+
+    @Test
+    public void testSelectedK() throws IOException {
+        PairMerMaps written = purgedMaps();
+        File file = new File(folder.getRoot(), "snapshot");
+        PairMersMapSnapshot.write(written, file.getPath());
+        ArrayList<Integer> kSizes = new ArrayList<>(Arrays.asList(61));
+        PairMerMaps read = PairMersMapSnapshot.read(file.getPath(), kSizes, "test", null);
+        assertEquals(Arrays.asList(61), kSizes);
+        assertEquals(1, read.size());
+        assertSameMap(written.getPairMersMap(61), read.getPairMersMap(61), 61);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import shared.SequenceOps;
+
+/**
+ * PairMers written to buckets must load back as the PairMers stored in memory,
+ * each core in a single bucket, and the extensions glued across buckets must
+ * be those extended in memory, whatever the number of buckets
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersPartitionerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Overlapping reads from a genome with repeats, a few with an error
+     */
+    private static ArrayList<String> reads(long seed) {
+        String genome = PairMersTableTest.randomSequence(seed, 30000, 30, 100);
+        Random random = new Random(seed);
+        ArrayList<String> reads = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int from = random.nextInt(genome.length() - 150);
+            char[] read = genome.substring(from, from + 150).toCharArray();
+            if (random.nextInt(10) == 0) {
+                read[random.nextInt(read.length)] = "ACGT".charAt(random.nextInt(4));
+            }
+            reads.add(new String(read));
+        }
+        return reads;
+    }
+
+    private PairMersPartitioner partition(ArrayList<String> reads, int k, int buckets) throws IOException {
+        PairMersPartitioner partitioner = new PairMersPartitioner(k, folder.newFolder(), buckets);
+        PairMersMap map = new PairMersMap(k);
+        map.setPartitioner(partitioner);
+        for (String read : reads) {
+            PairMersTableTest.populate(map, read, k);
+        }
+        assertEquals(0, map.size());
+        partitioner.close();
+        return partitioner;
+    }
+
+    private void assertLoadsAsInMemory(int k, int buckets) throws IOException {
+        ArrayList<String> reads = reads(k);
+        PairMersMap inMemory = new PairMersMap(k);
+        for (String read : reads) {
+            PairMersTableTest.populate(inMemory, read, k);
+        }
+        PairMersPartitioner partitioner = partition(reads, k, buckets);
+        PairMersMap loaded = new PairMersMap(k);
+        TreeSet<String> cores = new TreeSet<>();
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            PairMersMap single = new PairMersMap(k);
+            partitioner.load(bucket, single);
+            partitioner.load(bucket, loaded);
+            for (Iterator<PairMer> it = single.iterator(); it.hasNext();) {
+                PairMer pairMer = it.next();
+                assertTrue(pairMer.decodeCore(k - 1) + " in more than one bucket", cores.add(pairMer.decodeCore(k - 1)));
+                assertEquals(bucket, partitioner.getBucket(CoreCoder.encodeCoreLongArray(pairMer.decodeCore(k - 1))));
+            }
+        }
+        assertEquals(PairMersTableTest.contents(inMemory, k), PairMersTableTest.contents(loaded, k));
+    }
+
+    @Test
+    public void testLoadOneLongCore() throws IOException {
+        for (int buckets : new int[]{1, 7, 64}) {
+            assertLoadsAsInMemory(31, buckets);
+        }
+    }
+
+    @Test
+    public void testLoadTwoLongCore() throws IOException {
+        for (int buckets : new int[]{1, 7, 64}) {
+            assertLoadsAsInMemory(61, buckets);
+        }
+    }
+
+    /**
+     * @return sequences of FASTA records, each in its canonical orientation
+     */
+    private static ArrayList<String> canonicalSequences(File fasta) throws IOException {
+        ArrayList<String> sequences = new ArrayList<>();
+        StringBuilder sb = null;
+        for (String line : Files.readAllLines(fasta.toPath(), StandardCharsets.US_ASCII)) {
+            if (line.startsWith(">")) {
+                if (sb != null) {
+                    sequences.add(SequenceOps.getCanonical(sb.toString()));
+                }
+                sb = new StringBuilder();
+            } else {
+                sb.append(line);
+            }
+        }
+        if (sb != null) {
+            sequences.add(SequenceOps.getCanonical(sb.toString()));
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    private void assertExtendsAsInMemory(int k, int minFrequency) throws IOException {
+        ArrayList<String> reads = reads(k);
+        PairMersMap inMemory = new PairMersMap(k);
+        for (String read : reads) {
+            PairMersTableTest.populate(inMemory, read, k);
+        }
+        inMemory.purge(minFrequency);
+        File expectedFile = folder.newFile();
+        new PairMersExtender(null, null, "test").matchAndExtendKmers(k, inMemory, true, "test", expectedFile.getPath(), k + 1, 2);
+        ArrayList<String> expected = canonicalSequences(expectedFile);
+        assertTrue(expected.size() > 10);
+        for (int buckets : new int[]{1, 7, 64}) {
+            File dir = folder.newFolder();
+            File outFile = folder.newFile();
+            new PartitionedPairMersExtender(partition(reads, k, buckets), dir, minFrequency, "test").extend(2, true, "test", outFile.getPath(), k + 1);
+            assertEquals(buckets + " bucket(s)", expected, canonicalSequences(outFile));
+        }
+    }
+
+    @Test
+    public void testExtendOneLongCore() throws IOException {
+        assertExtendsAsInMemory(31, 1);
+        assertExtendsAsInMemory(31, 2);
+    }
+
+    @Test
+    public void testExtendTwoLongCore() throws IOException {
+        assertExtendsAsInMemory(61, 2);
+    }
+}
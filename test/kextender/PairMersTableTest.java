@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * PairMersMap backed by a PairMersTable must hold exactly what the default
+ * skip-list backed map holds, before and after purging
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class PairMersTableTest {
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    /**
+     * Random sequence with copies of a repeat inserted so that the graph
+     * branches
+     */
+    static String randomSequence(long seed, int length, int repeats, int repeatLength) {
+        Random random = new Random(seed);
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = BASES[random.nextInt(4)];
+        }
+        char[] repeat = new char[repeatLength];
+        for (int i = 0; i < repeatLength; i++) {
+            repeat[i] = BASES[random.nextInt(4)];
+        }
+        for (int i = 0; i < repeats; i++) {
+            System.arraycopy(repeat, 0, bases, random.nextInt(length - repeatLength + 1), repeatLength);
+        }
+        return new String(bases);
+    }
+
+    static void populate(PairMersMap map, String sequence, int k) {
+        for (int i = 0; i + k <= sequence.length(); i++) {
+            map.addToPairMersMap(sequence, i, i + k - 1, true, false, 1);
+            map.addToPairMersMap(sequence, i, i + k - 1, false, false, 1);
+        }
+    }
+
+    /**
+     * @return PairMer strings mapped to their stored counts and flags, counts
+     * saturated as in PairMer, the table has room for more
+     */
+    static TreeMap<String, String> contents(PairMersMap map, int k) {
+        TreeMap<String, String> contents = new TreeMap<>();
+        for (Iterator<PairMer> it = map.iterator(); it.hasNext();) {
+            PairMer pairMer = it.next();
+            String previous = contents.put(pairMer.getPairMerString(k, "_"), Math.min(pairMer.getStoredCountLeft(), PairMer.MAX_STORED_COUNT)
+                    + "/" + Math.min(pairMer.getStoredCountRigth(), PairMer.MAX_STORED_COUNT) + " " + pairMer.isInvalid() + " " + pairMer.isNextToAmbiguous());
+            assertEquals("PairMer listed twice " + pairMer.getPairMerString(k, "_"), null, previous);
+        }
+        return contents;
+    }
+
+    private void assertSameAsSkipList(int k, String sequence) {
+        PairMersMap skipList = new PairMersMap(k);
+        PairMersMap table = new PairMersMap(k, new PairMersTable(k - 1, sequence.length(), "test"));
+        assertTrue(table.isTableBacked());
+        populate(skipList, sequence, k);
+        populate(table, sequence, k);
+        assertEquals(skipList.size(), table.size());
+        assertEquals(contents(skipList, k), contents(table, k));
+        for (Iterator<PairMer> it = skipList.iterator(); it.hasNext();) {
+            PairMer pairMer = it.next();
+            PairMer found = table.get(pairMer);
+            assertNotNull(pairMer.getPairMerString(k, "_"), found);
+            assertEquals(pairMer.getPairMerString(k, "_"), found.getPairMerString(k, "_"));
+        }
+
+        assertEquals(skipList.purge(1), table.purge(1));
+        assertEquals(contents(skipList, k), contents(table, k));
+        assertEquals(skipList.getTerminalPairMers().size(), table.getTerminalPairMers().size());
+        assertEquals(skipList.getAmbiguous().get(), table.getAmbiguous().get());
+    }
+
+    @Test
+    public void testOneLongCore() {
+        assertSameAsSkipList(31, randomSequence(1, 20000, 20, 62));
+    }
+
+    @Test
+    public void testTwoLongCore() {
+        assertSameAsSkipList(61, randomSequence(2, 20000, 20, 122));
+    }
+
+    @Test
+    public void testShortCore() {
+        //FEW DISTINCT CORES, MOST PAIRMERS AMBIGUOUS
+        assertSameAsSkipList(5, randomSequence(3, 5000, 0, 0));
+    }
+
+    @Test
+    public void testLookupOfAbsentCores() {
+        String sequence = randomSequence(4, 2000, 0, 0);
+        PairMersMap skipList = new PairMersMap(31);
+        PairMersMap table = new PairMersMap(31, new PairMersTable(30, sequence.length(), "test"));
+        populate(skipList, sequence, 31);
+        populate(table, sequence, 31);
+        PairMersMap queries = new PairMersMap(31);
+        populate(queries, sequence.substring(1000) + randomSequence(5, 2000, 0, 0), 31);
+        for (Iterator<PairMer> it = queries.iterator(); it.hasNext();) {
+            PairMer query = it.next();
+            assertEquals(skipList.get(query) == null, table.get(query) == null);
+        }
+    }
+}
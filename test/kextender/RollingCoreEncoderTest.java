@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Australian Centre For Plant Functional Genomics
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kextender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import shared.SequenceOps;
+
+/**
+ * Every window of the rolling encoder must match the window encoded from
+ * scratch, as done per k-mer before
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class RollingCoreEncoderTest {
+
+    /**
+     * Random ACGT sequence with an occasional N
+     */
+    private static String randomSequence(long seed, int length) {
+        final char[] BASES = {'A', 'C', 'G', 'T', 'a', 'c', 'g', 't'};
+        Random random = new Random(seed);
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = random.nextInt(200) == 0 ? 'N' : BASES[random.nextInt(random.nextInt(50) == 0 ? 8 : 4)];
+        }
+        return new String(bases);
+    }
+
+    private void assertWindowsMatch(int coreLength, String sequence) {
+        RollingCoreEncoder encoder = new RollingCoreEncoder(coreLength);
+        for (int i = 0; i < sequence.length(); i++) {
+            boolean full = encoder.add(sequence.charAt(i));
+            int from = i - coreLength + 1;
+            String window = from < 0 ? null : sequence.substring(from, i + 1);
+            boolean valid = window != null && window.toUpperCase().matches("[ACGT]+");
+            assertEquals("window ending at " + i, valid, full);
+            if (full) {
+                String upper = window.toUpperCase();
+                String canonical = SequenceOps.getCanonical(upper);
+                assertEquals(upper, canonical.equals(upper), encoder.isCanonical());
+                assertArrayEquals(upper, CoreCoder.encodeCoreLongArray(canonical), encoder.getCanonicalCore());
+                assertEquals(canonical, CoreCoder.decodeCore(coreLength, encoder.getCanonicalCore()));
+            }
+        }
+    }
+
+    @Test
+    public void testOneLong() {
+        for (int coreLength : new int[]{1, 2, 3, 16, 30, 31, 32}) {
+            assertWindowsMatch(coreLength, randomSequence(coreLength, 5000));
+        }
+    }
+
+    @Test
+    public void testTwoLongs() {
+        for (int coreLength : new int[]{33, 34, 48, 60, 63, 64}) {
+            assertWindowsMatch(coreLength, randomSequence(coreLength, 10000));
+        }
+    }
+
+    @Test
+    public void testPalindrome() {
+        RollingCoreEncoder encoder = new RollingCoreEncoder(4);
+        for (char base : "ACGT".toCharArray()) {
+            encoder.add(base);
+        }
+        assertEquals(true, encoder.isCanonical());
+        assertArrayEquals(CoreCoder.encodeCoreLongArray("ACGT"), encoder.getCanonicalCore());
+    }
+
+    @Test
+    public void testReset() {
+        RollingCoreEncoder encoder = new RollingCoreEncoder(3);
+        for (char base : "ACGTAC".toCharArray()) {
+            encoder.add(base);
+        }
+        encoder.reset();
+        assertEquals(false, encoder.add('G'));
+        assertEquals(false, encoder.add('G'));
+        assertEquals(true, encoder.add('A'));
+        assertArrayEquals(CoreCoder.encodeCoreLongArray(SequenceOps.getCanonical("GGA")), encoder.getCanonicalCore());
+    }
+
+    @Test
+    public void testPopulatorMatchesPerKmer() throws InterruptedException {
+        ArrayList<Integer> kList = new ArrayList<>(Arrays.asList(21, 31, 61));
+        //OVERLAPPING READS FROM A GENOME WITH REPEATS
+        String genome = PairMersTableTest.randomSequence(7, 3000, 10, 80);
+        Random random = new Random(7);
+        ArrayList<String> reads = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(genome.length() - 150);
+            reads.add(genome.substring(from, from + 150));
+        }
+        BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(2);
+        queue.put(reads);
+        queue.put(new ArrayList<String>());
+        PairMerMaps rolling = new PairMerMaps(kList, "test");
+        new PairMerMapPopulatorConsumer(queue, rolling, true, kList, 1, false).run();
+        for (int k : kList) {
+            PairMersMap perKmer = new PairMersMap(k);
+            for (String read : reads) {
+                PairMersTableTest.populate(perKmer, read, k);
+            }
+            assertEquals(PairMersTableTest.contents(perKmer, k), PairMersTableTest.contents(rolling.getPairMersMap(k), k));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import kextender.CoreCoder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import shared.SequenceOps;
+
+/**
+ * EncodedKmerSet must answer as a set of canonical k-mer strings does
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class EncodedKmerSetTest {
+
+    /**
+     * Random canonical k-mers, duplicates included, plus the all-A and all-T
+     * k-mers (encoded as 0 and -1 words)
+     */
+    static ArrayList<String> randomKmers(long seed, int k, int n) {
+        final char[] BASES = {'A', 'C', 'G', 'T'};
+        Random random = new Random(seed);
+        ArrayList<String> kmers = new ArrayList<>(n + 2);
+        StringBuilder sb = new StringBuilder(k);
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && random.nextInt(10) == 0) {
+                kmers.add(kmers.get(random.nextInt(kmers.size())));
+                continue;
+            }
+            sb.setLength(0);
+            for (int j = 0; j < k; j++) {
+                sb.append(BASES[random.nextInt(4)]);
+            }
+            kmers.add(SequenceOps.getCanonical(sb.toString()));
+        }
+        sb.setLength(0);
+        for (int j = 0; j < k; j++) {
+            sb.append('A');
+        }
+        kmers.add(sb.toString());
+        kmers.add(SequenceOps.getCanonical(sb.toString().replace('A', 'T')));
+        return kmers;
+    }
+
+    static long[] encode(String kmer) {
+        return CoreCoder.encodeCoreLongArray(kmer);
+    }
+
+    private void assertSameAsHashSet(int k) {
+        ArrayList<String> kmers = randomKmers(k, k, 50000);
+        HashSet<String> expected = new HashSet<>();
+        EncodedKmerSet set = new EncodedKmerSet(k);
+        for (String kmer : kmers) {
+            assertEquals(kmer, expected.add(kmer), set.add(encode(kmer)));
+        }
+        assertEquals(expected.size(), set.size());
+        for (String kmer : randomKmers(k + 1000, k, 10000)) {
+            assertEquals(kmer, expected.contains(kmer), set.contains(encode(kmer)));
+        }
+        HashSet<String> iterated = new HashSet<>();
+        for (Iterator<long[]> it = set.iterator(); it.hasNext();) {
+            assertTrue(iterated.add(CoreCoder.decodeCore(k, it.next())));
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testOneLong() {
+        for (int k : new int[]{1, 5, 21, 31, 32}) {
+            assertSameAsHashSet(k);
+        }
+    }
+
+    @Test
+    public void testTwoLongs() {
+        for (int k : new int[]{33, 61, 64}) {
+            assertSameAsHashSet(k);
+        }
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final int k = 31;
+        final ArrayList<String> kmers = randomKmers(1, k, 200000);
+        final EncodedKmerSet set = new EncodedKmerSet(k);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = offset; i < kmers.size(); i += threads) {
+                    set.add(encode(kmers.get(i)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(new HashSet<>(kmers).size(), set.size());
+        for (String kmer : kmers) {
+            assertTrue(kmer, set.contains(encode(kmer)));
+        }
+    }
+
+    @Test
+    public void testReferenceMasks() {
+        int k = 33;
+        ArrayList<String> kmers = randomKmers(2, k, 20000);
+        Random random = new Random(2);
+        HashMap<String, Long> expected = new HashMap<>();
+        EncodedKmerSet set = new EncodedKmerSet(k, true);
+        for (String kmer : kmers) {
+            long mask = 1L << random.nextInt(64);
+            expected.merge(kmer, mask, (a, b) -> a | b);
+            set.add(encode(kmer), mask);
+        }
+        assertEquals(expected.size(), set.size());
+        for (String kmer : randomKmers(3, k, 5000)) {
+            assertEquals(kmer, expected.getOrDefault(kmer, 0L).longValue(), set.getMask(encode(kmer)));
+            assertEquals(kmer, expected.containsKey(kmer), set.contains(encode(kmer)));
+        }
+        for (String kmer : kmers) {
+            assertEquals(kmer, expected.get(kmer).longValue(), set.getMask(encode(kmer)));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kmermatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Iterator;
+import kextender.CoreCoder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * MappedKmerIndex must hold the k-mers of the EncodedKmerSet it was written
+ * from, and answer as a set of canonical k-mer strings does
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class MappedKmerIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeIndex(int k, Iterable<String> kmers) throws IOException {
+        EncodedKmerSet set = new EncodedKmerSet(k);
+        for (String kmer : kmers) {
+            set.add(EncodedKmerSetTest.encode(kmer));
+        }
+        File file = new File(folder.getRoot(), "k" + k + ".idx");
+        MappedKmerIndex.write(set, k, file.getPath());
+        return file;
+    }
+
+    private void assertSameAsHashSet(int k) throws IOException {
+        HashSet<String> expected = new HashSet<>(EncodedKmerSetTest.randomKmers(k, k, 50000));
+        File file = writeIndex(k, expected);
+        assertTrue(MappedKmerIndex.isIndex(file.getPath()));
+        MappedKmerIndex index = new MappedKmerIndex(file.getPath());
+        assertEquals(k, index.getK());
+        assertEquals(new EncodedKmerSet(k).getWords(), index.getWords());
+        assertEquals(expected.size(), index.size());
+        for (String kmer : EncodedKmerSetTest.randomKmers(k + 1000, k, 10000)) {
+            assertEquals(kmer, expected.contains(kmer), index.contains(EncodedKmerSetTest.encode(kmer)));
+        }
+        HashSet<String> iterated = new HashSet<>();
+        for (Iterator<long[]> it = index.iterator(); it.hasNext();) {
+            assertTrue(iterated.add(CoreCoder.decodeCore(k, it.next())));
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testOneLong() throws IOException {
+        for (int k : new int[]{1, 5, 21, 31, 32}) {
+            assertSameAsHashSet(k);
+        }
+    }
+
+    @Test
+    public void testTwoLongs() throws IOException {
+        for (int k : new int[]{33, 61, 64}) {
+            assertSameAsHashSet(k);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File file = writeIndex(31, new HashSet<String>());
+        MappedKmerIndex index = new MappedKmerIndex(file.getPath());
+        assertEquals(0, index.size());
+        assertFalse(index.iterator().hasNext());
+        assertFalse(index.contains(EncodedKmerSetTest.encode(EncodedKmerSetTest.randomKmers(1, 31, 1).get(0))));
+    }
+
+    @Test
+    public void testNotAnIndex() throws IOException {
+        File fasta = folder.newFile();
+        Files.write(fasta.toPath(), ">ref\nACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT\n".getBytes(StandardCharsets.US_ASCII));
+        assertFalse(MappedKmerIndex.isIndex(fasta.getPath()));
+        assertFalse(MappedKmerIndex.isIndex(new File(folder.getRoot(), "missing").getPath()));
+
+        File file = writeIndex(21, EncodedKmerSetTest.randomKmers(2, 21, 1000));
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 8);
+        }
+        try {
+            new MappedKmerIndex(file.getPath());
+            fail("truncated index mapped");
+        } catch (IOException ex) {
+            //EXPECTED
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * BGZF written by BgzfOutputStream must inflate back to the bytes written,
+ * with GZIPInputStream as well as ParallelGzipInputStream
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class BgzfOutputStreamTest {
+
+    private static ExecutorService compressors;
+
+    @BeforeClass
+    public static void setUpClass() {
+        compressors = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        compressors.shutdown();
+    }
+
+    /**
+     * Write in pieces of varying size, some single bytes, with an occasional
+     * flush
+     */
+    private static byte[] compress(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Random random = new Random(level);
+        try (BgzfOutputStream out = new BgzfOutputStream(bytes, compressors, level)) {
+            int position = 0;
+            while (position < data.length) {
+                int n = Math.min(data.length - position, random.nextInt(10) == 0 ? 1 : random.nextInt(200000));
+                if (n == 1) {
+                    out.write(data[position]);
+                } else {
+                    out.write(data, position, n);
+                }
+                position += n;
+                if (random.nextInt(20) == 0) {
+                    out.flush();
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Walk the blocks by their BSIZE
+     *
+     * @return number of blocks, the last one being the empty EOF block
+     */
+    private static int countBlocks(byte[] compressed) {
+        int blocks = 0;
+        int position = 0;
+        int lastInputSize = -1;
+        while (position < compressed.length) {
+            assertEquals(0x1f, compressed[position] & 0xff);
+            assertEquals('B', compressed[position + 12]);
+            assertEquals('C', compressed[position + 13]);
+            int blockSize = (compressed[position + 16] & 0xff | (compressed[position + 17] & 0xff) << 8) + 1;
+            assertTrue(blockSize <= 1 << 16);
+            position += blockSize;
+            lastInputSize = compressed[position - 4] & 0xff | (compressed[position - 3] & 0xff) << 8;
+            blocks++;
+        }
+        assertEquals(compressed.length, position);
+        assertEquals(0, lastInputSize);
+        return blocks;
+    }
+
+    private static void assertRoundTrip(byte[] data, int level) throws IOException {
+        byte[] compressed = compress(data, level);
+        assertTrue(countBlocks(compressed) > data.length / 0xff00);
+        assertArrayEquals(data, ParallelGzipInputStreamTest.readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        ParallelGzipInputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), 4);
+        assertTrue(in.isBgzf());
+        assertArrayEquals(data, ParallelGzipInputStreamTest.readAll(in));
+    }
+
+    @Test
+    public void testLevels() throws IOException {
+        byte[] data = ParallelGzipInputStreamTest.randomData(1, 2 << 20);
+        for (int level : new int[]{0, 1, 6, 9}) {
+            assertRoundTrip(data, level);
+        }
+    }
+
+    @Test
+    public void testIncompressible() throws IOException {
+        byte[] data = new byte[1 << 20];
+        new Random(2).nextBytes(data);
+        assertRoundTrip(data, 6);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        byte[] compressed = compress(new byte[0], 6);
+        assertEquals(1, countBlocks(compressed));
+        assertArrayEquals(new byte[0], ParallelGzipInputStreamTest.readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testStreamsSharingCompressors() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final byte[] data = ParallelGzipInputStreamTest.randomData(10 + i, 1 << 20);
+            futures.add(writers.submit(() -> {
+                assertRoundTrip(data, 6);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        writers.shutdown();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * BlockedBloomFilter must never reject a key added, and accept few keys not
+ * added
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class BlockedBloomFilterTest {
+
+    /**
+     * Distinct encoded k-mers (2 longs, as for k = 61)
+     */
+    private static ArrayList<long[]> randomCores(long seed, int n) {
+        Random random = new Random(seed);
+        HashSet<String> seen = new HashSet<>();
+        ArrayList<long[]> cores = new ArrayList<>(n);
+        while (cores.size() < n) {
+            long[] core = {random.nextLong() & ((1L << 58) - 1), random.nextLong()};
+            if (seen.add(core[0] + " " + core[1])) {
+                cores.add(core);
+            }
+        }
+        return cores;
+    }
+
+    /**
+     * @return fraction of the absent keys accepted
+     */
+    private static double assertNoFalseNegatives(BlockedBloomFilter filter, ArrayList<long[]> added, ArrayList<long[]> absent) {
+        for (long[] core : added) {
+            assertTrue(filter.mightContain(BlockedBloomFilter.hash(core)));
+        }
+        int accepted = 0;
+        for (long[] core : absent) {
+            if (filter.mightContain(BlockedBloomFilter.hash(core))) {
+                accepted++;
+            }
+        }
+        return (double) accepted / absent.size();
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        ArrayList<long[]> cores = randomCores(1, 400000);
+        ArrayList<long[]> added = new ArrayList<>(cores.subList(0, 200000));
+        ArrayList<long[]> absent = new ArrayList<>(cores.subList(200000, cores.size()));
+        BlockedBloomFilter filter = new BlockedBloomFilter(added.size() * 2L); //16 BITS PER KEY
+        for (long[] core : added) {
+            filter.add(BlockedBloomFilter.hash(core));
+        }
+        double rate = assertNoFalseNegatives(filter, added, absent);
+        assertTrue("false positive rate " + rate, rate < 0.01);
+    }
+
+    @Test
+    public void testOverfilled() {
+        ArrayList<long[]> cores = randomCores(2, 20000);
+        BlockedBloomFilter filter = new BlockedBloomFilter(64); //A SINGLE BLOCK
+        assertEquals(64, filter.getSizeBytes());
+        for (long[] core : cores) {
+            filter.add(BlockedBloomFilter.hash(core));
+        }
+        assertNoFalseNegatives(filter, cores, cores);
+    }
+
+    @Test
+    public void testByteKeys() {
+        Random random = new Random(3);
+        ArrayList<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            byte[] key = new byte[1 + random.nextInt(20)];
+            random.nextBytes(key);
+            keys.add(key);
+        }
+        BlockedBloomFilter filter = new BlockedBloomFilter(1 << 20);
+        for (byte[] key : keys) {
+            filter.add(BlockedBloomFilter.hash(key));
+        }
+        for (byte[] key : keys) {
+            assertTrue(filter.mightContain(BlockedBloomFilter.hash(key)));
+        }
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final ArrayList<long[]> cores = randomCores(4, 400000);
+        final BlockedBloomFilter filter = new BlockedBloomFilter(1 << 20);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            futures.add(executor.submit(() -> {
+                for (int i = offset; i < cores.size(); i += threads) {
+                    filter.add(BlockedBloomFilter.hash(cores.get(i)));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertNoFalseNegatives(filter, cores, new ArrayList<long[]>());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records parsed from bytes must hold the same text as the lines read by
+ * InputReaderProducer (for the one record per line input it reads for kmatch)
+ * or, for multi-line FASTQ and FASTA, the records written
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class ByteRecordReaderProducerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T', 'N'};
+
+    private static String randomString(Random random, char[] alphabet, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * FASTQ lines, over 1 MB in total so that records straddle read chunks
+     */
+    private static ArrayList<String> fastqLines(long seed, int records) {
+        Random random = new Random(seed);
+        char[] qualities = "!#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJ".toCharArray();
+        ArrayList<String> lines = new ArrayList<>(records * 4);
+        for (int i = 0; i < records; i++) {
+            int length = 50 + random.nextInt(250);
+            lines.add("@read" + i + " 1:N:0:" + randomString(random, BASES, 8));
+            lines.add(randomString(random, BASES, length));
+            lines.add("+");
+            lines.add(randomString(random, qualities, length));
+        }
+        return lines;
+    }
+
+    /**
+     * @param crlfFrom lines from this one on end with CRLF
+     */
+    private File write(List<String> lines, int crlfFrom) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < lines.size(); i++) {
+                out.write(lines.get(i).getBytes(StandardCharsets.US_ASCII));
+                out.write(i < crlfFrom ? "\n".getBytes(StandardCharsets.US_ASCII) : "\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @return text of each record, lines of a record separated by '\n'
+     */
+    static ArrayList<String> readByteRecords(File file, int recordsPerBatch) throws InterruptedException {
+        LinkedBlockingQueue<RecordBatch> queue = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<RecordBatch> pool = new LinkedBlockingQueue<>();
+        new ByteRecordReaderProducer(queue, pool, Integer.MAX_VALUE, new ArrayList<>(Arrays.asList(file.getPath())), recordsPerBatch, "test").run();
+        ArrayList<String> records = new ArrayList<>();
+        long expectedSequenceNumber = 0;
+        RecordBatch batch;
+        while (!(batch = queue.take()).isEmpty()) {
+            assertEquals(expectedSequenceNumber++, batch.getSequenceNumber());
+            for (int i = 0; i < batch.size(); i++) {
+                records.add(new String(batch.getData(), batch.getRecordStart(i), batch.getRecordEnd(i) - batch.getRecordStart(i), StandardCharsets.US_ASCII));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return lines as put on the queue by InputReaderProducer
+     */
+    static ArrayList<String> readLines(File file) throws InterruptedException {
+        LinkedBlockingQueue<List<String>> queue = new LinkedBlockingQueue<>();
+        new InputReaderProducer(queue, new ArrayList<>(Arrays.asList(file.getPath())), "test", "records", 100).run();
+        ArrayList<String> lines = new ArrayList<>();
+        List<String> list;
+        while (!(list = queue.take()).isEmpty()) {
+            lines.addAll(list);
+        }
+        return lines;
+    }
+
+    private static ArrayList<String> splitLines(List<String> records) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (String record : records) {
+            lines.addAll(Arrays.asList(record.split("\n", -1)));
+        }
+        return lines;
+    }
+
+    @Test
+    public void testFastq() throws Exception {
+        ArrayList<String> lines = fastqLines(1, 5000);
+        File file = write(lines, Integer.MAX_VALUE);
+        ArrayList<String> records = readByteRecords(file, 100);
+        assertEquals(5000, records.size());
+        assertEquals(lines, splitLines(records));
+    }
+
+    @Test
+    public void testFastqWithCrlfPastFirstChunk() throws Exception {
+        ArrayList<String> lines = fastqLines(2, 5000);
+        File file = write(lines, 4000); //WELL PAST THE CHECKED START OF INPUT AND THE FIRST READ CHUNK
+        ArrayList<String> records = readByteRecords(file, 64);
+        assertEquals(lines, splitLines(records));
+    }
+
+    @Test
+    public void testOneRecordPerLine() throws Exception {
+        ArrayList<String> fastq = fastqLines(3, 3000);
+        ArrayList<String> lines = new ArrayList<>();
+        for (int i = 0; i < fastq.size(); i += 4) {
+            lines.add(fastq.get(i) + "\t" + fastq.get(i + 1) + "\t" + fastq.get(i + 2) + "\t" + fastq.get(i + 3));
+        }
+        File file = write(lines, 2000); //CRLF PAST THE FIRST READ CHUNK
+        ArrayList<String> records = readByteRecords(file, 100);
+        assertEquals(lines, records);
+        assertEquals(readLines(file), records);
+    }
+
+    @Test
+    public void testWrappedFasta() throws Exception {
+        Random random = new Random(4);
+        ArrayList<String> lines = new ArrayList<>();
+        ArrayList<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String header = ">contig" + i + " len";
+            String sequence = randomString(random, BASES, 1 + random.nextInt(1000));
+            lines.add(header);
+            for (int from = 0; from < sequence.length(); from += 60) {
+                lines.add(sequence.substring(from, Math.min(from + 60, sequence.length())));
+            }
+            expected.add(header + "\n" + sequence);
+        }
+        assertEquals(expected, readByteRecords(write(lines, 5000), 100));
+    }
+}
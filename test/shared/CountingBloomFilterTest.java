@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Sightings reported by CountingBloomFilter must never be below the (saturated)
+ * counts of a HashMap, and only rarely above them
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class CountingBloomFilterTest {
+
+    /**
+     * Keys repeated up to 5 times, in random order
+     */
+    private static long[] randomKeys(long seed, int distinct) {
+        Random random = new Random(seed);
+        ArrayList<Long> keys = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            long key = CountingBloomFilter.mix(random.nextLong());
+            int repeats = 1 + random.nextInt(5);
+            for (int j = 0; j < repeats; j++) {
+                keys.add(key);
+            }
+        }
+        Collections.shuffle(keys, random);
+        long[] array = new long[keys.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = keys.get(i);
+        }
+        return array;
+    }
+
+    private void assertCounts(long bytes, double maxOverestimated) {
+        long[] keys = randomKeys(bytes, 200000);
+        HashMap<Long, Integer> counts = new HashMap<>();
+        CountingBloomFilter filter = new CountingBloomFilter(bytes);
+        int overestimated = 0;
+        int firstSightings = 0;
+        for (long key : keys) {
+            int expected = Math.min(3, counts.merge(key, 1, Integer::sum) - 1);
+            int seen = filter.add(key);
+            assertTrue(seen >= expected);
+            if (seen > expected) {
+                overestimated++;
+            }
+            if (seen == 0) {
+                firstSightings++;
+            }
+        }
+        assertEquals(firstSightings, filter.getFirstSightings());
+        assertTrue(overestimated + " of " + keys.length, overestimated <= maxOverestimated * keys.length);
+    }
+
+    @Test
+    public void testLarge() {
+        assertCounts(16 << 20, 0.001);
+    }
+
+    @Test
+    public void testSmall() {
+        //ABOUT 2 COUNTERS PER KEY: MANY FALSE POSITIVES, STILL NO UNDERESTIMATES
+        assertCounts(100000, 1.0);
+    }
+
+    @Test
+    public void testConcurrentSightingsDistinct() throws Exception {
+        final int threads = 3;
+        final long[] keys = new long[100000];
+        Random random = new Random(1);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = CountingBloomFilter.mix(random.nextLong());
+        }
+        final CountingBloomFilter filter = new CountingBloomFilter(16 << 20);
+        final AtomicIntegerArray results = new AtomicIntegerArray(keys.length);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < keys.length; i++) {
+                    int seen = filter.add(keys[i]);
+                    results.getAndAccumulate(i, 1 << seen, (a, b) -> a | b);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        int exact = 0;
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(3, Integer.bitCount(results.get(i))); //ONE OF EACH, NEVER THE SAME SIGHTING TWICE
+            if (results.get(i) == 0b111) {
+                exact++;
+            }
+        }
+        assertTrue(exact >= keys.length * 0.999);
+        assertEquals(exact, filter.getFirstSightings(), keys.length * 0.001);
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020 rad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * ParallelGzipInputStream must inflate to the same bytes as GZIPInputStream
+ *
+ * @author Radoslaw Suchecki radoslaw.suchecki@adelaide.edu.au
+ */
+public class ParallelGzipInputStreamTest {
+
+    /**
+     * FASTQ-like, i.e. compressible, data
+     */
+    static byte[] randomData(long seed, int length) {
+        final byte[] BASES = {'A', 'C', 'G', 'T', '\n'};
+        Random random = new Random(seed);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = BASES[random.nextInt(BASES.length)];
+        }
+        return data;
+    }
+
+    static byte[] gzip(byte[] data, int from, int to) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data, from, to - from);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * BGZF blocks of up to blockSize input bytes each, followed by the empty
+     * EOF block
+     */
+    static byte[] bgzf(byte[] data, int blockSize) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        for (int from = 0; from < data.length; from += blockSize) {
+            writeBlock(bytes, deflater, data, from, Math.min(from + blockSize, data.length));
+        }
+        writeBlock(bytes, deflater, data, 0, 0);
+        deflater.end();
+        return bytes.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, Deflater deflater, byte[] data, int from, int to) {
+        byte[] deflated = new byte[2 * (to - from) + 1024];
+        deflater.reset();
+        deflater.setInput(data, from, to - from);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(deflated, length, deflated.length - length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, from, to - from);
+        int blockSize = 18 + length + 8;
+        out.write(new byte[]{0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0,
+            (byte) (blockSize - 1), (byte) ((blockSize - 1) >>> 8)}, 0, 18);
+        out.write(deflated, 0, length);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, to - from);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            bytes.write(array, 0, array.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read in pieces of varying size, some single bytes
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[100000];
+        Random random = new Random(0);
+        try {
+            while (true) {
+                if (random.nextInt(10) == 0) {
+                    int b = in.read();
+                    if (b == -1) {
+                        break;
+                    }
+                    bytes.write(b);
+                } else {
+                    int read = in.read(buffer, 0, 1 + random.nextInt(buffer.length));
+                    if (read == -1) {
+                        break;
+                    }
+                    bytes.write(buffer, 0, read);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void assertInflatesAsGzip(byte[] compressed, byte[] expected, boolean bgzf) throws IOException {
+        assertArrayEquals(expected, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        for (int threads : new int[]{1, 4}) {
+            ParallelGzipInputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(compressed), threads);
+            assertEquals(bgzf, in.isBgzf());
+            assertArrayEquals(expected, readAll(in));
+        }
+    }
+
+    @Test
+    public void testSingleMember() throws IOException {
+        byte[] data = randomData(1, 3 << 20); //SEVERAL READ-AHEAD CHUNKS
+        assertInflatesAsGzip(gzip(data, 0, data.length), data, false);
+    }
+
+    @Test
+    public void testMultiMember() throws IOException {
+        byte[] data = randomData(2, 3 << 20);
+        byte[] compressed = concat(gzip(data, 0, 1000), gzip(data, 1000, 1 << 20), gzip(data, 1 << 20, data.length));
+        assertInflatesAsGzip(compressed, data, false);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertInflatesAsGzip(gzip(new byte[0], 0, 0), new byte[0], false);
+        assertInflatesAsGzip(bgzf(new byte[0], 1000), new byte[0], true);
+    }
+
+    @Test
+    public void testBgzf() throws IOException {
+        byte[] data = randomData(3, 5 << 20); //BLOCKS SPREAD OVER SEVERAL TASKS
+        assertInflatesAsGzip(bgzf(data, 65280), data, true);
+        data = Arrays.copyOf(data, 12345);
+        assertInflatesAsGzip(bgzf(data, 100), data, true);
+    }
+
+    @Test
+    public void testBgzfFollowedByGzip() throws IOException {
+        byte[] data = randomData(4, 3 << 20);
+        byte[] bgzf = bgzf(Arrays.copyOf(data, 1 << 20), 65280);
+        byte[] compressed = concat(Arrays.copyOf(bgzf, bgzf.length - 28), gzip(data, 1 << 20, data.length)); //WITHOUT THE EOF BLOCK
+        assertInflatesAsGzip(compressed, data, true);
+    }
+
+    @Test
+    public void testCorruptBgzf() throws IOException {
+        byte[] data = randomData(5, 1 << 20);
+        byte[] compressed = bgzf(data, 65280);
+        compressed[compressed.length / 2] ^= 0x55;
+        try {
+            readAll(new ParallelGzipInputStream(new ByteArrayInputStream(compressed), 2));
+            fail("corrupt input read without an exception");
+        } catch (IOException ex) {
+            //EXPECTED
+        }
+    }
+}